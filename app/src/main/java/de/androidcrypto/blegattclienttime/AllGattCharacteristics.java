@@ -8,9 +8,10 @@ import java.util.UUID;
  */
 
 public class AllGattCharacteristics {
-    private static HashMap<String, String> attributes = new HashMap();
+    private static final ShortUuidNameTable NAMES;
 
     static {
+        HashMap<String, String> attributes = new HashMap<>();
         attributes.put("00002a00-0000-1000-8000-00805f9b34fb", "Device Name");
         attributes.put("00002a01-0000-1000-8000-00805f9b34fb", "Appearance");
         attributes.put("00002a02-0000-1000-8000-00805f9b34fb", "Peripheral Privacy Flag");
@@ -231,6 +232,7 @@ public class AllGattCharacteristics {
 
         /* here are some attributes used only in this specific project */
         attributes.put("0000fffe-0000-1000-8000-00805f9b34fb", "Battery Level Warning");
+        NAMES = new ShortUuidNameTable(attributes);
     }
 
     public static String lookup(String uuid) {
@@ -238,12 +240,15 @@ public class AllGattCharacteristics {
     }
 
     public static String lookup(UUID uuid) {
-        return lookup(uuid.toString(), "--");
+        return lookup(uuid, "--");
+    }
+
+    public static String lookup(UUID uuid, String defaultName) {
+        return NAMES.get(uuid, defaultName);
     }
 
     public static String lookup(String uuid, String defaultName) {
-        String name = attributes.get(uuid);
-        return name == null ? defaultName : name;
+        return NAMES.get(uuid, defaultName);
     }
 
 }
\ No newline at end of file
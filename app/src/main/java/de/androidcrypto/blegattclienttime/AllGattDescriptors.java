@@ -8,9 +8,10 @@ import java.util.UUID;
  */
 
 public class AllGattDescriptors {
-    private static HashMap<String, String> attributes = new HashMap();
+    private static final ShortUuidNameTable NAMES;
 
     static {
+        HashMap<String, String> attributes = new HashMap<>();
         attributes.put("00002900-0000-1000-8000-00805f9b34fb", "Characteristic Extended Properties");
         attributes.put("00002901-0000-1000-8000-00805f9b34fb", "Characteristic User Description");
         attributes.put("00002902-0000-1000-8000-00805f9b34fb", "Client Characteristic Configuration");
@@ -26,15 +27,19 @@ public class AllGattDescriptors {
         attributes.put("0000290c-0000-1000-8000-00805f9b34fb", "Environmental Sensing Measurement");
         attributes.put("0000290d-0000-1000-8000-00805f9b34fb", "Environmental Sensing Trigger Setting");
         attributes.put("0000290e-0000-1000-8000-00805f9b34fb", "Time Trigger Setting");
+        NAMES = new ShortUuidNameTable(attributes);
     }
 
     public static String lookup(UUID uuid) {
-        return lookup(uuid.toString(), "--");
+        return lookup(uuid, "--");
+    }
+
+    public static String lookup(UUID uuid, String defaultName) {
+        return NAMES.get(uuid, defaultName);
     }
 
     public static String lookup(String uuid, String defaultName) {
-        String name = attributes.get(uuid);
-        return name == null ? defaultName : name;
+        return NAMES.get(uuid, defaultName);
     }
 
 }
\ No newline at end of file
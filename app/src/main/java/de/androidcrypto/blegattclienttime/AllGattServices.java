@@ -8,11 +8,12 @@ import java.util.UUID;
  */
 
 public class AllGattServices {
-    private static HashMap<String, String> attributes = new HashMap();
+    private static final ShortUuidNameTable NAMES;
 
     public static String HEART_RATE_MEASUREMENT = "00002a37-0000-1000-8000-00805f9b34fb";
 
     static {
+        HashMap<String, String> attributes = new HashMap<>();
         attributes.put("00001800-0000-1000-8000-00805f9b34fb", "Generic Access");
         attributes.put("00001801-0000-1000-8000-00805f9b34fb", "Generic Attribute");
         attributes.put("00001802-0000-1000-8000-00805f9b34fb", "Immediate Alert");
@@ -65,15 +66,19 @@ public class AllGattServices {
         attributes.put("00002a04-0000-1000-8000-00805f9b34fb", "Manufacturer Name String");
         attributes.put("00002a05-0000-1000-8000-00805f9b34fb", "Service Changed");
         attributes.put("00002A06-0000-1000-8000-00805f9b34fb", "Alert level");
+        NAMES = new ShortUuidNameTable(attributes);
     }
 
     public static String lookup(UUID uuid) {
-        return lookup(uuid.toString(), "--");
+        return lookup(uuid, "--");
+    }
+
+    public static String lookup(UUID uuid, String defaultName) {
+        return NAMES.get(uuid, defaultName);
     }
 
     public static String lookup(String uuid, String defaultName) {
-        String name = attributes.get(uuid);
-        return name == null ? defaultName : name;
+        return NAMES.get(uuid, defaultName);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,286 @@
+package de.androidcrypto.blegattclienttime;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link GattTransport} on top of BluetoothGatt.
+ *
+ * Characteristics are found by their service and characteristic UUID, if a device has the
+ * same characteristic twice in one service the first one is used.
+ */
+@SuppressLint("MissingPermission")
+class AndroidGattTransport implements GattTransport {
+
+    private final Context mContext;
+    private final BluetoothDevice mDevice;
+    private final Callback mCallback;
+    private volatile BluetoothGatt mGatt;
+    private volatile List<GattServiceInfo> mServices = Collections.emptyList();
+
+    AndroidGattTransport(Context context, BluetoothDevice device, Callback callback) {
+        mContext = context;
+        mDevice = device;
+        mCallback = callback;
+    }
+
+    @Override
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    /**
+     * @return the services of the last discovery as Android objects, empty before
+     */
+    List<BluetoothGattService> getBluetoothGattServices() {
+        final BluetoothGatt gatt = mGatt;
+        return gatt == null ? Collections.<BluetoothGattService>emptyList() : gatt.getServices();
+    }
+
+    @Override
+    public boolean connect() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            return gatt.connect();
+        }
+        // We want to directly connect to the device, so we are setting the autoConnect
+        // parameter to false.
+        final BluetoothGatt created = mDevice.connectGatt(mContext, false, mGattCallback);
+        if (created == null) {
+            return false;
+        }
+        mGatt = created;
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            gatt.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            gatt.close();
+        }
+    }
+
+    @Override
+    public boolean discoverServices() {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.discoverServices();
+    }
+
+    @Override
+    public List<GattServiceInfo> getServices() {
+        return mServices;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        final BluetoothGattCharacteristic found = findCharacteristic(service, characteristic);
+        return found != null && mGatt.readCharacteristic(found);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value,
+                                       int writeType) {
+        final BluetoothGattCharacteristic found = findCharacteristic(service, characteristic);
+        if (found == null) {
+            return false;
+        }
+        // the value is set when the write starts, the characteristic object is shared
+        found.setWriteType(writeType);
+        found.setValue(value);
+        return mGatt.writeCharacteristic(found);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic,
+                                                 boolean enabled) {
+        final BluetoothGattCharacteristic found = findCharacteristic(service, characteristic);
+        return found != null && mGatt.setCharacteristicNotification(found, enabled);
+    }
+
+    @Override
+    public boolean readDescriptor(UUID service, UUID characteristic, UUID descriptor) {
+        final BluetoothGattDescriptor found = findDescriptor(service, characteristic, descriptor);
+        return found != null && mGatt.readDescriptor(found);
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor,
+                                   byte[] value) {
+        final BluetoothGattDescriptor found = findDescriptor(service, characteristic, descriptor);
+        if (found == null) {
+            return false;
+        }
+        found.setValue(value);
+        return mGatt.writeDescriptor(found);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.requestConnectionPriority(priority);
+    }
+
+    @Override
+    public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        // BluetoothDevice.PHY_OPTION_NO_PREFERRED, only matters for the coded PHY
+        gatt.setPreferredPhy(txPhyMask, rxPhyMask, 0);
+        return true;
+    }
+
+    private BluetoothGattCharacteristic findCharacteristic(UUID service, UUID characteristic) {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return null;
+        }
+        if (service != null) {
+            final BluetoothGattService found = gatt.getService(service);
+            return found == null ? null : found.getCharacteristic(characteristic);
+        }
+        for (BluetoothGattService candidate : gatt.getServices()) {
+            final BluetoothGattCharacteristic found = candidate.getCharacteristic(characteristic);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private BluetoothGattDescriptor findDescriptor(UUID service, UUID characteristic,
+                                                   UUID descriptor) {
+        final BluetoothGattCharacteristic found = findCharacteristic(service, characteristic);
+        return found == null ? null : found.getDescriptor(descriptor);
+    }
+
+    private static List<GattServiceInfo> toServiceInfos(List<BluetoothGattService> services) {
+        final List<GattServiceInfo> infos = new ArrayList<>(services.size());
+        for (BluetoothGattService service : services) {
+            final List<GattCharacteristicInfo> characteristics =
+                    new ArrayList<>(service.getCharacteristics().size());
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                final List<UUID> descriptors = new ArrayList<>();
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    descriptors.add(descriptor.getUuid());
+                }
+                characteristics.add(new GattCharacteristicInfo(characteristic.getUuid(),
+                        characteristic.getProperties(), descriptors));
+            }
+            infos.add(new GattServiceInfo(service.getUuid(), characteristics));
+        }
+        return infos;
+    }
+
+    private static UUID serviceOf(BluetoothGattCharacteristic characteristic) {
+        final BluetoothGattService service = characteristic.getService();
+        return service == null ? null : service.getUuid();
+    }
+
+    private static byte[] copyOf(byte[] value) {
+        return value == null ? new byte[0] : value.clone();
+    }
+
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            // the callback can overtake the return of connectGatt
+            if (mGatt == null) {
+                mGatt = gatt;
+            }
+            mCallback.onConnectionStateChange(status, newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mServices = toServiceInfos(gatt.getServices());
+            }
+            mCallback.onServicesDiscovered(status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicRead(serviceOf(characteristic), characteristic.getUuid(),
+                    status == BluetoothGatt.GATT_SUCCESS ? copyOf(characteristic.getValue()) : null,
+                    status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicWrite(serviceOf(characteristic), characteristic.getUuid(),
+                    status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                                            BluetoothGattCharacteristic characteristic) {
+            // the stack reuses the value array for the next notification, copy it once
+            mCallback.onCharacteristicChanged(serviceOf(characteristic), characteristic.getUuid(),
+                    copyOf(characteristic.getValue()));
+        }
+
+        @Override
+        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                     int status) {
+            final BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+            mCallback.onDescriptorRead(serviceOf(characteristic), characteristic.getUuid(),
+                    descriptor.getUuid(),
+                    status == BluetoothGatt.GATT_SUCCESS ? copyOf(descriptor.getValue()) : null,
+                    status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            final BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+            mCallback.onDescriptorWrite(serviceOf(characteristic), characteristic.getUuid(),
+                    descriptor.getUuid(), status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mCallback.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            mCallback.onPhyUpdate(txPhy, rxPhy, status);
+        }
+
+        @Override
+        public void onServiceChanged(BluetoothGatt gatt) {
+            mCallback.onServiceChanged();
+        }
+    };
+}
@@ -16,45 +16,56 @@ package de.androidcrypto.blegattclienttime;
  * limitations under the License.
  */
 
-import android.annotation.SuppressLint;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 /**
- * Service for managing connection and data communication with a GATT server hosted on a
- * given Bluetooth LE device.
+ * Service for managing connections and data communication with GATT servers hosted on
+ * Bluetooth LE devices. Several devices can be connected at the same time, all per device
+ * methods take the device address.
  */
 public class BluetoothLeService extends Service {
     private final static String TAG = BluetoothLeService.class.getSimpleName();
-    private static final UUID UUID_HEART_RATE_MEASUREMENT = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
-    private static final UUID UUID_CURRENT_TIME           = UUID.fromString("00002a2b-0000-1000-8000-00805f9b34fb");
 
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
-    private String mBluetoothDeviceAddress;
-    private BluetoothGatt mBluetoothGatt;
-    private int mConnectionState = STATE_DISCONNECTED;
 
-    private static final int STATE_DISCONNECTED = 0;
-    private static final int STATE_CONNECTING = 1;
-    private static final int STATE_CONNECTED = 2;
+    // the Intent broadcasts are only sent in the compatibility mode, in-process clients use
+    // the listeners of the client
+    private volatile boolean mBroadcastsEnabled = true;
+
+    // the bundled characteristic layouts, see GattSchemaCompiler
+    static final String SCHEMA_ASSET = "gatt_schemas.txt";
+    // below getFilesDir(), one snapshot per device
+    static final String ATTRIBUTE_CACHE_DIRECTORY = "gatt-attributes";
+
+    public static final int STATE_DISCONNECTED = GattClient.STATE_DISCONNECTED;
+    public static final int STATE_CONNECTING = GattClient.STATE_CONNECTING;
+    public static final int STATE_CONNECTED = GattClient.STATE_CONNECTED;
 
     public final static String ACTION_GATT_CONNECTED =
             "android-er.ACTION_GATT_CONNECTED";
@@ -66,6 +77,18 @@ public class BluetoothLeService extends Service {
             "android-er.ACTION_DATA_AVAILABLE";
     public final static String EXTRA_DATA =
             "android-er.EXTRA_DATA";
+    public final static String EXTRA_ADDRESS =
+            "android-er.EXTRA_ADDRESS";
+    public final static String EXTRA_TIMESTAMP =
+            "android-er.EXTRA_TIMESTAMP";
+    // the raw characteristic value and its UUID, rendered on demand by getData(Intent)
+    public final static String EXTRA_VALUE =
+            "android-er.EXTRA_VALUE";
+    public final static String EXTRA_UUID =
+            "android-er.EXTRA_UUID";
+    // true on the broadcasts of a replay
+    public final static String EXTRA_REPLAYED =
+            "android-er.EXTRA_REPLAYED";
     public final static String ACTION_DATA_WRITE =
             "android-er.ACTION_DATA_WRITE";
     public final static String ACTION_SET_NOTIFICATION =
@@ -136,6 +159,15 @@ public class BluetoothLeService extends Service {
         return (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0;
     }
 
+    /**
+     * Check if a characteristic supports Indications
+     *
+     * @return Returns <b>true</b> if property is supports indication
+     */
+    public static boolean isCharacteristicIndicatable(BluetoothGattCharacteristic characteristic) {
+        return (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0;
+    }
+
     /**
      * Check if a Descriptor can be read
      *
@@ -156,170 +188,359 @@ public class BluetoothLeService extends Service {
         return (descriptor.getPermissions() & BluetoothGattCharacteristic.PERMISSION_WRITE) != 0;
     }
 
-    // Implements callback methods for GATT events that the app cares about.  For example,
-    // connection change and services discovered.
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-        @SuppressLint("MissingPermission")
+    /**
+     * The time base of the client, it keeps counting in deep sleep.
+     */
+    private static final GattClock ELAPSED_REALTIME = new GattClock() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            String intentAction;
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                intentAction = ACTION_GATT_CONNECTED;
-                mConnectionState = STATE_CONNECTED;
-                broadcastUpdate(intentAction);
-                Log.i(TAG, "Connected to GATT server.");
-                // Attempts to discover services after successful connection.
-                Log.i(TAG, "Attempting to start service discovery:" +
-                        mBluetoothGatt.discoverServices());
-
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                intentAction = ACTION_GATT_DISCONNECTED;
-                mConnectionState = STATE_DISCONNECTED;
-                Log.i(TAG, "Disconnected from GATT server.");
-                broadcastUpdate(intentAction);
-            }
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
         }
+    };
 
+    /**
+     * Writes the messages of the client to the Android log.
+     */
+    private static final GattLog.Sink ANDROID_LOG = new GattLog.Sink() {
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
+        public void println(int priority, String tag, String message, Throwable error) {
+            Log.println(priority, tag,
+                    error == null ? message : message + '\n' + Log.getStackTraceString(error));
+        }
+    };
+
+    /**
+     * Creates the transports of new connections, by default on top of the Android stack.
+     */
+    private final GattTransport.Factory mBluetoothTransportFactory = new GattTransport.Factory() {
+        @Override
+        public GattTransport create(String address, GattTransport.Callback callback) {
+            if (mBluetoothAdapter == null) {
+                return null;
             }
+            final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+            return device == null ? null
+                    : new AndroidGattTransport(BluetoothLeService.this, device, callback);
+        }
+    };
+
+    // the connections, their queues, subscriptions and caches
+    private final GattClient mClient = new GattClient(ELAPSED_REALTIME, mBluetoothTransportFactory);
+
+    private final GattEventListener mBroadcaster = new Broadcaster(false);
+    private final GattEventListener mReplayBroadcaster = new Broadcaster(true);
+
+    /**
+     * The Current Time decoded for a broadcast, one per thread that broadcasts events.
+     */
+    private static final ThreadLocal<CurrentTime> BROADCAST_TIME = new ThreadLocal<CurrentTime>() {
+        @Override
+        protected CurrentTime initialValue() {
+            return new CurrentTime();
+        }
+    };
+
+    /**
+     * Sends the events of the client as Intent broadcasts while they are enabled. Called
+     * directly on the thread of the event, the Bluetooth binder thread or the notification
+     * dispatcher thread. The broadcasts of a replay carry {@link #EXTRA_REPLAYED}.
+     */
+    private final class Broadcaster extends GattEventListener {
+        private final boolean mReplayed;
+
+        Broadcaster(boolean replayed) {
+            mReplayed = replayed;
         }
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+        public void onConnectionStateChange(String address, int newState) {
+            if (newState == GattTransport.STATE_CONNECTED) {
+                broadcastUpdate(ACTION_GATT_CONNECTED, address, mReplayed);
+            } else if (newState == GattTransport.STATE_DISCONNECTED) {
+                broadcastUpdate(ACTION_GATT_DISCONNECTED, address, mReplayed);
             }
         }
 
-        /**
-         * Characteristic was written successfully.  update the UI
-         *
-         */
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            Log.v(TAG, "characteristic written");
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_WRITE, characteristic);
+        public void onServicesDiscovered(String address, int status) {
+            if (status == GattTransport.STATUS_SUCCESS) {
+                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED, address, mReplayed);
             }
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+        public void onCharacteristicRead(String address, UUID characteristic, byte[] value,
+                                         long timestampNanos) {
+            broadcastUpdate(ACTION_DATA_AVAILABLE, address, characteristic, value, mReplayed);
         }
 
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorWrite(gatt, descriptor, status);
-            Log.d(TAG,"onDescriptorWrite");
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_SET_NOTIFICATION, descriptor);
+        public void onCharacteristicChanged(String address, UUID characteristic, byte[] value,
+                                            long timestampNanos) {
+            broadcastUpdate(ACTION_DATA_AVAILABLE, address, characteristic, value, mReplayed);
+        }
+
+        @Override
+        public void onCharacteristicWrite(String address, UUID characteristic, int status) {
+            if (status == GattTransport.STATUS_SUCCESS) {
+                broadcastUpdate(ACTION_DATA_WRITE, address, mReplayed);
             }
         }
 
-    };
+        @Override
+        public void onDescriptorWrite(String address, UUID characteristic, UUID descriptor,
+                                      int status) {
+            if (status == GattTransport.STATUS_SUCCESS) {
+                broadcastUpdate(ACTION_SET_NOTIFICATION, address, descriptor, mReplayed);
+            }
+        }
+    }
 
-    private void broadcastUpdate(final String action) {
-        final Intent intent = new Intent(action);
-        sendBroadcast(intent);
+    /**
+     * The UI works with the Android objects, the services of other transports and the cached
+     * ones are converted.
+     */
+    private static List<BluetoothGattService> toBluetoothGattServices(
+            List<GattServiceInfo> services) {
+        final List<BluetoothGattService> converted = new ArrayList<>(services.size());
+        for (GattServiceInfo info : services) {
+            final BluetoothGattService service = new BluetoothGattService(info.getUuid(),
+                    BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            for (GattCharacteristicInfo characteristicInfo : info.getCharacteristics()) {
+                final BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+                        characteristicInfo.getUuid(), characteristicInfo.getProperties(), 0);
+                for (UUID descriptor : characteristicInfo.getDescriptors()) {
+                    characteristic.addDescriptor(new BluetoothGattDescriptor(descriptor,
+                            BluetoothGattDescriptor.PERMISSION_READ
+                                    | BluetoothGattDescriptor.PERMISSION_WRITE));
+                }
+                service.addCharacteristic(characteristic);
+            }
+            converted.add(service);
+        }
+        return converted;
     }
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattDescriptor descriptor) {
-        Log.i(TAG, "broadcastUpdate descriptor: " + descriptor.getUuid());
+    private Intent newIntent(final String action, final String address,
+                             final boolean replayed) {
         final Intent intent = new Intent(action);
+        intent.putExtra(EXTRA_ADDRESS, address);
+        if (replayed) {
+            intent.putExtra(EXTRA_REPLAYED, true);
+        }
+        return intent;
+    }
+
+    private void broadcastUpdate(final String action, final String address,
+                                 final boolean replayed) {
+        if (!mBroadcastsEnabled) return;
+        sendBroadcast(newIntent(action, address, replayed));
+    }
 
-        if (UUID_TIMESERVER_BATTERY_LEVEL_DESCRIPTOR.equals(descriptor.getUuid())) {
+    private void broadcastUpdate(final String action, final String address,
+                                 final UUID descriptor, final boolean replayed) {
+        if (!mBroadcastsEnabled) return;
+        Log.i(TAG, "broadcastUpdate descriptor: " + descriptor);
+        final Intent intent = newIntent(action, address, replayed);
+
+        if (UUID_TIMESERVER_BATTERY_LEVEL_DESCRIPTOR.equals(descriptor)) {
             Log.i(TAG, "BATTERY_LEVEL_DESCRIPTOR found");
             intent.putExtra(EXTRA_DATA,"BATTERY_LEVEL");
         }
         sendBroadcast(intent);
     }
 
+    private void broadcastUpdate(final String action, final String address,
+                                 final UUID characteristic, final byte[] data,
+                                 final boolean replayed) {
+        if (!mBroadcastsEnabled) return;
+        final Intent intent = newIntent(action, address, replayed);
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattCharacteristic characteristic) {
-        final Intent intent = new Intent(action);
+        if (data != null && data.length > 0) {
+            // the extras are parceled when the broadcast is sent, the text is only rendered
+            // for a receiver that asks for it through getData(Intent)
+            intent.putExtra(EXTRA_UUID, characteristic.toString());
+            intent.putExtra(EXTRA_VALUE, data);
+            final CharacteristicDecoder decoder = mClient.decoderFor(address, characteristic);
+            if (decoder == CharacteristicDecoders.CURRENT_TIME) {
+                final CurrentTime currentTime = BROADCAST_TIME.get();
+                if (CurrentTimeService.decode(data, currentTime)) {
+                    intent.putExtra(EXTRA_TIMESTAMP, currentTime.getEpochMillis());
+                }
+            }
+        }
+        sendBroadcast(intent);
+    }
 
-        // This is special handling for the Heart Rate Measurement profile.  Data parsing is
-        // carried out as per profile specifications:
-        // http://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx
-        // ?u=org.bluetooth.characteristic.heart_rate_measurement.xml
+    /**
+     * Converts a characteristic value to a text for the display with the decoder of the
+     * characteristic on the device, including the decoders bound from its Presentation Format
+     * descriptors.
+     *
+     * @param address the device the value came from
+     * @param uuid    the characteristic UUID
+     * @param data    the raw value
+     * @return the text or null if there is no data
+     */
+    public String describeValue(String address, UUID uuid, byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        return CharacteristicDecoders.describe(mClient.decoderFor(address, uuid), data);
+    }
 
-        System.out.println("*** characteristic.getUuid: " + characteristic.getUuid());
+    /**
+     * The text of a broadcast, the value of an {@link #ACTION_DATA_AVAILABLE} broadcast is
+     * decoded when the returned text is first read.
+     *
+     * @return the text or null if the broadcast has none
+     */
+    public CharSequence getData(Intent intent) {
+        final String text = intent.getStringExtra(EXTRA_DATA);
+        final byte[] value = intent.getByteArrayExtra(EXTRA_VALUE);
+        final String uuid = intent.getStringExtra(EXTRA_UUID);
+        if (text != null || value == null || uuid == null) {
+            return text;
+        }
+        return CharacteristicDecoders.lazyText(
+                mClient.decoderFor(intent.getStringExtra(EXTRA_ADDRESS), UUID.fromString(uuid)),
+                value);
+    }
 
-        // for testing purposes
-        for (BluetoothGattDescriptor descriptor:characteristic.getDescriptors()){
-            Log.e(TAG, "BluetoothGattDescriptor: "+descriptor.getUuid().toString());
+    public class LocalBinder extends Binder {
+        BluetoothLeService getService() {
+            return BluetoothLeService.this;
         }
 
-        if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            System.out.println("* UUID_HEART_RATE_MEASUREMENT found *");
-            int flag = characteristic.getProperties();
-            int format = -1;
-            if ((flag & 0x01) != 0) {
-                format = BluetoothGattCharacteristic.FORMAT_UINT16;
-                Log.d(TAG, "Heart rate format UINT16.");
-            } else {
-                format = BluetoothGattCharacteristic.FORMAT_UINT8;
-                Log.d(TAG, "Heart rate format UINT8.");
-            }
-            final int heartRate = characteristic.getIntValue(format, 1);
-            Log.d(TAG, String.format("Received heart rate: %d", heartRate));
-            intent.putExtra(EXTRA_DATA, String.valueOf(heartRate));
-        } else if (UUID_CURRENT_TIME.equals(characteristic.getUuid())) {
-            System.out.println("* UUID_UUID_CURRENT_TIME found *");
-            final byte[] data = characteristic.getValue();
-            if (data != null && data.length > 0) {
-                String receivedTime = CurrentTimeService.getTimestampFromService(data);
-                Log.d(TAG, String.format("Received heart rate: %s", receivedTime));
-                intent.putExtra(EXTRA_DATA,receivedTime);
-            }
+        /**
+         * @return the client that runs the connections, e.g. for the methods that take
+         * UUIDs instead of Android objects
+         */
+        public GattClient getClient() {
+            return mClient;
+        }
 
-        } else {
-            System.out.println("* unknown UUID found *");
-            // For all other profiles, writes the data formatted in HEX.
-            final byte[] data = characteristic.getValue();
-            if (data != null && data.length > 0) {
-                final StringBuilder stringBuilder = new StringBuilder(data.length);
-                for (byte byteChar : data)
-                    stringBuilder.append(String.format("%02X ", byteChar));
-                intent.putExtra(EXTRA_DATA, new String(data) + "\n" + stringBuilder.toString());
-            }
+        /**
+         * Registers a listener that receives all GATT events of the service on the given
+         * executor, e.g. ContextCompat.getMainExecutor(context) for the UI thread.
+         */
+        public void registerListener(GattEventListener listener, Executor executor) {
+            mClient.registerListener(listener, executor);
         }
 
-/*
-        //remove special handling for time being
-        Log.w(TAG, "broadcastUpdate()");
+        /**
+         * Registers a listener that is called directly on the Bluetooth binder thread, or on
+         * the notification dispatcher thread for notifications, it has to return quickly.
+         */
+        public void registerListener(GattEventListener listener) {
+            mClient.registerListener(listener);
+        }
 
-        final byte[] data = characteristic.getValue();
+        public void unregisterListener(GattEventListener listener) {
+            mClient.unregisterListener(listener);
+        }
 
-        Log.v(TAG, "data.length: " + data.length);
+        /**
+         * Switches the Intent broadcasts (ACTION_ constants) on or off. They are enabled by
+         * default for compatibility, in-process clients should use a listener and disable them.
+         */
+        public void setBroadcastsEnabled(boolean enabled) {
+            mBroadcastsEnabled = enabled;
+        }
 
-        if (data != null && data.length > 0) {
-            final StringBuilder stringBuilder = new StringBuilder(data.length);
-            for (byte byteChar : data) {
-                stringBuilder.append(String.format("%02X ", byteChar));
+        /**
+         * See {@link GattClient#setMaxConnections(int)}.
+         */
+        public void setMaxConnections(int maxConnections) {
+            mClient.setMaxConnections(maxConnections);
+        }
 
-                Log.v(TAG, String.format("%02X ", byteChar));
-            }
-            intent.putExtra(EXTRA_DATA, new String(data) + "\n" + stringBuilder.toString());
+        /**
+         * See {@link GattClient#setDefaultConnectionProfile(ConnectionProfile)}.
+         */
+        public void setDefaultConnectionProfile(ConnectionProfile profile) {
+            mClient.setDefaultConnectionProfile(profile);
+        }
+
+        /**
+         * See {@link GattClient#setAutoProfileSwitching(boolean)}.
+         */
+        public void setAutoProfileSwitching(boolean enabled) {
+            mClient.setAutoProfileSwitching(enabled);
+        }
+
+        /**
+         * See {@link GattClient#setNotificationOverflowPolicy(int)}.
+         */
+        public void setNotificationOverflowPolicy(int policy) {
+            mClient.setNotificationOverflowPolicy(policy);
+        }
+
+        /**
+         * @return the latency, throughput and failure metrics of all devices, also written by
+         * {@code adb shell dumpsys activity service BluetoothLeService}
+         */
+        public GattMetrics getMetrics() {
+            return mClient.getMetrics();
+        }
+
+        /**
+         * See {@link GattClient#getDecoderRegistry()}.
+         */
+        public GattDecoderRegistry getDecoderRegistry() {
+            return mClient.getDecoderRegistry();
+        }
+
+        /**
+         * See {@link GattClient#registerSchemas(Reader)}.
+         */
+        public int registerSchemas(Reader reader) throws IOException {
+            return mClient.registerSchemas(reader);
+        }
+
+        /**
+         * See {@link GattClient#getPresentationFormat(String, UUID)}.
+         */
+        public PresentationFormat getPresentationFormat(String address, UUID characteristic) {
+            return mClient.getPresentationFormat(address, characteristic);
+        }
+
+        /**
+         * See {@link GattClient#getUserDescription(String, UUID)}, e.g. as the name of the
+         * characteristic in a list.
+         */
+        public String getUserDescription(String address, UUID characteristic) {
+            return mClient.getUserDescription(address, characteristic);
+        }
+
+        /**
+         * Sets the factory for the transports of new connections, e.g.
+         * {@link SimulatedPeripheral#factory(SimulatedPeripheral...)} to run without a radio.
+         * Established connections keep their transport.
+         *
+         * @param factory the factory or null for the Bluetooth stack
+         */
+        public void setTransportFactory(GattTransport.Factory factory) {
+            mClient.setTransportFactory(factory);
         }
-*/
-        sendBroadcast(intent);
     }
 
-    public class LocalBinder extends Binder {
-        BluetoothLeService getService() {
-            return BluetoothLeService.this;
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        GattLog.setSink(ANDROID_LOG);
+        mClient.registerListener(mBroadcaster);
+        mClient.registerReplayListener(mReplayBroadcaster);
+        mClient.setAttributeCacheDirectory(new File(getFilesDir(), ATTRIBUTE_CACHE_DIRECTORY));
+        try {
+            final Reader reader = new InputStreamReader(getAssets().open(SCHEMA_ASSET), "UTF-8");
+            try {
+                Log.i(TAG, mClient.registerSchemas(reader) + " characteristic schemas loaded");
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Loading the characteristic schemas failed", e);
         }
     }
 
@@ -328,6 +549,11 @@ public class BluetoothLeService extends Service {
         return mBinder;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mClient.dump(writer);
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         // After using a given device, you should make sure that BluetoothGatt.close() is called
@@ -337,6 +563,12 @@ public class BluetoothLeService extends Service {
         return super.onUnbind(intent);
     }
 
+    @Override
+    public void onDestroy() {
+        mClient.shutdown();
+        super.onDestroy();
+    }
+
     private final IBinder mBinder = new LocalBinder();
 
     /**
@@ -365,169 +597,314 @@ public class BluetoothLeService extends Service {
     }
 
     /**
-     * Connects to the GATT server hosted on the Bluetooth LE device.
+     * Connects to the GATT server hosted on the Bluetooth LE device, see
+     * {@link GattClient#connect(String)}.
      *
      * @param address The device address of the destination device.
-     * @return Return true if the connection is initiated successfully. The connection result
-     * is reported asynchronously through the
-     * {@code BluetoothGattCallback#onConnectionStateChange(
-     * android.bluetooth.BluetoothGatt, int, int)}
-     * callback.
+     * @return Return true if the connection is initiated successfully or already established.
      */
-    @SuppressLint("MissingPermission")
     public boolean connect(final String address) {
-        if (mBluetoothAdapter == null || address == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized or unspecified address.");
-            return false;
-        }
-
-        // Previously connected device.  Try to reconnect.
-        if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
-                && mBluetoothGatt != null) {
-            Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
-            if (mBluetoothGatt.connect()) {
-                mConnectionState = STATE_CONNECTING;
-                return true;
-            } else {
-                return false;
-            }
-        }
+        return mClient.connect(address);
+    }
 
-        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-        if (device == null) {
-            Log.w(TAG, "Device not found.  Unable to connect.");
-            return false;
-        }
-        // We want to directly connect to the device, so we are setting the autoConnect
-        // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
-        Log.d(TAG, "Trying to create a new connection.");
-        mBluetoothDeviceAddress = address;
-        mConnectionState = STATE_CONNECTING;
-        return true;
+    /**
+     * Disconnects an existing connection or cancel a pending connection, see
+     * {@link GattClient#disconnect(String)}.
+     *
+     * @param address The device address of the device to disconnect.
+     */
+    public void disconnect(String address) {
+        mClient.disconnect(address);
     }
 
     /**
-     * Disconnects an existing connection or cancel a pending connection. The disconnection result
-     * is reported asynchronously through the
-     * {@code BluetoothGattCallback#onConnectionStateChange(
-     * android.bluetooth.BluetoothGatt, int, int)}
-     * callback.
+     * Disconnects all devices.
      */
-    @SuppressLint("MissingPermission")
     public void disconnect() {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
-        }
-        mBluetoothGatt.disconnect();
+        mClient.disconnect();
     }
 
     /**
      * After using a given BLE device, the app must call this method to ensure resources are
      * released properly.
+     *
+     * @param address The device address of the device to close.
+     */
+    public void close(String address) {
+        mClient.close(address);
+    }
+
+    /**
+     * Closes the connections to all devices.
      */
-    @SuppressLint("MissingPermission")
     public void close() {
-        if (mBluetoothGatt == null) {
-            return;
-        }
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
+        mClient.close();
+    }
+
+    /**
+     * @return one of the STATE_ constants for the device
+     */
+    public int getConnectionState(String address) {
+        return mClient.getConnectionState(address);
     }
 
     /**
-     * Request a read on a given {@code BluetoothGattCharacteristic}. The read result is reported
-     * asynchronously through the {@code BluetoothGattCallback#onCharacteristicRead(
-     * android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic, int)}
-     * callback.
+     * @return the addresses of all devices that are connected or being connected
+     */
+    public List<String> getConnectedDevices() {
+        return mClient.getConnectedDevices();
+    }
+
+    /**
+     * Request a read on a given {@code BluetoothGattCharacteristic}. The read is queued and the
+     * result is reported asynchronously through the returned future and the
+     * {@link GattEventListener#onCharacteristicRead} callback.
      *
+     * @param address        The device address.
      * @param characteristic The characteristic to read from.
+     * @return a future that receives a copy of the value that was read
      */
-    @SuppressLint("MissingPermission")
-    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
-        }
-        mBluetoothGatt.readCharacteristic(characteristic);
+    public GattFuture<byte[]> readCharacteristic(String address,
+                                                 BluetoothGattCharacteristic characteristic) {
+        return readCharacteristic(address, characteristic, GattOperationQueue.DEFAULT_TIMEOUT_MILLIS);
     }
 
     /**
-     * Enables or disables notification on a give characteristic.
+     * Request a read on a given {@code BluetoothGattCharacteristic}.
      *
-     * @param characteristic Characteristic to act on.
-     * @param enabled        If true, enable notification.  False otherwise.
+     * @param address        The device address.
+     * @param characteristic The characteristic to read from.
+     * @param timeoutMillis  The time the read may take once it was started.
+     * @return a future that receives a copy of the value that was read
      */
-    @SuppressLint("MissingPermission")
-    public void changeCharacteristicNotification(BluetoothGattCharacteristic characteristic,
-                                              boolean enabled) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
-        }
+    public GattFuture<byte[]> readCharacteristic(String address,
+                                                 BluetoothGattCharacteristic characteristic,
+                                                 long timeoutMillis) {
+        return mClient.readCharacteristic(address, serviceOf(characteristic),
+                characteristic.getUuid(), timeoutMillis);
+    }
 
-        Log.i(TAG, "setCharacteristicNotification for characteristic: "
-                + characteristic.getUuid() + " to " + enabled);
+    /**
+     * Subscribes to the notifications or indications of a characteristic, see
+     * {@link GattClient#subscribe(String, UUID, UUID, GattSubscription.Listener, Executor)}.
+     *
+     * @param address        The device address.
+     * @param characteristic The characteristic to subscribe to.
+     * @param listener       receives the values of the characteristic, may be null
+     * @param executor       runs the listener, null to call it on the notification
+     *                       dispatcher thread
+     * @return the subscription or null if the device is not connected
+     */
+    public GattSubscription subscribe(String address, BluetoothGattCharacteristic characteristic,
+                                      GattSubscription.Listener listener, Executor executor) {
+        return subscribe(address, serviceOf(characteristic), characteristic.getUuid(), listener,
+                executor);
+    }
 
-        mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
+    /**
+     * Subscribes to the notifications or indications of a characteristic, see
+     * {@link #subscribe(String, BluetoothGattCharacteristic, GattSubscription.Listener, Executor)}.
+     *
+     * @param service the service UUID, null for the first characteristic with the UUID
+     */
+    public GattSubscription subscribe(String address, UUID service, UUID characteristic,
+                                      GattSubscription.Listener listener, Executor executor) {
+        return mClient.subscribe(address, service, characteristic, listener, executor);
+    }
 
-        // this is specific to TimeServer BatteryService - Battery Level
-        if (UUID_TIMESERVER_BATTERY_LEVEL.equals(characteristic.getUuid())) {
-            Log.i(TAG, "UUID_TIMESERVER_BATTERY_LEVEL.equals(characteristic.getUuid");
-            Log.i(TAG, "Characteristic UUID: " + characteristic.getUuid());
+    private static UUID serviceOf(BluetoothGattCharacteristic characteristic) {
+        final BluetoothGattService service = characteristic.getService();
+        return service == null ? null : service.getUuid();
+    }
 
-            List<BluetoothGattDescriptor> listDescriptors = characteristic.getDescriptors();
-            Log.i(TAG, "listDescriptors size: " + listDescriptors.size());
-            Log.i(TAG, "list 0 UUID: " + listDescriptors.get(0).getUuid());
+    /**
+     * Request a write to a given {@code BluetoothGattCharacteristic}. The write is queued and
+     * the result is reported through the returned future.
+     *
+     * @param address        The device address.
+     * @param characteristic The characteristic to write to.
+     * @param data           The UINT8 value to write.
+     * @return a future that completes when the write was acknowledged
+     */
+    public GattFuture<Void> writeCharacteristic(String address,
+                                                BluetoothGattCharacteristic characteristic,
+                                                int data) {
+        Log.i(TAG, "writeCharacteristic called, fired to GattClient.writeCharacteristic");
+        return mClient.writeCharacteristic(address, serviceOf(characteristic),
+                characteristic.getUuid(), new byte[]{(byte) data},
+                GattTransport.WRITE_TYPE_DEFAULT);
+    }
 
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                    UUID_TIMESERVER_BATTERY_LEVEL_DESCRIPTOR);
-            Log.i(TAG, "Descriptor UUID: " + descriptor.getUuid());
-            Log.i(TAG, "BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE: "
-                    + BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            mBluetoothGatt.writeDescriptor(descriptor);
-            Log.i(TAG, "mBluetoothGatt.writeCharacteristic done for " + UUID_TIMESERVER_BATTERY_LEVEL);
-            Log.i(TAG, "mBluetoothGatt.writeDescriptor done for " + descriptor.getUuid());
-        }
+    /**
+     * See {@link GattClient#startClockAudit(String, ClockAudit.Listener)}.
+     */
+    public ClockAudit startClockAudit(String address, ClockAudit.Listener listener) {
+        return mClient.startClockAudit(address, listener);
+    }
 
-        // This is specific to Genuino 101 ledService.
-        if (UUID_GENUINO101_ledService.equals(characteristic.getUuid())) {
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                    UUID_GENUINO101_switchChare);
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            mBluetoothGatt.writeDescriptor(descriptor);
-        }
+    /**
+     * See {@link GattClient#startClockAudit(String, ClockAudit.Listener, int, long)}.
+     */
+    public ClockAudit startClockAudit(String address, ClockAudit.Listener listener,
+                                      int burstSize, long burstIntervalMillis) {
+        return mClient.startClockAudit(address, listener, burstSize, burstIntervalMillis);
     }
 
     /**
-     * Request a write to a given {@code BluetoothGattCharacteristic}.
+     * Stops the clock audit of a device.
+     */
+    public void stopClockAudit(String address) {
+        mClient.stopClockAudit(address);
+    }
+
+    /**
+     * See {@link GattClient#readClockOffset(String, int)}.
+     */
+    public GattFuture<ClockEstimate> readClockOffset(String address, int reads) {
+        return mClient.readClockOffset(address, reads);
+    }
+
+    /**
+     * Sets the clock of a device to the time of this device with a tolerance of 50 ms, see
+     * {@link GattClient#setCurrentTime(String, long)}.
+     */
+    public GattFuture<ClockEstimate> setCurrentTime(String address) {
+        return mClient.setCurrentTime(address);
+    }
+
+    /**
+     * See {@link GattClient#setCurrentTime(String, long)}.
+     */
+    public GattFuture<ClockEstimate> setCurrentTime(String address, long toleranceMillis) {
+        return mClient.setCurrentTime(address, toleranceMillis);
+    }
+
+    /**
+     * See {@link GattClient#syncFleetTime(List, FleetTimeSync.Config, FleetTimeSync.Listener)}.
+     */
+    public FleetTimeSync syncFleetTime(List<String> addresses, FleetTimeSync.Config config,
+                                       FleetTimeSync.Listener listener) {
+        return mClient.syncFleetTime(addresses, config, listener);
+    }
+
+    /**
+     * See {@link GattClient#requestMtu(String, int)}.
+     */
+    public GattFuture<Integer> requestMtu(String address, int mtu) {
+        return mClient.requestMtu(address, mtu);
+    }
+
+    /**
+     * @return the negotiated MTU of the connection, 23 before a larger one was negotiated
+     */
+    public int getMtu(String address) {
+        return mClient.getMtu(address);
+    }
+
+    /**
+     * See {@link GattClient#setConnectionProfile(String, ConnectionProfile)}.
+     */
+    public boolean setConnectionProfile(String address, ConnectionProfile profile) {
+        return mClient.setConnectionProfile(address, profile);
+    }
+
+    /**
+     * @return the current link parameters of the connection, null if there is none
+     */
+    public ConnectionParameters getConnectionParameters(String address) {
+        return mClient.getConnectionParameters(address);
+    }
+
+    /**
+     * See {@link GattClient#trackHeartRateVariability(String, long...)}.
+     */
+    public HeartRateVariability trackHeartRateVariability(String address, long... windowMillis) {
+        return mClient.trackHeartRateVariability(address, windowMillis);
+    }
+
+    /**
+     * Stops the heart rate variability of a device, the last statistics stay readable.
+     */
+    public void stopHeartRateVariability(String address) {
+        mClient.stopHeartRateVariability(address);
+    }
+
+    /**
+     * See {@link GattClient#getNotificationRing(String)}.
+     */
+    public NotificationRing getNotificationRing(String address) {
+        return mClient.getNotificationRing(address);
+    }
+
+    /**
+     * Writes a value of any length to a characteristic, see {@link GattBulkWrite}.
+     */
+    public GattBulkWrite bulkWrite(String address, BluetoothGattCharacteristic characteristic,
+                                   byte[] data, GattBulkWrite.Listener listener) {
+        return bulkWrite(address, characteristic, ByteBuffer.wrap(data), listener);
+    }
+
+    /**
+     * Writes a value of any length to a characteristic, see
+     * {@link GattClient#bulkWrite(String, UUID, UUID, int, ByteBuffer, GattBulkWrite.Listener)}.
      *
+     * @param address        The device address.
      * @param characteristic The characteristic to write to.
+     * @param data           the bytes from the position to the limit are written
+     * @param listener       receives the progress after every chunk, may be null
+     * @return the running write, its result fails if the device is not connected or the
+     * characteristic is not writable
      */
-    @SuppressLint("MissingPermission")
-    public void writeCharacteristic(BluetoothGattCharacteristic characteristic, int data) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
-        }
-        Log.i(TAG, "writeCharacteristic called, fired to mBluetoothGatt.writeCharacteristic");
-        characteristic.setValue(data, BluetoothGattCharacteristic.FORMAT_UINT8, 0);
-        mBluetoothGatt.writeCharacteristic(characteristic);
+    public GattBulkWrite bulkWrite(String address, BluetoothGattCharacteristic characteristic,
+                                   ByteBuffer data, GattBulkWrite.Listener listener) {
+        return mClient.bulkWrite(address, serviceOf(characteristic), characteristic.getUuid(),
+                characteristic.getProperties(), data, listener);
+    }
+
+    /**
+     * See {@link GattClient#startRecording(File)}.
+     */
+    public GattRecorder startRecording(File file) throws IOException {
+        return mClient.startRecording(file);
+    }
+
+    /**
+     * Stops the recording and closes its capture file, does nothing if there is none.
+     */
+    public void stopRecording() {
+        mClient.stopRecording();
     }
 
+    /**
+     * Replays a capture of {@link #startRecording(File)} as broadcasts with
+     * {@link #EXTRA_REPLAYED} and to the replay listeners of the client, see
+     * {@link GattClient#replay(File, double)}.
+     */
+    public GattReplayer replay(File capture, double speed) throws IOException {
+        return mClient.replay(capture, speed);
+    }
 
     /**
-     * Retrieves a list of supported GATT services on the connected device. This should be
-     * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
+     * Retrieves a list of supported GATT services on the connected device. Until the first
+     * discovery of a connection completes these are the services cached from the last
+     * connection to the device, empty for a device that was never connected.
      *
+     * @param address The device address.
      * @return A {@code List} of supported services.
      */
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null) return null;
-
-        return mBluetoothGatt.getServices();
+    public List<BluetoothGattService> getSupportedGattServices(String address) {
+        final List<GattServiceInfo> services = mClient.getServices(address);
+        if (services == null) return null;
+
+        final GattTransport transport = mClient.getTransport(address);
+        if (transport instanceof AndroidGattTransport) {
+            final List<BluetoothGattService> discovered =
+                    ((AndroidGattTransport) transport).getBluetoothGattServices();
+            if (!discovered.isEmpty()) {
+                return discovered;
+            }
+        }
+        return toBluetoothGattServices(services);
     }
 
 }
@@ -0,0 +1,20 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * Converts the raw value of a characteristic to a readable text.
+ *
+ * Decoders are registered in the {@link GattDecoderRegistry} and shared by all connections
+ * and threads, so implementations must be stateless or thread safe.
+ */
+public interface CharacteristicDecoder {
+
+    /**
+     * Appends the readable form of the value.
+     *
+     * @param value the raw characteristic value, never null or empty
+     * @param out   the builder to append to
+     * @return false if the value could not be decoded, e.g. it is too short; out may contain
+     * a partial result then
+     */
+    boolean decode(byte[] value, StringBuilder out);
+}
@@ -0,0 +1,511 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decoders for the characteristics this app knows about, registered in
+ * {@link GattDecoderRegistry#getDefault()}.
+ */
+public final class CharacteristicDecoders {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CharacteristicDecoders() {
+    }
+
+    /**
+     * For all other profiles, writes the data as ASCII text and formatted in HEX.
+     */
+    public static final CharacteristicDecoder HEX = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            HexFormatter.appendAsciiAndHex(value, out);
+            return true;
+        }
+    };
+
+    /**
+     * Current Time (0x2A2B) as "dd.MM.yyyy HH:mm".
+     */
+    public static final CharacteristicDecoder CURRENT_TIME = new CharacteristicDecoder() {
+        // one holder per thread, the decoders are shared
+        private final ThreadLocal<CurrentTime> holder = new ThreadLocal<CurrentTime>() {
+            @Override
+            protected CurrentTime initialValue() {
+                return new CurrentTime();
+            }
+        };
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            final CurrentTime currentTime = holder.get();
+            final boolean valid = CurrentTimeService.decode(value, currentTime);
+            if (value.length >= 10) {
+                currentTime.appendTo(out);
+            }
+            return valid;
+        }
+    };
+
+    /**
+     * Heart Rate Measurement (0x2A37) with the sensor contact, the energy expended and the RR
+     * intervals, see {@link HeartRateService#decode(byte[], HeartRateMeasurement)}. Data
+     * parsing is carried out as per profile specifications:
+     * http://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx
+     * ?u=org.bluetooth.characteristic.heart_rate_measurement.xml
+     */
+    public static final CharacteristicDecoder HEART_RATE_MEASUREMENT = new CharacteristicDecoder() {
+        // one holder per thread, the decoders are shared
+        private final ThreadLocal<HeartRateMeasurement> holder =
+                new ThreadLocal<HeartRateMeasurement>() {
+                    @Override
+                    protected HeartRateMeasurement initialValue() {
+                        return new HeartRateMeasurement();
+                    }
+                };
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            final HeartRateMeasurement measurement = holder.get();
+            if (!HeartRateService.decode(value, measurement)) return false;
+            measurement.appendTo(out);
+            return true;
+        }
+    };
+
+    /**
+     * Battery Level (0x2A19) in percent.
+     */
+    public static final CharacteristicDecoder BATTERY_LEVEL = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            out.append(value[0] & 0xFF).append(" %");
+            return true;
+        }
+    };
+
+    /**
+     * Local Time Information (0x2A0F), time zone in 15 minute steps and the DST offset.
+     */
+    public static final CharacteristicDecoder LOCAL_TIME_INFORMATION = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 2) return false;
+            // -128 means the time zone is unknown
+            if (value[0] == -128) {
+                out.append("UTC?");
+            } else {
+                final int minutes = value[0] * 15;
+                out.append("UTC").append(minutes < 0 ? '-' : '+');
+                appendHoursMinutes(out, Math.abs(minutes));
+            }
+            final int dst = value[1] & 0xFF;
+            out.append(" DST ");
+            if (dst == 255) {
+                out.append('?');
+            } else {
+                out.append('+');
+                appendHoursMinutes(out, dst * 15);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Reference Time Information (0x2A14), the source and accuracy of the server time.
+     */
+    public static final CharacteristicDecoder REFERENCE_TIME_INFORMATION = new CharacteristicDecoder() {
+        private final String[] sources = {"Unknown", "Network Time Protocol", "GPS",
+                "Radio Time Signal", "Manual", "Atomic Clock", "Cellular Network"};
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 4) return false;
+            final int source = value[0] & 0xFF;
+            out.append(source < sources.length ? sources[source] : "Reserved");
+            final int accuracy = value[1] & 0xFF;
+            out.append(", accuracy ");
+            if (accuracy == 255) {
+                out.append("unknown");
+            } else if (accuracy == 254) {
+                out.append("> 31.625 s");
+            } else {
+                // steps of 1/8 s
+                out.append(accuracy * 125).append(" ms");
+            }
+            out.append(", updated ").append(value[2] & 0xFF).append(" d ")
+                    .append(value[3] & 0xFF).append(" h ago");
+            return true;
+        }
+    };
+
+    /**
+     * Body Sensor Location (0x2A38) of the Heart Rate service.
+     */
+    public static final CharacteristicDecoder BODY_SENSOR_LOCATION = new CharacteristicDecoder() {
+        private final String[] locations = {"Other", "Chest", "Wrist", "Finger", "Hand",
+                "Ear Lobe", "Foot"};
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            final int location = value[0] & 0xFF;
+            out.append(location < locations.length ? locations[location] : "Reserved");
+            return true;
+        }
+    };
+
+    /**
+     * Alert Level (0x2A06).
+     */
+    public static final CharacteristicDecoder ALERT_LEVEL = new CharacteristicDecoder() {
+        private final String[] levels = {"No Alert", "Mild Alert", "High Alert"};
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            final int level = value[0] & 0xFF;
+            out.append(level < levels.length ? levels[level] : "Reserved");
+            return true;
+        }
+    };
+
+    /**
+     * Tx Power Level (0x2A07) in dBm.
+     */
+    public static final CharacteristicDecoder TX_POWER_LEVEL = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            out.append(value[0]).append(" dBm");
+            return true;
+        }
+    };
+
+    /**
+     * Appearance (0x2A01), category and sub category.
+     */
+    public static final CharacteristicDecoder APPEARANCE = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 2) return false;
+            final int appearance = uint16(value, 0);
+            out.append("category ").append(appearance >> 6)
+                    .append(", sub category ").append(appearance & 0x3F);
+            return true;
+        }
+    };
+
+    /**
+     * UTF-8 strings, e.g. Device Name and the Device Information strings.
+     */
+    public static final CharacteristicDecoder UTF8_STRING = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            out.append(new String(value, UTF_8));
+            return true;
+        }
+    };
+
+    /**
+     * Temperature Measurement (0x2A1C) and Intermediate Temperature (0x2A1E) of the Health
+     * Thermometer service, a FLOAT in Celsius or Fahrenheit with the optional time stamp and
+     * temperature type.
+     */
+    public static final CharacteristicDecoder TEMPERATURE_MEASUREMENT = new CharacteristicDecoder() {
+        private final String[] types = {"Reserved", "Armpit", "Body", "Ear", "Finger",
+                "Gastro-intestinal tract", "Mouth", "Rectum", "Toe", "Tympanum"};
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 5) return false;
+            final int flags = value[0] & 0xFF;
+            Ieee11073Float.appendFloat(out, Ieee11073Float.rawFloat(value, 1), 0)
+                    .append((flags & 0x01) != 0 ? " \u00B0F" : " \u00B0C");
+            int offset = 5;
+            if ((flags & 0x02) != 0) {
+                if (value.length < offset + 7) return false;
+                appendDateTime(out.append(", "), value, offset);
+                offset += 7;
+            }
+            if ((flags & 0x04) != 0) {
+                if (value.length < offset + 1) return false;
+                final int type = value[offset] & 0xFF;
+                out.append(", ").append(type < types.length ? types[type] : "Reserved");
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Blood Pressure Measurement (0x2A35), systolic, diastolic and mean arterial pressure as
+     * SFLOATs in mmHg or kPa with the optional time stamp, pulse rate, user and status.
+     */
+    public static final CharacteristicDecoder BLOOD_PRESSURE_MEASUREMENT = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 7) return false;
+            final String unit = (value[0] & 0x01) != 0 ? " kPa" : " mmHg";
+            Ieee11073Float.appendSfloat(out, Ieee11073Float.rawSfloat(value, 1), 0).append('/');
+            Ieee11073Float.appendSfloat(out, Ieee11073Float.rawSfloat(value, 3), 0).append(unit)
+                    .append(", MAP ");
+            Ieee11073Float.appendSfloat(out, Ieee11073Float.rawSfloat(value, 5), 0).append(unit);
+            return appendBloodPressureOptions(value, out);
+        }
+    };
+
+    /**
+     * Intermediate Cuff Pressure (0x2A36), the current cuff pressure during a blood pressure
+     * measurement, in the format of the Blood Pressure Measurement.
+     */
+    public static final CharacteristicDecoder INTERMEDIATE_CUFF_PRESSURE = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 7) return false;
+            out.append("cuff ");
+            Ieee11073Float.appendSfloat(out, Ieee11073Float.rawSfloat(value, 1), 0)
+                    .append((value[0] & 0x01) != 0 ? " kPa" : " mmHg");
+            return appendBloodPressureOptions(value, out);
+        }
+    };
+
+    /**
+     * Glucose Measurement (0x2A18), the sequence number, base time and the concentration in
+     * mg/dL or mmol/L with the sample type and location.
+     */
+    public static final CharacteristicDecoder GLUCOSE_MEASUREMENT = new CharacteristicDecoder() {
+        private final String[] types = {"Reserved", "capillary whole blood",
+                "capillary plasma", "venous whole blood", "venous plasma",
+                "arterial whole blood", "arterial plasma", "undetermined whole blood",
+                "undetermined plasma", "interstitial fluid", "control solution"};
+        private final String[] locations = {"Reserved", "finger", "alternate site",
+                "earlobe", "control solution"};
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 10) return false;
+            final int flags = value[0] & 0xFF;
+            out.append('#').append(uint16(value, 1)).append(' ');
+            int offset = 10;
+            if ((flags & 0x01) != 0) {
+                // the time offset is only needed to order the records
+                offset += 2;
+            }
+            if ((flags & 0x02) != 0) {
+                if (value.length < offset + 3) return false;
+                // kg/L as mg/dL, mol/L as mmol/L
+                final boolean molar = (flags & 0x04) != 0;
+                Ieee11073Float.appendSfloat(out, Ieee11073Float.rawSfloat(value, offset),
+                        molar ? 3 : 5).append(molar ? " mmol/L" : " mg/dL");
+                final int type = value[offset + 2] & 0x0F;
+                final int location = (value[offset + 2] & 0xF0) >> 4;
+                out.append(", ").append(type < types.length ? types[type] : "Reserved");
+                if (location < locations.length) {
+                    out.append(", ").append(locations[location]);
+                }
+            }
+            appendDateTime(out.append(", "), value, 3);
+            return true;
+        }
+    };
+
+    /**
+     * Weight Measurement (0x2A9D) of the Weight Scale service in kg or lb with the optional
+     * BMI and height.
+     */
+    public static final CharacteristicDecoder WEIGHT_MEASUREMENT = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 3) return false;
+            final int flags = value[0] & 0xFF;
+            final boolean imperial = (flags & 0x01) != 0;
+            final int weight = uint16(value, 1);
+            if (weight == 0xFFFF) {
+                out.append("measurement unsuccessful");
+                return true;
+            }
+            // resolution 0.005 kg or 0.01 lb
+            if (imperial) {
+                Ieee11073Float.appendDecimal(out, weight, -2).append(" lb");
+            } else {
+                Ieee11073Float.appendDecimal(out, weight * 5, -3).append(" kg");
+            }
+            int offset = 3;
+            if ((flags & 0x02) != 0) {
+                if (value.length < offset + 7) return false;
+                appendDateTime(out.append(", "), value, offset);
+                offset += 7;
+            }
+            if ((flags & 0x04) != 0) {
+                if (value.length < offset + 1) return false;
+                out.append(", user ").append(value[offset] & 0xFF);
+                offset++;
+            }
+            if ((flags & 0x08) != 0) {
+                if (value.length < offset + 4) return false;
+                Ieee11073Float.appendDecimal(out.append(", BMI "), uint16(value, offset), -1);
+                if (imperial) {
+                    Ieee11073Float.appendDecimal(out.append(", "), uint16(value, offset + 2), -1)
+                            .append(" in");
+                } else {
+                    Ieee11073Float.appendDecimal(out.append(", "), uint16(value, offset + 2), -3)
+                            .append(" m");
+                }
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Temperature (0x2A6E) of the Environmental Sensing service in 0.01 degrees Celsius.
+     */
+    public static final CharacteristicDecoder ESS_TEMPERATURE = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 2) return false;
+            final int temperature = (short) uint16(value, 0);
+            if (temperature == Short.MIN_VALUE) {
+                out.append("unknown");
+            } else {
+                Ieee11073Float.appendDecimal(out, temperature, -2).append(" \u00B0C");
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Humidity (0x2A6F) of the Environmental Sensing service in 0.01 %.
+     */
+    public static final CharacteristicDecoder HUMIDITY = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 2) return false;
+            final int humidity = uint16(value, 0);
+            if (humidity == 0xFFFF) {
+                out.append("unknown");
+            } else {
+                Ieee11073Float.appendDecimal(out, humidity, -2).append(" %");
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Pressure (0x2A6D) of the Environmental Sensing service, 0.1 Pa shown as hPa.
+     */
+    public static final CharacteristicDecoder PRESSURE = new CharacteristicDecoder() {
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < 4) return false;
+            final long pressure = uint16(value, 0) | ((long) uint16(value, 2) << 16);
+            // in steps of 0.1 hPa, truncated
+            Ieee11073Float.appendDecimal(out, (int) (pressure / 100), -1).append(" hPa");
+            return true;
+        }
+    };
+
+    private static boolean appendBloodPressureOptions(byte[] value, StringBuilder out) {
+        final int flags = value[0] & 0xFF;
+        int offset = 7;
+        if ((flags & 0x02) != 0) {
+            if (value.length < offset + 7) return false;
+            appendDateTime(out.append(", "), value, offset);
+            offset += 7;
+        }
+        if ((flags & 0x04) != 0) {
+            if (value.length < offset + 2) return false;
+            Ieee11073Float.appendSfloat(out.append(", pulse "),
+                    Ieee11073Float.rawSfloat(value, offset), 0).append(" bpm");
+            offset += 2;
+        }
+        if ((flags & 0x08) != 0) {
+            if (value.length < offset + 1) return false;
+            out.append(", user ").append(value[offset] & 0xFF);
+            offset++;
+        }
+        if ((flags & 0x10) != 0) {
+            if (value.length < offset + 2) return false;
+            final int status = uint16(value, offset);
+            if ((status & 0x01) != 0) out.append(", body movement");
+            if ((status & 0x02) != 0) out.append(", cuff too loose");
+            if ((status & 0x04) != 0) out.append(", irregular pulse");
+            if ((status & 0x20) != 0) out.append(", improper position");
+        }
+        return true;
+    }
+
+    /**
+     * @return the decoded text, or the ASCII and hex form if the decoder rejected the value,
+     * e.g. a value shorter than its schema
+     */
+    public static String describe(CharacteristicDecoder decoder, byte[] value) {
+        final StringBuilder text = new StringBuilder(32);
+        if (!decoder.decode(value, text)) {
+            text.setLength(0);
+            HEX.decode(value, text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Wraps a value in a CharSequence that is only decoded when the text is requested, see
+     * {@link HexFormatter#lazyAsciiAndHex(byte[])}.
+     *
+     * @param value the bytes, they are not copied and must not change afterwards
+     */
+    public static CharSequence lazyText(final CharacteristicDecoder decoder, final byte[] value) {
+        if (decoder == HEX) {
+            return HexFormatter.lazyAsciiAndHex(value);
+        }
+        return new CharSequence() {
+            private String mText;
+
+            @Override
+            public int length() {
+                return toString().length();
+            }
+
+            @Override
+            public char charAt(int index) {
+                return toString().charAt(index);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                if (mText == null) {
+                    mText = describe(decoder, value);
+                }
+                return mText;
+            }
+        };
+    }
+
+    /**
+     * Appends the 7 byte Date Time format as "dd.MM.yyyy HH:mm:ss".
+     */
+    static void appendDateTime(StringBuilder out, byte[] value, int offset) {
+        appendTwoDigits(out, value[offset + 3] & 0xFF).append('.');
+        appendTwoDigits(out, value[offset + 2] & 0xFF).append('.');
+        out.append(uint16(value, offset)).append(' ');
+        appendTwoDigits(out, value[offset + 4] & 0xFF).append(':');
+        appendTwoDigits(out, value[offset + 5] & 0xFF).append(':');
+        appendTwoDigits(out, value[offset + 6] & 0xFF);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder out, int value) {
+        if (value < 10) out.append('0');
+        return out.append(value);
+    }
+
+    static int uint16(byte[] value, int offset) {
+        return (value[offset] & 0xFF) | ((value[offset + 1] & 0xFF) << 8);
+    }
+
+    private static void appendHoursMinutes(StringBuilder out, int minutes) {
+        out.append(minutes / 60).append(':');
+        if (minutes % 60 < 10) out.append('0');
+        out.append(minutes % 60);
+    }
+}
@@ -0,0 +1,97 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the operations and notifications of one characteristic (or descriptor) of one
+ * device, see {@link GattMetrics}. All methods are lock-free.
+ */
+final class CharacteristicMetrics {
+
+    final String address;
+    final UUID uuid;
+
+    private final LatencyHistogram mReadLatency = new LatencyHistogram();
+    private final LatencyHistogram mWriteLatency = new LatencyHistogram();
+    private final LatencyHistogram mNotificationInterval = new LatencyHistogram();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mNotifications = new AtomicLong();
+    // the bytes of all notifications but the first, they arrived within the measured span
+    private final AtomicLong mIntervalBytes = new AtomicLong();
+    private final AtomicLong mFirstNotificationNanos = new AtomicLong();
+    private final AtomicLong mLastNotificationNanos = new AtomicLong();
+    // status -> count, a new status is added once, all later failures only increment
+    private final ConcurrentHashMap<Integer, AtomicLong> mFailures = new ConcurrentHashMap<>();
+
+    CharacteristicMetrics(String address, UUID uuid) {
+        this.address = address;
+        this.uuid = uuid;
+    }
+
+    /**
+     * @param type   one of the GattOperationQueue.TYPE_ constants
+     * @param status GattTransport.STATUS_SUCCESS or the status of the failure
+     * @param bytes  the length of the value that was read
+     */
+    void recordOperation(int type, long latencyNanos, int status, int bytes) {
+        if (status != GattTransport.STATUS_SUCCESS) {
+            recordFailure(status);
+            return;
+        }
+        switch (type) {
+            case GattOperationQueue.TYPE_READ_CHARACTERISTIC:
+            case GattOperationQueue.TYPE_READ_DESCRIPTOR:
+                mReadLatency.record(latencyNanos);
+                mBytesReceived.addAndGet(bytes);
+                break;
+            case GattOperationQueue.TYPE_WRITE_CHARACTERISTIC:
+            case GattOperationQueue.TYPE_WRITE_DESCRIPTOR:
+                mWriteLatency.record(latencyNanos);
+                break;
+            default:
+                break;
+        }
+    }
+
+    void recordNotification(int bytes, long timestampNanos) {
+        mNotifications.incrementAndGet();
+        mBytesReceived.addAndGet(bytes);
+        final long previous = mLastNotificationNanos.getAndSet(timestampNanos);
+        if (previous == 0) {
+            mFirstNotificationNanos.compareAndSet(0, timestampNanos);
+        } else {
+            mNotificationInterval.record(timestampNanos - previous);
+            mIntervalBytes.addAndGet(bytes);
+        }
+    }
+
+    void recordFailure(int status) {
+        AtomicLong count = mFailures.get(status);
+        if (count == null) {
+            final AtomicLong created = new AtomicLong();
+            count = mFailures.putIfAbsent(status, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    CharacteristicStats snapshot() {
+        final long first = mFirstNotificationNanos.get();
+        final long last = mLastNotificationNanos.get();
+        final double bytesPerSecond = last > first
+                ? mIntervalBytes.get() * 1e9 / (last - first) : 0;
+        final Map<Integer, Long> failures = new TreeMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : mFailures.entrySet()) {
+            failures.put(entry.getKey(), entry.getValue().get());
+        }
+        return new CharacteristicStats(address, uuid, mReadLatency.snapshot(),
+                mWriteLatency.snapshot(), mNotificationInterval.snapshot(), mNotifications.get(),
+                mBytesReceived.get(), bytesPerSecond, failures);
+    }
+}
@@ -0,0 +1,238 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * A characteristic layout compiled by the {@link GattSchemaCompiler}.
+ *
+ * The program is a flat int array with one instruction of {@link #SIZE} slots per field of
+ * the schema, the labels, units and names are resolved into arrays indexed by the
+ * instruction. Decoding runs the instructions in one loop, a field is skipped when its
+ * condition does not match the flags read so far, there are no lookups and no allocations
+ * apart from the strings of the text fields.
+ *
+ * Values are appended as "label value unit", separated by ", ". The items of a repeated
+ * field share the label and unit: "RR 750 781 ms".
+ */
+public final class CharacteristicSchema implements CharacteristicDecoder {
+
+    // the opcodes
+    static final int OP_FLAGS = 0;
+    static final int OP_UINT = 1;
+    static final int OP_SINT = 2;
+    static final int OP_SFLOAT = 3;
+    static final int OP_FLOAT = 4;
+    static final int OP_UTF8 = 5;
+    static final int OP_DATE_TIME = 6;
+    static final int OP_SKIP = 7;
+    static final int OP_TEXT = 8;
+    static final int OP_REPEAT = 9;
+    static final int OP_END_REPEAT = 10;
+
+    // the slots of an instruction
+    static final int OPCODE = 0;
+    // the bytes of the field, the count of a repeat, 0 to repeat until the end of the value
+    static final int LENGTH = 1;
+    // the field is decoded if (flags & MASK) == EXPECT
+    static final int MASK = 2;
+    static final int EXPECT = 3;
+    // integers are shown as round(value * MUL / DIV) * 10^EXPONENT, floats are shifted
+    static final int MUL = 4;
+    static final int DIV = 5;
+    static final int EXPONENT = 6;
+    static final int MODE = 7;
+    // the end of a repeat jumps back to its start, a repeat that is skipped to its end
+    static final int JUMP = 8;
+    static final int SIZE = 9;
+
+    // bits of the MODE slot
+    static final int MODE_REPEAT = 0x01;
+    static final int MODE_HEX = 0x02;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final UUID uuid;
+    private final String name;
+    private final int[] mCode;
+    // per instruction, the label followed by a space and the unit preceded by one, or empty
+    private final String[] mLabels;
+    private final String[] mUnits;
+    // per instruction, the names of the values of an enumeration or null
+    private final String[][] mNames;
+
+    CharacteristicSchema(UUID uuid, String name, int[] code, String[] labels, String[] units,
+                         String[][] names) {
+        this.uuid = uuid;
+        this.name = name;
+        mCode = code;
+        mLabels = labels;
+        mUnits = units;
+        mNames = names;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of instructions of the program
+     */
+    public int getInstructionCount() {
+        return mCode.length / SIZE;
+    }
+
+    @Override
+    public boolean decode(byte[] value, StringBuilder out) {
+        final int[] code = mCode;
+        final int end = value.length;
+        int offset = 0;
+        int flags = 0;
+        int remaining = 0;
+        // the offset at the start of the current iteration of a repeat
+        int iteration = 0;
+        boolean first = true;
+        int pc = 0;
+        while (pc < code.length) {
+            final int op = code[pc + OPCODE];
+            if ((flags & code[pc + MASK]) != code[pc + EXPECT]) {
+                pc = op == OP_REPEAT ? code[pc + JUMP] : pc + SIZE;
+                continue;
+            }
+            final int length = code[pc + LENGTH];
+            switch (op) {
+                case OP_FLAGS:
+                    if (offset + length > end) return false;
+                    flags = (int) littleEndian(value, offset, length);
+                    offset += length;
+                    break;
+                case OP_REPEAT:
+                    if (offset >= end) {
+                        pc = code[pc + JUMP];
+                        continue;
+                    }
+                    remaining = length == 0 ? Integer.MAX_VALUE : length;
+                    iteration = offset;
+                    break;
+                case OP_END_REPEAT:
+                    // a repeat until the end of the value stops when an iteration read nothing
+                    if (--remaining > 0 && offset < end
+                            && (offset > iteration || code[code[pc + JUMP] + LENGTH] != 0)) {
+                        // to the first instruction after the start of the repeat
+                        pc = code[pc + JUMP] + SIZE;
+                        iteration = offset;
+                        continue;
+                    }
+                    break;
+                case OP_SKIP:
+                    if (offset + length > end) return false;
+                    offset += length;
+                    break;
+                case OP_TEXT:
+                    if (!first) out.append(", ");
+                    out.append(mLabels[pc / SIZE]);
+                    first = false;
+                    break;
+                case OP_UTF8:
+                    if (!first) out.append(", ");
+                    out.append(mLabels[pc / SIZE]).append(new String(value, offset,
+                            end - offset, UTF_8));
+                    offset = end;
+                    first = false;
+                    break;
+                default:
+                    if (offset + length > end) return false;
+                    if (!first) out.append(", ");
+                    out.append(mLabels[pc / SIZE]);
+                    offset = appendValue(value, offset, pc, out);
+                    if ((code[pc + MODE] & MODE_REPEAT) != 0) {
+                        while (offset + length <= end) {
+                            offset = appendValue(value, offset, pc, out.append(' '));
+                        }
+                    }
+                    out.append(mUnits[pc / SIZE]);
+                    first = false;
+                    break;
+            }
+            pc += SIZE;
+        }
+        return true;
+    }
+
+    /**
+     * Appends one value of a field without label and unit.
+     *
+     * @return the offset after the value
+     */
+    private int appendValue(byte[] value, int offset, int pc, StringBuilder out) {
+        final int[] code = mCode;
+        final int length = code[pc + LENGTH];
+        switch (code[pc + OPCODE]) {
+            case OP_SFLOAT:
+                Ieee11073Float.appendSfloat(out, Ieee11073Float.rawSfloat(value, offset),
+                        code[pc + EXPONENT]);
+                break;
+            case OP_FLOAT:
+                Ieee11073Float.appendFloat(out, Ieee11073Float.rawFloat(value, offset),
+                        code[pc + EXPONENT]);
+                break;
+            case OP_DATE_TIME:
+                CharacteristicDecoders.appendDateTime(out, value, offset);
+                break;
+            default:
+                long raw = littleEndian(value, offset, length);
+                if (code[pc + OPCODE] == OP_SINT) {
+                    final int shift = 64 - 8 * length;
+                    raw = (raw << shift) >> shift;
+                }
+                if ((code[pc + MODE] & MODE_HEX) != 0) {
+                    appendHex(out, raw, 2 * length);
+                    break;
+                }
+                final String[] names = mNames[pc / SIZE];
+                if (names != null && raw >= 0 && raw < names.length && names[(int) raw] != null) {
+                    out.append(names[(int) raw]);
+                    break;
+                }
+                Ieee11073Float.appendDecimal(out,
+                        scale(raw, code[pc + MUL], code[pc + DIV]), code[pc + EXPONENT]);
+                break;
+        }
+        return offset + length;
+    }
+
+    /**
+     * @return value * mul / div rounded half away from zero
+     */
+    private static long scale(long value, int mul, int div) {
+        if (div == 1) {
+            return value * mul;
+        }
+        return value >= 0 ? (value * mul + div / 2) / div : -((-value * mul + div / 2) / div);
+    }
+
+    private static long littleEndian(byte[] value, int offset, int length) {
+        long raw = 0;
+        for (int i = offset + length - 1; i >= offset; i--) {
+            raw = (raw << 8) | (value[i] & 0xFF);
+        }
+        return raw;
+    }
+
+    private static void appendHex(StringBuilder out, long value, int digits) {
+        out.append("0x");
+        for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+            out.append(HEX_DIGITS[(int) (value >>> shift) & 0x0F]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + uuid + "), " + getInstructionCount() + " instructions";
+    }
+}
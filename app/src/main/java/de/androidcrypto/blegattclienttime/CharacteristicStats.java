@@ -0,0 +1,119 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The metrics of one characteristic (or descriptor) of one device at the time the snapshot
+ * was taken, see {@link GattMetrics}.
+ */
+public class CharacteristicStats {
+
+    private final String address;
+    private final UUID uuid;
+    private final HistogramSnapshot readLatency;
+    private final HistogramSnapshot writeLatency;
+    private final HistogramSnapshot notificationInterval;
+    private final long notifications;
+    private final long bytesReceived;
+    private final double notificationBytesPerSecond;
+    private final Map<Integer, Long> failures;
+
+    CharacteristicStats(String address, UUID uuid, HistogramSnapshot readLatency,
+                        HistogramSnapshot writeLatency, HistogramSnapshot notificationInterval,
+                        long notifications, long bytesReceived,
+                        double notificationBytesPerSecond, Map<Integer, Long> failures) {
+        this.address = address;
+        this.uuid = uuid;
+        this.readLatency = readLatency;
+        this.writeLatency = writeLatency;
+        this.notificationInterval = notificationInterval;
+        this.notifications = notifications;
+        this.bytesReceived = bytesReceived;
+        this.notificationBytesPerSecond = notificationBytesPerSecond;
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the characteristic UUID, the descriptor UUID for descriptor operations
+     */
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    /**
+     * @return the time from handing a successful read to the stack until its result arrived
+     */
+    public HistogramSnapshot getReadLatency() {
+        return readLatency;
+    }
+
+    /**
+     * @return the time from handing a successful write to the stack until it was acknowledged
+     */
+    public HistogramSnapshot getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * @return the time between two notifications or indications
+     */
+    public HistogramSnapshot getNotificationInterval() {
+        return notificationInterval;
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+
+    /**
+     * @return the bytes of all reads and notifications
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return the notification bytes per second between the first and the last notification
+     */
+    public double getNotificationBytesPerSecond() {
+        return notificationBytesPerSecond;
+    }
+
+    /**
+     * @return the number of failed operations by GATT status, negative statuses are the
+     * STATUS_ constants of {@link GattException}
+     */
+    public Map<Integer, Long> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder text = new StringBuilder(256);
+        text.append(address).append(' ').append(AllGattCharacteristics.lookup(uuid,
+                AllGattDescriptors.lookup(uuid, uuid.toString())));
+        if (readLatency.getCount() > 0) {
+            text.append("\n  read ").append(readLatency);
+        }
+        if (writeLatency.getCount() > 0) {
+            text.append("\n  write ").append(writeLatency);
+        }
+        if (notifications > 0) {
+            text.append("\n  notifications ").append(notifications).append(", interval ")
+                    .append(notificationInterval).append(", ")
+                    .append(String.format(Locale.US, "%.1f", notificationBytesPerSecond))
+                    .append(" bytes/s");
+        }
+        if (!failures.isEmpty()) {
+            text.append("\n  failures by status ").append(failures);
+        }
+        return text.toString();
+    }
+}
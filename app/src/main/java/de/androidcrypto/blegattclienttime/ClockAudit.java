@@ -0,0 +1,127 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audits the clock of one peripheral: reads the Current Time characteristic in bursts and
+ * feeds the results into a {@link ClockOffsetEstimator}. Started with
+ * {@link GattClient#startClockAudit(String, Listener)}, it runs until it is stopped
+ * or the connection is closed.
+ *
+ * The reads of a burst are done by a {@link CurrentTimeBurst}, one after the other.
+ */
+public class ClockAudit {
+
+    public static final int DEFAULT_BURST_SIZE = 8;
+    public static final long DEFAULT_BURST_INTERVAL_MILLIS = 30000;
+
+    /**
+     * Receives the results of an audit. The methods are called on the Bluetooth binder thread
+     * or the scheduler thread of the service, they have to return quickly.
+     */
+    public interface Listener {
+        /**
+         * Called after every burst that had at least one valid read.
+         */
+        void onEstimate(String address, ClockEstimate estimate);
+
+        /**
+         * Called when a read failed, the current burst ends and the next one is tried after
+         * the burst interval.
+         */
+        void onError(String address, Throwable error);
+    }
+
+    private final GattConnection mConnection;
+    private final ScheduledExecutorService mScheduler;
+    private final Listener mListener;
+    private final int mBurstSize;
+    private final long mBurstIntervalMillis;
+
+    // only one burst runs at a time, the estimator is never accessed concurrently
+    private final ClockOffsetEstimator mEstimator = new ClockOffsetEstimator();
+    private volatile boolean mResetRequested;
+    private volatile boolean mStopped;
+    private volatile CurrentTimeBurst mBurst;
+    private volatile ScheduledFuture<?> mNextBurst;
+
+    ClockAudit(GattConnection connection, ScheduledExecutorService scheduler, Listener listener,
+               int burstSize, long burstIntervalMillis) {
+        if (burstSize < 1) {
+            throw new IllegalArgumentException("burstSize must be at least 1");
+        }
+        mConnection = connection;
+        mScheduler = scheduler;
+        mListener = listener;
+        mBurstSize = burstSize;
+        mBurstIntervalMillis = burstIntervalMillis;
+    }
+
+    public String getAddress() {
+        return mConnection.address;
+    }
+
+    void start() {
+        mNextBurst = mScheduler.schedule(mStartBurst, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the audit, a read that is already queued still runs but its result is ignored.
+     */
+    public void stop() {
+        mStopped = true;
+        final CurrentTimeBurst burst = mBurst;
+        if (burst != null) {
+            burst.cancel();
+        }
+        final ScheduledFuture<?> next = mNextBurst;
+        if (next != null) {
+            next.cancel(false);
+        }
+    }
+
+    public boolean isStopped() {
+        return mStopped;
+    }
+
+    /**
+     * Forgets the offsets and the drift fit from the next burst on, called after the clock of
+     * the peripheral was set.
+     */
+    void reset() {
+        mResetRequested = true;
+    }
+
+    private final Runnable mStartBurst = new Runnable() {
+        @Override
+        public void run() {
+            if (mStopped) return;
+            if (mResetRequested) {
+                mResetRequested = false;
+                mEstimator.reset();
+            }
+            final CurrentTimeBurst burst = new CurrentTimeBurst(mConnection, mEstimator,
+                    mBurstSize, mBurstDone);
+            mBurst = burst;
+            burst.start();
+        }
+    };
+
+    private final CurrentTimeBurst.Callback mBurstDone = new CurrentTimeBurst.Callback() {
+        @Override
+        public void onBurstDone(ClockEstimate estimate, Throwable error) {
+            if (error != null) {
+                mListener.onError(mConnection.address, error);
+            }
+            if (estimate != null) {
+                mListener.onEstimate(mConnection.address, estimate);
+            }
+            if (!mStopped) {
+                mNextBurst = mScheduler.schedule(mStartBurst, mBurstIntervalMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    };
+}
@@ -0,0 +1,106 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * The result of one burst of Current Time reads, created by the {@link ClockOffsetEstimator}.
+ *
+ * Offsets are the time of the peripheral minus the local wall clock, a positive offset means
+ * the peripheral clock is ahead. The drift is the slope of the offset over the elapsed time,
+ * a positive drift means the peripheral clock runs fast.
+ */
+public class ClockEstimate {
+
+    private final long burst;
+    private final int sampleCount;
+    private final long elapsedRealtimeNanos;
+    private final double offsetMillis;
+    private final double roundTripMillis;
+    private final boolean fitted;
+    private final int fitCount;
+    private final double fittedOffsetMillis;
+    private final double driftPpm;
+
+    ClockEstimate(long burst, int sampleCount, long elapsedRealtimeNanos, double offsetMillis,
+                  double roundTripMillis, boolean fitted, int fitCount,
+                  double fittedOffsetMillis, double driftPpm) {
+        this.burst = burst;
+        this.sampleCount = sampleCount;
+        this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+        this.offsetMillis = offsetMillis;
+        this.roundTripMillis = roundTripMillis;
+        this.fitted = fitted;
+        this.fitCount = fitCount;
+        this.fittedOffsetMillis = fittedOffsetMillis;
+        this.driftPpm = driftPpm;
+    }
+
+    /**
+     * @return the number of the burst, starting with 1
+     */
+    public long getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return the number of valid samples in the burst
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the midpoint of the sample with the shortest round trip, in
+     * SystemClock.elapsedRealtimeNanos() time
+     */
+    public long getElapsedRealtimeNanos() {
+        return elapsedRealtimeNanos;
+    }
+
+    /**
+     * @return the offset measured by the sample with the shortest round trip of the burst
+     */
+    public double getOffsetMillis() {
+        return offsetMillis;
+    }
+
+    /**
+     * @return the shortest round trip of the burst, half of it bounds the error of the offset
+     */
+    public double getRoundTripMillis() {
+        return roundTripMillis;
+    }
+
+    /**
+     * @return true if the burst was precise enough to be added to the drift fit
+     */
+    public boolean isFitted() {
+        return fitted;
+    }
+
+    /**
+     * @return the number of bursts in the drift fit
+     */
+    public int getFitCount() {
+        return fitCount;
+    }
+
+    /**
+     * @return the offset at the time of the burst on the fitted line, NaN while less than
+     * two bursts are in the fit
+     */
+    public double getFittedOffsetMillis() {
+        return fittedOffsetMillis;
+    }
+
+    /**
+     * @return the drift in parts per million, NaN while less than two bursts are in the fit
+     */
+    public double getDriftPpm() {
+        return driftPpm;
+    }
+
+    @Override
+    public String toString() {
+        return "burst " + burst + ": offset " + offsetMillis + " ms, rtt " + roundTripMillis
+                + " ms, drift " + driftPpm + " ppm (" + fitCount + " bursts)";
+    }
+}
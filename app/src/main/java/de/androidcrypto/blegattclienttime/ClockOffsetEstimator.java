@@ -0,0 +1,158 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * Estimates the offset and the drift of a peripheral clock from repeated Current Time reads,
+ * in the way NTP does.
+ *
+ * Every read is a sample: the local time before the request was sent, the local time when the
+ * response arrived and the time of the peripheral. The peripheral took its time somewhere
+ * within the round trip, assuming the middle the error is at most half of the round trip.
+ * Reads are taken in bursts, of every burst only the sample with the shortest round trip is
+ * used, the others were delayed by the stack or a busy radio. The offsets of the bursts are
+ * fitted to a line with an incremental least squares fit, its slope is the drift. Bursts whose
+ * shortest round trip is more than {@link #FIT_ROUND_TRIP_FACTOR} times the shortest one seen
+ * so far are reported but not fitted.
+ *
+ * The estimator keeps a fixed number of fields and no sample history, it can run for days.
+ * Peripherals that do not fill in the Fractions256 field only have a resolution of a second.
+ *
+ * Instances are not thread safe.
+ */
+public class ClockOffsetEstimator {
+
+    static final double FIT_ROUND_TRIP_FACTOR = 2.0;
+
+    // the best sample of the current burst
+    private int mBurstSamples;
+    private long mBestRoundTripNanos = Long.MAX_VALUE;
+    private long mBestMidpointNanos;
+    private double mBestOffsetMillis;
+
+    private long mBursts;
+    private long mMinRoundTripNanos = Long.MAX_VALUE;
+
+    // running means and co-moments of the fit (Welford), x in seconds since the first fitted
+    // burst, y in milliseconds
+    private long mOriginNanos;
+    private int mFitCount;
+    private double mMeanX;
+    private double mMeanY;
+    private double mSumXX;
+    private double mSumXY;
+
+    /**
+     * Adds the sample of one read to the current burst.
+     *
+     * @param sendNanos         elapsedRealtimeNanos() before the read was handed to the stack
+     * @param receiveNanos      elapsedRealtimeNanos() when the response arrived
+     * @param receiveWallMillis System.currentTimeMillis() when the response arrived
+     * @param remoteMillis      the epoch millis read from the peripheral
+     * @return false if the sample was rejected because the times are not in order
+     */
+    public boolean addSample(long sendNanos, long receiveNanos, long receiveWallMillis,
+                             long remoteMillis) {
+        final long roundTripNanos = receiveNanos - sendNanos;
+        if (roundTripNanos < 0) {
+            return false;
+        }
+        mBurstSamples++;
+        if (roundTripNanos < mBestRoundTripNanos) {
+            mBestRoundTripNanos = roundTripNanos;
+            mBestMidpointNanos = sendNanos + roundTripNanos / 2;
+            final double localMillis = receiveWallMillis - roundTripNanos / 2e6;
+            mBestOffsetMillis = remoteMillis - localMillis;
+        }
+        return true;
+    }
+
+    /**
+     * Finishes the current burst and adds its best sample to the fit.
+     *
+     * @return the estimate, null if the burst had no valid sample
+     */
+    public ClockEstimate endBurst() {
+        if (mBurstSamples == 0) {
+            return null;
+        }
+        mBursts++;
+        final int samples = mBurstSamples;
+        final long roundTripNanos = mBestRoundTripNanos;
+        final long midpointNanos = mBestMidpointNanos;
+        final double offsetMillis = mBestOffsetMillis;
+        mBurstSamples = 0;
+        mBestRoundTripNanos = Long.MAX_VALUE;
+
+        mMinRoundTripNanos = Math.min(mMinRoundTripNanos, roundTripNanos);
+        final boolean fitted = roundTripNanos <= mMinRoundTripNanos * FIT_ROUND_TRIP_FACTOR;
+        if (fitted) {
+            addToFit(midpointNanos, offsetMillis);
+        }
+        return new ClockEstimate(mBursts, samples, midpointNanos, offsetMillis,
+                roundTripNanos / 1e6, fitted, mFitCount,
+                getFittedOffsetMillis(midpointNanos), getDriftPpm());
+    }
+
+    private void addToFit(long midpointNanos, double offsetMillis) {
+        if (mFitCount == 0) {
+            mOriginNanos = midpointNanos;
+        }
+        final double x = (midpointNanos - mOriginNanos) / 1e9;
+        mFitCount++;
+        final double dx = x - mMeanX;
+        mMeanX += dx / mFitCount;
+        mMeanY += (offsetMillis - mMeanY) / mFitCount;
+        mSumXX += dx * (x - mMeanX);
+        mSumXY += dx * (offsetMillis - mMeanY);
+    }
+
+    /**
+     * @return the drift in parts per million, NaN while less than two bursts at different
+     * times are in the fit
+     */
+    public double getDriftPpm() {
+        if (mFitCount < 2 || mSumXX <= 0) {
+            return Double.NaN;
+        }
+        // milliseconds per second
+        return mSumXY / mSumXX * 1000;
+    }
+
+    /**
+     * @param elapsedRealtimeNanos the time to predict the offset for
+     * @return the offset on the fitted line, NaN while the drift is unknown
+     */
+    public double getFittedOffsetMillis(long elapsedRealtimeNanos) {
+        final double drift = getDriftPpm();
+        if (Double.isNaN(drift)) {
+            return Double.NaN;
+        }
+        final double x = (elapsedRealtimeNanos - mOriginNanos) / 1e9;
+        return mMeanY + drift / 1000 * (x - mMeanX);
+    }
+
+    /**
+     * @return the shortest round trip of all bursts in milliseconds, NaN before the first
+     */
+    public double getMinRoundTripMillis() {
+        return mBursts == 0 ? Double.NaN : mMinRoundTripNanos / 1e6;
+    }
+
+    public long getBurstCount() {
+        return mBursts;
+    }
+
+    /**
+     * Forgets all samples and the fit, e.g. after the peripheral clock was set.
+     */
+    public void reset() {
+        mBurstSamples = 0;
+        mBestRoundTripNanos = Long.MAX_VALUE;
+        mBursts = 0;
+        mMinRoundTripNanos = Long.MAX_VALUE;
+        mFitCount = 0;
+        mMeanX = 0;
+        mMeanY = 0;
+        mSumXX = 0;
+        mSumXY = 0;
+    }
+}
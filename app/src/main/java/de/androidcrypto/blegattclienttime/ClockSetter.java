@@ -0,0 +1,172 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets the clock of a peripheral through the Current Time characteristic so that the new time
+ * takes effect on a second boundary, started with
+ * {@link GattClient#setCurrentTime(String, long)}.
+ *
+ * Many peripherals ignore the Fractions256 field and start the second when the value arrives.
+ * The setter first measures the round trip of the link with a few reads, then encodes the
+ * value of the next second boundary that can still be reached and hands the write to the stack
+ * half a round trip before that boundary. If the write could not be started in time, e.g.
+ * because another operation was running, the next boundary is used, nothing is sent for a
+ * missed boundary. Finally the time is read back and the offset checked against a tolerance.
+ * If no read-back has a Fractions256 other than 0 the peripheral only counts whole seconds, it
+ * shows a time up to a second behind, the tolerance is widened by a second on that side.
+ */
+class ClockSetter {
+
+    static final long DEFAULT_TOLERANCE_MILLIS = 50;
+    // the resolution of a peripheral that leaves Fractions256 at 0
+    static final long SECOND_RESOLUTION_MILLIS = 1000;
+    static final int PROBE_READS = 4;
+    static final int VERIFY_READS = 4;
+    static final int MAX_ATTEMPTS = 5;
+    // the value is encoded and the write scheduled at least this long before the boundary
+    static final long MIN_LEAD_MILLIS = 200;
+    // a write that would start later than this after its planned time waits for the next second
+    static final long MAX_LATENESS_MILLIS = 10;
+    static final byte ADJUST_REASON_MANUAL = 1;
+
+    private final GattConnection mConnection;
+    private final ScheduledExecutorService mScheduler;
+    private final long mToleranceMillis;
+    private final GattFuture<ClockEstimate> mResult = new GattFuture<>();
+
+    private volatile long mOneWayMillis;
+    private volatile int mAttempts;
+
+    ClockSetter(GattConnection connection, ScheduledExecutorService scheduler,
+                long toleranceMillis) {
+        mConnection = connection;
+        mScheduler = scheduler;
+        mToleranceMillis = toleranceMillis;
+    }
+
+    /**
+     * @return a future that receives the offset measured by the read-back, it fails with
+     * {@link GattException#STATUS_VERIFY_FAILED} if the offset exceeds the tolerance
+     */
+    GattFuture<ClockEstimate> start() {
+        final CurrentTimeBurst[] probe = new CurrentTimeBurst[1];
+        probe[0] = new CurrentTimeBurst(mConnection, new ClockOffsetEstimator(), PROBE_READS,
+                new CurrentTimeBurst.Callback() {
+                    @Override
+                    public void onBurstDone(ClockEstimate estimate, Throwable error) {
+                        if (error != null) {
+                            mResult.completeExceptionally(error);
+                            return;
+                        }
+                        // the clock may not be set yet, the round trip is taken from all reads
+                        mOneWayMillis = probe[0].getMinRoundTripNanos() / 2000000;
+                        scheduleWrite();
+                    }
+                });
+        probe[0].start();
+        return mResult;
+    }
+
+    private void scheduleWrite() {
+        if (mResult.isDone()) return;
+        if (++mAttempts > MAX_ATTEMPTS) {
+            mResult.completeExceptionally(new GattException(GattException.STATUS_NOT_STARTED,
+                    "no second boundary reached in " + MAX_ATTEMPTS + " attempts"));
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long boundary = nextBoundary(now, mOneWayMillis);
+        final long sendAt = boundary - mOneWayMillis;
+        final TimeWrite write = new TimeWrite(
+                CurrentTimeService.getExactTime(boundary, ADJUST_REASON_MANUAL), sendAt);
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mConnection.queue.enqueue(write).addListener(new GattFuture.Listener<Void>() {
+                    @Override
+                    public void onComplete(Void value, Throwable error) {
+                        if (error == null) {
+                            onWritten();
+                        } else if (write.late) {
+                            scheduleWrite();
+                        } else {
+                            mResult.completeExceptionally(error);
+                        }
+                    }
+                });
+            }
+        }, sendAt - now, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the first second boundary whose value can still be encoded and handed to the
+     * stack {@link #MIN_LEAD_MILLIS} before it must be sent
+     */
+    static long nextBoundary(long nowMillis, long oneWayMillis) {
+        return ((nowMillis + oneWayMillis + MIN_LEAD_MILLIS) / 1000 + 1) * 1000;
+    }
+
+    private void onWritten() {
+        final ClockAudit audit = mConnection.clockAudit;
+        if (audit != null) {
+            audit.reset();
+        }
+        final CurrentTimeBurst[] verify = new CurrentTimeBurst[1];
+        verify[0] = new CurrentTimeBurst(mConnection, new ClockOffsetEstimator(), VERIFY_READS,
+                new CurrentTimeBurst.Callback() {
+                    @Override
+                    public void onBurstDone(ClockEstimate estimate, Throwable error) {
+                        if (error != null) {
+                            mResult.completeExceptionally(error);
+                        } else if (estimate == null) {
+                            mResult.completeExceptionally(new GattException(
+                                    GattException.STATUS_VERIFY_FAILED, "no valid time read back"));
+                        } else if (!isWithinTolerance(estimate.getOffsetMillis(),
+                                verify[0].hasFractions())) {
+                            mResult.completeExceptionally(new GattException(
+                                    GattException.STATUS_VERIFY_FAILED, "offset "
+                                    + Math.round(estimate.getOffsetMillis()) + " ms read back"));
+                        } else {
+                            mResult.complete(estimate);
+                        }
+                    }
+                });
+        verify[0].start();
+    }
+
+    /**
+     * @param fractions false if the read-back times had no fraction of a second, they are
+     *                  truncated then and read up to a second behind
+     */
+    boolean isWithinTolerance(double offsetMillis, boolean fractions) {
+        final long behindMillis = fractions
+                ? mToleranceMillis : mToleranceMillis + SECOND_RESOLUTION_MILLIS;
+        return offsetMillis <= mToleranceMillis && offsetMillis >= -behindMillis;
+    }
+
+    private final class TimeWrite extends GattOperationQueue.Operation<Void> {
+        private final byte[] mValue;
+        private final long mSendAtMillis;
+        volatile boolean late;
+
+        TimeWrite(byte[] value, long sendAtMillis) {
+            super(GattOperationQueue.TYPE_WRITE_CHARACTERISTIC, CurrentTimeBurst.CURRENT_TIME,
+                    GattOperationQueue.DEFAULT_TIMEOUT_MILLIS);
+            mValue = value;
+            mSendAtMillis = sendAtMillis;
+        }
+
+        @Override
+        boolean execute() {
+            if (System.currentTimeMillis() - mSendAtMillis > MAX_LATENESS_MILLIS) {
+                // the value is stale, do not send it
+                late = true;
+                return false;
+            }
+            return mConnection.transport.writeCharacteristic(null, CurrentTimeBurst.CURRENT_TIME,
+                    mValue, GattTransport.WRITE_TYPE_DEFAULT);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * The link parameters of a connection at the time they were requested, see
+ * {@link GattClient#getConnectionParameters(String)}.
+ *
+ * The MTU and the PHYs are the values the devices agreed on. Android does not report the
+ * connection interval, the connection priority is the one that was last requested.
+ */
+public class ConnectionParameters {
+
+    private final String profile;
+    private final boolean burst;
+    private final int mtu;
+    private final int connectionPriority;
+    private final int txPhy;
+    private final int rxPhy;
+
+    ConnectionParameters(String profile, boolean burst, int mtu, int connectionPriority,
+                         int txPhy, int rxPhy) {
+        this.profile = profile;
+        this.burst = burst;
+        this.mtu = mtu;
+        this.connectionPriority = connectionPriority;
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+    }
+
+    /**
+     * @return the name of the applied profile, null if the stack defaults are in use
+     */
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return true if the profile was switched for a burst of traffic
+     */
+    public boolean isBurst() {
+        return burst;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return one of the GattTransport.CONNECTION_PRIORITY_ constants
+     */
+    public int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    /**
+     * @return one of the GattTransport.PHY_LE_ constants
+     */
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    /**
+     * @return one of the GattTransport.PHY_LE_ constants
+     */
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    private static String priorityName(int priority) {
+        switch (priority) {
+            case GattTransport.CONNECTION_PRIORITY_HIGH:
+                return "high";
+            case GattTransport.CONNECTION_PRIORITY_LOW_POWER:
+                return "low power";
+            default:
+                return "balanced";
+        }
+    }
+
+    private static String phyName(int phy) {
+        switch (phy) {
+            case GattTransport.PHY_LE_2M:
+                return "2M";
+            case GattTransport.PHY_LE_CODED:
+                return "coded";
+            default:
+                return "1M";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "profile " + (profile == null ? "default" : profile) + (burst ? " (burst)" : "")
+                + ", MTU " + mtu + ", priority " + priorityName(connectionPriority)
+                + ", PHY " + phyName(txPhy) + "/" + phyName(rxPhy);
+    }
+}
@@ -0,0 +1,92 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * A named set of link parameters that is applied right after a connection was established,
+ * see {@link GattClient#setConnectionProfile(String, ConnectionProfile)}.
+ *
+ * The connection priority selects the connection interval, roughly 11.25 - 15 ms for high,
+ * 30 - 50 ms for balanced and 100 - 125 ms for low power, the remote device may choose other
+ * values. The MTU is exchanged only once per connection, by the first profile that asks for
+ * more than the default, a later profile can not change it anymore. That is why only
+ * {@link #BULK_TRANSFER} asks for a larger MTU, a preset that asked for less would keep bulk
+ * writes from ever reaching {@link #MAX_MTU}. The PHY is only selected on Android 8.0 and
+ * newer, older devices stay on 1M.
+ */
+public final class ConnectionProfile {
+
+    /**
+     * The largest ATT MTU, requested before the first bulk write of a connection.
+     */
+    public static final int MAX_MTU = 517;
+
+    /**
+     * Short intervals for request/response traffic such as clock reads, the values fit into
+     * the default MTU.
+     */
+    public static final ConnectionProfile LOW_LATENCY = new ConnectionProfile("low-latency",
+            GattTransport.DEFAULT_MTU, GattTransport.CONNECTION_PRIORITY_HIGH,
+            GattTransport.PHY_LE_2M_MASK);
+
+    /**
+     * The interval Android uses by default.
+     */
+    public static final ConnectionProfile BALANCED = new ConnectionProfile("balanced",
+            GattTransport.DEFAULT_MTU, GattTransport.CONNECTION_PRIORITY_BALANCED,
+            GattTransport.PHY_LE_1M_MASK);
+
+    /**
+     * Long intervals and the default MTU for devices that mostly send notifications.
+     */
+    public static final ConnectionProfile LOW_POWER = new ConnectionProfile("low-power",
+            GattTransport.DEFAULT_MTU, GattTransport.CONNECTION_PRIORITY_LOW_POWER,
+            GattTransport.PHY_LE_1M_MASK);
+
+    /**
+     * The largest MTU, short intervals and the 2M PHY for {@link GattBulkWrite}s.
+     */
+    public static final ConnectionProfile BULK_TRANSFER = new ConnectionProfile("bulk-transfer",
+            MAX_MTU, GattTransport.CONNECTION_PRIORITY_HIGH,
+            GattTransport.PHY_LE_2M_MASK);
+
+    private final String name;
+    private final int mtu;
+    private final int connectionPriority;
+    private final int phyMask;
+
+    /**
+     * @param mtu                the MTU to request, 23 to keep the default
+     * @param connectionPriority one of the GattTransport.CONNECTION_PRIORITY_ constants
+     * @param phyMask            the preferred PHYs for both directions, a combination of the
+     *                           GattTransport.PHY_LE_..._MASK constants
+     */
+    public ConnectionProfile(String name, int mtu, int connectionPriority, int phyMask) {
+        if (mtu < GattTransport.DEFAULT_MTU || mtu > MAX_MTU) {
+            throw new IllegalArgumentException("mtu out of range: " + mtu);
+        }
+        this.name = name;
+        this.mtu = mtu;
+        this.connectionPriority = connectionPriority;
+        this.phyMask = phyMask;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    public int getPhyMask() {
+        return phyMask;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,196 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link ConnectionProfile} of one connection and switches it around bursts of
+ * traffic.
+ *
+ * The connection priority and the PHY are requested as soon as the link is up, they are not
+ * GATT requests and bypass the operation queue. The MTU exchange is a GATT request, it is
+ * queued once the services were discovered so it does not collide with the discovery.
+ *
+ * With automatic switching a burst, the Current Time reads of a clock audit or a bulk write,
+ * applies its own profile while it runs. The profile of the connection is restored when no
+ * burst ran for {@link #BURST_IDLE_MILLIS}, so back to back bursts keep the short interval.
+ */
+class ConnectionTuner {
+    private final static String TAG = ConnectionTuner.class.getSimpleName();
+
+    static final long BURST_IDLE_MILLIS = 2000;
+
+    // restored after a burst on a connection without a profile
+    private static final ConnectionProfile STACK_DEFAULT = new ConnectionProfile(null,
+            GattTransport.DEFAULT_MTU, GattTransport.CONNECTION_PRIORITY_BALANCED,
+            GattTransport.PHY_LE_1M_MASK);
+
+    private final GattConnection mConnection;
+    private final ScheduledExecutorService mScheduler;
+
+    // guarded by this
+    private ConnectionProfile mProfile;
+    private ConnectionProfile mBurstProfile;
+    private boolean mAutoSwitch;
+    private int mBursts;
+    private ScheduledFuture<?> mRestore;
+    // the exchange of this link, an MTU is only exchanged once per connection
+    private GattFuture<Integer> mMtuRequest;
+
+    // the values the devices agreed on, the priority is the requested one
+    private volatile int mConnectionPriority = GattTransport.CONNECTION_PRIORITY_BALANCED;
+    private volatile int mTxPhy = GattTransport.PHY_LE_1M;
+    private volatile int mRxPhy = GattTransport.PHY_LE_1M;
+
+    ConnectionTuner(GattConnection connection, ScheduledExecutorService scheduler) {
+        mConnection = connection;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * @param profile the profile of the connection, null for the stack defaults
+     */
+    synchronized void setProfile(ConnectionProfile profile) {
+        mProfile = profile;
+        if (mBurstProfile == null) {
+            apply(current());
+        }
+    }
+
+    synchronized void setAutoSwitch(boolean enabled) {
+        mAutoSwitch = enabled;
+    }
+
+    /**
+     * Marks the start of a burst of traffic, every call needs a matching {@link #endBurst()}.
+     */
+    synchronized void beginBurst(ConnectionProfile profile) {
+        mBursts++;
+        if (mRestore != null) {
+            mRestore.cancel(false);
+            mRestore = null;
+        }
+        if (mAutoSwitch && profile != mBurstProfile) {
+            mBurstProfile = profile;
+            apply(profile);
+        }
+    }
+
+    synchronized void endBurst() {
+        if (mBursts == 0 || --mBursts > 0 || mBurstProfile == null) {
+            return;
+        }
+        mRestore = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        }, BURST_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void restore() {
+        if (mBursts > 0 || mBurstProfile == null) {
+            return;
+        }
+        mRestore = null;
+        mBurstProfile = null;
+        apply(current());
+    }
+
+    /**
+     * Exchanges the MTU unless it was exchanged on this link already.
+     *
+     * @return the future of the exchange, of the earlier one if there was one
+     */
+    synchronized GattFuture<Integer> ensureMtu(int mtu) {
+        if (mMtuRequest != null) {
+            return mMtuRequest;
+        }
+        if (mtu <= GattTransport.DEFAULT_MTU) {
+            return GattFuture.completed(mConnection.mtu);
+        }
+        return requestMtu(mtu);
+    }
+
+    synchronized GattFuture<Integer> requestMtu(final int mtu) {
+        mMtuRequest = mConnection.queue.enqueue(new GattOperationQueue.Operation<Integer>(
+                GattOperationQueue.TYPE_REQUEST_MTU, null,
+                GattOperationQueue.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            boolean execute() {
+                return mConnection.transport.requestMtu(mtu);
+            }
+        });
+        return mMtuRequest;
+    }
+
+    /**
+     * Called when the link came up, requests the connection priority and the PHY.
+     */
+    synchronized void onConnected() {
+        mConnectionPriority = GattTransport.CONNECTION_PRIORITY_BALANCED;
+        mTxPhy = GattTransport.PHY_LE_1M;
+        mRxPhy = GattTransport.PHY_LE_1M;
+        if (mProfile != null || mBurstProfile != null) {
+            apply(current());
+        }
+    }
+
+    /**
+     * Called after a successful discovery, before the subscriptions are restored.
+     */
+    synchronized void onServicesDiscovered() {
+        if (mProfile != null || mBurstProfile != null) {
+            ensureMtu(current().getMtu());
+        }
+    }
+
+    synchronized void onDisconnected() {
+        mMtuRequest = null;
+    }
+
+    void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        if (status == GattTransport.STATUS_SUCCESS) {
+            mTxPhy = txPhy;
+            mRxPhy = rxPhy;
+        } else {
+            GattLog.w(TAG, "PHY update of " + mConnection.address + " failed: " + status);
+        }
+    }
+
+    synchronized ConnectionParameters getParameters() {
+        return new ConnectionParameters(current().getName(), mBurstProfile != null,
+                mConnection.mtu, mConnectionPriority, mTxPhy, mRxPhy);
+    }
+
+    private ConnectionProfile current() {
+        if (mBurstProfile != null) {
+            return mBurstProfile;
+        }
+        return mProfile != null ? mProfile : STACK_DEFAULT;
+    }
+
+    private void apply(ConnectionProfile profile) {
+        final GattTransport transport = mConnection.transport;
+        if (mConnection.state != GattClient.STATE_CONNECTED || transport == null) {
+            // applied by onConnected()
+            return;
+        }
+        final int priority = profile.getConnectionPriority();
+        if (transport.requestConnectionPriority(priority)) {
+            mConnectionPriority = priority;
+        } else {
+            GattLog.w(TAG, "connection priority " + priority + " not accepted for "
+                    + mConnection.address);
+        }
+        if (!transport.setPreferredPhy(profile.getPhyMask(), profile.getPhyMask())) {
+            GattLog.d(TAG, "no PHY selection for " + mConnection.address + ", staying on 1M");
+        }
+        if (mConnection.discovered) {
+            // otherwise requested by onServicesDiscovered()
+            ensureMtu(profile.getMtu());
+        }
+        GattLog.d(TAG, "applied profile " + profile + " to " + mConnection.address);
+    }
+}
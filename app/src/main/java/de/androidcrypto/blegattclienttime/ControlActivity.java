@@ -2,15 +2,15 @@ package de.androidcrypto.blegattclienttime;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
+import android.bluetooth.BluetoothProfile;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -27,6 +27,7 @@ import android.widget.Toast;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
 
 public class ControlActivity extends AppCompatActivity {
 
@@ -39,10 +40,13 @@ public class ControlActivity extends AppCompatActivity {
     private String mDeviceAddress;
 
     private boolean mConnected = false;
-    private BluetoothGattCharacteristic mNotifyCharacteristic;
+    private BluetoothGattCharacteristic mNotifyCharacteristic; // the selected characteristic that can notify or indicate
+    // the characteristics subscribed to, several can stream at the same time
+    private final HashMap<UUID, GattSubscription> mSubscriptions = new HashMap<>();
     private BluetoothGattCharacteristic mWriteCharacteristic; // used for writing new data, filled by
     private BluetoothGattDescriptor mNotifyDescriptor; // used for changing notification, filled by
     private BluetoothLeService mBluetoothLeService;
+    private BluetoothLeService.LocalBinder mBluetoothLeBinder;
 
     TextView textViewState;
     Button writeToDevice, notify;
@@ -91,7 +95,7 @@ public class ControlActivity extends AppCompatActivity {
                 // check that a characteristic was choosen
                 if (mWriteCharacteristic != null) {
                     Log.i(TAG, "dataToWrite onClick calls writeCharacteristic");
-                    mBluetoothLeService.writeCharacteristic(mWriteCharacteristic, dataInt);
+                    mBluetoothLeService.writeCharacteristic(mDeviceAddress, mWriteCharacteristic, dataInt);
 
                 } else {
                     Log.i(TAG, "dataToWrite onClick mWriteCharacteristic is NULL");
@@ -103,11 +107,22 @@ public class ControlActivity extends AppCompatActivity {
         notify.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                String status = "not subscribed";
-                Log.i(TAG, "notify clicked, status is ");
-                boolean newNotification = true;
-                Log.i(TAG, "change Notification for " + mNotifyCharacteristic + "to " + newNotification);
-                mBluetoothLeService.changeCharacteristicNotification(mNotifyCharacteristic, newNotification);
+                if (mNotifyCharacteristic == null || mBluetoothLeService == null) return;
+                final UUID uuid = mNotifyCharacteristic.getUuid();
+                final GattSubscription subscription = mSubscriptions.remove(uuid);
+                if (subscription != null) {
+                    Log.i(TAG, "unsubscribe from " + uuid);
+                    subscription.cancel();
+                } else {
+                    Log.i(TAG, "subscribe to " + uuid);
+                    // the values arrive through mGattEventListener
+                    final GattSubscription added = mBluetoothLeService.subscribe(mDeviceAddress,
+                            mNotifyCharacteristic, null, null);
+                    if (added != null) {
+                        mSubscriptions.put(uuid, added);
+                    }
+                }
+                updateNotifyButton();
             }
         });
     }
@@ -117,68 +132,128 @@ public class ControlActivity extends AppCompatActivity {
 
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder service) {
-            mBluetoothLeService = ((BluetoothLeService.LocalBinder) service).getService();
+            mBluetoothLeBinder = (BluetoothLeService.LocalBinder) service;
+            mBluetoothLeService = mBluetoothLeBinder.getService();
             if (!mBluetoothLeService.initialize()) {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
             }
+            // events are delivered directly on the UI thread, no broadcasts needed
+            mBluetoothLeBinder.setBroadcastsEnabled(false);
+            mBluetoothLeBinder.registerListener(mGattEventListener,
+                    ContextCompat.getMainExecutor(ControlActivity.this));
             // Automatically connects to the device upon successful start-up initialization.
             mBluetoothLeService.connect(mDeviceAddress);
+            if (mBluetoothLeService.getConnectionState(mDeviceAddress)
+                    == BluetoothLeService.STATE_CONNECTED) {
+                // an established link is reused, no new connection events will arrive
+                mConnected = true;
+                updateConnectionState("GATT_CONNECTED");
+            }
+            // a new connection shows the services cached from the last one until the
+            // discovery completes
+            displayGattServices(mBluetoothLeService.getSupportedGattServices(mDeviceAddress));
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
             mBluetoothLeService = null;
+            mBluetoothLeBinder = null;
         }
     };
 
-    // Handles various events fired by the Service.
-    // ACTION_GATT_CONNECTED: connected to a GATT server.
-    // ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
-    // ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
-    // ACTION_DATA_AVAILABLE: received data from the device.  This can be a result of read
-    //                        or notification operations.
-    // ACTION_DATA_WRITE: write data to the device. This can be a result of a write operation.
-    // ACTION_SET_NOTIFICATION: changed the notification status
+    // Handles various events fired by the Service, all methods run on the UI thread.
+    // onConnectionStateChange: connected to or disconnected from a GATT server.
+    // onServicesDiscovered: discovered GATT services.
+    // onCharacteristicRead / onCharacteristicChanged: received data from the device.  This can
+    //                        be a result of read or notification operations.
+    // onCharacteristicWrite: write data to the device. This can be a result of a write operation.
+    // onDescriptorWrite: changed the notification status
 
-    private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
+    private final GattEventListener mGattEventListener = new GattEventListener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (BluetoothLeService.ACTION_GATT_CONNECTED.equals(action)) {
+        public void onConnectionStateChange(String address, int newState) {
+            if (!address.equals(mDeviceAddress)) return;
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
                 mConnected = true;
                 updateConnectionState("GATT_CONNECTED");
-            } else if (BluetoothLeService.ACTION_GATT_DISCONNECTED.equals(action)) {
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 mConnected = false;
                 updateConnectionState("GATT_DISCONNECTED");
                 clearUI();
-            } else if (BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(String address, int status) {
+            if (!address.equals(mDeviceAddress)) return;
+            if (status == BluetoothGatt.GATT_SUCCESS && mBluetoothLeService != null) {
                 // Show all the supported services and characteristics on the user interface.
-                displayGattServices(mBluetoothLeService.getSupportedGattServices());
-            } else if (BluetoothLeService.ACTION_DATA_AVAILABLE.equals(action)) {
-                String dataAvailable = intent.getStringExtra(BluetoothLeService.EXTRA_DATA);
-                displayData(dataAvailable);
-                Toast.makeText(getApplicationContext(),
-                                "DATA_AVAILABLE " + dataAvailable,
-                                Toast.LENGTH_SHORT)
-                        .show();
-            } else if (BluetoothLeService.ACTION_DATA_WRITE.equals(action)) {
+                displayGattServices(mBluetoothLeService.getSupportedGattServices(mDeviceAddress));
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(String address, UUID characteristic, byte[] value,
+                                         long timestampNanos) {
+            if (!address.equals(mDeviceAddress)) return;
+            onDataAvailable(characteristic, value);
+        }
+
+        @Override
+        public void onCharacteristicChanged(String address, UUID characteristic, byte[] value,
+                                            long timestampNanos) {
+            if (!address.equals(mDeviceAddress)) return;
+            onDataAvailable(characteristic, value);
+        }
+
+        @Override
+        public void onCharacteristicWrite(String address, UUID characteristic, int status) {
+            if (!address.equals(mDeviceAddress)) return;
+            if (status == BluetoothGatt.GATT_SUCCESS) {
                 clearEditData();
                 Toast.makeText(getApplicationContext(),
                                 "new data written to the server",
                                 Toast.LENGTH_SHORT)
                         .show();
             }
-            else if (BluetoothLeService.ACTION_SET_NOTIFICATION.equals(action)) {
-                String data = intent.getStringExtra(BluetoothLeService.EXTRA_DATA);
+        }
+
+        @Override
+        public void onDescriptorWrite(String address, UUID characteristic, UUID descriptor,
+                                      int status) {
+            if (!address.equals(mDeviceAddress)) return;
+            if (status == BluetoothGatt.GATT_SUCCESS) {
                 Toast.makeText(getApplicationContext(),
-                                "notification was changed for " + data,
+                                "notification was changed for " + characteristic,
                                 Toast.LENGTH_SHORT)
                         .show();
             }
         }
     };
 
+    private void onDataAvailable(UUID characteristic, byte[] value) {
+        if (mBluetoothLeService == null) return;
+        String dataAvailable = mBluetoothLeService.describeValue(mDeviceAddress, characteristic,
+                value);
+        displayData(dataAvailable);
+        Toast.makeText(getApplicationContext(),
+                        "DATA_AVAILABLE " + dataAvailable,
+                        Toast.LENGTH_SHORT)
+                .show();
+    }
+
+    private void updateNotifyButton() {
+        if (mNotifyCharacteristic == null) {
+            notify.setEnabled(false);
+            notify.setText("notify");
+        } else {
+            notify.setEnabled(true);
+            notify.setText(mSubscriptions.containsKey(mNotifyCharacteristic.getUuid())
+                    ? "stop notify" : "notify");
+        }
+    }
+
     private void clearUI() {
         mGattServicesList.setAdapter((SimpleExpandableListAdapter) null);
     }
@@ -226,7 +301,7 @@ public class ControlActivity extends AppCompatActivity {
             uuid = gattService.getUuid().toString();
             // new: lookup for a lot of services
             //currentServiceData.put(LIST_NAME, lookup(uuid, unknownServiceString));
-            currentServiceData.put(LIST_NAME, AllGattServices.lookup(uuid, unknownServiceString));
+            currentServiceData.put(LIST_NAME, AllGattServices.lookup(gattService.getUuid(), unknownServiceString));
             currentServiceData.put(LIST_UUID, uuid);
             gattServiceData.add(currentServiceData);
 
@@ -244,7 +319,7 @@ public class ControlActivity extends AppCompatActivity {
                 uuid = gattCharacteristic.getUuid().toString();
                 // new: lookup for a lot of characteristics
                 //currentCharaData.put(LIST_NAME, lookup(uuid, unknownCharaString));
-                currentCharaData.put(LIST_NAME, AllGattCharacteristics.lookup(uuid, unknownCharaString));
+                currentCharaData.put(LIST_NAME, AllGattCharacteristics.lookup(gattCharacteristic.getUuid(), unknownCharaString));
                 currentCharaData.put(LIST_UUID, uuid);
                 gattCharacteristicGroupData.add(currentCharaData);
 
@@ -280,20 +355,8 @@ public class ControlActivity extends AppCompatActivity {
                         final BluetoothGattCharacteristic characteristic =
                                 mGattCharacteristics.get(groupPosition).get(childPosition);
                         final int charaProp = characteristic.getProperties();
-                        if ((charaProp | BluetoothGattCharacteristic.PROPERTY_READ) > 0) {
-                            // If there is an active notification on a characteristic, clear
-                            // it first so it doesn't update the data field on the user interface.
-                            if (mNotifyCharacteristic != null) {
-                                mBluetoothLeService.changeCharacteristicNotification(
-                                        mNotifyCharacteristic, false);
-                                mNotifyCharacteristic = null;
-                            }
-                            mBluetoothLeService.readCharacteristic(characteristic);
-                        }
-                        if ((charaProp | BluetoothGattCharacteristic.PROPERTY_NOTIFY) > 0) {
-                            mNotifyCharacteristic = characteristic;
-                            mBluetoothLeService.changeCharacteristicNotification(
-                                    characteristic, true);
+                        if ((charaProp & BluetoothGattCharacteristic.PROPERTY_READ) > 0) {
+                            mBluetoothLeService.readCharacteristic(mDeviceAddress, characteristic);
                         }
 
                         if (BluetoothLeService.isCharacteristicWritableWithResponse(characteristic)) {
@@ -307,11 +370,14 @@ public class ControlActivity extends AppCompatActivity {
                             writeToDevice.setEnabled(false);
                         }
 
-                        if (BluetoothLeService.isCharacteristicNotifiable(characteristic)) {
-                            notify.setEnabled(true);
+                        // subscriptions are toggled with the notify button
+                        if (BluetoothLeService.isCharacteristicNotifiable(characteristic)
+                                || BluetoothLeService.isCharacteristicIndicatable(characteristic)) {
+                            mNotifyCharacteristic = characteristic;
                         } else {
-                            notify.setEnabled(false);
+                            mNotifyCharacteristic = null;
                         }
+                        updateNotifyButton();
 
                         return true;
                     }
@@ -322,35 +388,27 @@ public class ControlActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
         if (mBluetoothLeService != null) {
             final boolean result = mBluetoothLeService.connect(mDeviceAddress);
             Log.d(TAG, "Connect request result=" + result);
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        unregisterReceiver(mGattUpdateReceiver);
-    }
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        for (GattSubscription subscription : mSubscriptions.values()) {
+            subscription.cancel();
+        }
+        mSubscriptions.clear();
+        if (mBluetoothLeBinder != null) {
+            mBluetoothLeBinder.unregisterListener(mGattEventListener);
+            mBluetoothLeBinder = null;
+        }
         unbindService(mServiceConnection);
         mBluetoothLeService = null;
     }
 
-    private static IntentFilter makeGattUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(BluetoothLeService.ACTION_GATT_CONNECTED);
-        intentFilter.addAction(BluetoothLeService.ACTION_GATT_DISCONNECTED);
-        intentFilter.addAction(BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED);
-        intentFilter.addAction(BluetoothLeService.ACTION_DATA_AVAILABLE);
-        return intentFilter;
-    }
-
     private static HashMap<String, String> attributes = new HashMap();
 
     public static String lookup(String uuid, String defaultName) {
@@ -0,0 +1,136 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.TimeZone;
+
+/**
+ * Reusable holder for a decoded Current Time (0x2A2B) value.
+ *
+ * An instance is filled by {@link CurrentTimeService#decode(byte[], CurrentTime)} and can be
+ * reused for every notification, so the hot path does not allocate. Formatting into text is
+ * only done when {@link #appendTo(StringBuilder)} or {@link #toString()} is called.
+ *
+ * Instances are not thread safe, use one holder per thread.
+ */
+public class CurrentTime {
+
+    int year;
+    int month;
+    int day;
+    int hours;
+    int minutes;
+    int seconds;
+    int dayOfWeek;
+    int fractions256;
+    int adjustReason;
+    long epochMillis;
+    boolean valid;
+
+    private TimeZone timeZone;
+
+    /**
+     * Creates a holder that interprets the (local) device time in the default time zone.
+     */
+    public CurrentTime() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Creates a holder that interprets the (local) device time in the given time zone.
+     */
+    public CurrentTime(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    public TimeZone getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    /**
+     * @return the month 1..12, 0 if unknown
+     */
+    public int getMonth() {
+        return month;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getHours() {
+        return hours;
+    }
+
+    public int getMinutes() {
+        return minutes;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * @return the Bluetooth day of week code, 1 = Monday .. 7 = Sunday, 0 if unknown
+     */
+    public int getDayOfWeek() {
+        return dayOfWeek;
+    }
+
+    /**
+     * @return the fractions of a second in 1/256 steps
+     */
+    public int getFractions256() {
+        return fractions256;
+    }
+
+    public int getAdjustReason() {
+        return adjustReason;
+    }
+
+    /**
+     * @return the milliseconds since the epoch including the Fractions256 part,
+     * only meaningful if {@link #isValid()} returns true
+     */
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    /**
+     * @return true if the last decoded value contained a complete and plausible date and time
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Appends the time in the format "dd.MM.yyyy HH:mm", the same format that was used by
+     * {@link CurrentTimeService#getTimestampFromService(byte[])}.
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        appendTwoDigits(sb, day).append('.');
+        appendTwoDigits(sb, month).append('.');
+        if (year < 1000) sb.append('0');
+        if (year < 100) sb.append('0');
+        if (year < 10) sb.append('0');
+        sb.append(year).append(' ');
+        appendTwoDigits(sb, hours).append(':');
+        return appendTwoDigits(sb, minutes);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        if (value < 10) sb.append('0');
+        return sb.append(value);
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(16)).toString();
+    }
+}
@@ -0,0 +1,138 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads the Current Time characteristic a number of times, one read after the other, and
+ * adds every read as a sample to a {@link ClockOffsetEstimator}.
+ *
+ * The send time is taken when the read is handed to the stack, the receive time when the
+ * result arrived from the stack, it is handed to the read with the value, see
+ * {@link GattOperationQueue.Operation#resultNanos}. Other operations of the connection are
+ * queued between the reads, they are not blocked for the whole burst.
+ */
+class CurrentTimeBurst {
+
+    static final UUID CURRENT_TIME = GattUuids.fromShortId(0x2A2B);
+
+    interface Callback {
+        /**
+         * @param estimate the result of the burst, null if no read returned a valid time
+         * @param error    null if all reads succeeded, otherwise the error that ended the burst
+         */
+        void onBurstDone(ClockEstimate estimate, Throwable error);
+    }
+
+    private final GattConnection mConnection;
+    private final ClockOffsetEstimator mEstimator;
+    private final int mReads;
+    private final Callback mCallback;
+
+    // only one read is outstanding at a time, the fields are never accessed concurrently
+    private final CurrentTime mCurrentTime = new CurrentTime();
+    private int mDone;
+    private final AtomicBoolean mEnded = new AtomicBoolean();
+    private volatile long mMinRoundTripNanos = Long.MAX_VALUE;
+    private volatile boolean mFractions;
+    private volatile boolean mCancelled;
+
+    CurrentTimeBurst(GattConnection connection, ClockOffsetEstimator estimator, int reads,
+                     Callback callback) {
+        if (reads < 1) {
+            throw new IllegalArgumentException("reads must be at least 1");
+        }
+        mConnection = connection;
+        mEstimator = estimator;
+        mReads = reads;
+        mCallback = callback;
+    }
+
+    void start() {
+        mConnection.tuner.beginBurst(ConnectionProfile.LOW_LATENCY);
+        readNext();
+    }
+
+    /**
+     * Stops the burst, a read that is already queued still runs but the callback is not
+     * called anymore.
+     */
+    void cancel() {
+        mCancelled = true;
+        endBurst();
+    }
+
+    /**
+     * @return the shortest round trip of all successful reads, also of those that did not
+     * return a valid time, Long.MAX_VALUE if there was none
+     */
+    long getMinRoundTripNanos() {
+        return mMinRoundTripNanos;
+    }
+
+    /**
+     * @return true if a valid time had a Fractions256 other than 0, false if the peripheral
+     * may only count whole seconds
+     */
+    boolean hasFractions() {
+        return mFractions;
+    }
+
+    private void readNext() {
+        final TimedRead read = new TimedRead();
+        mConnection.queue.enqueue(read).addListener(new GattFuture.Listener<byte[]>() {
+            @Override
+            public void onComplete(byte[] value, Throwable error) {
+                onRead(read, value, error);
+            }
+        });
+    }
+
+    private void onRead(TimedRead read, byte[] value, Throwable error) {
+        if (mCancelled) return;
+        if (error != null) {
+            endBurst();
+            mCallback.onBurstDone(mEstimator.endBurst(), error);
+            return;
+        }
+        final long receiveNanos = read.resultNanos;
+        mMinRoundTripNanos = Math.min(mMinRoundTripNanos, receiveNanos - read.sendNanos);
+        // the wall clock at the time the result arrived, not at the time it is processed
+        final long receiveWallMillis = System.currentTimeMillis()
+                - (mConnection.clock.elapsedRealtimeNanos() - receiveNanos) / 1000000;
+        if (CurrentTimeService.decode(value, mCurrentTime)) {
+            if (mCurrentTime.getFractions256() != 0) {
+                mFractions = true;
+            }
+            mEstimator.addSample(read.sendNanos, receiveNanos, receiveWallMillis,
+                    mCurrentTime.getEpochMillis());
+        }
+        if (++mDone < mReads) {
+            readNext();
+        } else {
+            endBurst();
+            mCallback.onBurstDone(mEstimator.endBurst(), null);
+        }
+    }
+
+    private void endBurst() {
+        if (mEnded.compareAndSet(false, true)) {
+            mConnection.tuner.endBurst();
+        }
+    }
+
+    private final class TimedRead extends GattOperationQueue.Operation<byte[]> {
+        long sendNanos;
+
+        TimedRead() {
+            super(GattOperationQueue.TYPE_READ_CHARACTERISTIC, CURRENT_TIME,
+                    GattOperationQueue.DEFAULT_TIMEOUT_MILLIS);
+        }
+
+        @Override
+        boolean execute() {
+            sendNanos = mConnection.clock.elapsedRealtimeNanos();
+            return mConnection.transport.readCharacteristic(null, CURRENT_TIME);
+        }
+    }
+}
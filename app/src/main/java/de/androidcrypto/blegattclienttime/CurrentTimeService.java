@@ -1,11 +1,9 @@
 package de.androidcrypto.blegattclienttime;
 
-import android.annotation.SuppressLint;
-
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 public class CurrentTimeService {
 
@@ -22,21 +20,90 @@ public class CurrentTimeService {
     // E6 07 0A 10 0D 2F 34 07 03 00
     // 16.10.2022 13:48
 
-    @SuppressLint("SimpleDateFormat")
+    /**
+     * Decodes a Current Time value and formats it as "dd.MM.yyyy HH:mm".
+     * This allocates a holder and a String on every call, for high frequency data use
+     * {@link #decode(byte[], CurrentTime)} with a reused holder instead.
+     */
     public static String getTimestampFromService (byte[] data) {
-        byte year1 = data[0];
-        byte year2 = data[1];
-        byte month = data[2];
-        byte day = data[3];
-        byte hours = data[4];
-        byte minutes = data[5];
-        byte seconds = data[6];
-        // byte getDayOfWeekCode = data[7];
-        // byte Fractions256 = data[7];
-        byte adjustReason = data[9];
-        Timestamp timestamp = makeTimestamp((year2 * 256) + Byte.toUnsignedInt(year1), month, day, hours, minutes, seconds, 0);
-        final SimpleDateFormat sdf1 = new SimpleDateFormat("dd.MM.yyyy HH:mm");
-        return sdf1.format(timestamp);
+        CurrentTime currentTime = new CurrentTime();
+        decode(data, currentTime);
+        return currentTime.toString();
+    }
+
+    /**
+     * Decodes the 10 byte Current Time (0x2A2B) value into a reusable holder using integer
+     * arithmetic only, nothing is allocated.
+     *
+     * The date and time fields of the holder are always filled (if the data has a length of
+     * 10 bytes), the epoch millis are only calculated for a plausible date and time.
+     *
+     * @param data the characteristic value
+     * @param out  the holder to fill
+     * @return true if the value contained a valid date and time
+     */
+    public static boolean decode(byte[] data, CurrentTime out) {
+        out.valid = false;
+        out.epochMillis = 0;
+        if (data == null || data.length < 10) {
+            return false;
+        }
+        out.year = (data[0] & 0xFF) | ((data[1] & 0xFF) << 8);
+        out.month = data[2] & 0xFF;
+        out.day = data[3] & 0xFF;
+        out.hours = data[4] & 0xFF;
+        out.minutes = data[5] & 0xFF;
+        out.seconds = data[6] & 0xFF;
+        out.dayOfWeek = data[7] & 0xFF;
+        out.fractions256 = data[8] & 0xFF;
+        out.adjustReason = data[9] & 0xFF;
+
+        // year, month and day of 0 mean "not known" in the specification
+        if (out.year < 1582 || out.year > 9999 || out.month < 1 || out.month > 12
+                || out.day < 1 || out.day > 31 || out.hours > 23 || out.minutes > 59
+                || out.seconds > 59) {
+            return false;
+        }
+        long localMillis = (daysFromCivil(out.year, out.month, out.day) * 86400L
+                + out.hours * 3600L + out.minutes * 60L + out.seconds) * 1000L
+                + fractions256ToMillis(out.fractions256);
+        out.epochMillis = localToEpochMillis(localMillis, out.getTimeZone());
+        out.valid = true;
+        return true;
+    }
+
+    /**
+     * Converts a Fractions256 value (1/256 s) to milliseconds.
+     */
+    public static int fractions256ToMillis(int fractions256) {
+        return (fractions256 * 1000) >> 8;
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 for a date in the proleptic Gregorian
+     * calendar, see http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+     *
+     * @param year  the year, e.g. 2022
+     * @param month the month 1..12
+     * @param day   the day of the month 1..31
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        final int era = (year >= 0 ? year : year - 399) / 400;
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    /**
+     * The Current Time Service transmits the local time of the server, this converts the local
+     * wall clock millis to UTC based millis. The offset is looked up a second time with the
+     * first guess so the daylight saving time switch is handled correctly.
+     */
+    private static long localToEpochMillis(long localMillis, TimeZone zone) {
+        int offset = zone.getOffset(localMillis - zone.getRawOffset());
+        return localMillis - zone.getOffset(localMillis - offset);
     }
 
     public static Timestamp makeTimestamp(int year, int month, int day, int hour, int minute,
@@ -83,7 +150,7 @@ public class CurrentTimeService {
         // Day of Week (1-7)
         field[7] = getDayOfWeekCode(time.get(Calendar.DAY_OF_WEEK));
         // Fractions256
-        field[8] = (byte) (time.get(Calendar.MILLISECOND) / 256);
+        field[8] = (byte) (time.get(Calendar.MILLISECOND) * 256 / 1000);
 
         field[9] = adjustReason;
 
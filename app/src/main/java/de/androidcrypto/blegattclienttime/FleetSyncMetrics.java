@@ -0,0 +1,94 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Arrays;
+
+/**
+ * Throughput of a {@link FleetTimeSync} run, a snapshot taken when it was requested.
+ */
+public class FleetSyncMetrics {
+
+    private final int total;
+    private final int succeeded;
+    private final int failed;
+    private final long elapsedMillis;
+    private final long p50Millis;
+    private final long p99Millis;
+
+    FleetSyncMetrics(int total, int succeeded, int failed, long elapsedMillis,
+                     long[] timesToSync, int count) {
+        this.total = total;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.elapsedMillis = elapsedMillis;
+        final long[] sorted = Arrays.copyOf(timesToSync, count);
+        Arrays.sort(sorted);
+        this.p50Millis = percentile(sorted, 50);
+        this.p99Millis = percentile(sorted, 99);
+    }
+
+    /**
+     * Nearest rank percentile, -1 for no values.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        final int rank = (sorted.length * percent + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * @return the number of devices of the run
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return the number of devices that are not done yet
+     */
+    public int getRemaining() {
+        return total - succeeded - failed;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the devices that were synchronized successfully per minute of the run
+     */
+    public double getDevicesPerMinute() {
+        return elapsedMillis == 0 ? 0 : succeeded * 60000.0 / elapsedMillis;
+    }
+
+    /**
+     * @return the median time to sync of the successful devices, -1 before the first one
+     */
+    public long getP50Millis() {
+        return p50Millis;
+    }
+
+    /**
+     * @return the 99th percentile of the time to sync of the successful devices, -1 before
+     * the first one
+     */
+    public long getP99Millis() {
+        return p99Millis;
+    }
+
+    @Override
+    public String toString() {
+        return succeeded + "/" + total + " synced, " + failed + " failed in " + elapsedMillis
+                + " ms, " + String.format("%.1f", getDevicesPerMinute()) + " devices/min, p50 "
+                + p50Millis + " ms, p99 " + p99Millis + " ms";
+    }
+}
@@ -0,0 +1,88 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * The outcome of the time synchronization of one device by {@link FleetTimeSync}.
+ */
+public class FleetSyncResult {
+
+    private final String address;
+    private final boolean success;
+    private final int attempts;
+    private final long timeToSyncMillis;
+    private final double offsetBeforeMillis;
+    private final double offsetAfterMillis;
+    private final boolean written;
+    private final Throwable error;
+
+    FleetSyncResult(String address, boolean success, int attempts, long timeToSyncMillis,
+                    double offsetBeforeMillis, double offsetAfterMillis, boolean written,
+                    Throwable error) {
+        this.address = address;
+        this.success = success;
+        this.attempts = attempts;
+        this.timeToSyncMillis = timeToSyncMillis;
+        this.offsetBeforeMillis = offsetBeforeMillis;
+        this.offsetAfterMillis = offsetAfterMillis;
+        this.written = written;
+        this.error = error;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return true if the clock of the device is within the tolerance
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the time from the start of the first attempt until the device was done,
+     * including the retries
+     */
+    public long getTimeToSyncMillis() {
+        return timeToSyncMillis;
+    }
+
+    /**
+     * @return the offset read before the clock was set, NaN if the device had no valid time
+     */
+    public double getOffsetBeforeMillis() {
+        return offsetBeforeMillis;
+    }
+
+    /**
+     * @return the offset read back after the clock was set or, if it was within the tolerance
+     * already, the offset before. NaN if the device failed
+     */
+    public double getOffsetAfterMillis() {
+        return offsetAfterMillis;
+    }
+
+    /**
+     * @return false if the clock was within the tolerance and not written
+     */
+    public boolean isWritten() {
+        return written;
+    }
+
+    /**
+     * @return the error of the last attempt, null on success
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return address + (success ? ": synced" : ": failed") + " after " + attempts
+                + " attempts in " + timeToSyncMillis + " ms, offset " + offsetBeforeMillis
+                + " -> " + offsetAfterMillis + " ms" + (error != null ? ", " + error : "");
+    }
+}
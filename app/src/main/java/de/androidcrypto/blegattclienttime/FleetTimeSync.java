@@ -0,0 +1,419 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Synchronizes the clocks of a list of devices, started with
+ * {@link GattClient#syncFleetTime(List, Config, Listener)}.
+ *
+ * Every device is connected, its services are discovered, its Current Time is read and, if
+ * the offset exceeds the tolerance, the time is set with {@link ClockSetter} and verified.
+ * A connection opened by the run is closed afterwards, one the client held already is left
+ * to its owner. A limited number of devices is handled at the same time, an attempt that
+ * fails or takes longer than the device timeout is retried after an exponential backoff. The
+ * parallelism should not exceed the connection limit of the client, otherwise the
+ * connections evict each other.
+ *
+ * All work runs on the scheduler thread of the client, the listener is called there too.
+ */
+public class FleetTimeSync {
+    private final static String TAG = FleetTimeSync.class.getSimpleName();
+
+    static final int OFFSET_READS = 4;
+
+    /**
+     * The settings of a run, all values have a default.
+     */
+    public static class Config {
+        int parallelism = 2;
+        long deviceTimeoutMillis = 30000;
+        int maxAttempts = 3;
+        long initialBackoffMillis = 1000;
+        long maxBackoffMillis = 30000;
+        long toleranceMillis = ClockSetter.DEFAULT_TOLERANCE_MILLIS;
+
+        /**
+         * @param parallelism the number of devices handled at the same time, default 2
+         */
+        public Config setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param timeout the time one attempt of a device may take, default 30 s
+         */
+        public Config setDeviceTimeout(long timeout, TimeUnit unit) {
+            this.deviceTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * @param maxAttempts the number of attempts per device including the first, default 3
+         */
+        public Config setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * The wait before a retry starts with the initial backoff and doubles with every
+         * failed attempt up to the maximum, default 1 s up to 30 s.
+         */
+        public Config setBackoff(long initial, long max, TimeUnit unit) {
+            this.initialBackoffMillis = unit.toMillis(initial);
+            this.maxBackoffMillis = Math.max(unit.toMillis(max), initialBackoffMillis);
+            return this;
+        }
+
+        /**
+         * @param toleranceMillis the offset a device may have, default 50 ms
+         */
+        public Config setToleranceMillis(long toleranceMillis) {
+            this.toleranceMillis = toleranceMillis;
+            return this;
+        }
+    }
+
+    /**
+     * Receives the results of a run on the scheduler thread of the client.
+     */
+    public interface Listener {
+        /**
+         * Called once per device when it succeeded or its last attempt failed.
+         */
+        void onDeviceResult(FleetSyncResult result);
+
+        /**
+         * Called once after all devices are done or the run was cancelled.
+         */
+        void onFinished(FleetSyncMetrics metrics);
+    }
+
+    private static final class Job {
+        final String address;
+        int attempts;
+        long startMillis;
+        double offsetBeforeMillis = Double.NaN;
+        boolean discovering;
+        // the connection was opened by this attempt and is closed at its end
+        boolean opened;
+        ScheduledFuture<?> timeout;
+
+        Job(String address) {
+            this.address = address;
+        }
+    }
+
+    private final GattClient mClient;
+    private final GattEventBus mEventBus;
+    private final ScheduledExecutorService mScheduler;
+    private final GattClock mClock;
+    private final Config mConfig;
+    private final Listener mListener;
+
+    // only accessed on the scheduler thread
+    private final ArrayDeque<Job> mPending = new ArrayDeque<>();
+    private final HashMap<String, Job> mActive = new HashMap<>();
+    private final HashSet<Job> mBackingOff = new HashSet<>();
+    private boolean mCancelled;
+    private boolean mFinished;
+
+    // the metrics may be read from any thread
+    private final int mTotal;
+    private final long mStartMillis;
+    private int mSucceeded;
+    private int mFailed;
+    private long[] mTimesToSync = new long[16];
+
+    FleetTimeSync(GattClient client, GattEventBus eventBus, ScheduledExecutorService scheduler,
+                  GattClock clock, List<String> addresses, Config config, Listener listener) {
+        mClient = client;
+        mEventBus = eventBus;
+        mScheduler = scheduler;
+        mClock = clock;
+        mConfig = config;
+        mListener = listener;
+        for (String address : new LinkedHashSet<>(addresses)) {
+            mPending.add(new Job(address));
+        }
+        mTotal = mPending.size();
+        mStartMillis = elapsedMillis();
+    }
+
+    void start() {
+        mEventBus.register(mEvents, mScheduler);
+        mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                pump();
+            }
+        });
+    }
+
+    /**
+     * Stops the run, the devices that are not done yet are reported as failed.
+     */
+    public void cancel() {
+        mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) return;
+                mCancelled = true;
+                final CancellationException reason = new CancellationException("cancelled");
+                for (Job job : new ArrayList<>(mActive.values())) {
+                    endAttempt(job);
+                    report(job, false, Double.NaN, false, reason);
+                }
+                for (Job job : mBackingOff) {
+                    report(job, false, Double.NaN, false, reason);
+                }
+                mBackingOff.clear();
+                while (!mPending.isEmpty()) {
+                    report(mPending.poll(), false, Double.NaN, false, reason);
+                }
+                pump();
+            }
+        });
+    }
+
+    /**
+     * @return the metrics of the devices that are done so far
+     */
+    public synchronized FleetSyncMetrics getMetrics() {
+        return new FleetSyncMetrics(mTotal, mSucceeded, mFailed,
+                elapsedMillis() - mStartMillis, mTimesToSync, mSucceeded);
+    }
+
+    private final GattEventListener mEvents = new GattEventListener() {
+        @Override
+        public void onConnectionStateChange(String address, int newState) {
+            final Job job = mActive.get(address);
+            if (job != null && newState == GattTransport.STATE_DISCONNECTED) {
+                failAttempt(job, new GattException(GattException.STATUS_DISCONNECTED,
+                        "disconnected"));
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(String address, int status) {
+            final Job job = mActive.get(address);
+            if (job == null || !job.discovering) return;
+            job.discovering = false;
+            if (status == GattTransport.STATUS_SUCCESS) {
+                readOffset(job);
+            } else {
+                failAttempt(job, new GattException(status, "service discovery failed"));
+            }
+        }
+    };
+
+    /**
+     * Starts pending devices while there is a free slot, reports the end of the run.
+     */
+    private void pump() {
+        while (!mCancelled && mActive.size() < mConfig.parallelism && !mPending.isEmpty()) {
+            startAttempt(mPending.poll());
+        }
+        if (!mFinished && mActive.isEmpty() && mPending.isEmpty() && mBackingOff.isEmpty()) {
+            mFinished = true;
+            mEventBus.unregister(mEvents);
+            final FleetSyncMetrics metrics = getMetrics();
+            GattLog.i(TAG, "fleet sync finished: " + metrics);
+            mListener.onFinished(metrics);
+        }
+    }
+
+    private void startAttempt(final Job job) {
+        final int attempt = ++job.attempts;
+        if (job.startMillis == 0) {
+            job.startMillis = elapsedMillis();
+        }
+        mActive.put(job.address, job);
+        job.timeout = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (isCurrent(job, attempt)) {
+                    failAttempt(job, new TimeoutException("attempt " + attempt + " took more than "
+                            + mConfig.deviceTimeoutMillis + " ms"));
+                }
+            }
+        }, mConfig.deviceTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        job.opened = !mClient.hasConnection(job.address);
+        if (!mClient.connect(job.address)) {
+            failAttempt(job, new GattException(GattException.STATUS_NOT_STARTED, "connect failed"));
+            return;
+        }
+        if (mClient.isDiscovered(job.address)) {
+            // reused a connection that was discovered already
+            readOffset(job);
+        } else {
+            job.discovering = true;
+        }
+    }
+
+    private long elapsedMillis() {
+        return mClock.elapsedRealtimeNanos() / 1000000;
+    }
+
+    private boolean isCurrent(Job job, int attempt) {
+        return mActive.get(job.address) == job && job.attempts == attempt;
+    }
+
+    private void readOffset(final Job job) {
+        final int attempt = job.attempts;
+        mClient.readClockOffset(job.address, OFFSET_READS).addListener(
+                new StepListener<ClockEstimate>(job, attempt) {
+                    @Override
+                    void onStep(ClockEstimate estimate) {
+                        if (estimate == null) {
+                            // the clock was never set
+                            setTime(job);
+                            return;
+                        }
+                        job.offsetBeforeMillis = estimate.getOffsetMillis();
+                        if (Math.abs(job.offsetBeforeMillis) <= mConfig.toleranceMillis) {
+                            succeed(job, job.offsetBeforeMillis, false);
+                        } else {
+                            setTime(job);
+                        }
+                    }
+                });
+    }
+
+    private void setTime(final Job job) {
+        final int attempt = job.attempts;
+        mClient.setCurrentTime(job.address, mConfig.toleranceMillis).addListener(
+                new StepListener<ClockEstimate>(job, attempt) {
+                    @Override
+                    void onStep(ClockEstimate estimate) {
+                        succeed(job, estimate.getOffsetMillis(), true);
+                    }
+                });
+    }
+
+    /**
+     * Continues an attempt on the scheduler thread when a step finished, results of an
+     * attempt that timed out or was cancelled are dropped.
+     */
+    private abstract class StepListener<T> implements GattFuture.Listener<T> {
+        private final Job mJob;
+        private final int mAttempt;
+
+        StepListener(Job job, int attempt) {
+            mJob = job;
+            mAttempt = attempt;
+        }
+
+        @Override
+        public void onComplete(final T value, final Throwable error) {
+            mScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCurrent(mJob, mAttempt)) return;
+                    if (error != null) {
+                        failAttempt(mJob, error);
+                    } else {
+                        onStep(value);
+                    }
+                }
+            });
+        }
+
+        abstract void onStep(T value);
+    }
+
+    private void endAttempt(Job job) {
+        if (job.timeout != null) {
+            job.timeout.cancel(false);
+            job.timeout = null;
+        }
+        job.discovering = false;
+        mActive.remove(job.address);
+        if (job.opened) {
+            job.opened = false;
+            mClient.close(job.address);
+        }
+    }
+
+    private void succeed(Job job, double offsetAfterMillis, boolean written) {
+        endAttempt(job);
+        report(job, true, offsetAfterMillis, written, null);
+        pump();
+    }
+
+    private void failAttempt(final Job job, Throwable error) {
+        endAttempt(job);
+        GattLog.w(TAG, "attempt " + job.attempts + " of " + job.address + " failed: " + error);
+        if (mCancelled || job.attempts >= mConfig.maxAttempts) {
+            report(job, false, Double.NaN, false, error);
+        } else {
+            final long backoff = backoffMillis(mConfig.initialBackoffMillis,
+                    mConfig.maxBackoffMillis, job.attempts);
+            mBackingOff.add(job);
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mBackingOff.remove(job)) {
+                        mPending.add(job);
+                        pump();
+                    }
+                }
+            }, backoff, TimeUnit.MILLISECONDS);
+        }
+        pump();
+    }
+
+    /**
+     * @param attempts the number of failed attempts, at least 1
+     * @return the initial backoff doubled for every failed attempt after the first, limited to
+     * the maximum also where the doubling would overflow
+     */
+    static long backoffMillis(long initialMillis, long maxMillis, int attempts) {
+        final int shift = attempts - 1;
+        if (initialMillis <= 0) {
+            return 0;
+        }
+        // the shift must leave the sign bit clear
+        if (shift >= Long.numberOfLeadingZeros(initialMillis) - 1) {
+            return maxMillis;
+        }
+        return Math.min(initialMillis << shift, maxMillis);
+    }
+
+    private void report(Job job, boolean success, double offsetAfterMillis, boolean written,
+                        Throwable error) {
+        final long timeToSync = job.startMillis == 0 ? 0
+                : elapsedMillis() - job.startMillis;
+        synchronized (this) {
+            if (success) {
+                if (mSucceeded == mTimesToSync.length) {
+                    mTimesToSync = Arrays.copyOf(mTimesToSync, mSucceeded * 2);
+                }
+                mTimesToSync[mSucceeded++] = timeToSync;
+            } else {
+                mFailed++;
+            }
+        }
+        mListener.onDeviceResult(new FleetSyncResult(job.address, success, job.attempts,
+                timeToSync, job.offsetBeforeMillis, offsetAfterMillis, written, error));
+    }
+}
@@ -0,0 +1,336 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * The attribute tables of the devices that were connected before, so a reconnect can show
+ * the services and bind the decoders before its discovery completes.
+ *
+ * A table is kept as a compact binary snapshot in memory and, after
+ * {@link #setDirectory(File)}, in one file per device that outlives the app. The snapshot
+ * starts with the magic number and the version (4 bytes each), all values are big endian:
+ * <pre>
+ *   services             2 bytes  the number of services
+ *   per service          the UUID, the number of characteristics (2 bytes)
+ *   per characteristic   the UUID, the properties (1 byte), the number of descriptors
+ *                        (1 byte) and their UUIDs
+ *   crc                  4 bytes  the CRC-32 of the bytes before
+ * </pre>
+ * A UUID on the Bluetooth SIG base is written as a 0 byte and its 16 bit short id, any other
+ * as a 1 byte and its 16 bytes. A snapshot is replaced when a discovery reports a different
+ * table and dropped when the device indicates a Service Changed.
+ *
+ * The lookups only use memory, they are called on the UI and the Bluetooth binder threads.
+ * The files are read, written and deleted on the executor given to the constructor, which
+ * runs one task after another.
+ */
+public final class GattAttributeCache {
+    private final static String TAG = GattAttributeCache.class.getSimpleName();
+
+    public static final UUID GENERIC_ATTRIBUTE = GattUuids.fromShortId(0x1801);
+    public static final UUID SERVICE_CHANGED = GattUuids.fromShortId(0x2A05);
+
+    static final int MAGIC = 0x47415454; // "GATT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int CRC_SIZE = 4;
+    // a larger file is not a snapshot, an attribute table has at most 65535 handles
+    static final int MAX_SIZE = 256 * 1024;
+
+    private static final int UUID_SHORT = 0;
+    private static final int UUID_FULL = 1;
+    private static final String SUFFIX = ".gatt";
+
+    private final Executor mExecutor;
+    // the snapshots by the device address without colons, the name of the file
+    private final ConcurrentHashMap<String, byte[]> mSnapshots = new ConcurrentHashMap<>();
+    private volatile File mDirectory;
+
+    /**
+     * @param executor runs the file operations in order, e.g. a single thread executor
+     */
+    public GattAttributeCache(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Keeps the snapshots in the directory, e.g. below Context.getFilesDir(). It is created
+     * with the first snapshot. The snapshots it holds are read on the executor, a device
+     * that connects before they are read is shown after its discovery.
+     *
+     * @param directory the directory or null to keep the snapshots in memory only
+     */
+    public void setDirectory(final File directory) {
+        mDirectory = directory;
+        if (directory != null) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    preload(directory);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the services of the last discovery or null if there is no valid snapshot
+     */
+    public List<GattServiceInfo> load(String address) {
+        final byte[] snapshot = mSnapshots.get(key(address));
+        if (snapshot == null) {
+            return null;
+        }
+        final List<GattServiceInfo> services = decode(snapshot);
+        if (services == null) {
+            // corrupt, the next discovery writes a new one
+            invalidate(address);
+        }
+        return services;
+    }
+
+    /**
+     * Replaces the snapshot of a device if the discovered table differs, the file is written
+     * on the executor.
+     *
+     * @return true if the table differs from the snapshot or there was none
+     */
+    public boolean update(String address, List<GattServiceInfo> services) {
+        final String key = key(address);
+        final byte[] encoded = encode(services);
+        if (Arrays.equals(encoded, mSnapshots.get(key))) {
+            return false;
+        }
+        mSnapshots.put(key, encoded);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save(key);
+                } catch (IOException e) {
+                    GattLog.w(TAG, "Saving the attribute table of " + key + " failed", e);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Drops the snapshot of a device, e.g. after its attribute table changed. The file is
+     * deleted on the executor.
+     */
+    public void invalidate(String address) {
+        final String key = key(address);
+        mSnapshots.remove(key);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final File directory = mDirectory;
+                // the snapshot of a later discovery is written by a task after this one
+                if (directory != null) {
+                    new File(directory, key + SUFFIX).delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the latest snapshot of a device to its file, the file is replaced atomically so
+     * a reader never sees a partial snapshot. Does nothing without a directory. Runs on the
+     * executor, the file is synced to disk.
+     */
+    private void save(String key) throws IOException {
+        final File directory = mDirectory;
+        final byte[] snapshot = mSnapshots.get(key);
+        if (directory == null || snapshot == null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+        final File file = new File(directory, key + SUFFIX);
+        final File temporary = new File(directory, file.getName() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            out.write(snapshot);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("can not replace " + file);
+        }
+    }
+
+    /**
+     * Reads the snapshots of the directory into memory, runs on the executor. A snapshot of
+     * a discovery that completed meanwhile is kept, corrupt files are deleted.
+     */
+    private void preload(File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        int loaded = 0;
+        for (File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+            final byte[] snapshot = read(file);
+            if (snapshot == null || decode(snapshot) == null) {
+                file.delete();
+                continue;
+            }
+            mSnapshots.putIfAbsent(name.substring(0, name.length() - SUFFIX.length()), snapshot);
+            loaded++;
+        }
+        GattLog.d(TAG, "Loaded " + loaded + " attribute tables from " + directory);
+    }
+
+    private static String key(String address) {
+        return address.replace(":", "");
+    }
+
+    /**
+     * @return the content of the file or null if it does not exist or can not be read
+     */
+    private static byte[] read(File file) {
+        final long length = file.length();
+        if (length < HEADER_SIZE + CRC_SIZE || length > MAX_SIZE) {
+            // also 0 if the file does not exist
+            return null;
+        }
+        try {
+            final RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                final byte[] content = new byte[(int) length];
+                in.readFully(content);
+                return content;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static byte[] encode(List<GattServiceInfo> services) {
+        int size = HEADER_SIZE + 2 + CRC_SIZE;
+        for (GattServiceInfo service : services) {
+            size += size(service.getUuid()) + 2;
+            for (GattCharacteristicInfo characteristic : service.getCharacteristics()) {
+                size += size(characteristic.getUuid()) + 2;
+                for (UUID descriptor : characteristic.getDescriptors()) {
+                    size += size(descriptor);
+                }
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putShort((short) services.size());
+        for (GattServiceInfo service : services) {
+            put(buffer, service.getUuid());
+            buffer.putShort((short) service.getCharacteristics().size());
+            for (GattCharacteristicInfo characteristic : service.getCharacteristics()) {
+                put(buffer, characteristic.getUuid());
+                buffer.put((byte) characteristic.getProperties());
+                buffer.put((byte) characteristic.getDescriptors().size());
+                for (UUID descriptor : characteristic.getDescriptors()) {
+                    put(buffer, descriptor);
+                }
+            }
+        }
+        buffer.putInt(crc(buffer.array(), size - CRC_SIZE));
+        return buffer.array();
+    }
+
+    /**
+     * @return the services or null if the snapshot is corrupt or of another version
+     */
+    static List<GattServiceInfo> decode(byte[] snapshot) {
+        if (snapshot.length < HEADER_SIZE + CRC_SIZE) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+        if (buffer.getInt(snapshot.length - CRC_SIZE) != crc(snapshot, snapshot.length - CRC_SIZE)
+                || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        buffer.limit(snapshot.length - CRC_SIZE);
+        try {
+            final int serviceCount = buffer.getShort() & 0xFFFF;
+            final List<GattServiceInfo> services = new ArrayList<>(serviceCount);
+            for (int i = 0; i < serviceCount; i++) {
+                final UUID service = get(buffer);
+                final int characteristicCount = buffer.getShort() & 0xFFFF;
+                final List<GattCharacteristicInfo> characteristics =
+                        new ArrayList<>(characteristicCount);
+                for (int j = 0; j < characteristicCount; j++) {
+                    final UUID characteristic = get(buffer);
+                    final int properties = buffer.get() & 0xFF;
+                    final int descriptorCount = buffer.get() & 0xFF;
+                    final List<UUID> descriptors = new ArrayList<>(descriptorCount);
+                    for (int k = 0; k < descriptorCount; k++) {
+                        descriptors.add(get(buffer));
+                    }
+                    characteristics.add(new GattCharacteristicInfo(characteristic, properties,
+                            descriptors));
+                }
+                services.add(new GattServiceInfo(service, characteristics));
+            }
+            return buffer.hasRemaining() ? null : services;
+        } catch (BufferUnderflowException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // an unknown UUID format
+            return null;
+        }
+    }
+
+    private static int size(UUID uuid) {
+        return GattUuids.isShortUuid(uuid) ? 3 : 17;
+    }
+
+    private static void put(ByteBuffer buffer, UUID uuid) {
+        final int shortId = GattUuids.toShortId(uuid);
+        if (shortId >= 0) {
+            buffer.put((byte) UUID_SHORT);
+            buffer.putShort((short) shortId);
+        } else {
+            buffer.put((byte) UUID_FULL);
+            buffer.putLong(uuid.getMostSignificantBits());
+            buffer.putLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID get(ByteBuffer buffer) {
+        switch (buffer.get()) {
+            case UUID_SHORT:
+                return GattUuids.fromShortId(buffer.getShort() & 0xFFFF);
+            case UUID_FULL:
+                return new UUID(buffer.getLong(), buffer.getLong());
+            default:
+                throw new IllegalArgumentException("unknown UUID format");
+        }
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
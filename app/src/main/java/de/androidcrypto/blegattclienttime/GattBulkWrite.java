@@ -0,0 +1,191 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a value that is larger than the MTU to a characteristic in chunks, started with
+ * {@link GattClient#bulkWrite(String, UUID, UUID, int, ByteBuffer, Listener)}.
+ *
+ * Every chunk is MTU - 3 bytes long, the size of the attribute value in a write. Chunks are
+ * written without response if the characteristic supports it. The stack reports every write
+ * with onCharacteristicWrite, also a write without response once it was handed to the
+ * controller, the next chunk is only queued after that callback, so the writes never overrun
+ * the buffers of the stack and other operations of the connection can run in between. A chunk
+ * the stack did not accept because it was busy is retried after a short pause.
+ */
+public class GattBulkWrite {
+    private final static String TAG = GattBulkWrite.class.getSimpleName();
+
+    static final int MAX_BUSY_RETRIES = 5;
+    static final long BUSY_RETRY_MILLIS = 5;
+
+    /**
+     * Receives the progress of a bulk write on the Bluetooth binder thread.
+     */
+    public interface Listener {
+        /**
+         * Called after every chunk.
+         *
+         * @param bytesPerSecond the rate since the first chunk was started
+         */
+        void onProgress(String address, long bytesWritten, long totalBytes, double bytesPerSecond);
+    }
+
+    private final GattConnection mConnection;
+    private final GattClock mClock;
+    private final ScheduledExecutorService mScheduler;
+    private final UUID mService;
+    private final UUID mCharacteristic;
+    private final int mWriteType;
+    private final ByteBuffer mData;
+    private final Listener mListener;
+    private final long mTotal;
+    private final GattFuture<Void> mResult = new GattFuture<>();
+
+    // only one chunk is outstanding at a time
+    private int mRetries;
+    private volatile long mWritten;
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param writeType one of the GattTransport.WRITE_TYPE_ constants
+     * @param data      the bytes from the position to the limit are written, the buffer is
+     *                  not modified
+     */
+    GattBulkWrite(GattConnection connection, GattClock clock, ScheduledExecutorService scheduler,
+                  UUID service, UUID characteristic, int writeType, ByteBuffer data,
+                  Listener listener) {
+        mConnection = connection;
+        mClock = clock;
+        mScheduler = scheduler;
+        mService = service;
+        mCharacteristic = characteristic;
+        mWriteType = writeType;
+        mData = data.duplicate();
+        mListener = listener;
+        mTotal = mData.remaining();
+    }
+
+    void start() {
+        mStartNanos = mClock.elapsedRealtimeNanos();
+        if (mData.hasRemaining()) {
+            writeNext();
+        } else {
+            finish(null);
+        }
+    }
+
+    /**
+     * @return a future that completes when the last chunk was written
+     */
+    public GattFuture<Void> getResult() {
+        return mResult;
+    }
+
+    /**
+     * Stops the write after the current chunk, the result fails with a CancellationException.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public String getAddress() {
+        return mConnection.address;
+    }
+
+    public long getTotalBytes() {
+        return mTotal;
+    }
+
+    public long getBytesWritten() {
+        return mWritten;
+    }
+
+    /**
+     * @return the rate since the first chunk was started, until now or the end of the write
+     */
+    public double getBytesPerSecond() {
+        final long end = mEndNanos != 0 ? mEndNanos : mClock.elapsedRealtimeNanos();
+        final long elapsed = end - mStartNanos;
+        return elapsed <= 0 ? 0 : mWritten * 1e9 / elapsed;
+    }
+
+    private void writeNext() {
+        if (mCancelled) {
+            finish(new CancellationException("bulk write cancelled"));
+            return;
+        }
+        final int chunkSize = Math.min(mData.remaining(), mConnection.mtu - 3);
+        final byte[] chunk = new byte[chunkSize];
+        mData.duplicate().get(chunk);
+        mConnection.queue.enqueue(new GattOperationQueue.Operation<Void>(
+                GattOperationQueue.TYPE_WRITE_CHARACTERISTIC, mCharacteristic,
+                GattOperationQueue.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            boolean execute() {
+                return mConnection.transport.writeCharacteristic(mService, mCharacteristic, chunk,
+                        mWriteType);
+            }
+        }).addListener(new GattFuture.Listener<Void>() {
+            @Override
+            public void onComplete(Void value, Throwable error) {
+                onChunkWritten(chunkSize, error);
+            }
+        });
+    }
+
+    private void onChunkWritten(int chunkSize, Throwable error) {
+        if (error != null) {
+            if (isBusy(error) && mRetries < MAX_BUSY_RETRIES) {
+                mRetries++;
+                mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeNext();
+                    }
+                }, BUSY_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            GattLog.w(TAG, "bulk write to " + mCharacteristic + " failed after " + mWritten
+                    + " bytes: " + error);
+            finish(error);
+            return;
+        }
+        mRetries = 0;
+        mData.position(mData.position() + chunkSize);
+        mWritten += chunkSize;
+        if (!mData.hasRemaining()) {
+            mEndNanos = mClock.elapsedRealtimeNanos();
+        }
+        if (mListener != null) {
+            mListener.onProgress(mConnection.address, mWritten, mTotal, getBytesPerSecond());
+        }
+        if (mData.hasRemaining()) {
+            writeNext();
+        } else {
+            finish(null);
+        }
+    }
+
+    private static boolean isBusy(Throwable error) {
+        return error instanceof GattException
+                && ((GattException) error).getStatus() == GattException.STATUS_NOT_STARTED;
+    }
+
+    private void finish(Throwable error) {
+        if (mEndNanos == 0) {
+            mEndNanos = mClock.elapsedRealtimeNanos();
+        }
+        if (error == null) {
+            mResult.complete(null);
+        } else {
+            mResult.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+/**
+ * The binary format of the GATT event captures written by {@link GattRecorder} and read by
+ * {@link GattReplayer}.
+ *
+ * A capture starts with the magic number and the version (4 bytes each) followed by the
+ * records, all values are big endian. Every record has a fixed header of 22 bytes:
+ * <pre>
+ *   type           1 byte   one of the TYPE_ constants
+ *   flags          1 byte   FLAG_FULL_UUID if the 128 bit UUID follows the header
+ *   short id       2 bytes  the 16 bit id of a Bluetooth SIG UUID, 0 for events without UUID
+ *   timestamp      8 bytes  SystemClock.elapsedRealtimeNanos() when the event arrived
+ *   address        6 bytes  the device address
+ *   status         2 bytes  the GATT status, the new state of a connection change
+ *   length         2 bytes  the length of the payload
+ * </pre>
+ * followed by the 16 bytes of a UUID that has no short id and the raw payload. A record that
+ * was cut off when the app died is ignored, the capture ends before it.
+ */
+public final class GattCapture {
+
+    public static final int TYPE_CONNECTION_STATE = 1;
+    public static final int TYPE_SERVICES_DISCOVERED = 2;
+    public static final int TYPE_READ = 3;
+    public static final int TYPE_WRITE = 4;
+    public static final int TYPE_NOTIFICATION = 5;
+
+    static final int MAGIC = 0x47435054; // "GCPT"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 22;
+    static final int FLAG_FULL_UUID = 1;
+    static final byte[] NO_VALUE = new byte[0];
+
+    private GattCapture() {
+    }
+
+    /**
+     * One event of a capture.
+     */
+    public static final class Record {
+        private final int type;
+        private final long timestampNanos;
+        private final String address;
+        private final UUID uuid;
+        private final int status;
+        private final byte[] value;
+
+        Record(int type, long timestampNanos, String address, UUID uuid, int status,
+               byte[] value) {
+            this.type = type;
+            this.timestampNanos = timestampNanos;
+            this.address = address;
+            this.uuid = uuid;
+            this.status = status;
+            this.value = value;
+        }
+
+        /**
+         * @return one of the TYPE_ constants
+         */
+        public int getType() {
+            return type;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return the characteristic UUID, null for connection changes and discoveries
+         */
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        /**
+         * @return the GATT status, the new state of a connection change
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the payload of a read or notification, empty for other events
+         */
+        public byte[] getValue() {
+            return value;
+        }
+
+        int size() {
+            return RECORD_HEADER_SIZE + (hasShortId(uuid) ? 0 : 16) + value.length;
+        }
+    }
+
+    /**
+     * Reads a capture through a read-only memory mapping.
+     */
+    public static final class Reader implements Closeable {
+        private final RandomAccessFile mFile;
+        private final MappedByteBuffer mBuffer;
+
+        public Reader(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channel = mFile.getChannel();
+                mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (mBuffer.remaining() < FILE_HEADER_SIZE || mBuffer.getInt() != MAGIC) {
+                    throw new IOException(file + " is not a GATT capture");
+                }
+                final int version = mBuffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported capture version " + version);
+                }
+            } catch (IOException e) {
+                mFile.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the next record or null at the end of the capture
+         */
+        public Record next() {
+            try {
+                return decode(mBuffer);
+            } catch (BufferUnderflowException e) {
+                // the last record was not written completely
+                mBuffer.position(mBuffer.limit());
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+
+    static void writeFileHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     * @param buffer has at least record.size() bytes remaining
+     */
+    static void encode(Record record, ByteBuffer buffer) {
+        final UUID uuid = record.uuid;
+        final boolean shortId = hasShortId(uuid);
+        buffer.put((byte) record.type);
+        buffer.put((byte) (shortId ? 0 : FLAG_FULL_UUID));
+        buffer.putShort((short) (uuid != null && shortId ? GattUuids.toShortId(uuid) : 0));
+        buffer.putLong(record.timestampNanos);
+        final long address = parseAddress(record.address);
+        buffer.putShort((short) (address >>> 32));
+        buffer.putInt((int) address);
+        buffer.putShort((short) record.status);
+        buffer.putShort((short) record.value.length);
+        if (!shortId) {
+            buffer.putLong(uuid.getMostSignificantBits());
+            buffer.putLong(uuid.getLeastSignificantBits());
+        }
+        buffer.put(record.value);
+    }
+
+    /**
+     * @return the record at the position of the buffer, null if no bytes are left
+     * @throws BufferUnderflowException if the record is incomplete
+     */
+    static Record decode(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        final int type = buffer.get();
+        final int flags = buffer.get();
+        final int shortId = buffer.getShort() & 0xFFFF;
+        final long timestampNanos = buffer.getLong();
+        final long address = ((buffer.getShort() & 0xFFFFL) << 32)
+                | (buffer.getInt() & 0xFFFFFFFFL);
+        final int status = buffer.getShort();
+        final int length = buffer.getShort() & 0xFFFF;
+        final UUID uuid;
+        if ((flags & FLAG_FULL_UUID) != 0) {
+            uuid = new UUID(buffer.getLong(), buffer.getLong());
+        } else if (type == TYPE_CONNECTION_STATE || type == TYPE_SERVICES_DISCOVERED) {
+            uuid = null;
+        } else {
+            uuid = GattUuids.fromShortId(shortId);
+        }
+        final byte[] value = new byte[length];
+        buffer.get(value);
+        return new Record(type, timestampNanos, formatAddress(address), uuid, status, value);
+    }
+
+    private static boolean hasShortId(UUID uuid) {
+        return uuid == null || GattUuids.isShortUuid(uuid);
+    }
+
+    /**
+     * @param address a Bluetooth address like "00:11:22:AA:BB:CC"
+     */
+    static long parseAddress(String address) {
+        long value = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) {
+                value = (value << 4) | digit;
+            }
+        }
+        return value & 0xFFFFFFFFFFFFL;
+    }
+
+    static String formatAddress(long address) {
+        final char[] text = new char[17];
+        for (int i = 0; i < 6; i++) {
+            final int octet = (int) (address >>> (40 - 8 * i)) & 0xFF;
+            text[i * 3] = Character.toUpperCase(Character.forDigit(octet >>> 4, 16));
+            text[i * 3 + 1] = Character.toUpperCase(Character.forDigit(octet & 0x0F, 16));
+            if (i < 5) {
+                text[i * 3 + 2] = ':';
+            }
+        }
+        return new String(text);
+    }
+}
@@ -0,0 +1,47 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A discovered GATT characteristic as reported by a {@link GattTransport}. The property bits
+ * have the same values as the PROPERTY_ constants of BluetoothGattCharacteristic.
+ */
+public class GattCharacteristicInfo {
+
+    public static final int PROPERTY_READ = 0x02;
+    public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    public static final int PROPERTY_WRITE = 0x08;
+    public static final int PROPERTY_NOTIFY = 0x10;
+    public static final int PROPERTY_INDICATE = 0x20;
+
+    private final UUID uuid;
+    private final int properties;
+    private final List<UUID> descriptors;
+
+    public GattCharacteristicInfo(UUID uuid, int properties, List<UUID> descriptors) {
+        this.uuid = uuid;
+        this.properties = properties;
+        this.descriptors = Collections.unmodifiableList(descriptors);
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public int getProperties() {
+        return properties;
+    }
+
+    public boolean hasProperty(int property) {
+        return (properties & property) != 0;
+    }
+
+    /**
+     * @return the UUIDs of the descriptors of the characteristic
+     */
+    public List<UUID> getDescriptors() {
+        return descriptors;
+    }
+}
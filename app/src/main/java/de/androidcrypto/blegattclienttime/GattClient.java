@@ -0,0 +1,1243 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The connections to GATT servers with their operation queues, subscriptions, decoders and
+ * caches, on top of a {@link GattTransport}. It does not use any Android class, the
+ * {@link BluetoothLeService} runs it with the transports of the Android stack and the
+ * elapsed realtime clock, tests and benchmarks run it on a plain JVM with
+ * {@link SimulatedPeripheral}s.
+ *
+ * Several devices can be connected at the same time, all per device methods take the device
+ * address. The events are delivered to the {@link GattEventListener}s.
+ */
+public class GattClient {
+    private final static String TAG = GattClient.class.getSimpleName();
+
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+
+    // a discovery of a large attribute table takes several seconds
+    static final long DISCOVERY_TIMEOUT_MILLIS = 30000;
+
+    private final GattClock mClock;
+    // only one GATT operation may be outstanding per connection, each connection has a queue,
+    // the scheduler runs their timeouts
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final GattConnectionManager mConnectionManager = new GattConnectionManager();
+    private final GattDecoderRegistry mDecoderRegistry = GattDecoderRegistry.getDefault();
+    // outlives the connections, a device that reconnects is not asked again
+    private final GattPresentationCache mPresentationCache = new GattPresentationCache();
+    // the attribute tables of the last discoveries, shown before the discovery of a reconnect
+    // its files are read and written on the scheduler thread
+    private final GattAttributeCache mAttributeCache = new GattAttributeCache(mScheduler);
+    private final GattMetrics mMetrics = new GattMetrics();
+    private final GattEventBus mEventBus = new GattEventBus();
+    // the replayed events, kept apart from the live ones
+    private final GattEventBus mReplayBus = new GattEventBus();
+
+    // applied to the connections created afterwards
+    private volatile ConnectionProfile mDefaultProfile;
+    private volatile boolean mAutoProfileSwitching;
+    private volatile GattRecorder mRecorder;
+    private volatile int mNotificationOverflowPolicy = NotificationRing.OVERFLOW_DROP_OLDEST;
+    private final GattTransport.Factory mDefaultTransportFactory;
+    private volatile GattTransport.Factory mTransportFactory;
+
+    // only used on the notification dispatcher thread
+    private final HeartRateMeasurement mDispatcherHeartRate = new HeartRateMeasurement();
+    private final NotificationDispatcher mNotificationDispatcher = new NotificationDispatcher(
+            new NotificationDispatcher.Sink() {
+                @Override
+                public void onNotification(String address, UUID characteristic, byte[] value,
+                                           long timestampNanos) {
+                    final GattConnection connection = mConnectionManager.get(address);
+                    if (connection == null) return;
+                    try {
+                        final HeartRateVariability hrv = connection.heartRateVariability;
+                        if (hrv != null
+                                && HeartRateService.HEART_RATE_MEASUREMENT.equals(characteristic)
+                                && HeartRateService.decode(value, mDispatcherHeartRate)) {
+                            hrv.add(mDispatcherHeartRate);
+                        }
+                        connection.subscriptions.dispatch(characteristic, value, timestampNanos);
+                        mEventBus.dispatchCharacteristicChanged(address, characteristic, value,
+                                timestampNanos);
+                    } catch (RuntimeException e) {
+                        GattLog.e(TAG, "Dispatching a notification of " + characteristic
+                                + " failed", e);
+                    }
+                }
+            });
+
+    /**
+     * @param clock            the time base of all timestamps
+     * @param transportFactory creates the transports of new connections, may return null if
+     *                         the device can not be reached
+     */
+    public GattClient(GattClock clock, GattTransport.Factory transportFactory) {
+        mClock = clock;
+        mDefaultTransportFactory = transportFactory;
+        mTransportFactory = transportFactory;
+    }
+
+    // Implements callback methods for GATT events that the app cares about.  For example,
+    // connection change and services discovered. Every connection has its own callback, the
+    // transport delivers copies of the values.
+    private final class TransportCallback implements GattTransport.Callback {
+        private final GattConnection mConnection;
+
+        TransportCallback(GattConnection connection) {
+            mConnection = connection;
+        }
+
+        /**
+         * @return the connection or null for a late callback of a connection that was
+         * already closed or evicted
+         */
+        private GattConnection current() {
+            if (mConnectionManager.get(mConnection.address) != mConnection) {
+                GattLog.w(TAG, "callback for an unknown connection " + mConnection.address);
+                return null;
+            }
+            return mConnection;
+        }
+
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            final String address = connection.address;
+            record(GattCapture.TYPE_CONNECTION_STATE, address, null, newState);
+            if (newState == GattTransport.STATE_CONNECTED) {
+                connection.discovered = false;
+                connection.state = STATE_CONNECTED;
+                connection.touch();
+                GattLog.i(TAG, "Connected to GATT server " + address);
+                connection.tuner.onConnected();
+                // queued before the listeners run, so the operations they request wait for it
+                GattLog.i(TAG, "Attempting to start service discovery");
+                discoverServices(connection);
+                mEventBus.dispatchConnectionStateChange(address, newState);
+
+            } else if (newState == GattTransport.STATE_DISCONNECTED) {
+                connection.state = STATE_DISCONNECTED;
+                connection.discovered = false;
+                connection.mtu = GattTransport.DEFAULT_MTU;
+                connection.tuner.onDisconnected();
+                GattLog.i(TAG, "Disconnected from GATT server " + address);
+                connection.queue.cancelAll(new GattException(
+                        GattException.STATUS_DISCONNECTED, "disconnected"));
+                mEventBus.dispatchConnectionStateChange(address, newState);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            record(GattCapture.TYPE_SERVICES_DISCOVERED, connection.address, null, status);
+            if (status == GattTransport.STATUS_SUCCESS) {
+                final List<GattServiceInfo> services = connection.transport.getServices();
+                if (mAttributeCache.update(connection.address, services)) {
+                    // new device or the table changed, the descriptors are read again
+                    mPresentationCache.clear(connection.address);
+                }
+                connection.bindDecoders(services, mDecoderRegistry);
+                connection.services = services;
+                connection.discovered = true;
+                // queued before the CCCD writes, so notifications use the larger MTU and the
+                // decoders of the presentation formats
+                connection.tuner.onServicesDiscovered();
+                mPresentationCache.discover(connection, services, mDecoderRegistry);
+                connection.subscriptions.reapply();
+                // the queued operations start after a discovery that was queued itself
+                connection.queue.complete(GattOperationQueue.TYPE_DISCOVER_SERVICES, null, null);
+            } else {
+                GattLog.w(TAG, "onServicesDiscovered received: " + status);
+                connection.queue.fail(GattOperationQueue.TYPE_DISCOVER_SERVICES, null, status);
+            }
+            mEventBus.dispatchServicesDiscovered(connection.address, status);
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID service, UUID characteristic, byte[] value,
+                                         int status) {
+            final long timestampNanos = mClock.elapsedRealtimeNanos();
+            final GattConnection connection = current();
+            if (connection == null) return;
+            connection.touch();
+            record(GattCapture.TYPE_READ, connection.address, characteristic, status, value,
+                    timestampNanos);
+            if (status == GattTransport.STATUS_SUCCESS) {
+                mEventBus.dispatchCharacteristicRead(connection.address, characteristic,
+                        value, timestampNanos);
+                connection.queue.complete(GattOperationQueue.TYPE_READ_CHARACTERISTIC,
+                        characteristic, value, timestampNanos);
+            } else {
+                GattLog.w(TAG, "onCharacteristicRead received: " + status);
+                connection.queue.fail(GattOperationQueue.TYPE_READ_CHARACTERISTIC,
+                        characteristic, status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID service, UUID characteristic, int status) {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            connection.touch();
+            GattLog.v(TAG, "characteristic written");
+            record(GattCapture.TYPE_WRITE, connection.address, characteristic, status);
+            mEventBus.dispatchCharacteristicWrite(connection.address, characteristic, status);
+            if (status == GattTransport.STATUS_SUCCESS) {
+                connection.queue.complete(GattOperationQueue.TYPE_WRITE_CHARACTERISTIC,
+                        characteristic, null);
+            } else {
+                connection.queue.fail(GattOperationQueue.TYPE_WRITE_CHARACTERISTIC,
+                        characteristic, status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID service, UUID characteristic, byte[] value) {
+            final long timestampNanos = mClock.elapsedRealtimeNanos();
+            final GattConnection connection = current();
+            if (connection == null) return;
+            connection.touch();
+            record(GattCapture.TYPE_NOTIFICATION, connection.address, characteristic,
+                    GattTransport.STATUS_SUCCESS, value, timestampNanos);
+            connection.metrics.recordNotification(characteristic, value.length, timestampNanos);
+            if (GattAttributeCache.SERVICE_CHANGED.equals(characteristic)) {
+                onServiceChanged(connection);
+            }
+            // decoded and dispatched on the notification dispatcher thread
+            connection.notifications.offer(characteristic, value, timestampNanos);
+        }
+
+        /**
+         * The attribute table of the device changed, the cached one is dropped and the
+         * services are discovered again. The discovery is queued, the stack rejects it while
+         * another request is outstanding. The subscriptions are restored after it.
+         */
+        private void onServiceChanged(final GattConnection connection) {
+            GattLog.i(TAG, "Service Changed by " + connection.address);
+            mAttributeCache.invalidate(connection.address);
+            mPresentationCache.clear(connection.address);
+            discoverServices(connection);
+        }
+
+        /**
+         * Queues a discovery, the operations queued after it start once it completed.
+         */
+        private void discoverServices(final GattConnection connection) {
+            connection.queue.enqueue(new GattOperationQueue.Operation<Void>(
+                    GattOperationQueue.TYPE_DISCOVER_SERVICES, null, DISCOVERY_TIMEOUT_MILLIS) {
+                @Override
+                boolean execute() {
+                    return connection.transport.discoverServices();
+                }
+            });
+        }
+
+        @Override
+        public void onDescriptorRead(UUID service, UUID characteristic, UUID descriptor,
+                                     byte[] value, int status) {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            connection.touch();
+            if (status == GattTransport.STATUS_SUCCESS) {
+                connection.queue.completeDescriptor(GattOperationQueue.TYPE_READ_DESCRIPTOR,
+                        characteristic, descriptor, value);
+            } else {
+                connection.queue.failDescriptor(GattOperationQueue.TYPE_READ_DESCRIPTOR,
+                        characteristic, descriptor, status);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID service, UUID characteristic, UUID descriptor,
+                                      int status) {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            connection.touch();
+            GattLog.d(TAG, "onDescriptorWrite");
+            mEventBus.dispatchDescriptorWrite(connection.address, characteristic, descriptor, status);
+            if (status == GattTransport.STATUS_SUCCESS) {
+                connection.queue.completeDescriptor(GattOperationQueue.TYPE_WRITE_DESCRIPTOR,
+                        characteristic, descriptor, null);
+            } else {
+                connection.queue.failDescriptor(GattOperationQueue.TYPE_WRITE_DESCRIPTOR,
+                        characteristic, descriptor, status);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            GattLog.d(TAG, "onMtuChanged " + connection.address + ": " + mtu + ", status " + status);
+            if (status == GattTransport.STATUS_SUCCESS) {
+                connection.mtu = mtu;
+                connection.queue.complete(GattOperationQueue.TYPE_REQUEST_MTU, null, mtu);
+            } else {
+                connection.queue.fail(GattOperationQueue.TYPE_REQUEST_MTU, null, status);
+            }
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            GattLog.d(TAG, "onPhyUpdate " + connection.address + ": " + txPhy + "/" + rxPhy
+                    + ", status " + status);
+            connection.tuner.onPhyUpdate(txPhy, rxPhy, status);
+        }
+
+        @Override
+        public void onServiceChanged() {
+            final GattConnection connection = current();
+            if (connection == null) return;
+            connection.touch();
+            onServiceChanged(connection);
+        }
+    }
+
+    private void record(int type, String address, UUID uuid, int status) {
+        final GattRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.record(type, mClock.elapsedRealtimeNanos(), address, uuid, status, null);
+        }
+    }
+
+    private void record(int type, String address, UUID uuid, int status, byte[] value,
+                        long timestampNanos) {
+        final GattRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.record(type, timestampNanos, address, uuid, status, value);
+        }
+    }
+
+    /**
+     * Dispatches the events of one replay to the replay listeners, never to the live
+     * listeners, the subscriptions or the operation queues. Notifications run through a ring
+     * per device and a dispatcher thread of the replay like live ones.
+     */
+    private final class ReplaySink implements GattReplayer.Sink {
+        private final NotificationDispatcher mDispatcher = new NotificationDispatcher(
+                new NotificationDispatcher.Sink() {
+                    @Override
+                    public void onNotification(String address, UUID characteristic,
+                                               byte[] value, long timestampNanos) {
+                        mReplayBus.dispatchCharacteristicChanged(address, characteristic, value,
+                                timestampNanos);
+                    }
+                }, "GattReplayDispatcher");
+        // only used on the replayer thread
+        private final Map<String, NotificationRing> mRings = new HashMap<>();
+
+        @Override
+        public void onReplay(GattCapture.Record record, long timestampNanos) {
+            final String address = record.getAddress();
+            final UUID characteristic = record.getUuid();
+            final byte[] value = record.getValue();
+            final int status = record.getStatus();
+            switch (record.getType()) {
+                case GattCapture.TYPE_CONNECTION_STATE:
+                    mReplayBus.dispatchConnectionStateChange(address, status);
+                    break;
+                case GattCapture.TYPE_SERVICES_DISCOVERED:
+                    mReplayBus.dispatchServicesDiscovered(address, status);
+                    break;
+                case GattCapture.TYPE_READ:
+                    if (status == GattTransport.STATUS_SUCCESS) {
+                        mReplayBus.dispatchCharacteristicRead(address, characteristic, value,
+                                timestampNanos);
+                    }
+                    break;
+                case GattCapture.TYPE_WRITE:
+                    mReplayBus.dispatchCharacteristicWrite(address, characteristic, status);
+                    break;
+                case GattCapture.TYPE_NOTIFICATION:
+                    NotificationRing ring = mRings.get(address);
+                    if (ring == null) {
+                        // the replayer thread may wait for the dispatcher, nothing is dropped
+                        ring = mDispatcher.newRing(address, NotificationRing.OVERFLOW_BLOCK);
+                        mRings.put(address, ring);
+                    }
+                    ring.offer(characteristic, value, timestampNanos);
+                    break;
+                default:
+                    GattLog.w(TAG, "unknown replayed event type " + record.getType());
+            }
+        }
+
+        /**
+         * Called when the replay ended, the dispatcher stops after the last notification.
+         */
+        void finish() {
+            mDispatcher.finish();
+        }
+    }
+
+    /**
+     * Registers a listener that receives the events of {@link #replay(File, double)} on the
+     * given executor. Replayed events are only delivered to these listeners, the live
+     * listeners, subscriptions and fleet syncs do not see them.
+     */
+    public void registerReplayListener(GattEventListener listener, Executor executor) {
+        mReplayBus.register(listener, executor);
+    }
+
+    /**
+     * Registers a replay listener that is called directly on the replayer thread, or on the
+     * replay dispatcher thread for notifications.
+     */
+    public void registerReplayListener(GattEventListener listener) {
+        mReplayBus.register(listener, GattEventBus.DIRECT_EXECUTOR);
+    }
+
+    public void unregisterReplayListener(GattEventListener listener) {
+        mReplayBus.unregister(listener);
+    }
+
+    /**
+     * Registers a listener that receives all GATT events on the given executor.
+     */
+    public void registerListener(GattEventListener listener, Executor executor) {
+        mEventBus.register(listener, executor);
+    }
+
+    /**
+     * Registers a listener that is called directly on the transport callback thread, or on
+     * the notification dispatcher thread for notifications, it has to return quickly.
+     */
+    public void registerListener(GattEventListener listener) {
+        mEventBus.register(listener, GattEventBus.DIRECT_EXECUTOR);
+    }
+
+    public void unregisterListener(GattEventListener listener) {
+        mEventBus.unregister(listener);
+    }
+
+    /**
+     * Sets the number of devices that may be connected at the same time. When the limit
+     * is reached the least recently used idle connection is closed for a new one.
+     */
+    public void setMaxConnections(int maxConnections) {
+        mConnectionManager.setMaxConnections(maxConnections);
+    }
+
+    /**
+     * Sets the profile of the connections created afterwards, null (the default) keeps
+     * the link parameters of the stack.
+     */
+    public void setDefaultConnectionProfile(ConnectionProfile profile) {
+        mDefaultProfile = profile;
+    }
+
+    /**
+     * Enables switching to the low latency profile for the reads of a clock audit and to
+     * the bulk transfer profile for bulk writes, on all connections. Off by default.
+     */
+    public void setAutoProfileSwitching(boolean enabled) {
+        mAutoProfileSwitching = enabled;
+        for (GattConnection connection : mConnectionManager.getAll()) {
+            connection.tuner.setAutoSwitch(enabled);
+        }
+    }
+
+    /**
+     * Sets what happens when the notifications of a device arrive faster than they are
+     * dispatched, for all connections. See {@link NotificationRing}.
+     *
+     * @param policy one of the OVERFLOW_ constants of NotificationRing, default
+     *               OVERFLOW_DROP_OLDEST
+     */
+    public void setNotificationOverflowPolicy(int policy) {
+        NotificationRing.checkPolicy(policy);
+        for (GattConnection connection : mConnectionManager.getAll()) {
+            connection.notifications.setPolicy(policy);
+        }
+        mNotificationOverflowPolicy = policy;
+    }
+
+    /**
+     * @return the latency, throughput and failure metrics of all devices
+     */
+    public GattMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return the registry for adding decoders of further characteristics, decoders
+     * registered after the services were discovered apply from the next discovery on
+     */
+    public GattDecoderRegistry getDecoderRegistry() {
+        return mDecoderRegistry;
+    }
+
+    /**
+     * Compiles the schemas in the format of {@link GattSchemaCompiler} and registers them for
+     * the characteristics that have no decoder, they apply from the next discovery on.
+     *
+     * @return the number of registered schemas
+     * @throws IOException if the schemas can not be read or have an error
+     */
+    public int registerSchemas(Reader reader) throws IOException {
+        int registered = 0;
+        for (CharacteristicSchema schema : GattSchemaCompiler.compile(reader)) {
+            if (mDecoderRegistry.registerIfAbsent(schema.getUuid(), schema)) {
+                registered++;
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * @return the Characteristic Presentation Format of a characteristic without a
+     * registered decoder, null if it has none or it was not read yet
+     */
+    public PresentationFormat getPresentationFormat(String address, UUID characteristic) {
+        final GattPresentationCache.Entry entry = mPresentationCache.get(address, characteristic);
+        return entry == null ? null : entry.format;
+    }
+
+    /**
+     * @return the Characteristic User Description of a characteristic without a
+     * registered decoder, null if it has none or it was not read yet
+     */
+    public String getUserDescription(String address, UUID characteristic) {
+        final GattPresentationCache.Entry entry = mPresentationCache.get(address, characteristic);
+        return entry == null ? null : entry.userDescription;
+    }
+
+    /**
+     * Keeps the attribute tables of the connected devices in the directory, see
+     * {@link GattAttributeCache#setDirectory(File)}.
+     */
+    public void setAttributeCacheDirectory(File directory) {
+        mAttributeCache.setDirectory(directory);
+    }
+
+    /**
+     * Sets the factory for the transports of new connections, e.g.
+     * {@link SimulatedPeripheral#factory(SimulatedPeripheral...)} to run without a radio.
+     * Established connections keep their transport.
+     *
+     * @param factory the factory or null for the one the client was created with
+     */
+    public void setTransportFactory(GattTransport.Factory factory) {
+        mTransportFactory = factory != null ? factory : mDefaultTransportFactory;
+    }
+
+    /**
+     * Writes the state of the connections and the metrics.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println(mConnectionManager.size() + " connections:");
+        for (GattConnection connection : mConnectionManager.getAll()) {
+            writer.println(connection.address + " state " + connection.state + ", "
+                    + connection.queue.size() + " queued, " + connection.tuner.getParameters());
+            writer.println("  " + connection.notifications);
+            final HeartRateVariability hrv = connection.heartRateVariability;
+            if (hrv != null) {
+                writer.println("  " + hrv);
+            }
+        }
+        mMetrics.dump(writer);
+    }
+
+    /**
+     * Closes all connections, stops the recording and the threads of the client. The client
+     * can not be used afterwards.
+     */
+    public void shutdown() {
+        close();
+        stopRecording();
+        mNotificationDispatcher.shutdown();
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * Connects to the GATT server of a device. A connection that is still established is
+     * reused. If the connection limit is reached the least recently used idle connection is
+     * closed first.
+     *
+     * @param address The device address of the destination device.
+     * @return Return true if the connection is initiated successfully or already established.
+     * The connection result is reported asynchronously through the
+     * {@link GattEventListener#onConnectionStateChange(String, int)} callback.
+     */
+    public boolean connect(final String address) {
+        if (address == null) {
+            GattLog.w(TAG, "Unspecified address.");
+            return false;
+        }
+
+        final GattConnection connection;
+        // the lookup and the creation under one lock, a concurrent connect to the same
+        // device would create a second transport and replace the first one
+        synchronized (mConnectionManager) {
+            // Previously connected device.  Try to reconnect.
+            final GattConnection existing = mConnectionManager.get(address);
+            if (existing != null && existing.transport != null) {
+                existing.touch();
+                if (existing.state != STATE_DISCONNECTED) {
+                    GattLog.d(TAG, "Reusing the connection to " + address);
+                    return true;
+                }
+                GattLog.d(TAG, "Trying to use an existing transport for connection.");
+                if (existing.transport.connect()) {
+                    existing.state = STATE_CONNECTING;
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+
+            if (!mConnectionManager.hasCapacity()) {
+                GattConnection eldest = mConnectionManager.findEvictionCandidate();
+                if (eldest == null) {
+                    GattLog.w(TAG, "All " + mConnectionManager.getMaxConnections()
+                            + " connections are busy.  Unable to connect.");
+                    return false;
+                }
+                GattLog.d(TAG, "Closing the least recently used connection to " + eldest.address);
+                closeConnection(eldest);
+            }
+            connection = new GattConnection(address, mClock, mScheduler,
+                    mMetrics.device(address),
+                    mNotificationDispatcher.newRing(address, mNotificationOverflowPolicy));
+            connection.tuner.setProfile(mDefaultProfile);
+            connection.tuner.setAutoSwitch(mAutoProfileSwitching);
+            final GattTransport transport =
+                    mTransportFactory.create(address, new TransportCallback(connection));
+            if (transport == null) {
+                mNotificationDispatcher.remove(connection.notifications);
+                GattLog.w(TAG, "Transport not available or device not found.  Unable to connect.");
+                return false;
+            }
+            connection.transport = transport;
+            connection.state = STATE_CONNECTING;
+            // registered before connecting so that no early callback is missed
+            mConnectionManager.add(connection);
+        }
+        restoreAttributeTable(connection);
+        if (!connection.transport.connect()) {
+            GattLog.w(TAG, "Unable to connect to " + address);
+            closeConnection(connection);
+            return false;
+        }
+        GattLog.d(TAG, "Trying to create a new connection.");
+        return true;
+    }
+
+    /**
+     * Shows the attribute table of the last discovery and binds its decoders while the
+     * connection is set up, the discovery replaces them. Reads and writes still need the
+     * discovery, the Android stack only knows the handles afterwards.
+     */
+    private void restoreAttributeTable(GattConnection connection) {
+        final List<GattServiceInfo> cached = mAttributeCache.load(connection.address);
+        if (cached == null) {
+            return;
+        }
+        connection.bindDecoders(cached, mDecoderRegistry);
+        mPresentationCache.bind(connection, cached, mDecoderRegistry);
+        connection.services = cached;
+        GattLog.d(TAG, "Restored " + cached.size() + " cached services of " + connection.address);
+    }
+
+    /**
+     * Disconnects an existing connection or cancel a pending connection. The disconnection
+     * result is reported asynchronously through the
+     * {@link GattEventListener#onConnectionStateChange(String, int)} callback. The connection
+     * can be reestablished with {@link #connect(String)}.
+     *
+     * @param address The device address of the device to disconnect.
+     */
+    public void disconnect(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection == null || connection.transport == null) {
+            GattLog.w(TAG, "Not connected to " + address);
+            return;
+        }
+        connection.transport.disconnect();
+    }
+
+    /**
+     * Disconnects all devices.
+     */
+    public void disconnect() {
+        for (GattConnection connection : mConnectionManager.getAll()) {
+            disconnect(connection.address);
+        }
+    }
+
+    /**
+     * After using a given BLE device, the app must call this method to ensure resources are
+     * released properly.
+     *
+     * @param address The device address of the device to close.
+     */
+    public void close(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection == null) {
+            return;
+        }
+        closeConnection(connection);
+    }
+
+    /**
+     * Closes the connections to all devices.
+     */
+    public void close() {
+        for (GattConnection connection : mConnectionManager.getAll()) {
+            closeConnection(connection);
+        }
+    }
+
+    private void closeConnection(GattConnection connection) {
+        mConnectionManager.remove(connection);
+        connection.state = STATE_DISCONNECTED;
+        final ClockAudit audit = connection.clockAudit;
+        if (audit != null) {
+            audit.stop();
+        }
+        connection.subscriptions.clear();
+        mNotificationDispatcher.remove(connection.notifications);
+        connection.queue.cancelAll(new GattException(
+                GattException.STATUS_DISCONNECTED, "connection closed"));
+        final GattTransport transport = connection.transport;
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    /**
+     * @return one of the STATE_ constants for the device
+     */
+    public int getConnectionState(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        return connection == null ? STATE_DISCONNECTED : connection.state;
+    }
+
+    /**
+     * @return the addresses of all devices that are connected or being connected
+     */
+    public List<String> getConnectedDevices() {
+        final List<String> addresses = new ArrayList<>();
+        for (GattConnection connection : mConnectionManager.getAll()) {
+            if (connection.state != STATE_DISCONNECTED) {
+                addresses.add(connection.address);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * The services of a device. Until the first discovery of a connection completes these
+     * are the services cached from the last connection to the device, empty for a device
+     * that was never connected.
+     *
+     * @return the services or null if there is no connection to the device
+     */
+    public List<GattServiceInfo> getServices(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection == null || connection.transport == null) return null;
+
+        return connection.services;
+    }
+
+    /**
+     * @return true if the client holds a connection to the device, also while it is
+     * disconnected and not closed yet
+     */
+    boolean hasConnection(String address) {
+        return mConnectionManager.get(address) != null;
+    }
+
+    /**
+     * @return true if the device is connected and its services were discovered on this link,
+     * not only restored from the attribute cache
+     */
+    boolean isDiscovered(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        return connection != null && connection.isDiscovered();
+    }
+
+    /**
+     * @return the transport of the connection, null if there is none
+     */
+    GattTransport getTransport(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        return connection == null ? null : connection.transport;
+    }
+
+    /**
+     * @return the decoder of a characteristic of the device, with the decoders bound at its
+     * discovery
+     */
+    CharacteristicDecoder decoderFor(String address, UUID characteristic) {
+        final GattConnection connection = mConnectionManager.get(address);
+        return connection != null ? connection.decoderFor(characteristic, mDecoderRegistry)
+                : mDecoderRegistry.resolve(characteristic);
+    }
+
+    private GattConnection requireConnection(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection == null || connection.transport == null) {
+            GattLog.w(TAG, "Not connected to " + address);
+            return null;
+        }
+        connection.touch();
+        return connection;
+    }
+
+    /**
+     * Reads a characteristic with the default timeout, see
+     * {@link #readCharacteristic(String, UUID, UUID, long)}.
+     */
+    public GattFuture<byte[]> readCharacteristic(String address, UUID service,
+                                                 UUID characteristic) {
+        return readCharacteristic(address, service, characteristic,
+                GattOperationQueue.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Reads a characteristic. The read is queued and the result is reported through the
+     * returned future and {@link GattEventListener#onCharacteristicRead}.
+     *
+     * @param address        The device address.
+     * @param service        the service UUID, null for the first characteristic with the UUID
+     * @param characteristic The characteristic to read from.
+     * @param timeoutMillis  The time the read may take once it was started.
+     * @return a future that receives a copy of the value that was read
+     */
+    public GattFuture<byte[]> readCharacteristic(String address, final UUID service,
+                                                 final UUID characteristic, long timeoutMillis) {
+        final GattConnection connection = requireConnection(address);
+        if (connection == null) {
+            return notInitialized();
+        }
+        return connection.queue.enqueue(new GattOperationQueue.Operation<byte[]>(
+                GattOperationQueue.TYPE_READ_CHARACTERISTIC, characteristic, timeoutMillis) {
+            @Override
+            boolean execute() {
+                return connection.transport.readCharacteristic(service, characteristic);
+            }
+        });
+    }
+
+    /**
+     * Writes a characteristic. The write is queued and the result is reported through the
+     * returned future.
+     *
+     * @param address        The device address.
+     * @param service        the service UUID, null for the first characteristic with the UUID
+     * @param characteristic The characteristic to write to.
+     * @param value          the value, not modified
+     * @param writeType      one of the GattTransport.WRITE_TYPE_ constants
+     * @return a future that completes when the write was acknowledged
+     */
+    public GattFuture<Void> writeCharacteristic(String address, final UUID service,
+                                                final UUID characteristic, final byte[] value,
+                                                final int writeType) {
+        final GattConnection connection = requireConnection(address);
+        if (connection == null) {
+            return notInitialized();
+        }
+        return connection.queue.enqueue(new GattOperationQueue.Operation<Void>(
+                GattOperationQueue.TYPE_WRITE_CHARACTERISTIC, characteristic,
+                GattOperationQueue.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            boolean execute() {
+                return connection.transport.writeCharacteristic(service, characteristic, value,
+                        writeType);
+            }
+        });
+    }
+
+    /**
+     * Subscribes to the notifications or indications of a characteristic. The CCCD of the
+     * characteristic is written by the first subscription and cleared when the last one is
+     * cancelled, subscriptions are restored after a reconnect. The values are also delivered
+     * to the {@link GattEventListener}s.
+     *
+     * @param address        The device address.
+     * @param service        the service UUID, null for the first characteristic with the UUID
+     * @param characteristic The characteristic to subscribe to.
+     * @param listener       receives the values of the characteristic, may be null
+     * @param executor       runs the listener, null to call it on the notification
+     *                       dispatcher thread
+     * @return the subscription or null if the device is not connected
+     */
+    public GattSubscription subscribe(String address, UUID service, UUID characteristic,
+                                      GattSubscription.Listener listener, Executor executor) {
+        final GattConnection connection = requireConnection(address);
+        if (connection == null) {
+            return null;
+        }
+        GattLog.i(TAG, "subscribe to " + characteristic + " of " + address);
+        return connection.subscriptions.subscribe(service, characteristic, listener, executor);
+    }
+
+    /**
+     * Starts to audit the clock of a device with bursts of Current Time reads, see
+     * {@link ClockAudit}. The estimates are reported to the listener until the audit is
+     * stopped or the connection is closed.
+     *
+     * @param address  The device address.
+     * @param listener receives the estimates on the transport callback thread
+     * @return the running audit or null if the device is not connected
+     */
+    public ClockAudit startClockAudit(String address, ClockAudit.Listener listener) {
+        return startClockAudit(address, listener, ClockAudit.DEFAULT_BURST_SIZE,
+                ClockAudit.DEFAULT_BURST_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Starts to audit the clock of a device, an audit that is already running for the device
+     * is stopped.
+     *
+     * @param address             The device address.
+     * @param listener            receives the estimates on the transport callback thread
+     * @param burstSize           the number of reads per burst
+     * @param burstIntervalMillis the time between the end of a burst and the next one
+     * @return the running audit or null if the device is not connected
+     */
+    public ClockAudit startClockAudit(String address, ClockAudit.Listener listener,
+                                      int burstSize, long burstIntervalMillis) {
+        final GattConnection connection = requireConnection(address);
+        if (connection == null) {
+            return null;
+        }
+        final ClockAudit audit = new ClockAudit(connection, mScheduler, listener, burstSize,
+                burstIntervalMillis);
+        final ClockAudit previous = connection.clockAudit;
+        connection.clockAudit = audit;
+        if (previous != null) {
+            previous.stop();
+        }
+        audit.start();
+        return audit;
+    }
+
+    /**
+     * Stops the clock audit of a device.
+     */
+    public void stopClockAudit(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection == null) {
+            return;
+        }
+        final ClockAudit audit = connection.clockAudit;
+        connection.clockAudit = null;
+        if (audit != null) {
+            audit.stop();
+        }
+    }
+
+    /**
+     * Reads the Current Time of a device a number of times and estimates the offset of its
+     * clock from the read with the shortest round trip, see {@link ClockOffsetEstimator}.
+     *
+     * @param address The device address.
+     * @param reads   the number of reads
+     * @return a future that receives the estimate, null if the device returned no valid time
+     */
+    public GattFuture<ClockEstimate> readClockOffset(String address, int reads) {
+        final GattConnection connection = requireConnection(address);
+        if (connection == null) {
+            return notInitialized();
+        }
+        final GattFuture<ClockEstimate> result = new GattFuture<>();
+        new CurrentTimeBurst(connection, new ClockOffsetEstimator(), reads,
+                new CurrentTimeBurst.Callback() {
+                    @Override
+                    public void onBurstDone(ClockEstimate estimate, Throwable error) {
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(estimate);
+                        }
+                    }
+                }).start();
+        return result;
+    }
+
+    /**
+     * Sets the clock of a device to the time of this device with a tolerance of 50 ms, see
+     * {@link #setCurrentTime(String, long)}.
+     */
+    public GattFuture<ClockEstimate> setCurrentTime(String address) {
+        return setCurrentTime(address, ClockSetter.DEFAULT_TOLERANCE_MILLIS);
+    }
+
+    /**
+     * Sets the clock of a device to the time of this device. The write of the Current Time
+     * characteristic is timed to take effect on a second boundary, the time is read back
+     * afterwards. A running clock audit of the device starts a new fit.
+     *
+     * Peripherals that do not report the Fractions256 field can only be verified to a second.
+     *
+     * @param address         The device address.
+     * @param toleranceMillis the offset the read-back may show
+     * @return a future that receives the offset measured by the read-back, it fails with
+     * {@link GattException#STATUS_VERIFY_FAILED} if the offset exceeds the tolerance
+     */
+    public GattFuture<ClockEstimate> setCurrentTime(String address, long toleranceMillis) {
+        final GattConnection connection = requireConnection(address);
+        if (connection == null) {
+            return notInitialized();
+        }
+        return new ClockSetter(connection, mScheduler, toleranceMillis).start();
+    }
+
+    /**
+     * Synchronizes the clocks of a list of devices with a limited number of connections at
+     * the same time, see {@link FleetTimeSync}.
+     *
+     * @param addresses the device addresses, duplicates are handled once
+     * @param config    the parallelism, timeouts, retries and tolerance
+     * @param listener  receives a result per device and the metrics at the end
+     * @return the running synchronization
+     */
+    public FleetTimeSync syncFleetTime(List<String> addresses, FleetTimeSync.Config config,
+                                       FleetTimeSync.Listener listener) {
+        final FleetTimeSync sync = new FleetTimeSync(this, mEventBus, mScheduler, mClock,
+                addresses, config, listener);
+        sync.start();
+        return sync;
+    }
+
+    /**
+     * Requests a larger MTU for the connection, the request is queued like all other GATT
+     * operations.
+     *
+     * @param address The device address.
+     * @param mtu     the requested MTU, the device may grant less
+     * @return a future that receives the negotiated MTU
+     */
+    public GattFuture<Integer> requestMtu(String address, final int mtu) {
+        final GattConnection connection = requireConnection(address);
+        if (connection == null) {
+            return notInitialized();
+        }
+        return connection.tuner.requestMtu(mtu);
+    }
+
+    /**
+     * @return the negotiated MTU of the connection, 23 before a larger one was negotiated
+     */
+    public int getMtu(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        return connection == null ? GattTransport.DEFAULT_MTU : connection.mtu;
+    }
+
+    /**
+     * Sets the link parameters of a connection, they are applied now if the device is
+     * connected and again after every reconnect. See {@link ConnectionProfile}.
+     *
+     * @param address The device address.
+     * @param profile the profile, null to go back to the stack defaults
+     * @return false if there is no connection to the device
+     */
+    public boolean setConnectionProfile(String address, ConnectionProfile profile) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection == null) {
+            GattLog.w(TAG, "Not connected to " + address);
+            return false;
+        }
+        connection.tuner.setProfile(profile);
+        return true;
+    }
+
+    /**
+     * @return the current link parameters of the connection, null if there is none
+     */
+    public ConnectionParameters getConnectionParameters(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        return connection == null ? null : connection.tuner.getParameters();
+    }
+
+    /**
+     * Starts the rolling heart rate variability of a device from the RR intervals of its Heart
+     * Rate Measurement notifications, the notifications have to be subscribed separately.
+     * Tracking again replaces the windows. See {@link HeartRateVariability}.
+     *
+     * @param address      The device address.
+     * @param windowMillis the durations of the windows, e.g. 60000 and 300000
+     * @return the statistics, null if there is no connection to the device
+     */
+    public HeartRateVariability trackHeartRateVariability(String address, long... windowMillis) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection == null) {
+            GattLog.w(TAG, "Not connected to " + address);
+            return null;
+        }
+        final HeartRateVariability hrv = new HeartRateVariability(address, windowMillis);
+        connection.heartRateVariability = hrv;
+        return hrv;
+    }
+
+    /**
+     * Stops the heart rate variability of a device, the last statistics stay readable.
+     */
+    public void stopHeartRateVariability(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        if (connection != null) {
+            connection.heartRateVariability = null;
+        }
+    }
+
+    /**
+     * @return the notifications of the device waiting for the dispatcher with the occupancy
+     * and drop counters, null if there is no connection
+     */
+    public NotificationRing getNotificationRing(String address) {
+        final GattConnection connection = mConnectionManager.get(address);
+        return connection == null ? null : connection.notifications;
+    }
+
+    /**
+     * Writes a value of any length to a characteristic in chunks of MTU - 3 bytes, without
+     * response if the characteristic supports it. A larger MTU is requested before the first
+     * bulk write of a connection, with automatic profile switching the bulk transfer profile
+     * is used while the write runs.
+     *
+     * @param address        The device address.
+     * @param service        the service UUID, null for the first characteristic with the UUID
+     * @param characteristic The characteristic to write to.
+     * @param properties     the properties of the characteristic, the PROPERTY_ constants of
+     *                       {@link GattCharacteristicInfo}
+     * @param data           the bytes from the position to the limit are written
+     * @param listener       receives the progress after every chunk, may be null
+     * @return the running write, its result fails if the device is not connected or the
+     * characteristic is not writable
+     */
+    public GattBulkWrite bulkWrite(String address, UUID service, UUID characteristic,
+                                   int properties, ByteBuffer data,
+                                   GattBulkWrite.Listener listener) {
+        final GattConnection connection = requireConnection(address);
+        final int writeType = (properties & GattCharacteristicInfo.PROPERTY_WRITE_NO_RESPONSE) != 0
+                ? GattTransport.WRITE_TYPE_NO_RESPONSE : GattTransport.WRITE_TYPE_DEFAULT;
+        final GattBulkWrite write = new GattBulkWrite(connection, mClock, mScheduler, service,
+                characteristic, writeType, data, listener);
+        if (connection == null) {
+            write.getResult().completeExceptionally(new GattException(
+                    GattException.STATUS_NOT_STARTED, "not connected"));
+            return write;
+        }
+        if ((properties & (GattCharacteristicInfo.PROPERTY_WRITE
+                | GattCharacteristicInfo.PROPERTY_WRITE_NO_RESPONSE)) == 0) {
+            write.getResult().completeExceptionally(new GattException(
+                    GattException.STATUS_NOT_STARTED, "characteristic is not writable"));
+            return write;
+        }
+        final ConnectionTuner tuner = connection.tuner;
+        tuner.beginBurst(ConnectionProfile.BULK_TRANSFER);
+        write.getResult().addListener(new GattFuture.Listener<Void>() {
+            @Override
+            public void onComplete(Void value, Throwable error) {
+                tuner.endBurst();
+            }
+        });
+        tuner.ensureMtu(ConnectionProfile.MAX_MTU).addListener(
+                new GattFuture.Listener<Integer>() {
+                    @Override
+                    public void onComplete(Integer value, Throwable error) {
+                        // with the default MTU if the device refused a larger one
+                        write.start();
+                    }
+                });
+        return write;
+    }
+
+    /**
+     * Records connection changes, service discoveries, reads, writes and notifications of all
+     * devices to a capture file until {@link #stopRecording()}, a recording that is running
+     * is stopped first. See {@link GattRecorder}.
+     *
+     * @param file the capture file, the events are appended if it exists
+     * @return the running recorder
+     */
+    public GattRecorder startRecording(File file) throws IOException {
+        stopRecording();
+        final GattRecorder recorder = new GattRecorder(file);
+        mRecorder = recorder;
+        GattLog.i(TAG, "Recording GATT events to " + file);
+        return recorder;
+    }
+
+    /**
+     * Stops the recording and closes its capture file, does nothing if there is none.
+     */
+    public void stopRecording() {
+        final GattRecorder recorder = mRecorder;
+        if (recorder == null) {
+            return;
+        }
+        mRecorder = null;
+        try {
+            recorder.close();
+            GattLog.i(TAG, "Recorded " + recorder.getRecordedCount() + " GATT events, dropped "
+                    + recorder.getDroppedCount());
+        } catch (IOException e) {
+            GattLog.e(TAG, "Recording to " + recorder.getFile() + " failed", e);
+        }
+    }
+
+    /**
+     * Replays a capture of {@link #startRecording(File)} to the listeners registered with
+     * {@link #registerReplayListener(GattEventListener, Executor)}. Replayed events do not
+     * reach the live listeners, the subscriptions or the operation queues and are not recorded
+     * in the metrics.
+     *
+     * @param capture the capture file
+     * @param speed   1 for the original timing, 10 for ten times faster, 0 for as fast as
+     *                possible
+     * @return the running replay
+     * @throws IOException if the file is not a capture
+     */
+    public GattReplayer replay(File capture, double speed) throws IOException {
+        final ReplaySink sink = new ReplaySink();
+        final GattReplayer replayer;
+        try {
+            replayer = new GattReplayer(capture, speed, mClock, sink);
+            replayer.start();
+        } catch (IOException e) {
+            sink.finish();
+            throw e;
+        } catch (RuntimeException e) {
+            sink.finish();
+            throw e;
+        }
+        replayer.getDone().addListener(new GattFuture.Listener<Long>() {
+            @Override
+            public void onComplete(Long value, Throwable error) {
+                sink.finish();
+            }
+        });
+        return replayer;
+    }
+
+    private static <T> GattFuture<T> notInitialized() {
+        return GattFuture.failed(new GattException(
+                GattException.STATUS_NOT_STARTED, "not connected"));
+    }
+}
@@ -0,0 +1,25 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * The monotonic clock of a {@link GattClient}. All timestamps of the client, its events and
+ * its captures are taken from it, on Android it is SystemClock.elapsedRealtimeNanos() so
+ * they keep counting in deep sleep.
+ */
+public interface GattClock {
+
+    /**
+     * System.nanoTime(), for running the client on a plain JVM, e.g. with
+     * {@link SimulatedPeripheral}s.
+     */
+    GattClock SYSTEM = new GattClock() {
+        @Override
+        public long elapsedRealtimeNanos() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return the nanoseconds since an arbitrary but fixed point, never going backwards
+     */
+    long elapsedRealtimeNanos();
+}
@@ -0,0 +1,109 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The state of the link to one remote device, managed by the {@link GattConnectionManager}.
+ */
+class GattConnection {
+
+    final String address;
+    final GattClock clock;
+    // every connection has its own queue, Android serializes the requests per BluetoothGatt
+    final GattOperationQueue queue;
+    // survive a disconnect, restored after the services were discovered again
+    final GattSubscriptionManager subscriptions = new GattSubscriptionManager(this);
+    final ConnectionTuner tuner;
+    final GattMetrics.Device metrics;
+    // filled on the Bluetooth callback thread, drained by the notification dispatcher
+    final NotificationRing notifications;
+
+    volatile GattTransport transport;
+    // the discovered services, the cached ones of the last connection until the discovery
+    volatile List<GattServiceInfo> services = Collections.emptyList();
+    volatile int state = GattClient.STATE_DISCONNECTED;
+    // the services were discovered on the current link, the stack may still report those of
+    // the previous link before. The queued discovery holds the other operations until then.
+    volatile boolean discovered;
+    volatile long lastActivityMillis;
+    volatile ClockAudit clockAudit;
+    // fed with the RR intervals of heart rate notifications while it is set
+    volatile HeartRateVariability heartRateVariability;
+    // the negotiated MTU, back to the default when the link goes down
+    volatile int mtu = GattTransport.DEFAULT_MTU;
+    // resolved once per discovery, replaced as a whole
+    private volatile Map<UUID, CharacteristicDecoder> mDecoders = Collections.emptyMap();
+
+    GattConnection(String address, GattClock clock, ScheduledExecutorService scheduler,
+                   GattMetrics.Device metrics, NotificationRing notifications) {
+        this.address = address;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.notifications = notifications;
+        this.queue = new GattOperationQueue(scheduler, metrics);
+        this.tuner = new ConnectionTuner(this, scheduler);
+        touch();
+    }
+
+    /**
+     * Marks the connection as used, the least recently used idle connection is closed first
+     * when the connection limit is reached.
+     */
+    void touch() {
+        lastActivityMillis = clock.elapsedRealtimeNanos() / 1000000;
+    }
+
+    /**
+     * @return true if the link is up and its services were discovered
+     */
+    boolean isDiscovered() {
+        return state == GattClient.STATE_CONNECTED && discovered;
+    }
+
+    /**
+     * @return true if the connection is neither being established nor has queued operations,
+     * subscriptions, a clock audit or heart rate variability tracking
+     */
+    boolean isIdle() {
+        return state != GattClient.STATE_CONNECTING && queue.isIdle()
+                && subscriptions.size() == 0 && clockAudit == null
+                && heartRateVariability == null;
+    }
+
+    /**
+     * Resolves the decoders of all discovered characteristics.
+     */
+    synchronized void bindDecoders(List<GattServiceInfo> services, GattDecoderRegistry registry) {
+        final Map<UUID, CharacteristicDecoder> decoders = new HashMap<>();
+        for (GattServiceInfo service : services) {
+            for (GattCharacteristicInfo characteristic : service.getCharacteristics()) {
+                decoders.put(characteristic.getUuid(), registry.resolve(characteristic.getUuid()));
+            }
+        }
+        mDecoders = decoders;
+    }
+
+    /**
+     * Replaces the decoder of one characteristic, e.g. with the one built from its
+     * presentation format.
+     */
+    synchronized void bindDecoder(UUID characteristic, CharacteristicDecoder decoder) {
+        final Map<UUID, CharacteristicDecoder> decoders = new HashMap<>(mDecoders);
+        decoders.put(characteristic, decoder);
+        mDecoders = decoders;
+    }
+
+    /**
+     * @return the decoder bound at discovery, or the one resolved now for a characteristic
+     * that was not discovered
+     */
+    CharacteristicDecoder decoderFor(UUID characteristic, GattDecoderRegistry registry) {
+        final CharacteristicDecoder decoder = mDecoders.get(characteristic);
+        return decoder != null ? decoder : registry.resolve(characteristic);
+    }
+}
@@ -0,0 +1,95 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the connections of the {@link GattClient} keyed by device address.
+ *
+ * Establishing a link is the expensive part, so connections stay open after use and are only
+ * closed when the limit of concurrent connections is reached. In that case the least recently
+ * used idle connection is evicted, disconnected links first. A connection the user still
+ * subscribes to or audits is never idle, eviction would drop that silently.
+ *
+ * Lookups happen for every GATT callback and do not lock, only adding and evicting does.
+ */
+class GattConnectionManager {
+
+    // most Android stacks allow 7 concurrent LE links, leave some room for other apps
+    static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    private final ConcurrentHashMap<String, GattConnection> mConnections = new ConcurrentHashMap<>();
+    private volatile int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    GattConnection get(String address) {
+        return address == null ? null : mConnections.get(address);
+    }
+
+    void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        mMaxConnections = maxConnections;
+    }
+
+    int getMaxConnections() {
+        return mMaxConnections;
+    }
+
+    /**
+     * @return true if a new connection can be added without evicting one
+     */
+    synchronized boolean hasCapacity() {
+        return mConnections.size() < mMaxConnections;
+    }
+
+    /**
+     * Adds a new connection, the caller looked up the address while holding the lock of the
+     * manager so that a concurrent connect can not add a second one.
+     */
+    synchronized void add(GattConnection connection) {
+        mConnections.put(connection.address, connection);
+    }
+
+    synchronized boolean remove(GattConnection connection) {
+        return mConnections.remove(connection.address, connection);
+    }
+
+    /**
+     * @return the connection that should be closed to make room for a new one, null if all
+     * connections are busy
+     */
+    synchronized GattConnection findEvictionCandidate() {
+        GattConnection candidate = null;
+        for (GattConnection connection : mConnections.values()) {
+            if (!connection.isIdle()) {
+                continue;
+            }
+            if (candidate == null || isBetterCandidate(connection, candidate)) {
+                candidate = connection;
+            }
+        }
+        return candidate;
+    }
+
+    private static boolean isBetterCandidate(GattConnection connection, GattConnection candidate) {
+        boolean disconnected = connection.state == GattClient.STATE_DISCONNECTED;
+        boolean candidateDisconnected = candidate.state == GattClient.STATE_DISCONNECTED;
+        if (disconnected != candidateDisconnected) {
+            return disconnected;
+        }
+        return connection.lastActivityMillis < candidate.lastActivityMillis;
+    }
+
+    /**
+     * @return a snapshot of all connections
+     */
+    List<GattConnection> getAll() {
+        return new ArrayList<>(mConnections.values());
+    }
+
+    int size() {
+        return mConnections.size();
+    }
+}
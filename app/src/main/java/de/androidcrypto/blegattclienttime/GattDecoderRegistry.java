@@ -0,0 +1,167 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Maps characteristics to their {@link CharacteristicDecoder}.
+ *
+ * The table is indexed by the 16 bit short id of the SIG UUID, split into 256 pages of 256
+ * entries that are only allocated when a decoder is registered in their range, so a lookup
+ * is two array accesses. Decoders for vendor specific UUIDs, e.g. compiled from a schema, are
+ * kept in a map that is only consulted when a characteristic is resolved at discovery.
+ * Characteristics without a registered decoder get the fallback decoder.
+ *
+ * Registering is copy on write and may happen at any time, lookups do not lock.
+ */
+public class GattDecoderRegistry {
+
+    private static final GattDecoderRegistry DEFAULT = createDefault();
+
+    private volatile CharacteristicDecoder[][] mPages = new CharacteristicDecoder[256][];
+    private volatile Map<UUID, CharacteristicDecoder> mVendor = Collections.emptyMap();
+    private volatile CharacteristicDecoder mFallback = CharacteristicDecoders.HEX;
+
+    /**
+     * @return the registry used by the {@link GattClient}
+     */
+    public static GattDecoderRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    private static GattDecoderRegistry createDefault() {
+        GattDecoderRegistry registry = new GattDecoderRegistry();
+        // Generic Access
+        registry.register(0x2A00, CharacteristicDecoders.UTF8_STRING); // Device Name
+        registry.register(0x2A01, CharacteristicDecoders.APPEARANCE);
+        // Immediate Alert, Link Loss and Tx Power
+        registry.register(0x2A06, CharacteristicDecoders.ALERT_LEVEL);
+        registry.register(0x2A07, CharacteristicDecoders.TX_POWER_LEVEL);
+        // Current Time Service
+        registry.register(0x2A2B, CharacteristicDecoders.CURRENT_TIME);
+        registry.register(0x2A0F, CharacteristicDecoders.LOCAL_TIME_INFORMATION);
+        registry.register(0x2A14, CharacteristicDecoders.REFERENCE_TIME_INFORMATION);
+        // Battery Service
+        registry.register(0x2A19, CharacteristicDecoders.BATTERY_LEVEL);
+        // Heart Rate
+        registry.register(0x2A37, CharacteristicDecoders.HEART_RATE_MEASUREMENT);
+        registry.register(0x2A38, CharacteristicDecoders.BODY_SENSOR_LOCATION);
+        // Health Thermometer, Blood Pressure, Glucose and Weight Scale
+        registry.register(0x2A1C, CharacteristicDecoders.TEMPERATURE_MEASUREMENT);
+        registry.register(0x2A1E, CharacteristicDecoders.TEMPERATURE_MEASUREMENT); // Intermediate
+        registry.register(0x2A35, CharacteristicDecoders.BLOOD_PRESSURE_MEASUREMENT);
+        registry.register(0x2A36, CharacteristicDecoders.INTERMEDIATE_CUFF_PRESSURE);
+        registry.register(0x2A18, CharacteristicDecoders.GLUCOSE_MEASUREMENT);
+        registry.register(0x2A9D, CharacteristicDecoders.WEIGHT_MEASUREMENT);
+        // Environmental Sensing
+        registry.register(0x2A6E, CharacteristicDecoders.ESS_TEMPERATURE);
+        registry.register(0x2A6F, CharacteristicDecoders.HUMIDITY);
+        registry.register(0x2A6D, CharacteristicDecoders.PRESSURE);
+        // Device Information strings
+        registry.register(0x2A24, CharacteristicDecoders.UTF8_STRING); // Model Number
+        registry.register(0x2A25, CharacteristicDecoders.UTF8_STRING); // Serial Number
+        registry.register(0x2A26, CharacteristicDecoders.UTF8_STRING); // Firmware Revision
+        registry.register(0x2A27, CharacteristicDecoders.UTF8_STRING); // Hardware Revision
+        registry.register(0x2A28, CharacteristicDecoders.UTF8_STRING); // Software Revision
+        registry.register(0x2A29, CharacteristicDecoders.UTF8_STRING); // Manufacturer Name
+        return registry;
+    }
+
+    /**
+     * Registers or replaces the decoder for a SIG characteristic.
+     *
+     * @param shortId the 16 bit UUID, e.g. 0x2A2B
+     * @param decoder the decoder, null removes the registration
+     */
+    public synchronized void register(int shortId, CharacteristicDecoder decoder) {
+        if (shortId < 0 || shortId > 0xFFFF) {
+            throw new IllegalArgumentException("not a 16 bit UUID: " + shortId);
+        }
+        final CharacteristicDecoder[][] pages = mPages.clone();
+        final CharacteristicDecoder[] page = pages[shortId >>> 8];
+        final CharacteristicDecoder[] newPage =
+                page == null ? new CharacteristicDecoder[256] : page.clone();
+        newPage[shortId & 0xFF] = decoder;
+        pages[shortId >>> 8] = newPage;
+        mPages = pages;
+    }
+
+    /**
+     * Registers or replaces the decoder for a characteristic, SIG or vendor specific.
+     *
+     * @param decoder the decoder, null removes the registration
+     */
+    public synchronized void register(UUID characteristic, CharacteristicDecoder decoder) {
+        final int shortId = GattUuids.toShortId(characteristic);
+        if (shortId >= 0) {
+            register(shortId, decoder);
+            return;
+        }
+        final Map<UUID, CharacteristicDecoder> vendor = new HashMap<>(mVendor);
+        if (decoder == null) {
+            vendor.remove(characteristic);
+        } else {
+            vendor.put(characteristic, decoder);
+        }
+        mVendor = vendor;
+    }
+
+    /**
+     * Registers the decoder unless the characteristic has one, e.g. for schemas that only
+     * fill the gaps between the built in decoders.
+     *
+     * @return true if the decoder was registered
+     */
+    public synchronized boolean registerIfAbsent(UUID characteristic,
+                                                 CharacteristicDecoder decoder) {
+        if (get(characteristic) != null) {
+            return false;
+        }
+        register(characteristic, decoder);
+        return true;
+    }
+
+    /**
+     * Sets the decoder for characteristics without a registered decoder.
+     */
+    public void setFallback(CharacteristicDecoder fallback) {
+        mFallback = fallback;
+    }
+
+    public CharacteristicDecoder getFallback() {
+        return mFallback;
+    }
+
+    /**
+     * @param shortId the 16 bit UUID
+     * @return the registered decoder or null
+     */
+    public CharacteristicDecoder get(int shortId) {
+        if (shortId < 0 || shortId > 0xFFFF) {
+            return null;
+        }
+        final CharacteristicDecoder[] page = mPages[shortId >>> 8];
+        return page == null ? null : page[shortId & 0xFF];
+    }
+
+    /**
+     * @return the registered decoder or null
+     */
+    public CharacteristicDecoder get(UUID characteristic) {
+        final int shortId = GattUuids.toShortId(characteristic);
+        return shortId >= 0 ? get(shortId) : mVendor.get(characteristic);
+    }
+
+    /**
+     * Finds the decoder for a characteristic, this is meant to be called once per
+     * characteristic when the services are discovered.
+     *
+     * @return the registered decoder or the fallback decoder, never null
+     */
+    public CharacteristicDecoder resolve(UUID characteristic) {
+        final CharacteristicDecoder decoder = get(characteristic);
+        return decoder != null ? decoder : mFallback;
+    }
+}
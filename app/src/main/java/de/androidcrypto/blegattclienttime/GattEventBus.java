@@ -0,0 +1,128 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers GATT events to the registered {@link GattEventListener}s, each on the executor
+ * it was registered with.
+ *
+ * Registration is rare and dispatch is frequent, so the listeners are kept in a copy on
+ * write list that is iterated without locking.
+ */
+class GattEventBus {
+
+    /**
+     * Runs the listener directly on the thread that dispatches the event, usually the
+     * Bluetooth binder thread. Listeners using it must return quickly.
+     */
+    static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final class Registration {
+        final GattEventListener listener;
+        final Executor executor;
+
+        Registration(GattEventListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Registration> mRegistrations = new CopyOnWriteArrayList<>();
+
+    void register(GattEventListener listener, Executor executor) {
+        unregister(listener);
+        mRegistrations.add(new Registration(listener, executor));
+    }
+
+    void unregister(GattEventListener listener) {
+        for (Registration registration : mRegistrations) {
+            if (registration.listener == listener) {
+                mRegistrations.remove(registration);
+            }
+        }
+    }
+
+    boolean hasListeners() {
+        return !mRegistrations.isEmpty();
+    }
+
+    void dispatchConnectionStateChange(final String address, final int newState) {
+        for (final Registration registration : mRegistrations) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    registration.listener.onConnectionStateChange(address, newState);
+                }
+            });
+        }
+    }
+
+    void dispatchServicesDiscovered(final String address, final int status) {
+        for (final Registration registration : mRegistrations) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    registration.listener.onServicesDiscovered(address, status);
+                }
+            });
+        }
+    }
+
+    void dispatchCharacteristicRead(final String address, final UUID characteristic,
+                                    final byte[] value, final long timestampNanos) {
+        for (final Registration registration : mRegistrations) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    registration.listener.onCharacteristicRead(address, characteristic, value,
+                            timestampNanos);
+                }
+            });
+        }
+    }
+
+    void dispatchCharacteristicChanged(final String address, final UUID characteristic,
+                                       final byte[] value, final long timestampNanos) {
+        for (final Registration registration : mRegistrations) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    registration.listener.onCharacteristicChanged(address, characteristic, value,
+                            timestampNanos);
+                }
+            });
+        }
+    }
+
+    void dispatchCharacteristicWrite(final String address, final UUID characteristic,
+                                     final int status) {
+        for (final Registration registration : mRegistrations) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    registration.listener.onCharacteristicWrite(address, characteristic, status);
+                }
+            });
+        }
+    }
+
+    void dispatchDescriptorWrite(final String address, final UUID characteristic,
+                                 final UUID descriptor, final int status) {
+        for (final Registration registration : mRegistrations) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    registration.listener.onDescriptorWrite(address, characteristic, descriptor,
+                            status);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.UUID;
+
+/**
+ * Receives GATT events from the {@link GattClient} directly in-process, without the
+ * Intent broadcasts of the {@link BluetoothLeService}. Register it through
+ * {@link BluetoothLeService.LocalBinder} or the client.
+ *
+ * Like BluetoothGattCallback all methods have an empty default, override the ones you need.
+ * Values are delivered as raw bytes, the arrays are shared between all listeners and must
+ * not be modified. Timestamps are taken with the {@link GattClock} of the client when the
+ * event arrived from the stack. The address tells which device the event came from.
+ */
+public abstract class GattEventListener {
+
+    /**
+     * @param newState one of the BluetoothProfile STATE_ constants
+     */
+    public void onConnectionStateChange(String address, int newState) {
+    }
+
+    public void onServicesDiscovered(String address, int status) {
+    }
+
+    /**
+     * The result of a successful read.
+     */
+    public void onCharacteristicRead(String address, UUID characteristic, byte[] value,
+                                     long timestampNanos) {
+    }
+
+    /**
+     * A notification or indication from the remote device.
+     */
+    public void onCharacteristicChanged(String address, UUID characteristic, byte[] value,
+                                        long timestampNanos) {
+    }
+
+    public void onCharacteristicWrite(String address, UUID characteristic, int status) {
+    }
+
+    public void onDescriptorWrite(String address, UUID characteristic, UUID descriptor, int status) {
+    }
+}
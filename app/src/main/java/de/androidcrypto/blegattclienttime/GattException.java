@@ -0,0 +1,41 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * Signals that a GATT operation was rejected by the stack or finished with a status other
+ * than GATT_SUCCESS.
+ */
+public class GattException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * used when the stack refused to start the operation, e.g. readCharacteristic returned false
+     */
+    public static final int STATUS_NOT_STARTED = -1;
+    /**
+     * used for operations that were pending when the link went down
+     */
+    public static final int STATUS_DISCONNECTED = -2;
+    /**
+     * used when a value that was written could not be confirmed by reading it back
+     */
+    public static final int STATUS_VERIFY_FAILED = -3;
+    /**
+     * used in the metrics for operations without a callback in time, they fail with a
+     * TimeoutException
+     */
+    public static final int STATUS_TIMEOUT = -4;
+
+    private final int status;
+
+    public GattException(int status, String message) {
+        super(message + " (status " + status + ")");
+        this.status = status;
+    }
+
+    /**
+     * @return the GATT status code reported by the stack or one of the STATUS_ constants
+     */
+    public int getStatus() {
+        return status;
+    }
+}
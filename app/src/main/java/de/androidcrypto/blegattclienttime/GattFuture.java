@@ -0,0 +1,161 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of a queued GATT operation.
+ *
+ * This is a minimal replacement for java.util.concurrent.CompletableFuture which is only
+ * available from API 24 on, our minSdk is 21. A result can be waited for with {@link #get()}
+ * (never on the main thread) or received with a {@link Listener}.
+ *
+ * @param <T> the type of the result, e.g. byte[] for a read operation
+ */
+public class GattFuture<T> implements Future<T> {
+
+    /**
+     * Receives the result of a {@link GattFuture}. The listener is called on the thread that
+     * completes the future, usually the Bluetooth binder thread, or directly on the calling
+     * thread if the future is already done.
+     */
+    public interface Listener<T> {
+        /**
+         * @param value the result, null if the operation failed
+         * @param error null on success, a {@link GattException}, {@link TimeoutException} or
+         *              {@link CancellationException} otherwise
+         */
+        void onComplete(T value, Throwable error);
+    }
+
+    private boolean mDone;
+    private T mValue;
+    private Throwable mError;
+    private List<Listener<T>> mListeners;
+
+    public static <T> GattFuture<T> completed(T value) {
+        GattFuture<T> future = new GattFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    public static <T> GattFuture<T> failed(Throwable error) {
+        GattFuture<T> future = new GattFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean complete(T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean completeExceptionally(Throwable error) {
+        return finish(null, error);
+    }
+
+    private boolean finish(T value, Throwable error) {
+        List<Listener<T>> listeners;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mValue = value;
+            mError = error;
+            listeners = mListeners;
+            mListeners = null;
+            notifyAll();
+        }
+        if (listeners != null) {
+            for (Listener<T> listener : listeners) {
+                listener.onComplete(value, error);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Registers a listener that is called once the operation has finished.
+     *
+     * @return this future for chaining
+     */
+    public GattFuture<T> addListener(Listener<T> listener) {
+        synchronized (this) {
+            if (!mDone) {
+                if (mListeners == null) {
+                    mListeners = new ArrayList<>(1);
+                }
+                mListeners.add(listener);
+                return this;
+            }
+        }
+        listener.onComplete(mValue, mError);
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return completeExceptionally(new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mError instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * @return true if the future has completed with an error, a timeout or was cancelled
+     */
+    public synchronized boolean isCompletedExceptionally() {
+        return mDone && mError != null;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        final long deadline = System.nanoTime() + remaining;
+        while (!mDone) {
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (mError instanceof CancellationException) {
+            throw (CancellationException) mError;
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mValue;
+    }
+}
@@ -0,0 +1,82 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * The log of the classes that run without Android, with the methods and priorities of
+ * android.util.Log. The messages go to a {@link Sink}, the {@link BluetoothLeService}
+ * installs one that writes to the Android log. Without it warnings and errors are printed to
+ * System.err.
+ */
+public final class GattLog {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    /**
+     * Receives the messages, called on the thread that logs.
+     */
+    public interface Sink {
+        /**
+         * @param error the exception that was logged with the message, may be null
+         */
+        void println(int priority, String tag, String message, Throwable error);
+    }
+
+    /**
+     * Prints warnings and errors to System.err.
+     */
+    public static final Sink SYSTEM_ERR = new Sink() {
+        @Override
+        public void println(int priority, String tag, String message, Throwable error) {
+            if (priority < WARN) {
+                return;
+            }
+            System.err.println(tag + ": " + message);
+            if (error != null) {
+                error.printStackTrace();
+            }
+        }
+    };
+
+    private static volatile Sink sSink = SYSTEM_ERR;
+
+    private GattLog() {
+    }
+
+    /**
+     * @param sink the sink or null for {@link #SYSTEM_ERR}
+     */
+    public static void setSink(Sink sink) {
+        sSink = sink != null ? sink : SYSTEM_ERR;
+    }
+
+    public static void v(String tag, String message) {
+        sSink.println(VERBOSE, tag, message, null);
+    }
+
+    public static void d(String tag, String message) {
+        sSink.println(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        sSink.println(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        sSink.println(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        sSink.println(WARN, tag, message, error);
+    }
+
+    public static void e(String tag, String message) {
+        sSink.println(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        sSink.println(ERROR, tag, message, error);
+    }
+}
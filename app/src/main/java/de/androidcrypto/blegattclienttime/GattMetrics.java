@@ -0,0 +1,137 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency, throughput and failure metrics of all devices of the {@link GattClient},
+ * per device and characteristic, returned by {@link GattClient#getMetrics()}.
+ *
+ * Every operation of the operation queue is recorded when it finishes: successful reads and
+ * writes in a {@link LatencyHistogram} of the time from handing them to the stack until the
+ * callback, failures by their GATT status. Notifications are recorded with the time since
+ * the previous one and their length. Recording is lock-free, the entry of a characteristic is
+ * created once with its first operation. The metrics survive reconnects, {@link #reset()}
+ * starts over.
+ */
+public class GattMetrics {
+
+    /**
+     * The metrics of one device, the recorder of its operation queue.
+     */
+    static final class Device implements GattOperationQueue.Recorder {
+        final String address;
+        private final ConcurrentHashMap<UUID, CharacteristicMetrics> mCharacteristics =
+                new ConcurrentHashMap<>();
+
+        Device(String address) {
+            this.address = address;
+        }
+
+        CharacteristicMetrics get(UUID uuid) {
+            CharacteristicMetrics metrics = mCharacteristics.get(uuid);
+            if (metrics == null) {
+                final CharacteristicMetrics created = new CharacteristicMetrics(address, uuid);
+                metrics = mCharacteristics.putIfAbsent(uuid, created);
+                if (metrics == null) {
+                    metrics = created;
+                }
+            }
+            return metrics;
+        }
+
+        @Override
+        public void onOperationDone(int type, UUID uuid, long latencyNanos, int status,
+                                    int bytes) {
+            if (uuid == null) {
+                // an MTU request
+                return;
+            }
+            get(uuid).recordOperation(type, latencyNanos, status, bytes);
+        }
+
+        void recordNotification(UUID characteristic, int bytes, long timestampNanos) {
+            get(characteristic).recordNotification(bytes, timestampNanos);
+        }
+    }
+
+    private static final Comparator<CharacteristicStats> ORDER =
+            new Comparator<CharacteristicStats>() {
+                @Override
+                public int compare(CharacteristicStats a, CharacteristicStats b) {
+                    final int byAddress = a.getAddress().compareTo(b.getAddress());
+                    return byAddress != 0 ? byAddress : a.getUuid().compareTo(b.getUuid());
+                }
+            };
+
+    private final ConcurrentHashMap<String, Device> mDevices = new ConcurrentHashMap<>();
+
+    Device device(String address) {
+        Device device = mDevices.get(address);
+        if (device == null) {
+            final Device created = new Device(address);
+            device = mDevices.putIfAbsent(address, created);
+            if (device == null) {
+                device = created;
+            }
+        }
+        return device;
+    }
+
+    /**
+     * @return the metrics of all characteristics of all devices, ordered by address and UUID
+     */
+    public List<CharacteristicStats> snapshot() {
+        final List<CharacteristicStats> stats = new ArrayList<>();
+        for (Device device : mDevices.values()) {
+            addSnapshots(device, stats);
+        }
+        Collections.sort(stats, ORDER);
+        return stats;
+    }
+
+    /**
+     * @return the metrics of all characteristics of the device, empty for an unknown device
+     */
+    public List<CharacteristicStats> snapshot(String address) {
+        final List<CharacteristicStats> stats = new ArrayList<>();
+        final Device device = mDevices.get(address);
+        if (device != null) {
+            addSnapshots(device, stats);
+            Collections.sort(stats, ORDER);
+        }
+        return stats;
+    }
+
+    private static void addSnapshots(Device device, List<CharacteristicStats> stats) {
+        for (CharacteristicMetrics metrics : device.mCharacteristics.values()) {
+            stats.add(metrics.snapshot());
+        }
+    }
+
+    /**
+     * Drops all values, operations that are running while the metrics are reset may still
+     * be recorded.
+     */
+    public void reset() {
+        for (Device device : mDevices.values()) {
+            device.mCharacteristics.clear();
+        }
+    }
+
+    /**
+     * Writes all metrics in a readable form, used by the dump of the service.
+     */
+    public void dump(PrintWriter writer) {
+        final List<CharacteristicStats> stats = snapshot();
+        writer.println("GATT metrics of " + mDevices.size() + " devices:");
+        for (CharacteristicStats characteristic : stats) {
+            writer.println(characteristic);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs GATT operations one at a time.
+ *
+ * Android allows only one outstanding GATT operation per connection, a second read or write
+ * that is issued before the callback of the first one arrived is silently dropped. Every
+ * operation is added to this queue, the next one is started when the matching callback
+ * completes the current one.
+ *
+ * An operation whose callback does not arrive in time fails with a TimeoutException, but the
+ * stack still waits for the response of the device. The queue holds the next operation until
+ * the late callback arrives, the stack would reject it anyway, and drops the late result, so
+ * it can not complete the wrong operation. The stack gives up on a request after the ATT
+ * transaction timeout and drops the link, the queue is released after that time at the latest.
+ *
+ * see the notes on queueable transactions in readme.md
+ */
+class GattOperationQueue {
+
+    static final int TYPE_READ_CHARACTERISTIC = 1;
+    static final int TYPE_WRITE_CHARACTERISTIC = 2;
+    static final int TYPE_READ_DESCRIPTOR = 3;
+    static final int TYPE_WRITE_DESCRIPTOR = 4;
+    static final int TYPE_REQUEST_MTU = 5;
+    static final int TYPE_DISCOVER_SERVICES = 6;
+
+    static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    // the ATT transaction timeout, the stack drops the link when a request stays unanswered
+    static final long ATT_TRANSACTION_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * A single GATT request. {@link #execute()} hands the request to the stack, the result
+     * arrives later through one of the complete or fail methods of the queue.
+     */
+    abstract static class Operation<T> {
+        final int type;
+        final UUID uuid;
+        // the characteristic of a descriptor operation, null for the other types. Not named
+        // characteristic, it would hide the captured locals of the anonymous subclasses.
+        final UUID owner;
+        final long timeoutMillis;
+        final GattFuture<T> future = new GattFuture<>();
+        ScheduledFuture<?> timeout;
+        // System.nanoTime() when the request was handed to the stack
+        long startNanos;
+        // failed with a timeout, still holds the queue until the stack answers
+        boolean timedOut;
+        // the time the result arrived from the stack, in the clock of the callback, set
+        // before the future completes
+        long resultNanos;
+
+        /**
+         * @param type          one of the TYPE_ constants, used to match the callback
+         * @param uuid          the characteristic or descriptor UUID, used to match the callback
+         * @param timeoutMillis the time the callback may take before the operation fails
+         */
+        Operation(int type, UUID uuid, long timeoutMillis) {
+            this(type, null, uuid, timeoutMillis);
+        }
+
+        /**
+         * A descriptor operation, the callback has to match the characteristic too since
+         * descriptors like the CCCD occur on many characteristics.
+         */
+        Operation(int type, UUID characteristic, UUID descriptor, long timeoutMillis) {
+            this.type = type;
+            this.uuid = descriptor;
+            this.owner = characteristic;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * Starts the operation.
+         *
+         * @return false if the stack did not accept the request
+         */
+        abstract boolean execute();
+    }
+
+    /**
+     * Receives the outcome of every operation that was handed to the stack, called without
+     * holding the lock of the queue.
+     */
+    interface Recorder {
+        /**
+         * @param latencyNanos the time from handing the request to the stack to the callback
+         * @param status       GattTransport.STATUS_SUCCESS, the GATT status of the callback or
+         *                     one of the GattException.STATUS_ constants
+         * @param bytes        the length of the value that was read, 0 for other operations
+         */
+        void onOperationDone(int type, UUID uuid, long latencyNanos, int status, int bytes);
+    }
+
+    private final ArrayDeque<Operation<?>> mPending = new ArrayDeque<>();
+    private final ScheduledExecutorService mScheduler;
+    private final Recorder mRecorder;
+    private Operation<?> mCurrent;
+
+    GattOperationQueue(ScheduledExecutorService scheduler, Recorder recorder) {
+        mScheduler = scheduler;
+        mRecorder = recorder;
+    }
+
+    /**
+     * Adds the operation to the queue and starts it if the queue is idle.
+     */
+    <T> GattFuture<T> enqueue(Operation<T> operation) {
+        synchronized (this) {
+            mPending.add(operation);
+            if (mCurrent != null) {
+                return operation.future;
+            }
+        }
+        next();
+        return operation.future;
+    }
+
+    /**
+     * Completes the running operation if it matches type and uuid and starts the next one.
+     *
+     * @return false if no matching operation was running or it timed out already
+     */
+    <T> boolean complete(int type, UUID uuid, T value) {
+        return complete(type, uuid, value, 0);
+    }
+
+    /**
+     * Like {@link #complete(int, UUID, Object)}, the timestamp of the callback is handed to
+     * the operation in {@link Operation#resultNanos}.
+     */
+    <T> boolean complete(int type, UUID uuid, T value, long timestampNanos) {
+        return complete(type, null, uuid, value, timestampNanos);
+    }
+
+    /**
+     * Completes the running descriptor operation if it matches type, characteristic and
+     * descriptor and starts the next one.
+     */
+    <T> boolean completeDescriptor(int type, UUID characteristic, UUID descriptor, T value) {
+        return complete(type, characteristic, descriptor, value, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> boolean complete(int type, UUID characteristic, UUID uuid, T value,
+                                 long timestampNanos) {
+        Operation<T> operation = (Operation<T>) take(type, characteristic, uuid);
+        if (operation == null) {
+            return false;
+        }
+        if (operation.timedOut) {
+            // the late answer of an operation that failed already, the stack is free again
+            next();
+            return false;
+        }
+        record(operation, GattTransport.STATUS_SUCCESS,
+                value instanceof byte[] ? ((byte[]) value).length : 0);
+        operation.resultNanos = timestampNanos;
+        operation.future.complete(value);
+        next();
+        return true;
+    }
+
+    /**
+     * Fails the running operation if it matches type and uuid and starts the next one.
+     *
+     * @param status the GATT status reported by the callback
+     * @return false if no matching operation was running
+     */
+    boolean fail(int type, UUID uuid, int status) {
+        return failDescriptor(type, null, uuid, status);
+    }
+
+    /**
+     * Fails the running descriptor operation if it matches type, characteristic and
+     * descriptor and starts the next one.
+     *
+     * @param characteristic null to match any characteristic
+     */
+    boolean failDescriptor(int type, UUID characteristic, UUID descriptor, int status) {
+        Operation<?> operation = take(type, characteristic, descriptor);
+        if (operation == null) {
+            return false;
+        }
+        if (operation.timedOut) {
+            next();
+            return false;
+        }
+        record(operation, status, 0);
+        operation.future.completeExceptionally(new GattException(status, "operation failed"));
+        next();
+        return true;
+    }
+
+    /**
+     * Fails the running and all pending operations, e.g. after the connection was lost.
+     */
+    void cancelAll(Throwable reason) {
+        Operation<?>[] operations;
+        final Operation<?> current;
+        synchronized (this) {
+            current = mCurrent;
+            operations = new Operation<?>[mPending.size() + (mCurrent != null ? 1 : 0)];
+            int i = 0;
+            if (mCurrent != null) {
+                cancelTimeout(mCurrent);
+                operations[i++] = mCurrent;
+                mCurrent = null;
+            }
+            while (!mPending.isEmpty()) {
+                operations[i++] = mPending.poll();
+            }
+        }
+        if (current != null && !current.timedOut) {
+            record(current, reason instanceof GattException
+                    ? ((GattException) reason).getStatus() : GattException.STATUS_DISCONNECTED, 0);
+        }
+        for (Operation<?> operation : operations) {
+            operation.future.completeExceptionally(reason);
+        }
+    }
+
+    synchronized boolean isIdle() {
+        return mCurrent == null && mPending.isEmpty();
+    }
+
+    synchronized int size() {
+        return mPending.size() + (mCurrent != null ? 1 : 0);
+    }
+
+    private synchronized Operation<?> take(int type, UUID characteristic, UUID uuid) {
+        Operation<?> operation = mCurrent;
+        if (operation == null || operation.type != type
+                || (operation.uuid != null && !operation.uuid.equals(uuid))
+                || (characteristic != null && operation.owner != null
+                && !operation.owner.equals(characteristic))) {
+            return null;
+        }
+        cancelTimeout(operation);
+        mCurrent = null;
+        return operation;
+    }
+
+    /**
+     * Starts pending operations until one was accepted by the stack.
+     */
+    private void next() {
+        while (true) {
+            final Operation<?> operation;
+            synchronized (this) {
+                if (mCurrent != null) {
+                    return;
+                }
+                operation = mPending.poll();
+                if (operation == null) {
+                    return;
+                }
+                if (operation.future.isDone()) {
+                    // cancelled by the caller while waiting
+                    continue;
+                }
+                mCurrent = operation;
+                operation.timeout = mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTimeout(operation);
+                    }
+                }, operation.timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            boolean started;
+            operation.startNanos = System.nanoTime();
+            try {
+                started = operation.execute();
+            } catch (RuntimeException e) {
+                started = false;
+            }
+            if (started) {
+                return;
+            }
+            synchronized (this) {
+                if (mCurrent != operation) {
+                    // already finished by a callback from the stack
+                    continue;
+                }
+                cancelTimeout(operation);
+                mCurrent = null;
+            }
+            record(operation, GattException.STATUS_NOT_STARTED, 0);
+            operation.future.completeExceptionally(
+                    new GattException(GattException.STATUS_NOT_STARTED, "operation not started"));
+        }
+    }
+
+    private void onTimeout(final Operation<?> operation) {
+        synchronized (this) {
+            if (mCurrent != operation) {
+                return;
+            }
+            // the queue stays blocked until the callback or the ATT transaction timeout
+            operation.timedOut = true;
+            operation.timeout = mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    release(operation);
+                }
+            }, Math.max(ATT_TRANSACTION_TIMEOUT_MILLIS - operation.timeoutMillis, 0),
+                    TimeUnit.MILLISECONDS);
+        }
+        record(operation, GattException.STATUS_TIMEOUT, 0);
+        operation.future.completeExceptionally(new TimeoutException(
+                "no callback within " + operation.timeoutMillis + " ms"));
+    }
+
+    /**
+     * Starts the next operation after the stack gave up on a timed out one without a callback.
+     */
+    private void release(Operation<?> operation) {
+        synchronized (this) {
+            if (mCurrent != operation) {
+                return;
+            }
+            mCurrent = null;
+        }
+        next();
+    }
+
+    private void record(Operation<?> operation, int status, int bytes) {
+        if (mRecorder != null) {
+            mRecorder.onOperationDone(operation.type, operation.uuid,
+                    System.nanoTime() - operation.startNanos, status, bytes);
+        }
+    }
+
+    private static void cancelTimeout(Operation<?> operation) {
+        if (operation.timeout != null) {
+            operation.timeout.cancel(false);
+            operation.timeout = null;
+        }
+    }
+}
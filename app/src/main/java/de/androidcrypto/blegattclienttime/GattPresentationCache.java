@@ -0,0 +1,210 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Characteristic Presentation Format (0x2904) and User Description (0x2901) descriptors
+ * of the characteristics without a registered decoder, per device.
+ *
+ * After a discovery the descriptors of the characteristics that are not cached yet are read
+ * back to back through the operation queue of the connection, before the subscriptions are
+ * restored, so the first notification of a vendor characteristic already decodes with its
+ * format. A discovery queues at most {@link #MAX_READS_PER_DISCOVERY} reads, the remaining
+ * characteristics follow on the next connection. The entries outlive
+ * the connection, a device that reconnects gets its decoders without any read.
+ */
+class GattPresentationCache {
+    private final static String TAG = GattPresentationCache.class.getSimpleName();
+
+    // bounds the time a discovery adds to the connection setup
+    static final int MAX_READS_PER_DISCOVERY = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The descriptors of one characteristic.
+     */
+    static final class Entry {
+        // null if the characteristic has none or it was too short
+        final PresentationFormat format;
+        final String userDescription;
+        // null if there is no format or it is not decoded
+        final CharacteristicDecoder decoder;
+
+        Entry(PresentationFormat format, String userDescription) {
+            this.format = format;
+            this.userDescription = userDescription;
+            this.decoder = format == null ? null : format.createDecoder();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Map<UUID, Entry>> mDevices =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @return the entry or null if the descriptors were not read yet
+     */
+    Entry get(String address, UUID characteristic) {
+        final Map<UUID, Entry> device = mDevices.get(address);
+        return device == null ? null : device.get(characteristic);
+    }
+
+    /**
+     * Forgets the descriptors of a device, e.g. after its attribute table changed.
+     */
+    void clear(String address) {
+        mDevices.remove(address);
+    }
+
+    /**
+     * Binds the cached decoders without reading anything, e.g. for the cached attribute table
+     * of a device before its discovery completed.
+     */
+    void bind(GattConnection connection, List<GattServiceInfo> services,
+              GattDecoderRegistry registry) {
+        final Map<UUID, Entry> device = mDevices.get(connection.address);
+        if (device == null) {
+            return;
+        }
+        for (GattServiceInfo service : services) {
+            for (GattCharacteristicInfo info : service.getCharacteristics()) {
+                final Entry cached = device.get(info.getUuid());
+                if (cached != null && cached.decoder != null
+                        && registry.get(info.getUuid()) == null) {
+                    connection.bindDecoder(info.getUuid(), cached.decoder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Binds the cached decoders and queues the reads of the missing descriptors, called on
+     * the Bluetooth callback thread after a successful discovery.
+     */
+    void discover(GattConnection connection, List<GattServiceInfo> services,
+                  GattDecoderRegistry registry) {
+        final Map<UUID, Entry> device = device(connection.address);
+        int reads = 0;
+        int deferred = 0;
+        for (GattServiceInfo service : services) {
+            for (GattCharacteristicInfo info : service.getCharacteristics()) {
+                final UUID characteristic = info.getUuid();
+                if (registry.get(characteristic) != null) {
+                    // a decoder or a schema was registered for it
+                    continue;
+                }
+                final Entry cached = device.get(characteristic);
+                if (cached != null) {
+                    if (cached.decoder != null) {
+                        connection.bindDecoder(characteristic, cached.decoder);
+                    }
+                    continue;
+                }
+                final boolean hasFormat =
+                        info.getDescriptors().contains(PresentationFormat.DESCRIPTOR);
+                final boolean hasDescription =
+                        info.getDescriptors().contains(PresentationFormat.USER_DESCRIPTION);
+                final int needed = (hasFormat ? 1 : 0) + (hasDescription ? 1 : 0);
+                if (needed == 0) {
+                    continue;
+                }
+                if (reads + needed > MAX_READS_PER_DISCOVERY) {
+                    deferred++;
+                    continue;
+                }
+                reads += needed;
+                read(connection, device, service.getUuid(), characteristic, hasFormat,
+                        hasDescription);
+            }
+        }
+        if (deferred > 0) {
+            GattLog.i(TAG, connection.address + ": descriptors of " + deferred
+                    + " characteristics deferred to the next connection");
+        }
+    }
+
+    private Map<UUID, Entry> device(String address) {
+        Map<UUID, Entry> device = mDevices.get(address);
+        if (device == null) {
+            final Map<UUID, Entry> created = new ConcurrentHashMap<>();
+            device = mDevices.putIfAbsent(address, created);
+            if (device == null) {
+                device = created;
+            }
+        }
+        return device;
+    }
+
+    private static void read(final GattConnection connection, final Map<UUID, Entry> device,
+                             UUID service, final UUID characteristic, boolean hasFormat,
+                             boolean hasDescription) {
+        final GattFuture<byte[]> format = hasFormat
+                ? readDescriptor(connection, service, characteristic, PresentationFormat.DESCRIPTOR)
+                : GattFuture.<byte[]>completed(null);
+        final GattFuture<byte[]> description = hasDescription
+                ? readDescriptor(connection, service, characteristic,
+                PresentationFormat.USER_DESCRIPTION)
+                : GattFuture.<byte[]>completed(null);
+        // the queue runs the reads in order, the format is done when the second read is
+        (hasDescription ? description : format).addListener(new GattFuture.Listener<byte[]>() {
+            @Override
+            public void onComplete(byte[] value, Throwable error) {
+                if (!format.isDone() || format.isCompletedExceptionally()
+                        || description.isCompletedExceptionally()) {
+                    // not cached, tried again on the next connection
+                    GattLog.w(TAG, "reading the descriptors of " + characteristic + " failed: "
+                            + error);
+                    return;
+                }
+                final Entry entry = new Entry(PresentationFormat.parse(valueOf(format)),
+                        userDescription(valueOf(description)));
+                device.put(characteristic, entry);
+                if (entry.decoder != null) {
+                    connection.bindDecoder(characteristic, entry.decoder);
+                }
+                GattLog.d(TAG, characteristic + ": " + entry.format + ", " + entry.userDescription);
+            }
+        });
+    }
+
+    private static GattFuture<byte[]> readDescriptor(final GattConnection connection,
+                                                     final UUID service,
+                                                     final UUID characteristic,
+                                                     final UUID descriptor) {
+        return connection.queue.enqueue(new GattOperationQueue.Operation<byte[]>(
+                GattOperationQueue.TYPE_READ_DESCRIPTOR, characteristic, descriptor,
+                GattOperationQueue.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            boolean execute() {
+                return connection.transport.readDescriptor(service, characteristic, descriptor);
+            }
+        });
+    }
+
+    private static byte[] valueOf(GattFuture<byte[]> future) {
+        try {
+            return future.get();
+        } catch (Exception e) {
+            // only called when the future completed normally
+            return null;
+        }
+    }
+
+    /**
+     * @return the text without trailing NUL characters, null if there is none
+     */
+    private static String userDescription(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        int length = value.length;
+        while (length > 0 && value[length - 1] == 0) {
+            length--;
+        }
+        return length == 0 ? null : new String(value, 0, length, UTF_8);
+    }
+}
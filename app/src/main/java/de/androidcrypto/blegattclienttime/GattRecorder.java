@@ -0,0 +1,162 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends GATT events to a capture file, started with
+ * {@link GattClient#startRecording(File)}. See {@link GattCapture} for the format.
+ *
+ * The Bluetooth binder thread only adds the event to a lock-free queue, a writer thread
+ * encodes the queued events into a direct buffer and appends it to the file channel when the
+ * buffer is full or the queue is empty. If the writer falls behind by more than
+ * {@link #MAX_QUEUED} events, new events are dropped and counted instead of blocking the
+ * binder thread.
+ */
+public class GattRecorder {
+
+    static final int MAX_QUEUED = 4096;
+    static final int BUFFER_SIZE = 64 * 1024;
+    // the writer looks for new events this often when the queue is empty
+    static final long WRITER_IDLE_NANOS = 10000000;
+
+    private final File mFile;
+    private final FileOutputStream mStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ConcurrentLinkedQueue<GattCapture.Record> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicLong mRecorded = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final Thread mWriter;
+    private volatile boolean mClosed;
+    private volatile IOException mError;
+
+    /**
+     * Opens the file for appending, a new or empty file gets the capture header.
+     */
+    public GattRecorder(File file) throws IOException {
+        mFile = file;
+        mStream = new FileOutputStream(file, true);
+        mChannel = mStream.getChannel();
+        if (mChannel.size() == 0) {
+            GattCapture.writeFileHeader(mBuffer);
+        }
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "GattRecorder " + file.getName());
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Queues an event, never blocks.
+     *
+     * @param value the payload, it is not copied and must not be modified afterwards, null
+     *              for none
+     */
+    void record(int type, long timestampNanos, String address, UUID uuid, int status,
+                byte[] value) {
+        if (mClosed || mError != null) {
+            return;
+        }
+        if (mQueued.incrementAndGet() > MAX_QUEUED) {
+            mQueued.decrementAndGet();
+            mDropped.incrementAndGet();
+            return;
+        }
+        mQueue.offer(new GattCapture.Record(type, timestampNanos, address, uuid, status,
+                value != null ? value : GattCapture.NO_VALUE));
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return the number of events written to the file or to its buffer so far
+     */
+    public long getRecordedCount() {
+        return mRecorded.get();
+    }
+
+    /**
+     * @return the number of events that were dropped because the writer fell behind
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return the error that stopped the writer, null while it is working
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * Writes the queued events and closes the file, waits for the writer thread.
+     */
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        LockSupport.unpark(mWriter);
+        try {
+            mWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mStream.close();
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                final boolean closed = mClosed;
+                final GattCapture.Record record = mQueue.poll();
+                if (record == null) {
+                    flush();
+                    if (closed) {
+                        mChannel.force(false);
+                        return;
+                    }
+                    LockSupport.parkNanos(WRITER_IDLE_NANOS);
+                    continue;
+                }
+                mQueued.decrementAndGet();
+                if (record.size() > mBuffer.remaining()) {
+                    flush();
+                }
+                GattCapture.encode(record, mBuffer);
+                mRecorded.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // record() drops all further events
+            mError = e;
+        }
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+}
@@ -0,0 +1,124 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds a capture written by {@link GattRecorder} back into the decode and dispatch pipeline
+ * of the service, started with {@link GattClient#replay(File, double)}.
+ *
+ * The events are delivered on a thread of the replayer with the original spacing divided by
+ * the speed. The timestamps of replayed reads and notifications keep the original spacing
+ * too, they start at the time the replay started, so timing analysis sees the recorded
+ * timing even when the replay is accelerated.
+ */
+public class GattReplayer {
+    private final static String TAG = GattReplayer.class.getSimpleName();
+
+    /**
+     * Receives the replayed events.
+     */
+    interface Sink {
+        /**
+         * @param timestampNanos the original timestamp moved to the clock time of the
+         *                       replay
+         */
+        void onReplay(GattCapture.Record record, long timestampNanos);
+    }
+
+    private final File mFile;
+    private final double mSpeed;
+    private final GattClock mClock;
+    private final Sink mSink;
+    private final GattFuture<Long> mDone = new GattFuture<>();
+    private final AtomicLong mReplayed = new AtomicLong();
+    private volatile boolean mCancelled;
+
+    /**
+     * @param speed 1 for the original timing, 10 for ten times faster, 0 or
+     *              Double.POSITIVE_INFINITY for as fast as possible
+     */
+    GattReplayer(File file, double speed, GattClock clock, Sink sink) {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("speed must not be negative");
+        }
+        mFile = file;
+        mSpeed = speed == 0 ? Double.POSITIVE_INFINITY : speed;
+        mClock = clock;
+        mSink = sink;
+    }
+
+    void start() throws IOException {
+        final GattCapture.Reader reader = new GattCapture.Reader(mFile);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay(reader);
+                    mDone.complete(mReplayed.get());
+                } catch (RuntimeException e) {
+                    GattLog.e(TAG, "replay of " + mFile + " failed", e);
+                    mDone.completeExceptionally(e);
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        GattLog.w(TAG, "closing " + mFile + " failed", e);
+                    }
+                }
+            }
+        }, "GattReplayer " + mFile.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the replay before the next event.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * @return a future that receives the number of replayed events when the capture ended or
+     * the replay was cancelled
+     */
+    public GattFuture<Long> getDone() {
+        return mDone;
+    }
+
+    public long getReplayedCount() {
+        return mReplayed.get();
+    }
+
+    private void replay(GattCapture.Reader reader) {
+        final long startNanos = mClock.elapsedRealtimeNanos();
+        long firstNanos = 0;
+        GattCapture.Record record;
+        while (!mCancelled && (record = reader.next()) != null) {
+            if (mReplayed.get() == 0) {
+                firstNanos = record.getTimestampNanos();
+            }
+            final long offsetNanos = record.getTimestampNanos() - firstNanos;
+            if (!Double.isInfinite(mSpeed)) {
+                final long dueNanos = startNanos + (long) (offsetNanos / mSpeed);
+                long waitNanos;
+                while (!mCancelled
+                        && (waitNanos = dueNanos - mClock.elapsedRealtimeNanos()) > 0) {
+                    try {
+                        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            if (mCancelled) {
+                break;
+            }
+            mSink.onReplay(record, startNanos + offsetNanos);
+            mReplayed.incrementAndGet();
+        }
+    }
+}
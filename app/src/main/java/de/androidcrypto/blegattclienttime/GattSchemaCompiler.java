@@ -0,0 +1,447 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Compiles characteristic layouts written in a small line based schema language into
+ * {@link CharacteristicSchema} decoders, e.g. the bundled assets/gatt_schemas.txt:
+ *
+ * <pre>
+ * # comment
+ * characteristic 0x2A53 RSC Measurement
+ * flags u8
+ * u16 label=speed mul=100 div=256 exp=-2 unit=m/s
+ * u8 label=cadence unit=/min
+ * u16 if=0x01 label=stride exp=-2 unit=m
+ * u32 if=0x02 label=distance exp=-1 unit=m
+ * text running if=0x04
+ * end
+ * </pre>
+ *
+ * A schema starts with {@code characteristic} and the 16 bit id or the UUID followed by the
+ * name and ends with {@code end}. In between one line per field:
+ * <ul>
+ * <li>{@code flags u8|u16|u24|u32} reads the flags the conditions test</li>
+ * <li>{@code u8 .. u48}, {@code s8 .. s48}, {@code sfloat}, {@code float}, {@code datetime}
+ * (the 7 byte Date Time) and {@code utf8} (the rest of the value) read a field</li>
+ * <li>{@code skip n} steps over n reserved bytes, {@code text literal} appends a text</li>
+ * <li>{@code repeat [count]} .. {@code endrepeat} repeats a group of fields, until the end of
+ * the value without a count, such a group needs a field without condition</li>
+ * </ul>
+ * Fields take the attributes {@code label=}, {@code unit=}, {@code exp=} (a power of ten),
+ * {@code mul=} and {@code div=} (integers up to 65535, the bits of the field and of mul add up
+ * to 63 at most), {@code names=a|b|c} (the names of the values 0, 1, 2), {@code hex},
+ * {@code repeat} (the field repeats until the end of the value) and {@code if=} with a
+ * condition on the flags: {@code 0x01} (set), {@code !0x01} (clear) or {@code 0x06/0x04} (the
+ * masked bits equal the second value). Values with spaces are quoted.
+ */
+public final class GattSchemaCompiler {
+
+    // the largest mul or div, a mul is further bounded by the width of its field
+    private static final int MAX_FACTOR = 0xFFFF;
+    // value * mul is computed in a long
+    private static final int MAX_PRODUCT_BITS = 63;
+
+    private GattSchemaCompiler() {
+    }
+
+    /**
+     * @return the compiled schemas in the order of the input
+     * @throws IOException if the input can not be read or has an error, the message names
+     *                     the line
+     */
+    public static List<CharacteristicSchema> compile(Reader reader) throws IOException {
+        final BufferedReader lines = new BufferedReader(reader);
+        final List<CharacteristicSchema> schemas = new ArrayList<>();
+        final Set<UUID> seen = new HashSet<>();
+        Builder builder = null;
+        String line;
+        int number = 0;
+        while ((line = lines.readLine()) != null) {
+            number++;
+            final List<String> tokens;
+            try {
+                tokens = tokenize(line);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": " + e.getMessage());
+            }
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            try {
+                final String keyword = tokens.get(0);
+                if (builder == null) {
+                    if (!keyword.equals("characteristic") || tokens.size() < 3) {
+                        throw new IllegalArgumentException("characteristic <id> <name> expected");
+                    }
+                    final UUID uuid = parseUuid(tokens.get(1));
+                    if (!seen.add(uuid)) {
+                        throw new IllegalArgumentException("duplicate schema for " + uuid);
+                    }
+                    builder = new Builder(uuid, join(tokens, 2));
+                } else if (keyword.equals("end")) {
+                    schemas.add(builder.build());
+                    builder = null;
+                } else {
+                    builder.add(tokens);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": " + e.getMessage());
+            }
+        }
+        if (builder != null) {
+            throw new IOException("line " + number + ": end of the schema "
+                    + builder.name + " missing");
+        }
+        return schemas;
+    }
+
+    /**
+     * Splits a line at white space, double quotes keep a value with spaces together, a hash
+     * outside of quotes starts a comment.
+     */
+    static List<String> tokenize(String line) {
+        final List<String> tokens = new ArrayList<>();
+        final StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (quoted) {
+                token.append(c);
+            } else if (c == '#') {
+                break;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static UUID parseUuid(String id) {
+        if (id.indexOf('-') >= 0) {
+            return UUID.fromString(id);
+        }
+        final int shortId = parseInt(id);
+        if (shortId < 0 || shortId > 0xFFFF) {
+            throw new IllegalArgumentException("not a 16 bit id: " + id);
+        }
+        return GattUuids.fromShortId(shortId);
+    }
+
+    private static int parseInt(String text) {
+        try {
+            // Long for masks with the top bit of a 32 bit flags field
+            return (int) (long) Long.decode(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + text);
+        }
+    }
+
+    private static String join(List<String> tokens, int from) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = from; i < tokens.size(); i++) {
+            if (i > from) text.append(' ');
+            text.append(tokens.get(i));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Collects the instructions of one schema.
+     */
+    private static final class Builder {
+        final UUID uuid;
+        final String name;
+        final List<int[]> instructions = new ArrayList<>();
+        final List<String> labels = new ArrayList<>();
+        final List<String> units = new ArrayList<>();
+        final List<String[]> names = new ArrayList<>();
+        boolean hasFlags;
+        // the index of the open repeat or -1
+        int repeat = -1;
+        // no field may follow a field that takes the rest of the value
+        boolean rest;
+
+        Builder(UUID uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+
+        void add(List<String> tokens) {
+            final String keyword = tokens.get(0);
+            if (rest) {
+                throw new IllegalArgumentException(keyword + " after a field that takes the "
+                        + "rest of the value");
+            }
+            final int[] instruction = new int[CharacteristicSchema.SIZE];
+            instruction[CharacteristicSchema.DIV] = 1;
+            instruction[CharacteristicSchema.MUL] = 1;
+            String label = "";
+            String unit = "";
+            String[] valueNames = null;
+            int attributes = 1;
+            switch (keyword) {
+                case "flags":
+                    if (hasFlags) throw new IllegalArgumentException("flags read twice");
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_FLAGS;
+                    instruction[CharacteristicSchema.LENGTH] = integerWidth(argument(tokens));
+                    if (tokens.get(1).charAt(0) != 'u'
+                            || instruction[CharacteristicSchema.LENGTH] > 4) {
+                        throw new IllegalArgumentException("flags are u8, u16, u24 or u32");
+                    }
+                    hasFlags = true;
+                    attributes = 2;
+                    break;
+                case "skip":
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_SKIP;
+                    instruction[CharacteristicSchema.LENGTH] = positive(argument(tokens));
+                    attributes = 2;
+                    break;
+                case "text":
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_TEXT;
+                    label = argument(tokens);
+                    attributes = 2;
+                    break;
+                case "repeat":
+                    if (repeat >= 0) throw new IllegalArgumentException("nested repeat");
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_REPEAT;
+                    if (tokens.size() > 1 && tokens.get(1).indexOf('=') < 0) {
+                        instruction[CharacteristicSchema.LENGTH] = positive(tokens.get(1));
+                        attributes = 2;
+                    }
+                    repeat = instructions.size();
+                    break;
+                case "endrepeat":
+                    if (repeat < 0) throw new IllegalArgumentException("endrepeat without repeat");
+                    if (repeat == instructions.size() - 1) {
+                        throw new IllegalArgumentException("empty repeat");
+                    }
+                    if (instructions.get(repeat)[CharacteristicSchema.LENGTH] == 0
+                            && !readsAlways(repeat + 1)) {
+                        throw new IllegalArgumentException("repeat without a count needs a "
+                                + "field without condition");
+                    }
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_END_REPEAT;
+                    instruction[CharacteristicSchema.JUMP] = repeat * CharacteristicSchema.SIZE;
+                    instructions.get(repeat)[CharacteristicSchema.JUMP] =
+                            (instructions.size() + 1) * CharacteristicSchema.SIZE;
+                    repeat = -1;
+                    break;
+                case "sfloat":
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_SFLOAT;
+                    instruction[CharacteristicSchema.LENGTH] = 2;
+                    break;
+                case "float":
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_FLOAT;
+                    instruction[CharacteristicSchema.LENGTH] = 4;
+                    break;
+                case "datetime":
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_DATE_TIME;
+                    instruction[CharacteristicSchema.LENGTH] = 7;
+                    break;
+                case "utf8":
+                    instruction[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_UTF8;
+                    rest = true;
+                    break;
+                default:
+                    instruction[CharacteristicSchema.OPCODE] = keyword.charAt(0) == 's'
+                            ? CharacteristicSchema.OP_SINT : CharacteristicSchema.OP_UINT;
+                    instruction[CharacteristicSchema.LENGTH] = integerWidth(keyword);
+                    break;
+            }
+            final int opcode = instruction[CharacteristicSchema.OPCODE];
+            final boolean integer = opcode == CharacteristicSchema.OP_UINT
+                    || opcode == CharacteristicSchema.OP_SINT;
+            final boolean field = integer || opcode == CharacteristicSchema.OP_SFLOAT
+                    || opcode == CharacteristicSchema.OP_FLOAT
+                    || opcode == CharacteristicSchema.OP_DATE_TIME
+                    || opcode == CharacteristicSchema.OP_UTF8;
+            for (int i = attributes; i < tokens.size(); i++) {
+                final String attribute = tokens.get(i);
+                final int equals = attribute.indexOf('=');
+                final String key = equals < 0 ? attribute : attribute.substring(0, equals);
+                final String value = equals < 0 ? null : attribute.substring(equals + 1);
+                if (key.equals("if") && value != null && opcode != CharacteristicSchema.OP_FLAGS
+                        && opcode != CharacteristicSchema.OP_END_REPEAT) {
+                    if (!hasFlags) throw new IllegalArgumentException("condition without flags");
+                    condition(value, instruction);
+                } else if (key.equals("label") && value != null && field) {
+                    label = value;
+                } else if (key.equals("unit") && value != null && field
+                        && opcode != CharacteristicSchema.OP_UTF8) {
+                    unit = value;
+                } else if (key.equals("exp") && value != null && (integer
+                        || opcode == CharacteristicSchema.OP_SFLOAT
+                        || opcode == CharacteristicSchema.OP_FLOAT)) {
+                    final int exponent = parseInt(value);
+                    if (exponent < -128 || exponent > 127) {
+                        throw new IllegalArgumentException("exponent out of range: " + value);
+                    }
+                    instruction[CharacteristicSchema.EXPONENT] = exponent;
+                } else if (key.equals("mul") && value != null && integer) {
+                    instruction[CharacteristicSchema.MUL] = multiplier(value,
+                            instruction[CharacteristicSchema.LENGTH]);
+                } else if (key.equals("div") && value != null && integer) {
+                    instruction[CharacteristicSchema.DIV] = factor(value);
+                } else if (key.equals("names") && value != null && integer) {
+                    valueNames = value.split("\\|", -1);
+                    for (int n = 0; n < valueNames.length; n++) {
+                        if (valueNames[n].isEmpty()) {
+                            // shown as number
+                            valueNames[n] = null;
+                        }
+                    }
+                } else if (key.equals("hex") && value == null && integer) {
+                    instruction[CharacteristicSchema.MODE] |= CharacteristicSchema.MODE_HEX;
+                } else if (key.equals("repeat") && value == null && field
+                        && opcode != CharacteristicSchema.OP_UTF8) {
+                    instruction[CharacteristicSchema.MODE] |= CharacteristicSchema.MODE_REPEAT;
+                    rest = true;
+                } else {
+                    throw new IllegalArgumentException("unexpected " + attribute + " for "
+                            + keyword);
+                }
+            }
+            instructions.add(instruction);
+            labels.add(opcode == CharacteristicSchema.OP_TEXT || label.isEmpty()
+                    ? label : label + " ");
+            units.add(unit.isEmpty() ? "" : " " + unit);
+            names.add(valueNames);
+        }
+
+        CharacteristicSchema build() {
+            if (repeat >= 0) throw new IllegalArgumentException("endrepeat missing");
+            if (instructions.isEmpty()) throw new IllegalArgumentException("empty schema");
+            final int[] code = new int[instructions.size() * CharacteristicSchema.SIZE];
+            for (int i = 0; i < instructions.size(); i++) {
+                System.arraycopy(instructions.get(i), 0, code, i * CharacteristicSchema.SIZE,
+                        CharacteristicSchema.SIZE);
+            }
+            return new CharacteristicSchema(uuid, name, code,
+                    labels.toArray(new String[0]), units.toArray(new String[0]),
+                    names.toArray(new String[0][]));
+        }
+
+        /**
+         * @return true if an instruction from the index on reads bytes whatever the flags are,
+         * a repeat until the end of the value ends only then
+         */
+        private boolean readsAlways(int from) {
+            for (int i = from; i < instructions.size(); i++) {
+                final int[] instruction = instructions.get(i);
+                if (instruction[CharacteristicSchema.MASK] == 0
+                        && instruction[CharacteristicSchema.LENGTH] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String argument(List<String> tokens) {
+            if (tokens.size() < 2) {
+                throw new IllegalArgumentException(tokens.get(0) + " needs an argument");
+            }
+            return tokens.get(1);
+        }
+
+        /**
+         * @param type u8 .. u48 or s8 .. s48
+         * @return the bytes of the type
+         */
+        private static int integerWidth(String type) {
+            final char sign = type.charAt(0);
+            if (sign == 'u' || sign == 's') {
+                switch (type.substring(1)) {
+                    case "8":
+                        return 1;
+                    case "16":
+                        return 2;
+                    case "24":
+                        return 3;
+                    case "32":
+                        return 4;
+                    case "40":
+                        return 5;
+                    case "48":
+                        return 6;
+                }
+            }
+            throw new IllegalArgumentException("unknown type " + type);
+        }
+
+        private static int positive(String text) {
+            final int value = parseInt(text);
+            if (value <= 0) {
+                throw new IllegalArgumentException("not a positive number: " + text);
+            }
+            return value;
+        }
+
+        private static int factor(String text) {
+            final int value = positive(text);
+            if (value > MAX_FACTOR) {
+                throw new IllegalArgumentException("factor too large: " + text);
+            }
+            return value;
+        }
+
+        /**
+         * @param length the bytes of the field, the largest value times the multiplier has
+         *               to fit in a long
+         */
+        private static int multiplier(String text, int length) {
+            final int value = factor(text);
+            final int bits = 32 - Integer.numberOfLeadingZeros(value);
+            if (8 * length + bits > MAX_PRODUCT_BITS) {
+                throw new IllegalArgumentException("factor too large for a " + 8 * length
+                        + " bit field: " + text);
+            }
+            return value;
+        }
+
+        private static void condition(String text, int[] instruction) {
+            final int mask;
+            final int expect;
+            final int slash = text.indexOf('/');
+            if (text.startsWith("!")) {
+                mask = parseInt(text.substring(1));
+                expect = 0;
+            } else if (slash >= 0) {
+                mask = parseInt(text.substring(0, slash));
+                expect = parseInt(text.substring(slash + 1));
+            } else {
+                mask = parseInt(text);
+                expect = mask;
+            }
+            if (mask == 0 || (expect & ~mask) != 0) {
+                throw new IllegalArgumentException("invalid condition " + text);
+            }
+            instruction[CharacteristicSchema.MASK] = mask;
+            instruction[CharacteristicSchema.EXPECT] = expect;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A discovered GATT service as reported by a {@link GattTransport}.
+ */
+public class GattServiceInfo {
+
+    private final UUID uuid;
+    private final List<GattCharacteristicInfo> characteristics;
+
+    public GattServiceInfo(UUID uuid, List<GattCharacteristicInfo> characteristics) {
+        this.uuid = uuid;
+        this.characteristics = Collections.unmodifiableList(characteristics);
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public List<GattCharacteristicInfo> getCharacteristics() {
+        return characteristics;
+    }
+
+    /**
+     * @return the characteristic or null if the service does not contain it
+     */
+    public GattCharacteristicInfo getCharacteristic(UUID characteristic) {
+        for (GattCharacteristicInfo info : characteristics) {
+            if (info.getUuid().equals(characteristic)) {
+                return info;
+            }
+        }
+        return null;
+    }
+}
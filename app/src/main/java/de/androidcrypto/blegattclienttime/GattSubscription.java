@@ -0,0 +1,73 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * A subscription to the notifications or indications of one characteristic, created by
+ * {@link GattClient#subscribe(String, UUID, UUID, Listener, Executor)}.
+ *
+ * Several subscriptions of the same characteristic share the remote registration, the CCCD
+ * is written when the first one is created and cleared when the last one is cancelled. The
+ * registration is restored automatically when the device reconnects.
+ */
+public class GattSubscription {
+
+    /**
+     * Receives the values of one characteristic.
+     */
+    public interface Listener {
+        /**
+         * @param value          the value, shared between all subscriptions, do not modify it
+         * @param timestampNanos the {@link GattClock} time when the value arrived
+         */
+        void onValue(String address, UUID characteristic, byte[] value, long timestampNanos);
+    }
+
+    private final GattSubscriptionManager mManager;
+    private final UUID mCharacteristic;
+    final Listener listener;
+    final Executor executor;
+    // replaced by the manager for every CCCD write after a reconnect
+    volatile GattFuture<Void> enabled;
+    private volatile boolean mCancelled;
+
+    GattSubscription(GattSubscriptionManager manager, UUID characteristic, Listener listener,
+                     Executor executor) {
+        mManager = manager;
+        mCharacteristic = characteristic;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    public String getAddress() {
+        return mManager.getAddress();
+    }
+
+    public UUID getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    /**
+     * @return a future that completes when the remote device was told to send the values,
+     * it is shared by all subscriptions of the characteristic. After a reconnect the
+     * registration is written again and a new future is returned.
+     */
+    public GattFuture<Void> getEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ends the subscription. The remote registration is cleared if it was the last
+     * subscription of the characteristic.
+     */
+    public void cancel() {
+        if (mCancelled) return;
+        mCancelled = true;
+        mManager.unsubscribe(this);
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
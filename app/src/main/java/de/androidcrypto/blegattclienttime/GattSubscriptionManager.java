@@ -0,0 +1,213 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * The subscriptions of one connection, see {@link GattSubscription}.
+ *
+ * Every characteristic with at least one subscription has an entry, the CCCD (0x2902) of the
+ * characteristic is written through the operation queue of the connection, so the writes are
+ * serialized with each other and with all other operations. Notifications are used if the
+ * characteristic supports them, indications otherwise. The entries survive a disconnect and
+ * are written again after the services of the reconnected device were discovered.
+ */
+class GattSubscriptionManager {
+    private final static String TAG = GattSubscriptionManager.class.getSimpleName();
+
+    static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION = GattUuids.fromShortId(0x2902);
+    private static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+    private static final byte[] ENABLE_INDICATION_VALUE = {0x02, 0x00};
+    private static final byte[] DISABLE_NOTIFICATION_VALUE = {0x00, 0x00};
+
+    private static final class Entry {
+        final UUID service;
+        final UUID characteristic;
+        final CopyOnWriteArrayList<GattSubscription> subscribers = new CopyOnWriteArrayList<>();
+        // the outcome of the latest CCCD write, replaced by the write after a reconnect
+        GattFuture<Void> enabled = new GattFuture<>();
+
+        Entry(UUID service, UUID characteristic) {
+            this.service = service;
+            this.characteristic = characteristic;
+        }
+    }
+
+    private final GattConnection mConnection;
+    // read without a lock for every notification, modified while holding this. The CCCD
+    // writes are queued while holding this too, so they reach the device in the order of the
+    // subscribe and unsubscribe calls.
+    private final ConcurrentHashMap<UUID, Entry> mEntries = new ConcurrentHashMap<>();
+
+    GattSubscriptionManager(GattConnection connection) {
+        mConnection = connection;
+    }
+
+    String getAddress() {
+        return mConnection.address;
+    }
+
+    /**
+     * @param service the service UUID, null to use the first characteristic found
+     */
+    GattSubscription subscribe(UUID service, UUID characteristic,
+                               GattSubscription.Listener listener, Executor executor) {
+        final GattSubscription subscription = new GattSubscription(this, characteristic,
+                listener, executor);
+        synchronized (this) {
+            Entry entry = mEntries.get(characteristic);
+            final boolean first = entry == null;
+            if (first) {
+                entry = new Entry(service, characteristic);
+                mEntries.put(characteristic, entry);
+            }
+            entry.subscribers.add(subscription);
+            subscription.enabled = entry.enabled;
+            if (first && isReady()) {
+                // otherwise written by reapply() once the services are known
+                enable(entry);
+            }
+        }
+        return subscription;
+    }
+
+    synchronized void unsubscribe(GattSubscription subscription) {
+        final Entry entry = mEntries.get(subscription.getCharacteristic());
+        if (entry == null || !entry.subscribers.remove(subscription)
+                || !entry.subscribers.isEmpty()) {
+            return;
+        }
+        mEntries.remove(entry.characteristic);
+        if (isReady()) {
+            // queued before the enable of a subscribe that follows
+            write(entry, false);
+        }
+    }
+
+    /**
+     * Hands a notification or indication to the subscriptions of the characteristic.
+     */
+    void dispatch(final UUID characteristic, final byte[] value, final long timestampNanos) {
+        final Entry entry = mEntries.get(characteristic);
+        if (entry == null) {
+            return;
+        }
+        for (final GattSubscription subscription : entry.subscribers) {
+            final GattSubscription.Listener listener = subscription.listener;
+            if (listener == null) {
+                continue;
+            }
+            if (subscription.executor == null) {
+                listener.onValue(mConnection.address, characteristic, value, timestampNanos);
+            } else {
+                subscription.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onValue(mConnection.address, characteristic, value,
+                                timestampNanos);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes the CCCDs of all entries, called after the services were discovered. A remote
+     * device that is not bonded forgets its registrations when the link goes down.
+     */
+    synchronized void reapply() {
+        for (Entry entry : mEntries.values()) {
+            enable(entry);
+        }
+    }
+
+    /**
+     * Drops all entries, called when the connection is closed.
+     */
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    private boolean isReady() {
+        return mConnection.isDiscovered();
+    }
+
+    /**
+     * Queues the CCCD write, called while holding this. A write after a reconnect gets a new
+     * future unless the previous one is still waiting, e.g. for the services.
+     */
+    private void enable(final Entry entry) {
+        if (entry.enabled.isDone()) {
+            entry.enabled = new GattFuture<>();
+            for (GattSubscription subscription : entry.subscribers) {
+                subscription.enabled = entry.enabled;
+            }
+        }
+        final GattFuture<Void> enabled = entry.enabled;
+        write(entry, true).addListener(new GattFuture.Listener<Void>() {
+            @Override
+            public void onComplete(Void value, Throwable error) {
+                if (error == null) {
+                    enabled.complete(null);
+                } else {
+                    GattLog.w(TAG, "enabling " + entry.characteristic + " failed: " + error);
+                    enabled.completeExceptionally(error);
+                }
+            }
+        });
+    }
+
+    private GattFuture<Void> write(final Entry entry, final boolean enable) {
+        return mConnection.queue.enqueue(new GattOperationQueue.Operation<Void>(
+                GattOperationQueue.TYPE_WRITE_DESCRIPTOR, entry.characteristic,
+                CLIENT_CHARACTERISTIC_CONFIGURATION, GattOperationQueue.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            boolean execute() {
+                final GattTransport transport = mConnection.transport;
+                final GattCharacteristicInfo info = findCharacteristic(transport.getServices(),
+                        entry.service, entry.characteristic);
+                if (info == null
+                        || !info.getDescriptors().contains(CLIENT_CHARACTERISTIC_CONFIGURATION)) {
+                    GattLog.w(TAG, "no CCCD found for " + entry.characteristic);
+                    return false;
+                }
+                final byte[] value;
+                if (!enable) {
+                    value = DISABLE_NOTIFICATION_VALUE;
+                } else if (info.hasProperty(GattCharacteristicInfo.PROPERTY_NOTIFY)) {
+                    value = ENABLE_NOTIFICATION_VALUE;
+                } else if (info.hasProperty(GattCharacteristicInfo.PROPERTY_INDICATE)) {
+                    value = ENABLE_INDICATION_VALUE;
+                } else {
+                    GattLog.w(TAG, entry.characteristic + " supports neither notify nor indicate");
+                    return false;
+                }
+                return transport.setCharacteristicNotification(entry.service,
+                        entry.characteristic, enable)
+                        && transport.writeDescriptor(entry.service, entry.characteristic,
+                        CLIENT_CHARACTERISTIC_CONFIGURATION, value);
+            }
+        });
+    }
+
+    private static GattCharacteristicInfo findCharacteristic(List<GattServiceInfo> services,
+                                                             UUID service, UUID characteristic) {
+        for (GattServiceInfo info : services) {
+            if (service != null && !service.equals(info.getUuid())) {
+                continue;
+            }
+            final GattCharacteristicInfo found = info.getCharacteristic(characteristic);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,149 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The link to one remote GATT server as used by the {@link GattClient}.
+ *
+ * The interface only uses UUIDs and byte arrays, so the connection, queueing and decoding
+ * logic can run against the Android stack ({@link AndroidGattTransport}) as well as against a
+ * {@link SimulatedPeripheral} on a plain JVM. It follows the Android contract: only one
+ * request may be outstanding, a method returns false if the request was not started and the
+ * result arrives later through the {@link Callback}.
+ *
+ * The constants have the same values as their counterparts in BluetoothGatt,
+ * BluetoothProfile and BluetoothGattCharacteristic.
+ */
+public interface GattTransport {
+
+    int STATUS_SUCCESS = 0;
+    int STATUS_READ_NOT_PERMITTED = 2;
+    int STATUS_WRITE_NOT_PERMITTED = 3;
+    int STATUS_CONNECTION_TIMEOUT = 8;
+    int STATUS_ERROR = 133;
+
+    int STATE_DISCONNECTED = 0;
+    int STATE_CONNECTING = 1;
+    int STATE_CONNECTED = 2;
+
+    int WRITE_TYPE_NO_RESPONSE = 1;
+    int WRITE_TYPE_DEFAULT = 2;
+
+    // the default ATT MTU before an exchange
+    int DEFAULT_MTU = 23;
+
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    // the PHY in use as reported by onPhyUpdate
+    int PHY_LE_1M = 1;
+    int PHY_LE_2M = 2;
+    int PHY_LE_CODED = 3;
+
+    // the PHYs a central prefers in setPreferredPhy
+    int PHY_LE_1M_MASK = 1;
+    int PHY_LE_2M_MASK = 2;
+    int PHY_LE_CODED_MASK = 4;
+
+    /**
+     * Creates the transports for new connections.
+     */
+    interface Factory {
+        /**
+         * @param address  the device address
+         * @param callback receives all events of the new transport
+         * @return the transport, not connected yet, or null if the device is unknown
+         */
+        GattTransport create(String address, Callback callback);
+    }
+
+    /**
+     * Receives the events of a transport. The values are copies that belong to the receiver.
+     * The calls arrive on a thread of the transport, for Android the Bluetooth binder thread.
+     */
+    interface Callback {
+        void onConnectionStateChange(int status, int newState);
+
+        void onServicesDiscovered(int status);
+
+        void onCharacteristicRead(UUID service, UUID characteristic, byte[] value, int status);
+
+        void onCharacteristicWrite(UUID service, UUID characteristic, int status);
+
+        void onCharacteristicChanged(UUID service, UUID characteristic, byte[] value);
+
+        void onDescriptorRead(UUID service, UUID characteristic, UUID descriptor, byte[] value,
+                              int status);
+
+        void onDescriptorWrite(UUID service, UUID characteristic, UUID descriptor, int status);
+
+        void onMtuChanged(int mtu, int status);
+
+        void onPhyUpdate(int txPhy, int rxPhy, int status);
+
+        /**
+         * The attribute table of the device changed. Android 12 and later handle the Service
+         * Changed indication in the stack and only report this, other transports deliver the
+         * indication through onCharacteristicChanged.
+         */
+        void onServiceChanged();
+    }
+
+    String getAddress();
+
+    /**
+     * Connects or reconnects, the result is reported by onConnectionStateChange.
+     */
+    boolean connect();
+
+    void disconnect();
+
+    /**
+     * Releases the transport, no further callbacks are delivered.
+     */
+    void close();
+
+    boolean discoverServices();
+
+    /**
+     * @return the services found by the last discovery, empty before
+     */
+    List<GattServiceInfo> getServices();
+
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    /**
+     * @param writeType WRITE_TYPE_DEFAULT or WRITE_TYPE_NO_RESPONSE
+     */
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType);
+
+    /**
+     * Enables or disables the local delivery of notifications, the remote device is
+     * configured by writing its Client Characteristic Configuration descriptor.
+     */
+    boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enabled);
+
+    boolean readDescriptor(UUID service, UUID characteristic, UUID descriptor);
+
+    boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+    boolean requestMtu(int mtu);
+
+    /**
+     * Asks for a shorter or longer connection interval, one of the CONNECTION_PRIORITY_
+     * constants. There is no callback, the interval changes once the remote device agreed.
+     */
+    boolean requestConnectionPriority(int priority);
+
+    /**
+     * Sets the PHYs the central prefers, the result is reported by onPhyUpdate.
+     *
+     * @param txPhyMask a combination of the PHY_LE_..._MASK constants
+     * @param rxPhyMask a combination of the PHY_LE_..._MASK constants
+     * @return false if the request was not started or the stack can not select the PHY,
+     * Android before 8.0
+     */
+    boolean setPreferredPhy(int txPhyMask, int rxPhyMask);
+}
@@ -0,0 +1,66 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.UUID;
+
+/**
+ * Helpers for UUIDs that are derived from the Bluetooth SIG base UUID
+ * 00000000-0000-1000-8000-00805f9b34fb. Those are identified by their 16 bit short id, e.g.
+ * 0x2A2B for Current Time, which is the key of the decoder and name tables.
+ */
+public final class GattUuids {
+
+    // the base UUID without the 32 bit value in bits 96..127
+    private static final long SIG_BASE_MSB = 0x0000000000001000L;
+    private static final long SIG_BASE_LSB = 0x800000805f9b34fbL;
+
+    private GattUuids() {
+    }
+
+    /**
+     * @return true if the uuid is a 16 bit UUID on the Bluetooth SIG base
+     */
+    public static boolean isShortUuid(UUID uuid) {
+        return uuid.getLeastSignificantBits() == SIG_BASE_LSB
+                && (uuid.getMostSignificantBits() & 0xFFFF0000FFFFFFFFL) == SIG_BASE_MSB;
+    }
+
+    /**
+     * Extracts the 16 bit short id without allocating.
+     *
+     * @return the short id 0..0xFFFF or -1 if the uuid is not on the Bluetooth SIG base
+     */
+    public static int toShortId(UUID uuid) {
+        if (!isShortUuid(uuid)) {
+            return -1;
+        }
+        return (int) (uuid.getMostSignificantBits() >>> 32) & 0xFFFF;
+    }
+
+    /**
+     * @return the 128 bit UUID for the 16 bit short id, e.g. 0x2A2B
+     */
+    public static UUID fromShortId(int shortId) {
+        return new UUID(SIG_BASE_MSB | ((long) (shortId & 0xFFFF) << 32), SIG_BASE_LSB);
+    }
+
+    /**
+     * Parses a UUID as the user types it, either the 16 bit short id in hex, with or without
+     * "0x", e.g. "1805", or the full form "00001805-0000-1000-8000-00805f9b34fb".
+     *
+     * @throws IllegalArgumentException if the text is neither
+     */
+    public static UUID parse(String text) {
+        String value = text.trim();
+        if (value.length() > 8) {
+            return UUID.fromString(value);
+        }
+        if (value.startsWith("0x") || value.startsWith("0X")) {
+            value = value.substring(2);
+        }
+        // parseInt would also take a sign
+        if (value.isEmpty() || value.length() > 4 || Character.digit(value.charAt(0), 16) < 0) {
+            throw new IllegalArgumentException("not a 16 bit UUID: " + text);
+        }
+        return fromShortId(Integer.parseInt(value, 16));
+    }
+}
@@ -0,0 +1,108 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * Reusable holder for a decoded Heart Rate Measurement (0x2A37) value.
+ *
+ * An instance is filled by {@link HeartRateService#decode(byte[], HeartRateMeasurement)} and
+ * can be reused for every notification, the RR intervals are kept in a preallocated array
+ * that is large enough for the longest attribute value, so the hot path does not allocate.
+ *
+ * Instances are not thread safe, use one holder per thread.
+ */
+public class HeartRateMeasurement {
+
+    public static final int SENSOR_CONTACT_NOT_SUPPORTED = 0;
+    public static final int SENSOR_CONTACT_NOT_DETECTED = 1;
+    public static final int SENSOR_CONTACT_DETECTED = 2;
+
+    // flags byte plus the 16 bit intervals of a 512 byte value
+    static final int MAX_RR_INTERVALS = 255;
+
+    int heartRate;
+    int sensorContact;
+    int energyExpended = -1;
+    final int[] rrIntervals = new int[MAX_RR_INTERVALS];
+    int rrCount;
+    boolean valid;
+
+    /**
+     * @return the heart rate in beats per minute
+     */
+    public int getHeartRate() {
+        return heartRate;
+    }
+
+    /**
+     * @return one of the SENSOR_CONTACT_ constants
+     */
+    public int getSensorContact() {
+        return sensorContact;
+    }
+
+    /**
+     * @return the accumulated energy expended in kJ, -1 if the value has none
+     */
+    public int getEnergyExpended() {
+        return energyExpended;
+    }
+
+    /**
+     * @return the number of RR intervals in the value, most recent last
+     */
+    public int getRrIntervalCount() {
+        return rrCount;
+    }
+
+    /**
+     * @return an RR interval in 1/1024 s, the resolution of the value
+     */
+    public int getRrInterval1024(int index) {
+        if (index < 0 || index >= rrCount) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + rrCount);
+        }
+        return rrIntervals[index];
+    }
+
+    /**
+     * @return an RR interval in milliseconds
+     */
+    public double getRrIntervalMillis(int index) {
+        return getRrInterval1024(index) * 1000.0 / 1024;
+    }
+
+    /**
+     * @return true if the last decoded value was complete
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Appends the value like "72 bpm, contact, 14 kJ, RR 812 790 ms".
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        sb.append(heartRate).append(" bpm");
+        if (sensorContact == SENSOR_CONTACT_DETECTED) {
+            sb.append(", contact");
+        } else if (sensorContact == SENSOR_CONTACT_NOT_DETECTED) {
+            sb.append(", no contact");
+        }
+        if (energyExpended >= 0) {
+            sb.append(", ").append(energyExpended).append(" kJ");
+        }
+        if (rrCount > 0) {
+            sb.append(", RR");
+            for (int i = 0; i < rrCount; i++) {
+                // rounded to whole milliseconds
+                sb.append(' ').append((rrIntervals[i] * 1000 + 512) >> 10);
+            }
+            sb.append(" ms");
+        }
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(48)).toString();
+    }
+}
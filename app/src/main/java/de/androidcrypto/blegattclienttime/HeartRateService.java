@@ -0,0 +1,74 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.UUID;
+
+/**
+ * Decoding of the Heart Rate service (0x180D) values.
+ */
+public final class HeartRateService {
+
+    public static final UUID HEART_RATE_MEASUREMENT = GattUuids.fromShortId(0x2A37);
+
+    static final int FLAG_UINT16 = 0x01;
+    static final int FLAG_CONTACT_DETECTED = 0x02;
+    static final int FLAG_CONTACT_SUPPORTED = 0x04;
+    static final int FLAG_ENERGY_EXPENDED = 0x08;
+    static final int FLAG_RR_INTERVALS = 0x10;
+
+    private HeartRateService() {
+    }
+
+    /**
+     * Decodes a Heart Rate Measurement (0x2A37) value into a reusable holder, nothing is
+     * allocated. The flags in the first byte tell which fields follow: the heart rate as 8 or
+     * 16 bit value, the sensor contact status, the energy expended and any number of RR
+     * intervals.
+     *
+     * @param data the characteristic value
+     * @param out  the holder to fill
+     * @return false if the value is shorter than its flags announce, the fields decoded
+     * before the missing bytes are kept
+     */
+    public static boolean decode(byte[] data, HeartRateMeasurement out) {
+        out.valid = false;
+        out.heartRate = 0;
+        out.sensorContact = HeartRateMeasurement.SENSOR_CONTACT_NOT_SUPPORTED;
+        out.energyExpended = -1;
+        out.rrCount = 0;
+        if (data == null || data.length < 2) {
+            return false;
+        }
+        final int flags = data[0] & 0xFF;
+        int offset = 1;
+        if ((flags & FLAG_UINT16) != 0) {
+            if (data.length < 3) return false;
+            out.heartRate = CharacteristicDecoders.uint16(data, offset);
+            offset += 2;
+        } else {
+            out.heartRate = data[offset] & 0xFF;
+            offset++;
+        }
+        if ((flags & FLAG_CONTACT_SUPPORTED) != 0) {
+            out.sensorContact = (flags & FLAG_CONTACT_DETECTED) != 0
+                    ? HeartRateMeasurement.SENSOR_CONTACT_DETECTED
+                    : HeartRateMeasurement.SENSOR_CONTACT_NOT_DETECTED;
+        }
+        if ((flags & FLAG_ENERGY_EXPENDED) != 0) {
+            if (data.length < offset + 2) return false;
+            out.energyExpended = CharacteristicDecoders.uint16(data, offset);
+            offset += 2;
+        }
+        if ((flags & FLAG_RR_INTERVALS) != 0) {
+            // an odd trailing byte is ignored
+            final int count = Math.min((data.length - offset) >> 1,
+                    HeartRateMeasurement.MAX_RR_INTERVALS);
+            for (int i = 0; i < count; i++) {
+                out.rrIntervals[i] = CharacteristicDecoders.uint16(data, offset);
+                offset += 2;
+            }
+            out.rrCount = count;
+        }
+        out.valid = true;
+        return true;
+    }
+}
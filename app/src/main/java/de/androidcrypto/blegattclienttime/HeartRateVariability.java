@@ -0,0 +1,226 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolling heart rate variability of one device, started with
+ * {@link GattClient#trackHeartRateVariability(String, long...)}.
+ *
+ * The RR intervals of the Heart Rate Measurement notifications are added to one or more
+ * sliding windows, each covering the most recent beats that add up to its duration. A window
+ * keeps the sum and the sum of squares of its intervals and the sum of the squared differences
+ * of successive intervals in integer arithmetic, so adding an interval and evicting the
+ * oldest ones takes constant time per beat, the mean heart rate, SDNN and RMSSD are derived
+ * from the sums when a snapshot is taken and never drift.
+ *
+ * Intervals outside 250 to 2000 ms (240 to 30 bpm) are treated as artifacts and skipped,
+ * the interval after a skipped one does not count as successive for the RMSSD.
+ */
+public class HeartRateVariability {
+
+    // RR intervals are in 1/1024 s
+    static final int MIN_RR_1024 = 256;
+    static final int MAX_RR_1024 = 2048;
+    private static final double MILLIS_PER_UNIT = 1000.0 / 1024;
+
+    /**
+     * The intervals of one window in a preallocated ring.
+     */
+    static final class Window {
+        final long durationMillis;
+        private final long mDuration1024;
+        private final int[] mIntervals;
+        // the squared difference to the previous interval, -1 if there is none
+        private final int[] mDiffSquares;
+        private int mFirst;
+        private int mCount;
+        private long mSum;
+        private long mSumSquares;
+        private long mDiffSquareSum;
+        private int mDiffCount;
+
+        Window(long durationMillis) {
+            if (durationMillis <= 0) {
+                throw new IllegalArgumentException("window duration must be positive");
+            }
+            this.durationMillis = durationMillis;
+            mDuration1024 = durationMillis * 1024 / 1000;
+            // the number of the shortest intervals that fit, plus the one that overlaps
+            final int capacity = (int) Math.min(Integer.MAX_VALUE - 1,
+                    mDuration1024 / MIN_RR_1024 + 2);
+            mIntervals = new int[capacity];
+            mDiffSquares = new int[capacity];
+        }
+
+        /**
+         * @param successive false if beats were lost since the previous interval
+         */
+        void add(int interval1024, boolean successive) {
+            if (mCount == mIntervals.length) {
+                evictFirst();
+            }
+            final int index = (mFirst + mCount) % mIntervals.length;
+            if (successive && mCount > 0) {
+                final int previous =
+                        mIntervals[(index + mIntervals.length - 1) % mIntervals.length];
+                final int diff = interval1024 - previous;
+                mDiffSquares[index] = diff * diff;
+                mDiffSquareSum += diff * diff;
+                mDiffCount++;
+            } else {
+                mDiffSquares[index] = -1;
+            }
+            mIntervals[index] = interval1024;
+            mCount++;
+            mSum += interval1024;
+            mSumSquares += (long) interval1024 * interval1024;
+            // evict the oldest intervals as long as the others still cover the duration
+            while (mCount > 1 && mSum - mIntervals[mFirst] >= mDuration1024) {
+                evictFirst();
+            }
+        }
+
+        private void evictFirst() {
+            // the first interval never has a difference, see below
+            final int interval = mIntervals[mFirst];
+            mSum -= interval;
+            mSumSquares -= (long) interval * interval;
+            mFirst = (mFirst + 1) % mIntervals.length;
+            mCount--;
+            if (mCount > 0 && mDiffSquares[mFirst] >= 0) {
+                // the difference to the evicted interval leaves the window with it
+                mDiffSquareSum -= mDiffSquares[mFirst];
+                mDiffSquares[mFirst] = -1;
+                mDiffCount--;
+            }
+        }
+
+        void clear() {
+            mFirst = 0;
+            mCount = 0;
+            mSum = 0;
+            mSumSquares = 0;
+            mDiffSquareSum = 0;
+            mDiffCount = 0;
+        }
+
+        HrvStatistics snapshot() {
+            if (mCount == 0) {
+                return new HrvStatistics(durationMillis, 0, 0, 0, 0, 0);
+            }
+            final double meanRr = (double) mSum / mCount * MILLIS_PER_UNIT;
+            double sdnn = 0;
+            if (mCount > 1) {
+                // exact in long arithmetic: n * sum of squares - square of the sum
+                final long spread = mCount * mSumSquares - mSum * mSum;
+                sdnn = Math.sqrt((double) spread / ((long) mCount * (mCount - 1)))
+                        * MILLIS_PER_UNIT;
+            }
+            final double rmssd = mDiffCount == 0 ? 0
+                    : Math.sqrt((double) mDiffSquareSum / mDiffCount) * MILLIS_PER_UNIT;
+            return new HrvStatistics(durationMillis, mCount, meanRr, 60000 / meanRr, sdnn, rmssd);
+        }
+    }
+
+    final String address;
+    private final Window[] mWindows;
+    private long mBeats;
+    private long mRejected;
+    private boolean mSuccessive;
+
+    /**
+     * @param windowMillis the durations of the windows, e.g. 60000 and 300000 for the last
+     *                     minute and the last five minutes
+     */
+    HeartRateVariability(String address, long... windowMillis) {
+        if (windowMillis.length == 0) {
+            throw new IllegalArgumentException("at least one window is needed");
+        }
+        this.address = address;
+        mWindows = new Window[windowMillis.length];
+        for (int i = 0; i < windowMillis.length; i++) {
+            mWindows[i] = new Window(windowMillis[i]);
+        }
+    }
+
+    /**
+     * Adds the RR intervals of a decoded measurement, called on the notification dispatcher
+     * thread. A measurement without sensor contact breaks the sequence of successive beats.
+     */
+    synchronized void add(HeartRateMeasurement measurement) {
+        if (measurement.sensorContact == HeartRateMeasurement.SENSOR_CONTACT_NOT_DETECTED) {
+            mSuccessive = false;
+            return;
+        }
+        for (int i = 0; i < measurement.rrCount; i++) {
+            addInterval(measurement.rrIntervals[i]);
+        }
+    }
+
+    /**
+     * @param interval1024 an RR interval in 1/1024 s
+     */
+    synchronized void addInterval(int interval1024) {
+        if (interval1024 < MIN_RR_1024 || interval1024 > MAX_RR_1024) {
+            mRejected++;
+            mSuccessive = false;
+            return;
+        }
+        for (Window window : mWindows) {
+            window.add(interval1024, mSuccessive);
+        }
+        mSuccessive = true;
+        mBeats++;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the number of RR intervals added since the tracking started
+     */
+    public synchronized long getBeatCount() {
+        return mBeats;
+    }
+
+    /**
+     * @return the number of RR intervals skipped as artifacts
+     */
+    public synchronized long getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * @return the statistics of every window, in the order of the durations given at the start
+     */
+    public synchronized List<HrvStatistics> snapshot() {
+        final List<HrvStatistics> statistics = new ArrayList<>(mWindows.length);
+        for (Window window : mWindows) {
+            statistics.add(window.snapshot());
+        }
+        return statistics;
+    }
+
+    /**
+     * Empties all windows, e.g. when a new session starts.
+     */
+    public synchronized void reset() {
+        for (Window window : mWindows) {
+            window.clear();
+        }
+        mSuccessive = false;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder text = new StringBuilder(128);
+        text.append(address).append(" HRV, ").append(getBeatCount()).append(" beats, ")
+                .append(getRejectedCount()).append(" rejected");
+        for (HrvStatistics statistics : snapshot()) {
+            text.append("\n  ").append(statistics);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * Renders bytes as hex ("0A 1B FF ") and printable ASCII text.
+ *
+ * The characters come from a precomputed table and are written into a char buffer that is
+ * reused for every call, so rendering a value does not allocate a Formatter per byte like
+ * String.format("%02X ", b) does. An instance is not thread safe, the static methods use
+ * one instance per thread.
+ */
+public class HexFormatter {
+
+    // "00 " .. "FF ", three chars per byte value
+    private static final char[] HEX_TABLE = new char[256 * 3];
+    // printable ASCII as is, everything else as '.'
+    private static final char[] ASCII_TABLE = new char[256];
+
+    static {
+        final char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            HEX_TABLE[i * 3] = digits[i >>> 4];
+            HEX_TABLE[i * 3 + 1] = digits[i & 0x0F];
+            HEX_TABLE[i * 3 + 2] = ' ';
+            ASCII_TABLE[i] = i >= 0x20 && i < 0x7F ? (char) i : '.';
+        }
+    }
+
+    private static final ThreadLocal<HexFormatter> FORMATTER = new ThreadLocal<HexFormatter>() {
+        @Override
+        protected HexFormatter initialValue() {
+            return new HexFormatter();
+        }
+    };
+
+    private char[] mBuffer = new char[64];
+
+    /**
+     * @return the formatter of the calling thread
+     */
+    public static HexFormatter get() {
+        return FORMATTER.get();
+    }
+
+    /**
+     * Renders the bytes as hex into the internal buffer.
+     *
+     * @return the number of chars written, they are available from {@link #buffer()} until
+     * the next call
+     */
+    public int formatHex(byte[] data, int offset, int length) {
+        final char[] buffer = ensureCapacity(length * 3);
+        int position = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            final int index = (data[i] & 0xFF) * 3;
+            buffer[position++] = HEX_TABLE[index];
+            buffer[position++] = HEX_TABLE[index + 1];
+            buffer[position++] = HEX_TABLE[index + 2];
+        }
+        return position;
+    }
+
+    /**
+     * Renders the bytes as ASCII into the internal buffer, non printable bytes become '.'.
+     *
+     * @return the number of chars written
+     */
+    public int formatAscii(byte[] data, int offset, int length) {
+        final char[] buffer = ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[i] = ASCII_TABLE[data[offset + i] & 0xFF];
+        }
+        return length;
+    }
+
+    /**
+     * @return the internal buffer, valid up to the length returned by the last format call
+     */
+    public char[] buffer() {
+        return mBuffer;
+    }
+
+    public StringBuilder appendHex(byte[] data, int offset, int length, StringBuilder out) {
+        final int count = formatHex(data, offset, length);
+        return out.append(mBuffer, 0, count);
+    }
+
+    public StringBuilder appendAscii(byte[] data, int offset, int length, StringBuilder out) {
+        final int count = formatAscii(data, offset, length);
+        return out.append(mBuffer, 0, count);
+    }
+
+    private char[] ensureCapacity(int capacity) {
+        if (mBuffer.length < capacity) {
+            mBuffer = new char[Math.max(capacity, mBuffer.length * 2)];
+        }
+        return mBuffer;
+    }
+
+    /**
+     * @return the bytes as hex, e.g. "0A 1B FF "
+     */
+    public static String toHex(byte[] data) {
+        final HexFormatter formatter = get();
+        final int count = formatter.formatHex(data, 0, data.length);
+        return new String(formatter.mBuffer, 0, count);
+    }
+
+    /**
+     * Appends the ASCII text, a line break and the hex form, the text that is shown for
+     * characteristics without a decoder.
+     */
+    public static StringBuilder appendAsciiAndHex(byte[] data, StringBuilder out) {
+        final HexFormatter formatter = get();
+        formatter.appendAscii(data, 0, data.length, out).append('\n');
+        return formatter.appendHex(data, 0, data.length, out);
+    }
+
+    /**
+     * Wraps the bytes in a CharSequence that is only rendered when the text is actually
+     * requested, e.g. by a TextView or a log statement that is enabled.
+     *
+     * @param data the bytes, they are not copied and must not change afterwards
+     */
+    public static CharSequence lazyHex(byte[] data) {
+        return new LazyHex(data, false);
+    }
+
+    /**
+     * Like {@link #lazyHex(byte[])} but renders the ASCII text, a line break and the hex form.
+     */
+    public static CharSequence lazyAsciiAndHex(byte[] data) {
+        return new LazyHex(data, true);
+    }
+
+    private static final class LazyHex implements CharSequence {
+        private final byte[] mData;
+        private final boolean mWithAscii;
+        private String mText;
+
+        LazyHex(byte[] data, boolean withAscii) {
+            mData = data;
+            mWithAscii = withAscii;
+        }
+
+        @Override
+        public int length() {
+            return mData.length * (mWithAscii ? 4 : 3) + (mWithAscii ? 1 : 0);
+        }
+
+        @Override
+        public char charAt(int index) {
+            return toString().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            if (mText == null) {
+                mText = mWithAscii
+                        ? appendAsciiAndHex(mData, new StringBuilder(length())).toString()
+                        : toHex(mData);
+            }
+            return mText;
+        }
+    }
+}
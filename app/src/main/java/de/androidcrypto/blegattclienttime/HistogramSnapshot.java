@@ -0,0 +1,78 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Locale;
+
+/**
+ * The counts of a latency histogram at the time the snapshot was taken, all values are in
+ * microseconds.
+ */
+public class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sumMicros;
+    private final long minMicros;
+    private final long maxMicros;
+
+    HistogramSnapshot(long[] counts, long count, long sumMicros, long minMicros, long maxMicros) {
+        this.counts = counts;
+        this.count = count;
+        this.sumMicros = sumMicros;
+        this.minMicros = minMicros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMinMicros() {
+        return minMicros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public double getMeanMicros() {
+        return count == 0 ? 0 : (double) sumMicros / count;
+    }
+
+    /**
+     * Nearest rank percentile, the largest value of the bucket the rank falls into, at most
+     * the maximum. The value is at most 3 % above the exact one.
+     *
+     * @param percentile 0 to 100
+     * @return the value or 0 for an empty histogram
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.upperBound(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    private static String millis(double micros) {
+        return String.format(Locale.US, "%.1f ms", micros / 1000);
+    }
+
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return "n=0";
+        }
+        return "n=" + count + " mean=" + millis(getMeanMicros())
+                + " p50=" + millis(getValueAtPercentile(50))
+                + " p90=" + millis(getValueAtPercentile(90))
+                + " p99=" + millis(getValueAtPercentile(99))
+                + " max=" + millis(maxMicros);
+    }
+}
@@ -0,0 +1,69 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Locale;
+
+/**
+ * The heart rate variability of one window of a {@link HeartRateVariability} at the time the
+ * snapshot was taken.
+ */
+public class HrvStatistics {
+
+    private final long windowMillis;
+    private final int beats;
+    private final double meanRrMillis;
+    private final double meanHeartRate;
+    private final double sdnnMillis;
+    private final double rmssdMillis;
+
+    HrvStatistics(long windowMillis, int beats, double meanRrMillis, double meanHeartRate,
+                  double sdnnMillis, double rmssdMillis) {
+        this.windowMillis = windowMillis;
+        this.beats = beats;
+        this.meanRrMillis = meanRrMillis;
+        this.meanHeartRate = meanHeartRate;
+        this.sdnnMillis = sdnnMillis;
+        this.rmssdMillis = rmssdMillis;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @return the number of RR intervals in the window
+     */
+    public int getBeats() {
+        return beats;
+    }
+
+    public double getMeanRrMillis() {
+        return meanRrMillis;
+    }
+
+    /**
+     * @return the heart rate of the mean RR interval in beats per minute, 0 without beats
+     */
+    public double getMeanHeartRate() {
+        return meanHeartRate;
+    }
+
+    /**
+     * @return the standard deviation of the RR intervals
+     */
+    public double getSdnnMillis() {
+        return sdnnMillis;
+    }
+
+    /**
+     * @return the root mean square of the differences of successive RR intervals
+     */
+    public double getRmssdMillis() {
+        return rmssdMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d s: %d beats, HR %.1f bpm, SDNN %.1f ms, RMSSD %.1f ms",
+                windowMillis / 1000, beats, meanHeartRate, sdnnMillis, rmssdMillis);
+    }
+}
@@ -0,0 +1,251 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The medical float formats of IEEE 11073-20601 used by the Health Thermometer, Blood
+ * Pressure, Glucose and other health services: the 16 bit SFLOAT with a 4 bit exponent and a
+ * 12 bit mantissa and the 32 bit FLOAT with an 8 bit exponent and a 24 bit mantissa, both
+ * signed and to the base 10, little endian in the characteristic values.
+ *
+ * The values are converted with a table of powers of ten instead of Math.pow(), negative
+ * exponents divide by the power, so the result is correctly rounded for all SFLOATs and for
+ * FLOAT exponents up to 22, larger ones are within one ulp. The append methods format the
+ * mantissa and exponent as a decimal number without going through a double, so 36.7 stays
+ * 36.7. Nothing allocates, which keeps the decoding of values with many records inline.
+ */
+public final class Ieee11073Float {
+
+    // the special values have the exponent 0
+    public static final int SFLOAT_NAN = 0x07FF;
+    public static final int SFLOAT_NRES = 0x0800;
+    public static final int SFLOAT_POSITIVE_INFINITY = 0x07FE;
+    public static final int SFLOAT_NEGATIVE_INFINITY = 0x0802;
+    public static final int SFLOAT_RESERVED = 0x0801;
+
+    public static final int FLOAT_NAN = 0x007FFFFF;
+    public static final int FLOAT_NRES = 0x00800000;
+    public static final int FLOAT_POSITIVE_INFINITY = 0x007FFFFE;
+    public static final int FLOAT_NEGATIVE_INFINITY = 0x00800002;
+    public static final int FLOAT_RESERVED = 0x00800001;
+
+    // 10^0 .. 10^128 for the exponents of FLOAT, exact up to 10^22
+    private static final double[] POW10 = new double[129];
+
+    static {
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = Double.parseDouble("1e" + i);
+        }
+    }
+
+    private Ieee11073Float() {
+    }
+
+    /**
+     * @param raw the 16 bit value
+     */
+    public static int sfloatMantissa(int raw) {
+        return (raw << 20) >> 20;
+    }
+
+    public static int sfloatExponent(int raw) {
+        return (raw << 16) >> 28;
+    }
+
+    /**
+     * @param raw the 32 bit value
+     */
+    public static int floatMantissa(int raw) {
+        return (raw << 8) >> 8;
+    }
+
+    public static int floatExponent(int raw) {
+        return raw >> 24;
+    }
+
+    /**
+     * @return true for NaN, NRes, +INF, -INF and the reserved value
+     */
+    public static boolean isSfloatSpecial(int raw) {
+        final int value = raw & 0xFFFF;
+        return value >= SFLOAT_POSITIVE_INFINITY && value <= SFLOAT_NEGATIVE_INFINITY;
+    }
+
+    public static boolean isFloatSpecial(int raw) {
+        return raw >= FLOAT_POSITIVE_INFINITY && raw <= FLOAT_NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return the value, NaN for NaN, NRes (not at this resolution) and the reserved value,
+     * or an infinity
+     */
+    public static double sfloatToDouble(int raw) {
+        final int value = raw & 0xFFFF;
+        switch (value) {
+            case SFLOAT_POSITIVE_INFINITY:
+                return Double.POSITIVE_INFINITY;
+            case SFLOAT_NEGATIVE_INFINITY:
+                return Double.NEGATIVE_INFINITY;
+            case SFLOAT_NAN:
+            case SFLOAT_NRES:
+            case SFLOAT_RESERVED:
+                return Double.NaN;
+            default:
+                return scale(sfloatMantissa(value), sfloatExponent(value));
+        }
+    }
+
+    /**
+     * @return the value, NaN for NaN, NRes (not at this resolution) and the reserved value,
+     * or an infinity
+     */
+    public static double floatToDouble(int raw) {
+        switch (raw) {
+            case FLOAT_POSITIVE_INFINITY:
+                return Double.POSITIVE_INFINITY;
+            case FLOAT_NEGATIVE_INFINITY:
+                return Double.NEGATIVE_INFINITY;
+            case FLOAT_NAN:
+            case FLOAT_NRES:
+            case FLOAT_RESERVED:
+                return Double.NaN;
+            default:
+                return scale(floatMantissa(raw), floatExponent(raw));
+        }
+    }
+
+    static double scale(double mantissa, int exponent) {
+        return exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+    }
+
+    public static int rawSfloat(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    public static int rawFloat(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16) | (data[offset + 3] << 24);
+    }
+
+    /**
+     * Reads little endian whatever the order of the buffer is, the position is not changed.
+     */
+    public static int rawSfloat(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) | ((buffer.get(index + 1) & 0xFF) << 8);
+    }
+
+    public static int rawFloat(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) | ((buffer.get(index + 1) & 0xFF) << 8)
+                | ((buffer.get(index + 2) & 0xFF) << 16) | (buffer.get(index + 3) << 24);
+    }
+
+    public static double readSfloat(byte[] data, int offset) {
+        return sfloatToDouble(rawSfloat(data, offset));
+    }
+
+    public static double readFloat(byte[] data, int offset) {
+        return floatToDouble(rawFloat(data, offset));
+    }
+
+    public static double readSfloat(ByteBuffer buffer, int index) {
+        return sfloatToDouble(rawSfloat(buffer, index));
+    }
+
+    public static double readFloat(ByteBuffer buffer, int index) {
+        return floatToDouble(rawFloat(buffer, index));
+    }
+
+    /**
+     * Reads the same SFLOAT field of consecutive records, e.g. the systolic pressure of a
+     * batch of stored measurements.
+     *
+     * @param offset the offset of the field in the first record
+     * @param stride the length of a record, 2 for an array of SFLOATs
+     * @param out    receives the values
+     * @param count  the number of records
+     */
+    public static void readSfloats(byte[] data, int offset, int stride, double[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = sfloatToDouble(rawSfloat(data, offset + i * stride));
+        }
+    }
+
+    public static void readSfloats(ByteBuffer buffer, int index, int stride, double[] out,
+                                   int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = sfloatToDouble(rawSfloat(buffer, index + i * stride));
+        }
+    }
+
+    /**
+     * Appends an SFLOAT as exact decimal number like "36.7", or "NaN", "NRes", "+INF", "-INF"
+     * and "reserved".
+     *
+     * @param shift added to the exponent, e.g. 3 to show mol/L as mmol/L
+     */
+    public static StringBuilder appendSfloat(StringBuilder out, int raw, int shift) {
+        final int value = raw & 0xFFFF;
+        if (isSfloatSpecial(value)) {
+            return appendSpecial(out, value - SFLOAT_POSITIVE_INFINITY);
+        }
+        return appendDecimal(out, sfloatMantissa(value), sfloatExponent(value) + shift);
+    }
+
+    public static StringBuilder appendFloat(StringBuilder out, int raw, int shift) {
+        if (isFloatSpecial(raw)) {
+            return appendSpecial(out, raw - FLOAT_POSITIVE_INFINITY);
+        }
+        return appendDecimal(out, floatMantissa(raw), floatExponent(raw) + shift);
+    }
+
+    /**
+     * @param special 0 to 4 for +INF, NaN, NRes, reserved and -INF
+     */
+    private static StringBuilder appendSpecial(StringBuilder out, int special) {
+        switch (special) {
+            case 0:
+                return out.append("+INF");
+            case 1:
+                return out.append("NaN");
+            case 2:
+                return out.append("NRes");
+            case 4:
+                return out.append("-INF");
+            default:
+                return out.append("reserved");
+        }
+    }
+
+    /**
+     * Appends mantissa * 10^exponent without rounding.
+     *
+     * @param mantissa up to 48 bits, the widest integer of a presentation format
+     */
+    static StringBuilder appendDecimal(StringBuilder out, long mantissa, int exponent) {
+        if (exponent >= 0) {
+            out.append(mantissa);
+            if (mantissa != 0) {
+                for (int i = 0; i < exponent; i++) {
+                    out.append('0');
+                }
+            }
+            return out;
+        }
+        if (mantissa < 0) {
+            out.append('-');
+        }
+        final long magnitude = Math.abs(mantissa);
+        final int decimals = -exponent;
+        if (decimals > 18) {
+            // too small to be written out in full
+            return out.append(magnitude).append('e').append(exponent);
+        }
+        final long divisor = (long) POW10[decimals];
+        out.append(magnitude / divisor).append('.');
+        final long fraction = magnitude % divisor;
+        for (long digit = divisor / 10; digit > fraction && digit > 1; digit /= 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+}
@@ -0,0 +1,85 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with fixed log-linear buckets in the style of HdrHistogram.
+ *
+ * The values are kept in microseconds. Below 32 microseconds every value has its own bucket,
+ * above that every power of two is split into 32 buckets of equal width, so a bucket is at
+ * most 1/32 of its lower bound wide. Values of 2^32 microseconds (71 minutes) and more land
+ * in the last bucket.
+ *
+ * Recording is lock-free and does not allocate, any number of threads may record while
+ * another one takes a {@link #snapshot()}.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 32;
+    // one group of exact values and one group per power of two up to 2^MAX_BITS
+    static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param nanos the duration, negative values count as 0
+     */
+    void record(long nanos) {
+        final long micros = Math.max(nanos, 0) / 1000;
+        mCounts.incrementAndGet(bucketOf(micros));
+        mSum.addAndGet(micros);
+        long min;
+        while (micros < (min = mMin.get()) && !mMin.compareAndSet(min, micros)) {
+            // retry with the value of the other thread
+        }
+        long max;
+        while (micros > (max = mMax.get()) && !mMax.compareAndSet(max, micros)) {
+            // retry with the value of the other thread
+        }
+    }
+
+    /**
+     * @return a copy of the counts, values recorded while it is taken may be missing from
+     * the sum, min and max or from the buckets
+     */
+    HistogramSnapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        return new HistogramSnapshot(counts, count, mSum.get(),
+                count == 0 ? 0 : mMin.get(), mMax.get());
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        if (micros >= 1L << MAX_BITS) {
+            return BUCKETS - 1;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) | (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the largest value that falls into the bucket
+     */
+    static long upperBound(int bucket) {
+        final int group = bucket >>> SUB_BUCKET_BITS;
+        final long sub = bucket & (SUB_BUCKETS - 1);
+        if (group == 0) {
+            return sub;
+        }
+        final long width = 1L << (group - 1);
+        return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+}
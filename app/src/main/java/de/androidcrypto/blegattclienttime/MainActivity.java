@@ -20,18 +20,22 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ListAdapter;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 public class MainActivity extends AppCompatActivity {
+    private final static String TAG = MainActivity.class.getSimpleName();
 
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothLeScanner mBluetoothLeScanner;
@@ -41,20 +45,39 @@ public class MainActivity extends AppCompatActivity {
     /**
      * usually a lot of devices were found but for using this programm with
      * BleGattServer examples it is better to limit the scan results to
-     * devices with a name
+     * devices offering the Current Time Service, or at least to devices with a name.
+     * Replaced on the main thread per scan and read on the Binder and the scan thread.
      */
-    private static boolean scanOnlyForNamedDevices = true;
+    private volatile ScanConfiguration mScanConfiguration;
+    // true if the controller can not filter, the results are matched in software then
+    private volatile boolean mSoftwareFilter;
+    // true if the controller batches the results, they are flushed before the scan stops
+    private boolean mBatching;
+    // true while the scan waits for the flushed batch, set on the main thread
+    private volatile boolean mFlushing;
 
     private static final int RQS_ENABLE_BLUETOOTH = 1;
 
     Button btnScan;
+    CheckBox cbOnlyTimeServers;
+    EditText etServiceUuids;
     ListView listViewLE;
 
-    List<BluetoothDevice> listBluetoothDevice;
-    ListAdapter adapterLeScanResult;
+    // the results are collected per device, the list is updated at most every
+    // SCAN_UPDATE_INTERVAL milliseconds
+    private final ScanAggregator mScanAggregator = new ScanAggregator();
+    ScanResultAdapter adapterLeScanResult;
 
     private Handler mHandler;
     private static final long SCAN_PERIOD = 10000;
+    private static final long SCAN_UPDATE_INTERVAL = 200;
+    // how long the scan waits for the flushed batch before it stops anyway
+    private static final long FLUSH_TIMEOUT = 500;
+    private volatile long mLastScanUpdate;
+
+    // batches of scan results are processed on this thread instead of the main thread
+    private HandlerThread mScanThread;
+    private Handler mScanHandler;
 
     /**
      * This block is for requesting permissions up to Android 12+
@@ -114,15 +137,32 @@ public class MainActivity extends AppCompatActivity {
                 scanLeDevice(true);
             }
         });
+        cbOnlyTimeServers = (CheckBox)findViewById(R.id.onlyTimeServers);
+        etServiceUuids = (EditText)findViewById(R.id.serviceUuids);
         listViewLE = (ListView)findViewById(R.id.lelist);
 
-        listBluetoothDevice = new ArrayList<>();
-        adapterLeScanResult = new ArrayAdapter<BluetoothDevice>(
-                this, android.R.layout.simple_list_item_1, listBluetoothDevice);
+        adapterLeScanResult = new ScanResultAdapter(this);
         listViewLE.setAdapter(adapterLeScanResult);
         listViewLE.setOnItemClickListener(scanResultOnItemClickListener);
 
         mHandler = new Handler();
+        mScanThread = new HandlerThread("ScanResults");
+        mScanThread.start();
+        mScanHandler = new Handler(mScanThread.getLooper());
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    protected void onDestroy() {
+        if (mScanning) {
+            // no flush, the results would arrive after the activity is gone
+            stopScan.run();
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        if (mScanThread != null) {
+            mScanThread.quitSafely();
+        }
+        super.onDestroy();
     }
 
     @SuppressLint("MissingPermission")
@@ -176,14 +216,17 @@ public class MainActivity extends AppCompatActivity {
                 @SuppressLint("MissingPermission")
                 @Override
                 public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                    final BluetoothDevice device = (BluetoothDevice) parent.getItemAtPosition(position);
+                    final ScannedDevice scannedDevice = (ScannedDevice) parent.getItemAtPosition(position);
+                    final BluetoothDevice device =
+                            mBluetoothAdapter.getRemoteDevice(scannedDevice.getAddress());
 
                     String msg = device.getAddress() + "\n"
                             + device.getBluetoothClass().toString() + "\n"
-                            + getBTDeviceType(device);
+                            + getBTDeviceType(device) + "\n"
+                            + scannedDevice.getRssi() + " dBm";
 
                     new AlertDialog.Builder(MainActivity.this)
-                            .setTitle(device.getName())
+                            .setTitle(scannedDevice.getName())
                             .setMessage(msg)
                             .setPositiveButton("OK", new DialogInterface.OnClickListener() {
                                 @Override
@@ -197,14 +240,12 @@ public class MainActivity extends AppCompatActivity {
                                     final Intent intent = new Intent(MainActivity.this,
                                             ControlActivity.class);
                                     intent.putExtra(ControlActivity.EXTRAS_DEVICE_NAME,
-                                            device.getName());
+                                            scannedDevice.getName());
                                     intent.putExtra(ControlActivity.EXTRAS_DEVICE_ADDRESS,
                                             device.getAddress());
 
                                     if (mScanning) {
-                                        mBluetoothLeScanner.stopScan(scanCallback);
-                                        mScanning = false;
-                                        btnScan.setEnabled(true);
+                                        scanLeDevice(false);
                                     }
                                     startActivity(intent);
                                 }
@@ -247,51 +288,110 @@ public class MainActivity extends AppCompatActivity {
     @SuppressLint("MissingPermission")
     private void scanLeDevice(final boolean enable) {
         if (enable) {
-            listBluetoothDevice.clear();
-            listViewLE.invalidateViews();
-
-            // Stops scanning after a pre-defined scan period.
-            mHandler.postDelayed(new Runnable() {
-                @SuppressLint("MissingPermission")
-                @Override
-                public void run() {
-                    mBluetoothLeScanner.stopScan(scanCallback);
-                    listViewLE.invalidateViews();
-
-                    Toast.makeText(MainActivity.this,
-                            "Scan timeout",
-                            Toast.LENGTH_LONG).show();
-
-                    mScanning = false;
-                    btnScan.setEnabled(true);
+            // scan specified devices only with ScanFilter, the controller filters and batches
+            // the results if it supports it
+            final ScanConfiguration configuration;
+            if (cbOnlyTimeServers.isChecked()) {
+                final List<UUID> serviceUuids;
+                try {
+                    serviceUuids = ScanConfiguration.parseServiceUuids(
+                            etServiceUuids.getText().toString());
+                } catch (IllegalArgumentException e) {
+                    etServiceUuids.setError(e.getMessage());
+                    return;
                 }
-            }, SCAN_PERIOD);
-
-            mBluetoothLeScanner.startScan(scanCallback); // disabled in part 3
-            // scan specified devices only with ScanFilter
-            // new in part 3
-            /*
-            ScanFilter scanFilter =
-                    new ScanFilter.Builder()
-                            .setServiceUuid(BluetoothLeService.ParcelUuid_GENUINO101_ledService)
-                            .build();
-            List<ScanFilter> scanFilters = new ArrayList<ScanFilter>();
-            scanFilters.add(scanFilter);
-
-            ScanSettings scanSettings =
-                    new ScanSettings.Builder().build();
+                configuration = serviceUuids.isEmpty()
+                        ? ScanConfiguration.forCurrentTimeServers()
+                        : ScanConfiguration.forServices(serviceUuids);
+            } else {
+                configuration = ScanConfiguration.forNamedDevices();
+            }
+            mScanAggregator.clear();
+            adapterLeScanResult.clear();
 
-            mBluetoothLeScanner.startScan(scanFilters, scanSettings, scanCallback);
-            */
+            // Stops scanning after a pre-defined scan period.
+            mHandler.postDelayed(stopScanAfterTimeout, SCAN_PERIOD);
 
+            mScanConfiguration = configuration;
+            mSoftwareFilter = configuration.usesSoftwareFilter(mBluetoothAdapter);
+            if (mSoftwareFilter) {
+                Log.i(TAG, "the controller can not filter, the results are filtered in software");
+            }
+            mBatching = configuration.usesBatching(mBluetoothAdapter);
+            mFlushing = false;
+            mBluetoothLeScanner.startScan(configuration.buildFilters(mBluetoothAdapter),
+                    configuration.buildSettings(mBluetoothAdapter), scanCallback);
 
             mScanning = true;
             btnScan.setEnabled(false);
         } else {
+            mHandler.removeCallbacks(stopScanAfterTimeout);
+            if (!mBatching) {
+                stopScan.run();
+            } else if (!mFlushing) {
+                // the controller still holds a batch, the scan stops when it is delivered,
+                // stopScan would drop it
+                mFlushing = true;
+                mBluetoothLeScanner.flushPendingScanResults(scanCallback);
+                mHandler.postDelayed(stopScan, FLUSH_TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * Stops the scan, on the main thread.
+     */
+    private final Runnable stopScan = new Runnable() {
+        @SuppressLint("MissingPermission")
+        @Override
+        public void run() {
+            if (!mScanning) {
+                return;
+            }
+            mHandler.removeCallbacks(stopScan);
             mBluetoothLeScanner.stopScan(scanCallback);
             mScanning = false;
+            mFlushing = false;
             btnScan.setEnabled(true);
+            // the last batch is processed on the scan thread, update the list after it
+            mScanHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleScanUpdate();
+                }
+            });
         }
+    };
+
+    private final Runnable stopScanAfterTimeout = new Runnable() {
+        @Override
+        public void run() {
+            scanLeDevice(false);
+
+            Toast.makeText(MainActivity.this,
+                    "Scan timeout",
+                    Toast.LENGTH_LONG).show();
+        }
+    };
+
+    /**
+     * Applies the devices that changed since the last update to the list, on the main thread.
+     */
+    private final Runnable applyScanUpdates = new Runnable() {
+        @Override
+        public void run() {
+            mLastScanUpdate = SystemClock.uptimeMillis();
+            adapterLeScanResult.applyChanges(mScanAggregator.drainChanges(), listViewLE);
+        }
+    };
+
+    /**
+     * Schedules an update of the list, no earlier than SCAN_UPDATE_INTERVAL after the last
+     * one. Called from the main and the scan thread.
+     */
+    private void scheduleScanUpdate() {
+        final long next = Math.max(SystemClock.uptimeMillis(), mLastScanUpdate + SCAN_UPDATE_INTERVAL);
+        mHandler.postAtTime(applyScanUpdates, next);
     }
 
     private ScanCallback scanCallback = new ScanCallback() {
@@ -299,21 +399,24 @@ public class MainActivity extends AppCompatActivity {
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
 
-            addBluetoothDevice(result.getDevice());
+            addScanResult(result);
         }
 
-        @SuppressLint("MissingPermission")
         @Override
-        public void onBatchScanResults(List<ScanResult> results) {
+        public void onBatchScanResults(final List<ScanResult> results) {
             super.onBatchScanResults(results);
-            for(ScanResult result : results){
-                /*
-                String foundDevice = result.getDevice() + " ("
-                        + result.getDevice().getName() + ")";
-                addBluetoothDevice(foundDevice);*/
-                addBluetoothDevice(result.getDevice());
-
-            }
+            mScanHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (ScanResult result : results) {
+                        addScanResult(result);
+                    }
+                    if (mFlushing) {
+                        // the flushed batch is processed, the scan can stop now
+                        mHandler.post(stopScan);
+                    }
+                }
+            });
         }
 
         @Override
@@ -324,21 +427,22 @@ public class MainActivity extends AppCompatActivity {
                     Toast.LENGTH_LONG).show();
         }
 
-        @SuppressLint("MissingPermission")
-        private void addBluetoothDevice(BluetoothDevice device){
-            if(!listBluetoothDevice.contains(device)){
-                if (scanOnlyForNamedDevices) {
-                    try {
-                        if (!device.getName().equals("")) {
-                            listBluetoothDevice.add(device);
-                        }
-                        listViewLE.invalidateViews();
-                    } catch (NullPointerException e) {
-                        // do nothing
-                    }
-                } else {
-                    listBluetoothDevice.add(device);
-                }
+        private void addScanResult(ScanResult result) {
+            // the name from the advertisement, BluetoothDevice.getName() is a call into the
+            // Bluetooth service
+            final String name = result.getScanRecord() == null
+                    ? null : result.getScanRecord().getDeviceName();
+            if (mSoftwareFilter && !mScanConfiguration.matches(result)) {
+                return;
+            }
+            if (mScanConfiguration.isNamedDevicesOnly() && (name == null || name.isEmpty())
+                    && mScanAggregator.get(result.getDevice().getAddress()) == null) {
+                return;
+            }
+            final long timestampMillis = result.getTimestampNanos() / 1000000;
+            if (mScanAggregator.onResult(result.getDevice().getAddress(), name,
+                    result.getRssi(), timestampMillis)) {
+                scheduleScanUpdate();
             }
         }
     };
@@ -0,0 +1,134 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The consumer of the {@link NotificationRing}s of all connections. One thread takes the
+ * values from the rings in turn and hands them to the sink, which decodes and dispatches them,
+ * so a slow listener no longer stalls the Bluetooth callback thread.
+ *
+ * The thread parks when all rings are empty, a producer wakes it after adding a value.
+ */
+class NotificationDispatcher {
+
+    /**
+     * Receives the values on the dispatcher thread.
+     */
+    interface Sink {
+        void onNotification(String address, UUID characteristic, byte[] value,
+                            long timestampNanos);
+    }
+
+    // values taken from one ring before the next ring gets its turn
+    static final int BATCH_SIZE = 16;
+    // an upper bound for missed wake ups
+    static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Sink mSink;
+    private final CopyOnWriteArrayList<NotificationRing> mRings = new CopyOnWriteArrayList<>();
+    private final Thread mThread;
+    private volatile boolean mWaiting;
+    private volatile boolean mStopped;
+    private volatile boolean mFinishing;
+
+    NotificationDispatcher(Sink sink) {
+        this(sink, "GattNotificationDispatcher");
+    }
+
+    NotificationDispatcher(Sink sink, String threadName) {
+        mSink = sink;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, threadName);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Creates the ring of a new connection.
+     *
+     * @param policy one of the OVERFLOW_ constants of {@link NotificationRing}
+     */
+    NotificationRing newRing(String address, int policy) {
+        final NotificationRing ring = new NotificationRing(address, this,
+                NotificationRing.DEFAULT_CAPACITY, policy);
+        mRings.add(ring);
+        return ring;
+    }
+
+    /**
+     * Drops the ring of a closed connection with the values it still holds.
+     */
+    void remove(NotificationRing ring) {
+        ring.close();
+        mRings.remove(ring);
+    }
+
+    /**
+     * Called by a producer after it added a value.
+     */
+    void wake() {
+        if (mWaiting) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Stops the thread once all rings are empty, called when no producer adds values anymore.
+     */
+    void finish() {
+        mFinishing = true;
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Stops the thread, values that were not dispatched yet are dropped.
+     */
+    void shutdown() {
+        mStopped = true;
+        for (NotificationRing ring : mRings) {
+            ring.close();
+        }
+        LockSupport.unpark(mThread);
+    }
+
+    private void dispatchLoop() {
+        final NotificationRing.Notification notification = new NotificationRing.Notification();
+        while (!mStopped) {
+            boolean dispatched = false;
+            for (NotificationRing ring : mRings) {
+                for (int i = 0; i < BATCH_SIZE && ring.poll(notification); i++) {
+                    mSink.onNotification(ring.address, notification.characteristic,
+                            notification.value, notification.timestampNanos);
+                    dispatched = true;
+                }
+            }
+            if (!dispatched) {
+                if (mFinishing && isIdle()) {
+                    return;
+                }
+                // a producer that added a value before it saw mWaiting is found by isIdle()
+                mWaiting = true;
+                if (isIdle()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                mWaiting = false;
+            }
+        }
+    }
+
+    private boolean isIdle() {
+        for (NotificationRing ring : mRings) {
+            if (!ring.isEmpty()) {
+                return false;
+            }
+        }
+        return !mStopped;
+    }
+}
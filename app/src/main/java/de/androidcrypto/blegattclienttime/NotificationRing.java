@@ -0,0 +1,281 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The notifications of one connection on their way from the Bluetooth callback thread to the
+ * {@link NotificationDispatcher}, returned by {@link GattClient#getNotificationRing(String)}.
+ *
+ * A ring of preallocated slots with one producer, the callback thread of the connection (the
+ * stack delivers the callbacks of one BluetoothGatt one after another), and one consumer, the
+ * dispatcher thread. The callback only copies the value and its timestamp into the next slot,
+ * decoding and dispatching happen on the dispatcher thread. Values up to {@link #SLOT_SIZE}
+ * bytes are copied without allocating.
+ *
+ * When the ring is full the overflow policy decides:
+ * <ul>
+ * <li>{@link #OVERFLOW_DROP_OLDEST} drops the oldest queued value</li>
+ * <li>{@link #OVERFLOW_COALESCE} replaces the newest queued value of the same characteristic,
+ * so it is delivered earlier than values of other characteristics that arrived before it,
+ * and drops the oldest value if there is none</li>
+ * <li>{@link #OVERFLOW_BLOCK} waits on the callback thread until the dispatcher took a value,
+ * no value is lost but the stack queues the following events</li>
+ * </ul>
+ */
+public final class NotificationRing {
+
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    public static final int OVERFLOW_COALESCE = 1;
+    public static final int OVERFLOW_BLOCK = 2;
+
+    static final int DEFAULT_CAPACITY = 64;
+    // the longest attribute value
+    static final int SLOT_SIZE = 512;
+    static final long BLOCK_PARK_NANOS = 50000;
+
+    /**
+     * A value taken from the ring, reused by the consumer.
+     */
+    static final class Notification {
+        UUID characteristic;
+        byte[] value;
+        long timestampNanos;
+    }
+
+    final String address;
+    private final NotificationDispatcher mDispatcher;
+    private final int mCapacity;
+    private final int mMask;
+    private final UUID[] mCharacteristics;
+    private final byte[][] mValues;
+    private final int[] mLengths;
+    private final long[] mTimestamps;
+    // 1 while the producer writes a slot or the consumer copies it
+    private final AtomicIntegerArray mSlotLocks;
+    // the next slot to take, advanced by the consumer and by the producer when it drops one
+    private final AtomicLong mHead = new AtomicLong();
+    // the next slot to fill, only written by the producer
+    private volatile long mTail;
+    private volatile int mPolicy;
+    private volatile boolean mClosed;
+    // only written by the producer
+    private volatile long mPeak;
+    private volatile long mDropped;
+    private volatile long mCoalesced;
+    private volatile long mBlocked;
+
+    /**
+     * @param capacity the number of slots, a power of two
+     */
+    NotificationRing(String address, NotificationDispatcher dispatcher, int capacity,
+                     int policy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.address = address;
+        mDispatcher = dispatcher;
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mCharacteristics = new UUID[capacity];
+        mValues = new byte[capacity][SLOT_SIZE];
+        mLengths = new int[capacity];
+        mTimestamps = new long[capacity];
+        mSlotLocks = new AtomicIntegerArray(capacity);
+        setPolicy(policy);
+    }
+
+    /**
+     * @param policy one of the OVERFLOW_ constants, applies to the next overflow
+     */
+    void setPolicy(int policy) {
+        mPolicy = checkPolicy(policy);
+    }
+
+    static int checkPolicy(int policy) {
+        if (policy < OVERFLOW_DROP_OLDEST || policy > OVERFLOW_BLOCK) {
+            throw new IllegalArgumentException("unknown overflow policy " + policy);
+        }
+        return policy;
+    }
+
+    /**
+     * @return one of the OVERFLOW_ constants
+     */
+    public int getPolicy() {
+        return mPolicy;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the number of values waiting for the dispatcher
+     */
+    public int getSize() {
+        return (int) (mTail - mHead.get());
+    }
+
+    /**
+     * @return the largest number of values that were waiting at the same time
+     */
+    public long getPeakSize() {
+        return mPeak;
+    }
+
+    /**
+     * @return the number of values that were dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * @return the number of values that replaced a queued value of the same characteristic
+     */
+    public long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /**
+     * @return how often the callback thread had to wait for a free slot
+     */
+    public long getBlockedCount() {
+        return mBlocked;
+    }
+
+    /**
+     * Copies a value into the ring, called by the producer only.
+     */
+    void offer(UUID characteristic, byte[] value, long timestampNanos) {
+        final long tail = mTail;
+        final long head = mHead.get();
+        if (tail - head >= mCapacity) {
+            switch (mPolicy) {
+                case OVERFLOW_COALESCE:
+                    if (coalesce(characteristic, value, timestampNanos, head, tail)) {
+                        mCoalesced = mCoalesced + 1;
+                        return;
+                    }
+                    // nothing queued for the characteristic
+                    dropOldest(head);
+                    break;
+                case OVERFLOW_DROP_OLDEST:
+                    dropOldest(head);
+                    break;
+                case OVERFLOW_BLOCK:
+                    mBlocked = mBlocked + 1;
+                    while (tail - mHead.get() >= mCapacity) {
+                        if (mClosed) {
+                            mDropped = mDropped + 1;
+                            return;
+                        }
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    }
+                    break;
+            }
+        }
+        final int index = (int) tail & mMask;
+        lock(index);
+        write(index, characteristic, value, timestampNanos);
+        mSlotLocks.set(index, 0);
+        mTail = tail + 1;
+        final long size = tail + 1 - mHead.get();
+        if (size > mPeak) {
+            mPeak = size;
+        }
+        mDispatcher.wake();
+    }
+
+    private void dropOldest(long head) {
+        // fails if the consumer took the slot meanwhile
+        if (mHead.compareAndSet(head, head + 1)) {
+            mDropped = mDropped + 1;
+        }
+    }
+
+    private boolean coalesce(UUID characteristic, byte[] value, long timestampNanos,
+                             long head, long tail) {
+        // the slots before the tail were written by this thread, reading them needs no lock
+        for (long position = tail - 1; position >= head; position--) {
+            final int index = (int) position & mMask;
+            if (!characteristic.equals(mCharacteristics[index])) {
+                continue;
+            }
+            lock(index);
+            if (mHead.get() > position) {
+                // the consumer took it while we were looking
+                mSlotLocks.set(index, 0);
+                return false;
+            }
+            write(index, characteristic, value, timestampNanos);
+            mSlotLocks.set(index, 0);
+            return true;
+        }
+        return false;
+    }
+
+    private void write(int index, UUID characteristic, byte[] value, long timestampNanos) {
+        if (value.length > mValues[index].length) {
+            mValues[index] = new byte[value.length];
+        }
+        System.arraycopy(value, 0, mValues[index], 0, value.length);
+        mLengths[index] = value.length;
+        mCharacteristics[index] = characteristic;
+        mTimestamps[index] = timestampNanos;
+    }
+
+    /**
+     * Takes the oldest value, called by the consumer only.
+     *
+     * @param out receives the value in a new array
+     * @return false if the ring is empty
+     */
+    boolean poll(Notification out) {
+        while (true) {
+            final long head = mHead.get();
+            if (head == mTail) {
+                return false;
+            }
+            final int index = (int) head & mMask;
+            lock(index);
+            out.characteristic = mCharacteristics[index];
+            out.value = Arrays.copyOf(mValues[index], mLengths[index]);
+            out.timestampNanos = mTimestamps[index];
+            final boolean taken = mHead.compareAndSet(head, head + 1);
+            mSlotLocks.set(index, 0);
+            if (taken) {
+                return true;
+            }
+            // the producer dropped the slot while we copied it
+        }
+    }
+
+    boolean isEmpty() {
+        return mHead.get() == mTail;
+    }
+
+    /**
+     * Releases a producer waiting for a free slot, further values of a full ring are dropped.
+     */
+    void close() {
+        mClosed = true;
+    }
+
+    private void lock(int index) {
+        // held for the copy of one value only
+        while (!mSlotLocks.compareAndSet(index, 0, 1)) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getSize() + "/" + mCapacity + " notifications queued, peak " + mPeak + ", "
+                + mDropped + " dropped, " + mCoalesced + " coalesced, " + mBlocked + " blocked";
+    }
+}
@@ -0,0 +1,382 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * A Characteristic Presentation Format descriptor (0x2904): the format of the value, a base
+ * 10 exponent, the unit, the name space and the description of the value.
+ *
+ * Vendor characteristics often carry this descriptor instead of a published specification,
+ * {@link #createDecoder()} turns it into a decoder that reads the value the way the
+ * descriptor says. Everything that depends on the descriptor, the field width, sign, scaling
+ * and unit symbol, is resolved once when the decoder is created, so decoding a value is a
+ * switch on the kind of the field and a few shifts.
+ */
+public final class PresentationFormat {
+
+    public static final UUID DESCRIPTOR = GattUuids.fromShortId(0x2904);
+    public static final UUID USER_DESCRIPTION = GattUuids.fromShortId(0x2901);
+
+    // the format types of the Bluetooth SIG assigned numbers
+    public static final int FORMAT_BOOLEAN = 0x01;
+    public static final int FORMAT_UINT2 = 0x02;
+    public static final int FORMAT_UINT4 = 0x03;
+    public static final int FORMAT_UINT8 = 0x04;
+    public static final int FORMAT_UINT12 = 0x05;
+    public static final int FORMAT_UINT16 = 0x06;
+    public static final int FORMAT_UINT24 = 0x07;
+    public static final int FORMAT_UINT32 = 0x08;
+    public static final int FORMAT_UINT48 = 0x09;
+    public static final int FORMAT_UINT64 = 0x0A;
+    public static final int FORMAT_UINT128 = 0x0B;
+    public static final int FORMAT_SINT8 = 0x0C;
+    public static final int FORMAT_SINT12 = 0x0D;
+    public static final int FORMAT_SINT16 = 0x0E;
+    public static final int FORMAT_SINT24 = 0x0F;
+    public static final int FORMAT_SINT32 = 0x10;
+    public static final int FORMAT_SINT48 = 0x11;
+    public static final int FORMAT_SINT64 = 0x12;
+    public static final int FORMAT_SINT128 = 0x13;
+    public static final int FORMAT_FLOAT32 = 0x14;
+    public static final int FORMAT_FLOAT64 = 0x15;
+    public static final int FORMAT_SFLOAT = 0x16;
+    public static final int FORMAT_FLOAT = 0x17;
+    public static final int FORMAT_DUINT16 = 0x18;
+    public static final int FORMAT_UTF8S = 0x19;
+    public static final int FORMAT_UTF16S = 0x1A;
+    public static final int FORMAT_STRUCT = 0x1B;
+
+    public static final int NAMESPACE_BLUETOOTH_SIG = 0x01;
+
+    // the length of the descriptor value
+    static final int LENGTH = 7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private final int format;
+    private final int exponent;
+    private final int unit;
+    private final int namespace;
+    private final int description;
+
+    public PresentationFormat(int format, int exponent, int unit, int namespace,
+                              int description) {
+        this.format = format;
+        this.exponent = exponent;
+        this.unit = unit;
+        this.namespace = namespace;
+        this.description = description;
+    }
+
+    /**
+     * @param value the descriptor value
+     * @return the descriptor or null if the value is too short
+     */
+    public static PresentationFormat parse(byte[] value) {
+        if (value == null || value.length < LENGTH) {
+            return null;
+        }
+        return new PresentationFormat(value[0] & 0xFF, value[1],
+                CharacteristicDecoders.uint16(value, 2), value[4] & 0xFF,
+                CharacteristicDecoders.uint16(value, 5));
+    }
+
+    /**
+     * @return one of the FORMAT_ constants
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the value is the stored integer times 10 to this power, from -128 to 127
+     */
+    public int getExponent() {
+        return exponent;
+    }
+
+    /**
+     * @return the 16 bit UUID of the unit, e.g. 0x272F for degree Celsius
+     */
+    public int getUnit() {
+        return unit;
+    }
+
+    public int getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * @return the description in the name space, e.g. which of several sensors the value
+     * belongs to
+     */
+    public int getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the symbol of the unit like "\u00B0C", an empty string for unitless values and
+     * units without a symbol here
+     */
+    public String getUnitSymbol() {
+        return unitSymbol(unit);
+    }
+
+    /**
+     * Builds a decoder for values in this format.
+     *
+     * @return the decoder or null for the formats that are not decoded: 64 and 128 bit
+     * integers, duint16 and structures
+     */
+    public CharacteristicDecoder createDecoder() {
+        switch (format) {
+            case FORMAT_BOOLEAN:
+                return new Decoder(Decoder.KIND_BOOLEAN, 1, 1, false, 0, "");
+            case FORMAT_UINT2:
+                return integer(1, 2, false);
+            case FORMAT_UINT4:
+                return integer(1, 4, false);
+            case FORMAT_UINT8:
+                return integer(1, 8, false);
+            case FORMAT_UINT12:
+                return integer(2, 12, false);
+            case FORMAT_UINT16:
+                return integer(2, 16, false);
+            case FORMAT_UINT24:
+                return integer(3, 24, false);
+            case FORMAT_UINT32:
+                return integer(4, 32, false);
+            case FORMAT_UINT48:
+                return integer(6, 48, false);
+            case FORMAT_SINT8:
+                return integer(1, 8, true);
+            case FORMAT_SINT12:
+                return integer(2, 12, true);
+            case FORMAT_SINT16:
+                return integer(2, 16, true);
+            case FORMAT_SINT24:
+                return integer(3, 24, true);
+            case FORMAT_SINT32:
+                return integer(4, 32, true);
+            case FORMAT_SINT48:
+                return integer(6, 48, true);
+            case FORMAT_FLOAT32:
+                return new Decoder(Decoder.KIND_FLOAT32, 4, 32, true, exponent, suffix());
+            case FORMAT_FLOAT64:
+                return new Decoder(Decoder.KIND_FLOAT64, 8, 64, true, exponent, suffix());
+            case FORMAT_SFLOAT:
+                return new Decoder(Decoder.KIND_SFLOAT, 2, 16, true, exponent, suffix());
+            case FORMAT_FLOAT:
+                return new Decoder(Decoder.KIND_FLOAT, 4, 32, true, exponent, suffix());
+            case FORMAT_UTF8S:
+                return new Decoder(Decoder.KIND_UTF8, 0, 0, false, 0, "");
+            case FORMAT_UTF16S:
+                return new Decoder(Decoder.KIND_UTF16, 0, 0, false, 0, "");
+            default:
+                return null;
+        }
+    }
+
+    private Decoder integer(int length, int bits, boolean signed) {
+        return new Decoder(Decoder.KIND_INTEGER, length, bits, signed, exponent, suffix());
+    }
+
+    private String suffix() {
+        final String symbol = unitSymbol(unit);
+        return symbol.isEmpty() ? "" : " " + symbol;
+    }
+
+    /**
+     * @param unit the 16 bit UUID of a unit
+     * @return the symbol, an empty string for unitless values and unknown units
+     */
+    static String unitSymbol(int unit) {
+        switch (unit) {
+            case 0x2701:
+                return "m";
+            case 0x2702:
+                return "kg";
+            case 0x2703:
+                return "s";
+            case 0x2704:
+                return "A";
+            case 0x2705:
+                return "K";
+            case 0x2706:
+                return "mol";
+            case 0x2707:
+                return "cd";
+            case 0x2712:
+                return "m/s";
+            case 0x2713:
+                return "m/s\u00B2";
+            case 0x2722:
+                return "Hz";
+            case 0x2723:
+                return "N";
+            case 0x2724:
+                return "Pa";
+            case 0x2725:
+                return "J";
+            case 0x2726:
+                return "W";
+            case 0x2727:
+                return "C";
+            case 0x2728:
+                return "V";
+            case 0x2729:
+                return "F";
+            case 0x272A:
+                return "\u2126";
+            case 0x272F:
+                return "\u00B0C";
+            case 0x2731:
+                return "lx";
+            case 0x2760:
+                return "min";
+            case 0x2761:
+                return "h";
+            case 0x2762:
+                return "d";
+            case 0x2763:
+                return "\u00B0";
+            case 0x2767:
+                return "L";
+            case 0x2780:
+                return "bar";
+            case 0x2781:
+                return "mmHg";
+            case 0x27A6:
+                return "km/h";
+            case 0x27A8:
+                return "rpm";
+            case 0x27AB:
+                return "kWh";
+            case 0x27AC:
+                return "\u00B0F";
+            case 0x27AD:
+                return "%";
+            case 0x27AE:
+                return "\u2030";
+            case 0x27AF:
+                return "bpm";
+            case 0x27B0:
+                return "Ah";
+            case 0x27B1:
+                return "mg/dL";
+            case 0x27B2:
+                return "mmol/L";
+            case 0x27C3:
+                return "dB";
+            case 0x27C4:
+                return "ppm";
+            case 0x27C5:
+                return "ppb";
+            default:
+                return "";
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PresentationFormat)) return false;
+        final PresentationFormat other = (PresentationFormat) o;
+        return format == other.format && exponent == other.exponent && unit == other.unit
+                && namespace == other.namespace && description == other.description;
+    }
+
+    @Override
+    public int hashCode() {
+        return (((format * 31 + exponent) * 31 + unit) * 31 + namespace) * 31 + description;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("format 0x%02X, exponent %d, unit 0x%04X, namespace %d, "
+                + "description 0x%04X", format, exponent, unit, namespace, description);
+    }
+
+    /**
+     * The decoder of one presentation format, shared by all devices with the same descriptor.
+     */
+    static final class Decoder implements CharacteristicDecoder {
+        static final int KIND_INTEGER = 0;
+        static final int KIND_BOOLEAN = 1;
+        static final int KIND_SFLOAT = 2;
+        static final int KIND_FLOAT = 3;
+        static final int KIND_FLOAT32 = 4;
+        static final int KIND_FLOAT64 = 5;
+        static final int KIND_UTF8 = 6;
+        static final int KIND_UTF16 = 7;
+
+        private final int mKind;
+        // the bytes of the field, 0 for the strings that take the whole value
+        private final int mLength;
+        // moves the bits of the field to the top of a long and back, extending the sign
+        private final int mShift;
+        private final boolean mSigned;
+        private final int mExponent;
+        // the unit with a leading space or empty
+        private final String mSuffix;
+
+        Decoder(int kind, int length, int bits, boolean signed, int exponent, String suffix) {
+            mKind = kind;
+            mLength = length;
+            mShift = 64 - bits;
+            mSigned = signed;
+            mExponent = exponent;
+            mSuffix = suffix;
+        }
+
+        @Override
+        public boolean decode(byte[] value, StringBuilder out) {
+            if (value.length < mLength) return false;
+            switch (mKind) {
+                case KIND_INTEGER:
+                    final long raw = mSigned ? (littleEndian(value, mLength) << mShift) >> mShift
+                            : (littleEndian(value, mLength) << mShift) >>> mShift;
+                    Ieee11073Float.appendDecimal(out, raw, mExponent);
+                    break;
+                case KIND_BOOLEAN:
+                    out.append((value[0] & 0x01) != 0);
+                    break;
+                case KIND_SFLOAT:
+                    Ieee11073Float.appendSfloat(out, Ieee11073Float.rawSfloat(value, 0),
+                            mExponent);
+                    break;
+                case KIND_FLOAT:
+                    Ieee11073Float.appendFloat(out, Ieee11073Float.rawFloat(value, 0), mExponent);
+                    break;
+                case KIND_FLOAT32:
+                    // appended as float, so 21.53 is not shown as 21.530000686645508
+                    final float single = Float.intBitsToFloat(Ieee11073Float.rawFloat(value, 0));
+                    out.append(mExponent == 0 ? single
+                            : (float) Ieee11073Float.scale(single, mExponent));
+                    break;
+                case KIND_FLOAT64:
+                    final double number = Double.longBitsToDouble(littleEndian(value, 8));
+                    out.append(mExponent == 0 ? number : Ieee11073Float.scale(number, mExponent));
+                    break;
+                case KIND_UTF8:
+                    out.append(new String(value, UTF_8));
+                    return true;
+                default:
+                    out.append(new String(value, UTF_16LE));
+                    return true;
+            }
+            out.append(mSuffix);
+            return true;
+        }
+
+        private static long littleEndian(byte[] value, int length) {
+            long raw = 0;
+            for (int i = length - 1; i >= 0; i--) {
+                raw = (raw << 8) | (value[i] & 0xFF);
+            }
+            return raw;
+        }
+    }
+}
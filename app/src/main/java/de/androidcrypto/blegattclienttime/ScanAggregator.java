@@ -0,0 +1,83 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Collects the scan results per device address.
+ *
+ * A device advertises many times per second, every result updates its entry in a hash map
+ * and marks it as changed. The UI does not redraw per result but takes the changed devices
+ * with {@link #drainChanges()} at a bounded rate. Results may arrive on any thread.
+ */
+class ScanAggregator {
+
+    private final HashMap<String, ScannedDevice> mDevices = new HashMap<>();
+    // the devices changed since the last drain in the order of their first change
+    private final LinkedHashMap<String, ScannedDevice> mChanged = new LinkedHashMap<>();
+
+    /**
+     * Records an advertisement.
+     *
+     * @param name           the advertised name, null if the advertisement had none
+     * @param timestampMillis the time of the advertisement
+     * @return true if this is the first change since the last drain, the caller should
+     * schedule an update of the UI then
+     */
+    synchronized boolean onResult(String address, String name, int rssi, long timestampMillis) {
+        ScannedDevice device = mDevices.get(address);
+        final boolean changed;
+        if (device == null) {
+            device = new ScannedDevice(address, name, rssi, timestampMillis);
+            mDevices.put(address, device);
+            changed = true;
+        } else {
+            // the name is only part of some advertisements, keep the last one known
+            changed = device.rssi != rssi || (name != null && !name.equals(device.name));
+            if (name != null) {
+                device.name = name;
+            }
+            device.rssi = rssi;
+            device.lastSeenMillis = Math.max(device.lastSeenMillis, timestampMillis);
+            device.seenCount++;
+        }
+        if (!changed) {
+            return false;
+        }
+        final boolean first = mChanged.isEmpty();
+        mChanged.put(address, device);
+        return first;
+    }
+
+    /**
+     * @return copies of the devices that changed since the last call, new devices in the
+     * order they were found
+     */
+    synchronized List<ScannedDevice> drainChanges() {
+        final List<ScannedDevice> changes = new ArrayList<>(mChanged.size());
+        for (ScannedDevice device : mChanged.values()) {
+            changes.add(device.copy());
+        }
+        mChanged.clear();
+        return changes;
+    }
+
+    /**
+     * @return a copy of the device or null if it was not found
+     */
+    synchronized ScannedDevice get(String address) {
+        final ScannedDevice device = mDevices.get(address);
+        return device == null ? null : device.copy();
+    }
+
+    synchronized int size() {
+        return mDevices.size();
+    }
+
+    synchronized void clear() {
+        mDevices.clear();
+        mChanged.clear();
+    }
+}
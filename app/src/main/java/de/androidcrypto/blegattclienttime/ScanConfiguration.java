@@ -0,0 +1,190 @@
+package de.androidcrypto.blegattclienttime;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Describes which devices a scan looks for and how the controller reports them.
+ *
+ * Filters on service UUIDs are handed to the Bluetooth controller, so advertisements of other
+ * devices do not wake up the application processor. With a report delay the controller
+ * collects the results and delivers them in batches. If the controller can not offload the
+ * filter or the batching, the scan runs without them and the UUIDs are matched in software.
+ */
+class ScanConfiguration {
+
+    static final UUID CURRENT_TIME_SERVICE = GattUuids.fromShortId(0x1805);
+
+    private final List<UUID> mServiceUuids = new ArrayList<>();
+    private int mScanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+    private long mReportDelayMillis;
+    private boolean mNamedDevicesOnly;
+
+    /**
+     * @return the configuration for time servers: devices advertising the Current Time
+     * Service, reported in batches once per second
+     */
+    static ScanConfiguration forCurrentTimeServers() {
+        return forServices(Collections.singletonList(CURRENT_TIME_SERVICE));
+    }
+
+    /**
+     * @return the configuration for devices advertising any of the services, reported in
+     * batches once per second
+     */
+    static ScanConfiguration forServices(List<UUID> serviceUuids) {
+        final ScanConfiguration configuration = new ScanConfiguration()
+                .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
+                .setReportDelayMillis(1000);
+        for (UUID serviceUuid : serviceUuids) {
+            configuration.addServiceUuid(serviceUuid);
+        }
+        return configuration;
+    }
+
+    /**
+     * Parses the service UUIDs the user entered, separated by commas or white space, each
+     * in a form {@link GattUuids#parse(String)} accepts, e.g. "1805, 180D".
+     *
+     * @throws IllegalArgumentException if an entry is not a UUID
+     */
+    static List<UUID> parseServiceUuids(String text) {
+        final List<UUID> uuids = new ArrayList<>();
+        for (String entry : text.split("[,\\s]+")) {
+            if (!entry.isEmpty()) {
+                uuids.add(GattUuids.parse(entry));
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * @return the configuration for all devices that advertise a name, reported at once
+     */
+    static ScanConfiguration forNamedDevices() {
+        return new ScanConfiguration()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setNamedDevicesOnly(true);
+    }
+
+    /**
+     * Adds a service UUID, a device matches if it advertises any of the UUIDs. Without UUIDs
+     * all devices match.
+     */
+    ScanConfiguration addServiceUuid(UUID serviceUuid) {
+        mServiceUuids.add(serviceUuid);
+        return this;
+    }
+
+    List<UUID> getServiceUuids() {
+        return Collections.unmodifiableList(mServiceUuids);
+    }
+
+    /**
+     * @param scanMode one of the ScanSettings.SCAN_MODE_ constants
+     */
+    ScanConfiguration setScanMode(int scanMode) {
+        mScanMode = scanMode;
+        return this;
+    }
+
+    /**
+     * @param reportDelayMillis 0 to report every result at once, otherwise the time the
+     *                          controller collects results before they are delivered as batch
+     */
+    ScanConfiguration setReportDelayMillis(long reportDelayMillis) {
+        if (reportDelayMillis < 0) {
+            throw new IllegalArgumentException("reportDelayMillis must not be negative");
+        }
+        mReportDelayMillis = reportDelayMillis;
+        return this;
+    }
+
+    long getReportDelayMillis() {
+        return mReportDelayMillis;
+    }
+
+    /**
+     * @param namedDevicesOnly true to ignore devices that did not advertise a name
+     */
+    ScanConfiguration setNamedDevicesOnly(boolean namedDevicesOnly) {
+        mNamedDevicesOnly = namedDevicesOnly;
+        return this;
+    }
+
+    boolean isNamedDevicesOnly() {
+        return mNamedDevicesOnly;
+    }
+
+    /**
+     * @return true if the UUIDs have to be matched by {@link #matches(ScanResult)} because the
+     * controller can not filter
+     */
+    boolean usesSoftwareFilter(BluetoothAdapter adapter) {
+        return !mServiceUuids.isEmpty() && !adapter.isOffloadedFilteringSupported();
+    }
+
+    /**
+     * @return the filters for startScan, null if the scan runs unfiltered
+     */
+    List<ScanFilter> buildFilters(BluetoothAdapter adapter) {
+        if (mServiceUuids.isEmpty() || usesSoftwareFilter(adapter)) {
+            return null;
+        }
+        final List<ScanFilter> filters = new ArrayList<>(mServiceUuids.size());
+        for (UUID serviceUuid : mServiceUuids) {
+            filters.add(new ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(serviceUuid))
+                    .build());
+        }
+        return filters;
+    }
+
+    /**
+     * @return true if the controller delivers the results in batches, only then
+     * flushPendingScanResults has anything to deliver
+     */
+    boolean usesBatching(BluetoothAdapter adapter) {
+        return mReportDelayMillis > 0 && adapter.isOffloadedScanBatchingSupported();
+    }
+
+    ScanSettings buildSettings(BluetoothAdapter adapter) {
+        final ScanSettings.Builder builder = new ScanSettings.Builder()
+                .setScanMode(mScanMode);
+        // startScan fails with a report delay if the controller can not batch
+        if (usesBatching(adapter)) {
+            builder.setReportDelay(mReportDelayMillis);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Matches a result against the service UUIDs in software, needed if
+     * {@link #usesSoftwareFilter(BluetoothAdapter)} returned true.
+     */
+    boolean matches(ScanResult result) {
+        if (mServiceUuids.isEmpty()) {
+            return true;
+        }
+        final ScanRecord record = result.getScanRecord();
+        final List<ParcelUuid> advertised = record == null ? null : record.getServiceUuids();
+        if (advertised == null) {
+            return false;
+        }
+        for (ParcelUuid uuid : advertised) {
+            if (mServiceUuids.contains(uuid.getUuid())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+package de.androidcrypto.blegattclienttime;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Shows the scanned devices in the order they were found.
+ *
+ * Changes from the {@link ScanAggregator} are applied as a diff: if devices were added the
+ * list is refreshed, otherwise only the visible rows of changed devices are bound again.
+ */
+class ScanResultAdapter extends BaseAdapter {
+
+    private final LayoutInflater mInflater;
+    private final ArrayList<ScannedDevice> mDevices = new ArrayList<>();
+    private final HashMap<String, Integer> mPositions = new HashMap<>();
+    private final StringBuilder mText = new StringBuilder(64);
+
+    ScanResultAdapter(Context context) {
+        mInflater = LayoutInflater.from(context);
+    }
+
+    void clear() {
+        mDevices.clear();
+        mPositions.clear();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Applies the changed devices, must be called on the main thread.
+     */
+    void applyChanges(List<ScannedDevice> changes, ListView listView) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        boolean added = false;
+        for (ScannedDevice device : changes) {
+            final Integer position = mPositions.get(device.address);
+            if (position == null) {
+                mPositions.put(device.address, mDevices.size());
+                mDevices.add(device);
+                added = true;
+            } else {
+                mDevices.set(position, device);
+            }
+        }
+        if (added) {
+            notifyDataSetChanged();
+            return;
+        }
+        final int first = listView.getFirstVisiblePosition();
+        final int last = listView.getLastVisiblePosition();
+        for (ScannedDevice device : changes) {
+            final int position = mPositions.get(device.address);
+            if (position >= first && position <= last) {
+                final View row = listView.getChildAt(position - first);
+                if (row != null) {
+                    bind((TextView) row, device);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mDevices.size();
+    }
+
+    @Override
+    public ScannedDevice getItem(int position) {
+        return mDevices.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        // devices are only appended, a position always shows the same device
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        final TextView view = convertView != null ? (TextView) convertView
+                : (TextView) mInflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        bind(view, mDevices.get(position));
+        return view;
+    }
+
+    private void bind(TextView view, ScannedDevice device) {
+        mText.setLength(0);
+        mText.append(device.name != null ? device.name : "(unknown)").append('\n')
+                .append(device.address).append("   ").append(device.rssi).append(" dBm");
+        view.setText(mText.toString());
+    }
+}
@@ -0,0 +1,56 @@
+package de.androidcrypto.blegattclienttime;
+
+/**
+ * A device found by the scan, the state of its last advertisement.
+ */
+public class ScannedDevice {
+
+    final String address;
+    String name;
+    int rssi;
+    long lastSeenMillis;
+    int seenCount;
+
+    ScannedDevice(String address, String name, int rssi, long lastSeenMillis) {
+        this.address = address;
+        this.name = name;
+        this.rssi = rssi;
+        this.lastSeenMillis = lastSeenMillis;
+        this.seenCount = 1;
+    }
+
+    ScannedDevice copy() {
+        final ScannedDevice copy = new ScannedDevice(address, name, rssi, lastSeenMillis);
+        copy.seenCount = seenCount;
+        return copy;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the name from the advertisement or scan response, null if none was received
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * @return the time of the last advertisement in the elapsed realtime base of the scan
+     */
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    /**
+     * @return the number of advertisements received from the device
+     */
+    public int getSeenCount() {
+        return seenCount;
+    }
+}
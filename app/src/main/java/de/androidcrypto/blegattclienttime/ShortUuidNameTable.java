@@ -0,0 +1,71 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Read only name table for GATT attributes.
+ *
+ * Names of UUIDs on the Bluetooth SIG base are stored in a sorted int array of short ids with
+ * a parallel name array, a lookup is a binary search on primitives and needs neither
+ * UUID.toString() nor a String hash. The few names of other 128 bit UUIDs stay in a map.
+ */
+class ShortUuidNameTable {
+
+    private final int[] mShortIds;
+    private final String[] mNames;
+    private final HashMap<UUID, String> mLongNames = new HashMap<>();
+
+    /**
+     * @param attributes the names keyed by the UUID string, upper or lower case
+     */
+    ShortUuidNameTable(Map<String, String> attributes) {
+        // sorted by short id, a key given twice in different case is kept once
+        TreeMap<Integer, String> shortNames = new TreeMap<>();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            UUID uuid = UUID.fromString(entry.getKey());
+            int shortId = GattUuids.toShortId(uuid);
+            if (shortId >= 0) {
+                shortNames.put(shortId, entry.getValue());
+            } else {
+                mLongNames.put(uuid, entry.getValue());
+            }
+        }
+        mShortIds = new int[shortNames.size()];
+        mNames = new String[shortNames.size()];
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : shortNames.entrySet()) {
+            mShortIds[i] = entry.getKey();
+            mNames[i++] = entry.getValue();
+        }
+    }
+
+    String get(UUID uuid, String defaultName) {
+        int shortId = GattUuids.toShortId(uuid);
+        String name;
+        if (shortId >= 0) {
+            int index = Arrays.binarySearch(mShortIds, shortId);
+            name = index >= 0 ? mNames[index] : null;
+        } else {
+            name = mLongNames.get(uuid);
+        }
+        return name == null ? defaultName : name;
+    }
+
+    /**
+     * Adapter for callers that still hold the UUID as a string.
+     */
+    String get(String uuid, String defaultName) {
+        if (uuid == null) {
+            return defaultName;
+        }
+        try {
+            return get(UUID.fromString(uuid), defaultName);
+        } catch (IllegalArgumentException e) {
+            return defaultName;
+        }
+    }
+}
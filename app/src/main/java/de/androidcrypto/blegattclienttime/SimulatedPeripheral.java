@@ -0,0 +1,834 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A GATT server that runs on a plain JVM, for tests, benchmarks and load tests without a radio.
+ *
+ * The peripheral offers the services the app knows: Current Time (0x1805), Battery (0x180F) and
+ * Heart Rate (0x180D), and a vendor service whose temperature characteristic is only described
+ * by its Presentation Format and User Description descriptors. Each {@link #createTransport(GattTransport.Callback) transport} is one
+ * central connected to it and behaves like the Android stack: one outstanding request, every
+ * request and response travels with the configured latency and jitter, notifications are sent
+ * at the configured rate once the Client Characteristic Configuration was written and are cut
+ * to the negotiated MTU. All callbacks of a peripheral arrive in order on one thread.
+ */
+public class SimulatedPeripheral {
+
+    public static final UUID CURRENT_TIME_SERVICE = GattUuids.fromShortId(0x1805);
+    public static final UUID BATTERY_SERVICE = GattUuids.fromShortId(0x180F);
+    public static final UUID HEART_RATE_SERVICE = GattUuids.fromShortId(0x180D);
+
+    public static final UUID CURRENT_TIME = GattUuids.fromShortId(0x2A2B);
+    public static final UUID LOCAL_TIME_INFORMATION = GattUuids.fromShortId(0x2A0F);
+    public static final UUID BATTERY_LEVEL = GattUuids.fromShortId(0x2A19);
+    public static final UUID HEART_RATE_MEASUREMENT = GattUuids.fromShortId(0x2A37);
+    public static final UUID BODY_SENSOR_LOCATION = GattUuids.fromShortId(0x2A38);
+
+    // a vendor service that is not in any table of the app
+    public static final UUID VENDOR_SERVICE =
+            UUID.fromString("6e3a0001-5c2b-4f8e-9d1a-3b7c2e4f5a60");
+    public static final UUID VENDOR_TEMPERATURE =
+            UUID.fromString("6e3a0002-5c2b-4f8e-9d1a-3b7c2e4f5a60");
+
+    static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION = GattUuids.fromShortId(0x2902);
+
+    // sint16, exponent -2, degree Celsius, Bluetooth SIG name space, "unknown" description
+    private static final byte[] VENDOR_TEMPERATURE_FORMAT =
+            {0x0E, (byte) -2, 0x2F, 0x27, 0x01, 0x00, 0x00};
+    private static final String VENDOR_TEMPERATURE_DESCRIPTION = "Board Temperature";
+
+    // Current Time Service: "Data field ignored", the written time was not accepted
+    private static final int STATUS_DATA_FIELD_IGNORED = 0x80;
+
+    /**
+     * The link parameters of a simulated peripheral.
+     */
+    public static class Config {
+        long latencyNanos = TimeUnit.MILLISECONDS.toNanos(15);
+        long jitterNanos = TimeUnit.MILLISECONDS.toNanos(5);
+        int mtu = 247;
+        boolean phy2M = true;
+        long notificationIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+
+        /**
+         * Sets the one way latency, a read takes twice as long.
+         */
+        public Config setLatency(long latency, TimeUnit unit) {
+            latencyNanos = unit.toNanos(latency);
+            return this;
+        }
+
+        /**
+         * Sets the maximum deviation from the latency, each message gets an equally
+         * distributed random deviation.
+         */
+        public Config setJitter(long jitter, TimeUnit unit) {
+            jitterNanos = unit.toNanos(jitter);
+            return this;
+        }
+
+        /**
+         * Sets the largest MTU the peripheral accepts in an exchange, 23..517.
+         */
+        public Config setMtu(int mtu) {
+            if (mtu < GattTransport.DEFAULT_MTU || mtu > 517) {
+                throw new IllegalArgumentException("mtu out of range: " + mtu);
+            }
+            this.mtu = mtu;
+            return this;
+        }
+
+        /**
+         * Sets whether the peripheral accepts the 2M PHY, the default, or stays on 1M.
+         */
+        public Config setPhy2M(boolean supported) {
+            phy2M = supported;
+            return this;
+        }
+
+        /**
+         * Sets the interval between two notifications of a characteristic.
+         */
+        public Config setNotificationInterval(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            notificationIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+    }
+
+    private final String mAddress;
+    private final Config mConfig;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final List<GattServiceInfo> mServices;
+    private final CopyOnWriteArrayList<Link> mLinks = new CopyOnWriteArrayList<>();
+
+    // the state of the server, the values are only built on the executor thread
+    private final TimeZone mTimeZone;
+    private final Calendar mCalendar;
+    private final CurrentTime mWrittenTime;
+    private volatile long mClockOffsetMillis;
+    private volatile int mBatteryLevel = 100;
+    private volatile int mHeartRate = 72;
+    private volatile boolean mConnectable = true;
+
+    public SimulatedPeripheral(String address, Config config) {
+        this(address, config, TimeZone.getDefault());
+    }
+
+    /**
+     * @param timeZone the time zone of the local time the Current Time characteristic reports
+     */
+    public SimulatedPeripheral(final String address, Config config, TimeZone timeZone) {
+        mAddress = address;
+        mConfig = config;
+        mTimeZone = timeZone;
+        mCalendar = Calendar.getInstance(timeZone);
+        mWrittenTime = new CurrentTime(timeZone);
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SimulatedPeripheral " + address);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.setRemoveOnCancelPolicy(true);
+        mServices = createServices();
+    }
+
+    private static List<GattServiceInfo> createServices() {
+        final List<UUID> cccd = Collections.singletonList(CLIENT_CHARACTERISTIC_CONFIGURATION);
+        final List<UUID> none = Collections.emptyList();
+        return Collections.unmodifiableList(Arrays.asList(
+                new GattServiceInfo(CURRENT_TIME_SERVICE, Arrays.asList(
+                        new GattCharacteristicInfo(CURRENT_TIME, GattCharacteristicInfo.PROPERTY_READ
+                                | GattCharacteristicInfo.PROPERTY_WRITE
+                                | GattCharacteristicInfo.PROPERTY_NOTIFY, cccd),
+                        new GattCharacteristicInfo(LOCAL_TIME_INFORMATION,
+                                GattCharacteristicInfo.PROPERTY_READ, none))),
+                new GattServiceInfo(BATTERY_SERVICE, Collections.singletonList(
+                        new GattCharacteristicInfo(BATTERY_LEVEL, GattCharacteristicInfo.PROPERTY_READ
+                                | GattCharacteristicInfo.PROPERTY_NOTIFY, cccd))),
+                new GattServiceInfo(HEART_RATE_SERVICE, Arrays.asList(
+                        new GattCharacteristicInfo(HEART_RATE_MEASUREMENT,
+                                GattCharacteristicInfo.PROPERTY_NOTIFY, cccd),
+                        new GattCharacteristicInfo(BODY_SENSOR_LOCATION,
+                                GattCharacteristicInfo.PROPERTY_READ, none))),
+                new GattServiceInfo(VENDOR_SERVICE, Collections.singletonList(
+                        new GattCharacteristicInfo(VENDOR_TEMPERATURE,
+                                GattCharacteristicInfo.PROPERTY_READ
+                                        | GattCharacteristicInfo.PROPERTY_NOTIFY,
+                                Arrays.asList(CLIENT_CHARACTERISTIC_CONFIGURATION,
+                                        PresentationFormat.USER_DESCRIPTION,
+                                        PresentationFormat.DESCRIPTOR))))));
+    }
+
+    /**
+     * @return a factory that connects to the peripheral with the matching address
+     */
+    public static GattTransport.Factory factory(final SimulatedPeripheral... peripherals) {
+        return new GattTransport.Factory() {
+            @Override
+            public GattTransport create(String address, GattTransport.Callback callback) {
+                for (SimulatedPeripheral peripheral : peripherals) {
+                    if (peripheral.mAddress.equalsIgnoreCase(address)) {
+                        return peripheral.createTransport(callback);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * Creates the transport for a new central, it is not connected yet.
+     */
+    public GattTransport createTransport(GattTransport.Callback callback) {
+        return new Link(callback);
+    }
+
+    /**
+     * Sets the difference between the clock of the peripheral and System.currentTimeMillis().
+     */
+    public void setClockOffsetMillis(long offsetMillis) {
+        mClockOffsetMillis = offsetMillis;
+    }
+
+    public long getClockOffsetMillis() {
+        return mClockOffsetMillis;
+    }
+
+    public void setBatteryLevel(int level) {
+        mBatteryLevel = level;
+    }
+
+    public void setHeartRate(int beatsPerMinute) {
+        mHeartRate = beatsPerMinute;
+    }
+
+    /**
+     * @param connectable false lets connection attempts fail with status 133
+     */
+    public void setConnectable(boolean connectable) {
+        mConnectable = connectable;
+    }
+
+    /**
+     * Drops all links as if the peripheral went out of range, the centrals see a
+     * disconnect with status 8 (connection timeout).
+     */
+    public void simulateLinkLoss() {
+        for (Link link : mLinks) {
+            link.drop(GattTransport.STATUS_CONNECTION_TIMEOUT);
+        }
+    }
+
+    /**
+     * Stops the thread of the peripheral, all transports stop delivering callbacks.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @param priority the connection priority of the link, the configured latency is the one of
+     *                 the balanced priority, a high priority halves it, low power multiplies it
+     *                 by 2.5 like the longer connection interval
+     */
+    private long delayNanos(int priority) {
+        final long jitter = mConfig.jitterNanos;
+        final long deviation = jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0;
+        final long delay = Math.max(0, mConfig.latencyNanos + deviation);
+        switch (priority) {
+            case GattTransport.CONNECTION_PRIORITY_HIGH:
+                return delay / 2;
+            case GattTransport.CONNECTION_PRIORITY_LOW_POWER:
+                return delay * 5 / 2;
+            default:
+                return delay;
+        }
+    }
+
+    private GattCharacteristicInfo findCharacteristic(UUID service, UUID characteristic) {
+        for (GattServiceInfo info : mServices) {
+            if (service == null || info.getUuid().equals(service)) {
+                final GattCharacteristicInfo found = info.getCharacteristic(characteristic);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the current value of a characteristic, only called on the executor thread.
+     */
+    private byte[] readValue(UUID characteristic) {
+        if (VENDOR_TEMPERATURE.equals(characteristic)) {
+            return vendorTemperature();
+        }
+        switch (GattUuids.toShortId(characteristic)) {
+            case 0x2A2B:
+                return currentTime();
+            case 0x2A0F:
+                return localTimeInformation();
+            case 0x2A19:
+                return new byte[]{(byte) mBatteryLevel};
+            case 0x2A37:
+                return heartRateMeasurement();
+            case 0x2A38:
+                // chest
+                return new byte[]{1};
+            default:
+                return new byte[0];
+        }
+    }
+
+    /**
+     * Applies a written value, only called on the executor thread.
+     *
+     * @return the GATT status of the write
+     */
+    private int writeValue(UUID characteristic, byte[] value) {
+        if (!CURRENT_TIME.equals(characteristic)) {
+            return GattTransport.STATUS_WRITE_NOT_PERMITTED;
+        }
+        if (!CurrentTimeService.decode(value, mWrittenTime)) {
+            return STATUS_DATA_FIELD_IGNORED;
+        }
+        mClockOffsetMillis = mWrittenTime.getEpochMillis() - System.currentTimeMillis();
+        return GattTransport.STATUS_SUCCESS;
+    }
+
+    private byte[] currentTime() {
+        final long now = System.currentTimeMillis() + mClockOffsetMillis;
+        final Calendar calendar = mCalendar;
+        calendar.setTimeInMillis(now);
+        final int year = calendar.get(Calendar.YEAR);
+        // Calendar counts Sunday = 1 .. Saturday = 7, Bluetooth Monday = 1 .. Sunday = 7
+        final int dayOfWeek = (calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7 + 1;
+        return new byte[]{
+                (byte) year, (byte) (year >> 8),
+                (byte) (calendar.get(Calendar.MONTH) + 1),
+                (byte) calendar.get(Calendar.DAY_OF_MONTH),
+                (byte) calendar.get(Calendar.HOUR_OF_DAY),
+                (byte) calendar.get(Calendar.MINUTE),
+                (byte) calendar.get(Calendar.SECOND),
+                (byte) dayOfWeek,
+                (byte) (calendar.get(Calendar.MILLISECOND) * 256 / 1000),
+                0
+        };
+    }
+
+    private byte[] localTimeInformation() {
+        final long now = System.currentTimeMillis() + mClockOffsetMillis;
+        // both offsets are given in steps of 15 minutes
+        final int quarterHour = 15 * 60 * 1000;
+        final int dst = mTimeZone.inDaylightTime(new Date(now))
+                ? mTimeZone.getDSTSavings() / quarterHour : 0;
+        return new byte[]{(byte) (mTimeZone.getRawOffset() / quarterHour), (byte) dst};
+    }
+
+    private byte[] heartRateMeasurement() {
+        final int heartRate = Math.max(30, mHeartRate + ThreadLocalRandom.current().nextInt(-2, 3));
+        // RR interval in 1/1024 s
+        final int rr = 60 * 1024 / heartRate;
+        // flags: UINT8 format, sensor contact supported and detected, RR interval present
+        return new byte[]{0x16, (byte) heartRate, (byte) rr, (byte) (rr >> 8)};
+    }
+
+    private byte[] vendorTemperature() {
+        // 21.00 to 21.99 degree Celsius in 0.01 steps
+        final int temperature = 2100 + ThreadLocalRandom.current().nextInt(100);
+        return new byte[]{(byte) temperature, (byte) (temperature >> 8)};
+    }
+
+    /**
+     * The value of a descriptor other than the CCCD, only called on the executor thread.
+     */
+    private static byte[] readDescriptorValue(UUID descriptor) {
+        if (PresentationFormat.DESCRIPTOR.equals(descriptor)) {
+            return VENDOR_TEMPERATURE_FORMAT.clone();
+        }
+        return VENDOR_TEMPERATURE_DESCRIPTION.getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * One central connected to the peripheral.
+     */
+    private final class Link implements GattTransport {
+
+        private final Callback mCallback;
+        private final Map<UUID, ScheduledFuture<?>> mNotifications = new HashMap<>();
+        private final Map<UUID, Boolean> mLocalNotifications = new HashMap<>();
+        private final Map<UUID, byte[]> mCccd = new HashMap<>();
+        private int mState = STATE_DISCONNECTED;
+        private boolean mDiscovered;
+        private boolean mClosed;
+        private int mMtu = DEFAULT_MTU;
+        private volatile int mPriority = CONNECTION_PRIORITY_BALANCED;
+        // identifies the outstanding request, responses of an older generation are dropped
+        private int mGeneration;
+        private boolean mBusy;
+        private long mLastDeliveryNanos;
+
+        Link(Callback callback) {
+            mCallback = callback;
+            mLinks.add(this);
+        }
+
+        @Override
+        public String getAddress() {
+            return mAddress;
+        }
+
+        @Override
+        public synchronized boolean connect() {
+            if (mClosed) {
+                return false;
+            }
+            if (mState != STATE_DISCONNECTED) {
+                return true;
+            }
+            mState = STATE_CONNECTING;
+            final int generation = ++mGeneration;
+            deliver(generation, new Runnable() {
+                @Override
+                public void run() {
+                    final boolean connected = mConnectable;
+                    synchronized (Link.this) {
+                        mState = connected ? STATE_CONNECTED : STATE_DISCONNECTED;
+                        mMtu = DEFAULT_MTU;
+                        mPriority = CONNECTION_PRIORITY_BALANCED;
+                        mBusy = false;
+                    }
+                    mCallback.onConnectionStateChange(connected ? STATUS_SUCCESS : STATUS_ERROR,
+                            connected ? STATE_CONNECTED : STATE_DISCONNECTED);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            drop(STATUS_SUCCESS);
+        }
+
+        void drop(final int status) {
+            final int generation;
+            synchronized (this) {
+                if (mClosed || mState == STATE_DISCONNECTED) {
+                    return;
+                }
+                stopNotifications();
+                mState = STATE_DISCONNECTED;
+                mBusy = false;
+                generation = ++mGeneration;
+            }
+            deliver(generation, new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onConnectionStateChange(status, STATE_DISCONNECTED);
+                }
+            });
+        }
+
+        @Override
+        public synchronized void close() {
+            mClosed = true;
+            mState = STATE_DISCONNECTED;
+            stopNotifications();
+            mLinks.remove(this);
+        }
+
+        private void stopNotifications() {
+            for (ScheduledFuture<?> notification : mNotifications.values()) {
+                notification.cancel(false);
+            }
+            mNotifications.clear();
+            // like a peripheral without bonding the configuration is lost with the link
+            mCccd.clear();
+        }
+
+        @Override
+        public boolean discoverServices() {
+            final int generation = startRequest();
+            if (generation < 0) {
+                return false;
+            }
+            request(generation, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Link.this) {
+                        mDiscovered = true;
+                    }
+                    respond(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onServicesDiscovered(STATUS_SUCCESS);
+                        }
+                    });
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized List<GattServiceInfo> getServices() {
+            return mDiscovered ? mServices : Collections.<GattServiceInfo>emptyList();
+        }
+
+        @Override
+        public boolean readCharacteristic(final UUID service, final UUID characteristic) {
+            final GattCharacteristicInfo info = findCharacteristic(service, characteristic);
+            if (info == null) {
+                return false;
+            }
+            final int generation = startRequest();
+            if (generation < 0) {
+                return false;
+            }
+            request(generation, new Runnable() {
+                @Override
+                public void run() {
+                    final boolean readable = info.hasProperty(GattCharacteristicInfo.PROPERTY_READ);
+                    // the value is taken when the request reaches the peripheral
+                    final byte[] value = readable ? readValue(characteristic) : null;
+                    respond(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onCharacteristicRead(service, characteristic, value,
+                                    readable ? STATUS_SUCCESS : STATUS_READ_NOT_PERMITTED);
+                        }
+                    });
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristic(final UUID service, final UUID characteristic,
+                                           byte[] value, final int writeType) {
+            final GattCharacteristicInfo info = findCharacteristic(service, characteristic);
+            if (info == null || value == null) {
+                return false;
+            }
+            final int generation = startRequest();
+            if (generation < 0) {
+                return false;
+            }
+            final byte[] copy = value.clone();
+            request(generation, new Runnable() {
+                @Override
+                public void run() {
+                    final int property = writeType == WRITE_TYPE_NO_RESPONSE
+                            ? GattCharacteristicInfo.PROPERTY_WRITE_NO_RESPONSE
+                            : GattCharacteristicInfo.PROPERTY_WRITE;
+                    final int status = info.hasProperty(property)
+                            ? writeValue(characteristic, copy) : STATUS_WRITE_NOT_PERMITTED;
+                    respond(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onCharacteristicWrite(service, characteristic, status);
+                        }
+                    });
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized boolean setCharacteristicNotification(UUID service, UUID characteristic,
+                                                                  boolean enabled) {
+            if (findCharacteristic(service, characteristic) == null) {
+                return false;
+            }
+            mLocalNotifications.put(characteristic, enabled);
+            return true;
+        }
+
+        @Override
+        public boolean readDescriptor(final UUID service, final UUID characteristic,
+                                      final UUID descriptor) {
+            final GattCharacteristicInfo info = findCharacteristic(service, characteristic);
+            if (info == null || !info.getDescriptors().contains(descriptor)) {
+                return false;
+            }
+            final int generation = startRequest();
+            if (generation < 0) {
+                return false;
+            }
+            request(generation, new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] value;
+                    if (!CLIENT_CHARACTERISTIC_CONFIGURATION.equals(descriptor)) {
+                        value = readDescriptorValue(descriptor);
+                    } else {
+                        synchronized (Link.this) {
+                            final byte[] cccd = mCccd.get(characteristic);
+                            value = cccd != null ? cccd.clone() : new byte[]{0, 0};
+                        }
+                    }
+                    respond(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onDescriptorRead(service, characteristic, descriptor, value,
+                                    STATUS_SUCCESS);
+                        }
+                    });
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean writeDescriptor(final UUID service, final UUID characteristic,
+                                       final UUID descriptor, byte[] value) {
+            final GattCharacteristicInfo info = findCharacteristic(service, characteristic);
+            if (info == null || value == null || !info.getDescriptors().contains(descriptor)) {
+                return false;
+            }
+            final int generation = startRequest();
+            if (generation < 0) {
+                return false;
+            }
+            final byte[] copy = value.clone();
+            request(generation, new Runnable() {
+                @Override
+                public void run() {
+                    // the other descriptors are read only
+                    final int status = CLIENT_CHARACTERISTIC_CONFIGURATION.equals(descriptor)
+                            ? configure(generation, info, copy) : STATUS_WRITE_NOT_PERMITTED;
+                    respond(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onDescriptorWrite(service, characteristic, descriptor, status);
+                        }
+                    });
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean requestMtu(final int mtu) {
+            final int generation = startRequest();
+            if (generation < 0) {
+                return false;
+            }
+            request(generation, new Runnable() {
+                @Override
+                public void run() {
+                    final int negotiated = Math.max(DEFAULT_MTU, Math.min(mtu, mConfig.mtu));
+                    synchronized (Link.this) {
+                        mMtu = negotiated;
+                    }
+                    respond(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onMtuChanged(negotiated, STATUS_SUCCESS);
+                        }
+                    });
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized boolean requestConnectionPriority(int priority) {
+            if (mClosed || mState != STATE_CONNECTED) {
+                return false;
+            }
+            mPriority = priority;
+            return true;
+        }
+
+        @Override
+        public boolean setPreferredPhy(final int txPhyMask, final int rxPhyMask) {
+            final int generation;
+            synchronized (this) {
+                if (mClosed || mState != STATE_CONNECTED) {
+                    return false;
+                }
+                generation = mGeneration;
+            }
+            // the PHY update procedure runs in the link layer, it does not block GATT requests
+            deliver(generation, new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onPhyUpdate(phyFor(txPhyMask), phyFor(rxPhyMask), STATUS_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        private int phyFor(int mask) {
+            return mConfig.phy2M && (mask & PHY_LE_2M_MASK) != 0 ? PHY_LE_2M : PHY_LE_1M;
+        }
+
+        /**
+         * Handles a write of the Client Characteristic Configuration on the executor thread.
+         */
+        private synchronized int configure(int generation, final GattCharacteristicInfo info,
+                                           byte[] value) {
+            if (generation != mGeneration || value.length != 2 || (value[1] != 0)) {
+                return STATUS_WRITE_NOT_PERMITTED;
+            }
+            final UUID characteristic = info.getUuid();
+            final boolean enabled = (value[0] & 0x03) != 0;
+            if (enabled && !info.hasProperty(GattCharacteristicInfo.PROPERTY_NOTIFY
+                    | GattCharacteristicInfo.PROPERTY_INDICATE)) {
+                return STATUS_WRITE_NOT_PERMITTED;
+            }
+            mCccd.put(characteristic, value);
+            final ScheduledFuture<?> running = mNotifications.remove(characteristic);
+            if (running != null) {
+                running.cancel(false);
+            }
+            if (enabled) {
+                final long interval = mConfig.notificationIntervalNanos;
+                mNotifications.put(characteristic, mExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyValue(characteristic);
+                    }
+                }, interval, interval, TimeUnit.NANOSECONDS));
+            }
+            return STATUS_SUCCESS;
+        }
+
+        private void notifyValue(final UUID characteristic) {
+            final int generation;
+            final int mtu;
+            synchronized (this) {
+                if (mState != STATE_CONNECTED
+                        || !Boolean.TRUE.equals(mLocalNotifications.get(characteristic))) {
+                    return;
+                }
+                generation = mGeneration;
+                mtu = mMtu;
+            }
+            byte[] value = readValue(characteristic);
+            // a notification carries at most MTU - 3 bytes
+            if (value.length > mtu - 3) {
+                value = Arrays.copyOf(value, mtu - 3);
+            }
+            final byte[] notification = value;
+            final UUID service = serviceOf(characteristic);
+            deliver(generation, new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCharacteristicChanged(service, characteristic, notification);
+                }
+            });
+        }
+
+        private UUID serviceOf(UUID characteristic) {
+            for (GattServiceInfo service : mServices) {
+                if (service.getCharacteristic(characteristic) != null) {
+                    return service.getUuid();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the generation of the new request or -1 if it can not be started
+         */
+        private synchronized int startRequest() {
+            if (mClosed || mState != STATE_CONNECTED || mBusy) {
+                return -1;
+            }
+            mBusy = true;
+            return mGeneration;
+        }
+
+        /**
+         * Runs the task on the peripheral once the request has arrived there.
+         */
+        private void request(final int generation, final Runnable task) {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Link.this) {
+                        if (mClosed || generation != mGeneration) {
+                            return;
+                        }
+                    }
+                    task.run();
+                }
+            }, delayNanos(mPriority), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Sends the response of the outstanding request to the central.
+         */
+        private void respond(final int generation, final Runnable response) {
+            deliver(generation, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Link.this) {
+                        if (!mBusy) {
+                            return;
+                        }
+                        mBusy = false;
+                    }
+                    response.run();
+                }
+            });
+        }
+
+        /**
+         * Delivers a message to the central after the link latency. Messages never overtake
+         * each other, like on a real link.
+         */
+        private void deliver(final int generation, final Runnable message) {
+            final long now = System.nanoTime();
+            final long at;
+            synchronized (this) {
+                at = Math.max(now + delayNanos(mPriority), mLastDeliveryNanos);
+                mLastDeliveryNanos = at;
+            }
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Link.this) {
+                        if (mClosed || generation != mGeneration) {
+                            return;
+                        }
+                    }
+                    message.run();
+                }
+            }, at - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedPeripheral " + mAddress + " (" + mLinks.size() + " links)";
+    }
+}
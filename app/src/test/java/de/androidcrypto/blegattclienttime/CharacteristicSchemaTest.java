@@ -0,0 +1,141 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+import static org.junit.Assert.*;
+
+public class CharacteristicSchemaTest {
+
+    private static final String RSC_MEASUREMENT = "characteristic 0x2A53 RSC Measurement\n"
+            + "flags u8\n"
+            + "u16 label=speed mul=100 div=256 exp=-2 unit=m/s\n"
+            + "u8 label=cadence unit=/min\n"
+            + "u16 if=0x01 label=stride exp=-2 unit=m\n"
+            + "u32 if=0x02 label=distance exp=-1 unit=m\n"
+            + "text running if=0x04\n"
+            + "end\n";
+
+    @Test
+    public void decode_conditionalFields() throws IOException {
+        final CharacteristicSchema schema = GattSchemaCompilerTest.compile(RSC_MEASUREMENT)
+                .get(0);
+        assertEquals("speed 2.00 m/s, cadence 90 /min",
+                decode(schema, 0x00, 0x00, 0x02, 90));
+        assertEquals("speed 2.00 m/s, cadence 90 /min, stride 1.50 m, distance 123.4 m, running",
+                decode(schema, 0x07, 0x00, 0x02, 90, 150, 0, 0xD2, 0x04, 0, 0));
+        assertEquals("speed 2.00 m/s, cadence 90 /min, distance 123.4 m",
+                decode(schema, 0x02, 0x00, 0x02, 90, 0xD2, 0x04, 0, 0));
+    }
+
+    @Test
+    public void decode_tooShort_fails() throws IOException {
+        final CharacteristicSchema schema = GattSchemaCompilerTest.compile(RSC_MEASUREMENT)
+                .get(0);
+        final StringBuilder out = new StringBuilder();
+        assertFalse(schema.decode(new byte[]{0x01, 0x00, 0x02, 90, 1}, out));
+        assertFalse(schema.decode(new byte[]{0x00}, new StringBuilder()));
+    }
+
+    @Test
+    public void decode_roundsHalfAwayFromZero() throws IOException {
+        final CharacteristicSchema schema = compile("s16 mul=1000 div=32 exp=-3 unit=Nm");
+        // 1/32 Nm = 31.25 mNm
+        assertEquals("0.031 Nm", decode(schema, 0x01, 0x00));
+        assertEquals("-0.031 Nm", decode(schema, 0xFF, 0xFF));
+        // 3/64 Nm = 46.875 mNm with div 64
+        assertEquals("-0.047 Nm", decode(compile("s16 mul=1000 div=64 exp=-3 unit=Nm"),
+                0xFD, 0xFF));
+    }
+
+    @Test
+    public void decode_largestFactorOfWideField() throws IOException {
+        final CharacteristicSchema schema = compile("u48 mul=32767");
+        final String expected = BigInteger.ONE.shiftLeft(48).subtract(BigInteger.ONE)
+                .multiply(BigInteger.valueOf(32767)).toString();
+        assertEquals(expected, decode(schema, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+        assertEquals("-4611545280939032576", decode(compile("s48 mul=32767"),
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x80));
+    }
+
+    @Test
+    public void decode_namesAndHex() throws IOException {
+        final CharacteristicSchema schema = compile(
+                "u8 label=state names=\"Idle|Update Pending\"\nu16 label=id hex");
+        assertEquals("state Update Pending, id 0x1A2B", decode(schema, 0x01, 0x2B, 0x1A));
+        // no name, shown as number
+        assertEquals("state 7, id 0x0000", decode(schema, 0x07, 0x00, 0x00));
+    }
+
+    @Test
+    public void decode_repeatedField() throws IOException {
+        final CharacteristicSchema schema = compile(
+                "u8 label=bpm\nu16 label=RR repeat mul=1000 div=1024 unit=ms");
+        assertEquals("bpm 60, RR 1000 500 ms", decode(schema, 60, 0x00, 0x04, 0x00, 0x02));
+    }
+
+    @Test
+    public void decode_repeatedGroup() throws IOException {
+        final CharacteristicSchema counted = compile("repeat 2\nu8 label=a\nu8 label=b\n"
+                + "endrepeat\nutf8 label=rest");
+        assertEquals("a 1, b 2, a 3, b 4, rest xy", decode(counted, 1, 2, 3, 4, 'x', 'y'));
+        final CharacteristicSchema open = compile("repeat\nu8 label=a\nendrepeat");
+        assertEquals("a 1, a 2, a 3", decode(open, 1, 2, 3));
+        assertEquals("", decode(open));
+    }
+
+    @Test(timeout = 1000)
+    public void decode_openRepeatWithoutProgress_stops() {
+        // flags u8, repeat, u8 if=0x01, endrepeat: the compiler rejects it, the decoder
+        // still has to end when an iteration reads nothing
+        final int size = CharacteristicSchema.SIZE;
+        final int[] code = new int[4 * size];
+        code[CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_FLAGS;
+        code[CharacteristicSchema.LENGTH] = 1;
+        code[size + CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_REPEAT;
+        code[size + CharacteristicSchema.JUMP] = 4 * size;
+        code[2 * size + CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_UINT;
+        code[2 * size + CharacteristicSchema.LENGTH] = 1;
+        code[2 * size + CharacteristicSchema.MASK] = 0x01;
+        code[2 * size + CharacteristicSchema.EXPECT] = 0x01;
+        code[2 * size + CharacteristicSchema.MUL] = 1;
+        code[2 * size + CharacteristicSchema.DIV] = 1;
+        code[3 * size + CharacteristicSchema.OPCODE] = CharacteristicSchema.OP_END_REPEAT;
+        code[3 * size + CharacteristicSchema.JUMP] = size;
+        final CharacteristicSchema schema = new CharacteristicSchema(
+                GattUuids.fromShortId(0x2A0E), "Test", code, new String[]{"", "", "a ", ""},
+                new String[]{"", "", "", ""}, new String[4][]);
+        assertEquals("", decode(schema, 0x00, 0x07));
+        assertEquals("a 7, a 8", decode(schema, 0x01, 0x07, 0x08));
+    }
+
+    @Test
+    public void decode_skipAndSignedInteger() throws IOException {
+        final CharacteristicSchema schema = compile("skip 2\ns8 label=UTC mul=15 unit=min");
+        assertEquals("UTC -60 min", decode(schema, 0xAA, 0xBB, 0xFC));
+        assertFalse(schema.decode(new byte[]{0x00}, new StringBuilder()));
+    }
+
+    @Test
+    public void decode_sfloatWithShift() throws IOException {
+        final CharacteristicSchema schema = compile("sfloat label=glucose exp=3 unit=mg/dL");
+        // 5 * 10^-5 kg/L
+        assertEquals("glucose 0.05 mg/dL", decode(schema, 0x05, 0xB0));
+    }
+
+    private static CharacteristicSchema compile(String fields) throws IOException {
+        return GattSchemaCompilerTest.compile(GattSchemaCompilerTest.schema(fields)).get(0);
+    }
+
+    private static String decode(CharacteristicSchema schema, int... bytes) {
+        final byte[] value = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            value[i] = (byte) bytes[i];
+        }
+        final StringBuilder out = new StringBuilder();
+        assertTrue(schema.decode(value, out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockOffsetEstimatorTest {
+
+    private static final long SECOND_NANOS = 1000000000L;
+    // the wall clock at elapsedRealtime 0
+    private static final long WALL_ORIGIN_MILLIS = 1665928072000L;
+
+    private final ClockOffsetEstimator mEstimator = new ClockOffsetEstimator();
+
+    @Test
+    public void endBurst_usesShortestRoundTrip() {
+        // the peripheral is 250 ms ahead and answers in the middle of the round trip
+        addSample(10 * SECOND_NANOS, 40, 250, 0);
+        addSample(11 * SECOND_NANOS, 10, 250, 0);
+        // delayed in the stack after the peripheral answered, the midpoint assumption is wrong
+        addSample(12 * SECOND_NANOS, 80, 250, 30);
+        final ClockEstimate estimate = mEstimator.endBurst();
+        assertEquals(1, estimate.getBurst());
+        assertEquals(3, estimate.getSampleCount());
+        assertEquals(10, estimate.getRoundTripMillis(), 1e-9);
+        assertEquals(250, estimate.getOffsetMillis(), 1e-9);
+        assertEquals(11 * SECOND_NANOS + 5000000, estimate.getElapsedRealtimeNanos());
+        assertTrue(estimate.isFitted());
+        assertTrue(Double.isNaN(estimate.getDriftPpm()));
+    }
+
+    @Test
+    public void endBurst_withoutSamples_returnsNull() {
+        assertNull(mEstimator.endBurst());
+        assertEquals(0, mEstimator.getBurstCount());
+        assertTrue(Double.isNaN(mEstimator.getMinRoundTripMillis()));
+    }
+
+    @Test
+    public void addSample_rejectsReversedTimes() {
+        assertFalse(mEstimator.addSample(2 * SECOND_NANOS, SECOND_NANOS, WALL_ORIGIN_MILLIS, 0));
+        assertNull(mEstimator.endBurst());
+    }
+
+    @Test
+    public void drift_followsLinearOffset() {
+        // 20 ppm: 20 microseconds per second, one burst per minute for an hour
+        for (int minute = 0; minute <= 60; minute++) {
+            final long start = minute * 60 * SECOND_NANOS;
+            final double offsetMillis = 100 + 0.02 * minute * 60;
+            for (int read = 0; read < 4; read++) {
+                addSample(start + read * SECOND_NANOS / 10, 10 + read * 5, offsetMillis, 0);
+            }
+            assertNotNull(mEstimator.endBurst());
+        }
+        assertEquals(20, mEstimator.getDriftPpm(), 0.1);
+        assertEquals(100 + 0.02 * 7200, mEstimator.getFittedOffsetMillis(7200 * SECOND_NANOS),
+                0.1);
+        assertEquals(61, mEstimator.getBurstCount());
+        assertEquals(10, mEstimator.getMinRoundTripMillis(), 1e-9);
+    }
+
+    @Test
+    public void endBurst_slowBurst_isNotFitted() {
+        addSample(0, 10, 0, 0);
+        assertTrue(mEstimator.endBurst().isFitted());
+        // more than FIT_ROUND_TRIP_FACTOR times the shortest round trip
+        addSample(60 * SECOND_NANOS, 26, 500, 0);
+        final ClockEstimate slow = mEstimator.endBurst();
+        assertFalse(slow.isFitted());
+        assertEquals(1, slow.getFitCount());
+        addSample(120 * SECOND_NANOS, 16, 0, 0);
+        final ClockEstimate next = mEstimator.endBurst();
+        assertTrue(next.isFitted());
+        assertEquals(2, next.getFitCount());
+        assertEquals(0, next.getDriftPpm(), 1e-9);
+    }
+
+    @Test
+    public void reset_forgetsFit() {
+        addSample(0, 10, 0, 0);
+        mEstimator.endBurst();
+        addSample(60 * SECOND_NANOS, 10, 60, 0);
+        mEstimator.endBurst();
+        assertFalse(Double.isNaN(mEstimator.getDriftPpm()));
+        mEstimator.reset();
+        assertEquals(0, mEstimator.getBurstCount());
+        assertTrue(Double.isNaN(mEstimator.getDriftPpm()));
+        assertTrue(Double.isNaN(mEstimator.getFittedOffsetMillis(0)));
+    }
+
+    /**
+     * Adds a read that was sent at sendNanos and took roundTripMillis, the peripheral took its
+     * time answerDelayMillis before the midpoint of the round trip.
+     */
+    private void addSample(long sendNanos, long roundTripMillis, double offsetMillis,
+                           long answerDelayMillis) {
+        final long receiveNanos = sendNanos + roundTripMillis * 1000000;
+        final long midpointNanos = sendNanos + (receiveNanos - sendNanos) / 2;
+        final long receiveWallMillis = WALL_ORIGIN_MILLIS + receiveNanos / 1000000;
+        final double midpointWallMillis = WALL_ORIGIN_MILLIS + midpointNanos / 1e6;
+        final long remoteMillis = Math.round(midpointWallMillis + offsetMillis
+                - answerDelayMillis);
+        assertTrue(mEstimator.addSample(sendNanos, receiveNanos, receiveWallMillis,
+                remoteMillis));
+    }
+}
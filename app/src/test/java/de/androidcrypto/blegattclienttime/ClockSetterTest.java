@@ -0,0 +1,222 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ClockSetterTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:01";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ClockSetter mSetter =
+            new ClockSetter(null, null, ClockSetter.DEFAULT_TOLERANCE_MILLIS);
+
+    private SimulatedPeripheral mPeripheral;
+
+    @Before
+    public void setUp() {
+        mPeripheral = new SimulatedPeripheral(ADDRESS, new SimulatedPeripheral.Config()
+                .setLatency(1, TimeUnit.MILLISECONDS)
+                .setJitter(0, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mPeripheral.shutdown();
+    }
+
+    @Test
+    public void isWithinTolerance_withFractions() {
+        assertTrue(mSetter.isWithinTolerance(0, true));
+        assertTrue(mSetter.isWithinTolerance(50, true));
+        assertTrue(mSetter.isWithinTolerance(-50, true));
+        assertFalse(mSetter.isWithinTolerance(51, true));
+        assertFalse(mSetter.isWithinTolerance(-51, true));
+    }
+
+    @Test
+    public void isWithinTolerance_wholeSeconds_allowsASecondBehind() {
+        // the peripheral truncates to the second, its time is up to a second behind
+        assertTrue(mSetter.isWithinTolerance(-999, false));
+        assertTrue(mSetter.isWithinTolerance(-1050, false));
+        assertFalse(mSetter.isWithinTolerance(-1051, false));
+        // but not ahead
+        assertTrue(mSetter.isWithinTolerance(50, false));
+        assertFalse(mSetter.isWithinTolerance(51, false));
+    }
+
+    @Test
+    public void nextBoundary_keepsTheLead() {
+        for (long now = 1700000000000L; now < 1700000002000L; now += 7) {
+            for (long oneWay = 0; oneWay < 400; oneWay += 45) {
+                final long boundary = ClockSetter.nextBoundary(now, oneWay);
+                assertEquals(0, boundary % 1000);
+                final long lead = boundary - oneWay - now;
+                assertTrue("lead " + lead, lead > ClockSetter.MIN_LEAD_MILLIS);
+                assertTrue("lead " + lead, lead <= ClockSetter.MIN_LEAD_MILLIS + 1000);
+            }
+        }
+    }
+
+    @Test
+    public void setCurrentTime_readsBackTheNewOffset() throws Exception {
+        mPeripheral.setClockOffsetMillis(5000);
+        final GattClient client = new GattClient(GattClock.SYSTEM,
+                SimulatedPeripheral.factory(mPeripheral));
+        try {
+            connectAndDiscover(client);
+            final ClockEstimate estimate = client.setCurrentTime(ADDRESS)
+                    .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertTrue("offset " + estimate.getOffsetMillis(), Math.abs(estimate.getOffsetMillis())
+                    <= ClockSetter.DEFAULT_TOLERANCE_MILLIS);
+            assertTrue("peripheral offset " + mPeripheral.getClockOffsetMillis(),
+                    Math.abs(mPeripheral.getClockOffsetMillis())
+                            <= ClockSetter.DEFAULT_TOLERANCE_MILLIS);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void setCurrentTime_lateWrite_waitsForTheNextSecond() throws Exception {
+        mPeripheral.setClockOffsetMillis(-3000);
+        final AtomicInteger timeReads = new AtomicInteger();
+        final AtomicInteger timeWrites = new AtomicInteger();
+        final GattClient[] client = new GattClient[1];
+        final GattTransport.Factory simulated = SimulatedPeripheral.factory(mPeripheral);
+        client[0] = new GattClient(GattClock.SYSTEM, new GattTransport.Factory() {
+            @Override
+            public GattTransport create(String address, GattTransport.Callback callback) {
+                return simulated.create(address, new SlowBatteryCallback(callback) {
+                    @Override
+                    public void onCharacteristicRead(UUID service, UUID characteristic,
+                                                     byte[] value, int status) {
+                        if (SimulatedPeripheral.CURRENT_TIME.equals(characteristic)
+                                && timeReads.incrementAndGet() == ClockSetter.PROBE_READS) {
+                            // keeps the queue busy past the boundary of the first attempt
+                            client[0].readCharacteristic(ADDRESS,
+                                    SimulatedPeripheral.BATTERY_SERVICE,
+                                    SimulatedPeripheral.BATTERY_LEVEL);
+                        }
+                        super.onCharacteristicRead(service, characteristic, value, status);
+                    }
+
+                    @Override
+                    public void onCharacteristicWrite(UUID service, UUID characteristic,
+                                                      int status) {
+                        timeWrites.incrementAndGet();
+                        super.onCharacteristicWrite(service, characteristic, status);
+                    }
+                });
+            }
+        });
+        try {
+            connectAndDiscover(client[0]);
+            final long start = System.nanoTime();
+            final ClockEstimate estimate = client[0].setCurrentTime(ADDRESS)
+                    .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("offset " + estimate.getOffsetMillis(), Math.abs(estimate.getOffsetMillis())
+                    <= ClockSetter.DEFAULT_TOLERANCE_MILLIS);
+            // the stale value of the first boundary was not sent
+            assertEquals(1, timeWrites.get());
+            assertTrue("took " + millis + " ms", millis >= SlowBatteryCallback.DELAY_MILLIS);
+        } finally {
+            client[0].shutdown();
+        }
+    }
+
+    private static void connectAndDiscover(GattClient client) throws InterruptedException {
+        final CountDownLatch discovered = new CountDownLatch(1);
+        client.registerListener(new GattEventListener() {
+            @Override
+            public void onServicesDiscovered(String address, int status) {
+                discovered.countDown();
+            }
+        });
+        assertTrue(client.connect(ADDRESS));
+        assertTrue("no discovery", discovered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Delivers the events of the simulator, the response of a battery read only after a
+     * delay longer than the lead of a time write.
+     */
+    private static class SlowBatteryCallback implements GattTransport.Callback {
+        static final long DELAY_MILLIS = 1500;
+
+        private final GattTransport.Callback mCallback;
+
+        SlowBatteryCallback(GattTransport.Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+            mCallback.onConnectionStateChange(status, newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            mCallback.onServicesDiscovered(status);
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID service, UUID characteristic, byte[] value,
+                                         int status) {
+            if (SimulatedPeripheral.BATTERY_LEVEL.equals(characteristic)) {
+                try {
+                    Thread.sleep(DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mCallback.onCharacteristicRead(service, characteristic, value, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID service, UUID characteristic, int status) {
+            mCallback.onCharacteristicWrite(service, characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID service, UUID characteristic, byte[] value) {
+            mCallback.onCharacteristicChanged(service, characteristic, value);
+        }
+
+        @Override
+        public void onDescriptorRead(UUID service, UUID characteristic, UUID descriptor,
+                                     byte[] value, int status) {
+            mCallback.onDescriptorRead(service, characteristic, descriptor, value, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID service, UUID characteristic, UUID descriptor,
+                                      int status) {
+            mCallback.onDescriptorWrite(service, characteristic, descriptor, status);
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            mCallback.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+            mCallback.onPhyUpdate(txPhy, rxPhy, status);
+        }
+
+        @Override
+        public void onServiceChanged() {
+            mCallback.onServiceChanged();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class CurrentTimeServiceTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+    // 16.10.2022 13:47:52, Sunday, 128/256 s, manual adjustment
+    private static final byte[] VALUE = {
+            (byte) 0xE6, 0x07, 0x0A, 0x10, 0x0D, 0x2F, 0x34, 0x07, (byte) 0x80, 0x01};
+
+    @Test
+    public void decode_fillsAllFields() {
+        final CurrentTime time = new CurrentTime(UTC);
+        assertTrue(CurrentTimeService.decode(VALUE, time));
+        assertTrue(time.isValid());
+        assertEquals(2022, time.getYear());
+        assertEquals(10, time.getMonth());
+        assertEquals(16, time.getDay());
+        assertEquals(13, time.getHours());
+        assertEquals(47, time.getMinutes());
+        assertEquals(52, time.getSeconds());
+        assertEquals(7, time.getDayOfWeek());
+        assertEquals(128, time.getFractions256());
+        assertEquals(1, time.getAdjustReason());
+        assertEquals(utcMillis(2022, 10, 16, 13, 47, 52) + 500, time.getEpochMillis());
+    }
+
+    @Test
+    public void decode_convertsLocalTime() {
+        final CurrentTime time = new CurrentTime(BERLIN);
+        assertTrue(CurrentTimeService.decode(VALUE, time));
+        // CEST is UTC+2
+        assertEquals(utcMillis(2022, 10, 16, 11, 47, 52) + 500, time.getEpochMillis());
+    }
+
+    @Test
+    public void decode_acrossDaylightSavingSwitch() {
+        final CurrentTime time = new CurrentTime(BERLIN);
+        // 27.03.2022 01:30 CET, before the switch, and 03:30 CEST after it
+        assertTrue(CurrentTimeService.decode(value(2022, 3, 27, 1, 30, 0), time));
+        assertEquals(utcMillis(2022, 3, 27, 0, 30, 0), time.getEpochMillis());
+        assertTrue(CurrentTimeService.decode(value(2022, 3, 27, 3, 30, 0), time));
+        assertEquals(utcMillis(2022, 3, 27, 1, 30, 0), time.getEpochMillis());
+    }
+
+    @Test
+    public void decode_matchesCalendarForManyDates() {
+        final CurrentTime time = new CurrentTime(UTC);
+        for (int year = 1582; year <= 9999; year += 7) {
+            for (int month = 1; month <= 12; month++) {
+                final int day = 1 + (year + month) % 28;
+                assertTrue(CurrentTimeService.decode(value(year, month, day, 23, 59, 59), time));
+                assertEquals(year + "-" + month + "-" + day,
+                        utcMillis(year, month, day, 23, 59, 59), time.getEpochMillis());
+            }
+        }
+    }
+
+    @Test
+    public void decode_rejectsShortValue() {
+        final CurrentTime time = new CurrentTime(UTC);
+        assertFalse(CurrentTimeService.decode(new byte[9], time));
+        assertFalse(CurrentTimeService.decode(null, time));
+        assertFalse(time.isValid());
+        assertEquals(0, time.getEpochMillis());
+    }
+
+    @Test
+    public void decode_rejectsUnknownDate() {
+        final CurrentTime time = new CurrentTime(UTC);
+        // year, month and day 0 mean not known
+        assertFalse(CurrentTimeService.decode(value(0, 0, 0, 12, 0, 0), time));
+        assertFalse(time.isValid());
+        assertEquals(12, time.getHours());
+        assertFalse(CurrentTimeService.decode(value(2022, 13, 1, 0, 0, 0), time));
+        assertFalse(CurrentTimeService.decode(value(2022, 1, 1, 24, 0, 0), time));
+        assertFalse(CurrentTimeService.decode(value(2022, 1, 1, 0, 60, 0), time));
+    }
+
+    @Test
+    public void decode_reusesHolder() {
+        final CurrentTime time = new CurrentTime(UTC);
+        assertTrue(CurrentTimeService.decode(VALUE, time));
+        assertFalse(CurrentTimeService.decode(new byte[3], time));
+        assertFalse(time.isValid());
+        assertEquals(0, time.getEpochMillis());
+    }
+
+    @Test
+    public void fractions256ToMillis_roundsDown() {
+        assertEquals(0, CurrentTimeService.fractions256ToMillis(0));
+        assertEquals(3, CurrentTimeService.fractions256ToMillis(1));
+        assertEquals(500, CurrentTimeService.fractions256ToMillis(128));
+        assertEquals(996, CurrentTimeService.fractions256ToMillis(255));
+    }
+
+    private static byte[] value(int year, int month, int day, int hours, int minutes,
+                                int seconds) {
+        return new byte[]{(byte) year, (byte) (year >> 8), (byte) month, (byte) day,
+                (byte) hours, (byte) minutes, (byte) seconds, 0, 0, 0};
+    }
+
+    private static long utcMillis(int year, int month, int day, int hours, int minutes,
+                                  int seconds) {
+        final GregorianCalendar calendar = new GregorianCalendar(UTC);
+        // proleptic, like the decoder
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hours, minutes, seconds);
+        return calendar.getTimeInMillis();
+    }
+}
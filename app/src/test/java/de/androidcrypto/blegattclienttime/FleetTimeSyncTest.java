@@ -0,0 +1,220 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs fleet synchronizations against {@link SimulatedPeripheral}s.
+ */
+public class FleetTimeSyncTest {
+
+    private static final long TIMEOUT_SECONDS = 20;
+
+    private final List<SimulatedPeripheral> mPeripherals = new ArrayList<>();
+    private GattClient mClient;
+
+    @After
+    public void tearDown() {
+        if (mClient != null) {
+            mClient.shutdown();
+        }
+        for (SimulatedPeripheral peripheral : mPeripherals) {
+            peripheral.shutdown();
+        }
+    }
+
+    @Test
+    public void backoffMillis_doublesUpToTheMaximum() {
+        assertEquals(1000, FleetTimeSync.backoffMillis(1000, 30000, 1));
+        assertEquals(2000, FleetTimeSync.backoffMillis(1000, 30000, 2));
+        assertEquals(16000, FleetTimeSync.backoffMillis(1000, 30000, 5));
+        assertEquals(30000, FleetTimeSync.backoffMillis(1000, 30000, 6));
+        assertEquals(0, FleetTimeSync.backoffMillis(0, 30000, 3));
+    }
+
+    @Test
+    public void backoffMillis_manyAttempts_doNotOverflow() {
+        assertEquals(30000, FleetTimeSync.backoffMillis(1000, 30000, 100));
+        assertEquals(30000, FleetTimeSync.backoffMillis(1000, 30000, Integer.MAX_VALUE));
+        assertEquals(1000L << 52, FleetTimeSync.backoffMillis(1000, Long.MAX_VALUE, 53));
+        assertEquals(Long.MAX_VALUE, FleetTimeSync.backoffMillis(1000, Long.MAX_VALUE, 54));
+        assertEquals(Long.MAX_VALUE, FleetTimeSync.backoffMillis(1000, Long.MAX_VALUE, 65));
+    }
+
+    @Test
+    public void sync_limitsParallelism() throws Exception {
+        final List<String> addresses = peripherals(4, 1, TimeUnit.MILLISECONDS);
+        // one device needs its time set
+        mPeripherals.get(1).setClockOffsetMillis(3000);
+        final AtomicInteger maxOpen = new AtomicInteger();
+        mClient.registerListener(new GattEventListener() {
+            @Override
+            public synchronized void onConnectionStateChange(String address, int newState) {
+                maxOpen.set(Math.max(maxOpen.get(), mClient.getConnectedDevices().size()));
+            }
+        });
+        final Results results = sync(addresses, new FleetTimeSync.Config().setParallelism(2));
+
+        assertEquals(2, maxOpen.get());
+        assertEquals(4, results.byAddress.size());
+        for (String address : addresses) {
+            final FleetSyncResult result = results.byAddress.get(address);
+            assertTrue(result.toString(), result.isSuccess());
+            assertEquals(1, result.getAttempts());
+            assertEquals(address.equals(addresses.get(1)), result.isWritten());
+        }
+        assertTrue(results.byAddress.get(addresses.get(1)).getOffsetBeforeMillis() > 2900);
+        // the connections opened by the run are closed
+        assertTrue(mClient.getConnectedDevices().isEmpty());
+    }
+
+    @Test
+    public void sync_reportsMetrics() throws Exception {
+        final List<String> addresses = peripherals(3, 1, TimeUnit.MILLISECONDS);
+        final Results results = sync(addresses, new FleetTimeSync.Config().setParallelism(3));
+
+        final FleetSyncMetrics metrics = results.metrics;
+        assertEquals(3, metrics.getTotal());
+        assertEquals(3, metrics.getSucceeded());
+        assertEquals(0, metrics.getFailed());
+        assertEquals(0, metrics.getRemaining());
+        assertTrue(metrics.getP50Millis() >= 0);
+        assertTrue(metrics.getP99Millis() >= metrics.getP50Millis());
+        assertTrue(metrics.getElapsedMillis() >= metrics.getP99Millis());
+    }
+
+    @Test
+    public void sync_unreachable_retriesWithBackoff() throws Exception {
+        final List<String> addresses = peripherals(1, 1, TimeUnit.MILLISECONDS);
+        mPeripherals.get(0).setConnectable(false);
+        final long start = System.nanoTime();
+        final Results results = sync(addresses, new FleetTimeSync.Config()
+                .setMaxAttempts(3)
+                .setBackoff(100, 1000, TimeUnit.MILLISECONDS));
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        final FleetSyncResult result = results.byAddress.get(addresses.get(0));
+        assertFalse(result.isSuccess());
+        assertEquals(3, result.getAttempts());
+        assertTrue(result.getError() instanceof GattException);
+        // 100 ms before the second attempt, 200 ms before the third
+        assertTrue("took " + millis + " ms", millis >= 300);
+        assertEquals(1, results.metrics.getFailed());
+        assertEquals(0, results.metrics.getSucceeded());
+    }
+
+    @Test
+    public void sync_silentDevice_timesOut() throws Exception {
+        final List<String> addresses = peripherals(1, 10, TimeUnit.SECONDS);
+        final Results results = sync(addresses, new FleetTimeSync.Config()
+                .setMaxAttempts(1)
+                .setDeviceTimeout(200, TimeUnit.MILLISECONDS));
+
+        final FleetSyncResult result = results.byAddress.get(addresses.get(0));
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.getAttempts());
+        assertTrue(String.valueOf(result.getError()),
+                result.getError() instanceof TimeoutException);
+        assertTrue(mClient.getConnectedDevices().isEmpty());
+    }
+
+    @Test
+    public void cancel_reportsTheOpenDevices() throws Exception {
+        final List<String> addresses = peripherals(3, 10, TimeUnit.SECONDS);
+        final Results results = new Results();
+        final FleetTimeSync sync = mClient.syncFleetTime(addresses,
+                new FleetTimeSync.Config().setParallelism(1), results);
+        sync.cancel();
+        assertTrue("not finished", results.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(3, results.byAddress.size());
+        for (FleetSyncResult result : results.byAddress.values()) {
+            assertFalse(result.isSuccess());
+            assertTrue(result.getError() instanceof CancellationException);
+        }
+        assertEquals(3, results.metrics.getFailed());
+        assertTrue(mClient.getConnectedDevices().isEmpty());
+    }
+
+    @Test
+    public void sync_reusedConnection_staysOpen() throws Exception {
+        final List<String> addresses = peripherals(2, 1, TimeUnit.MILLISECONDS);
+        final String own = addresses.get(0);
+        final CountDownLatch discovered = new CountDownLatch(1);
+        mClient.registerListener(new GattEventListener() {
+            @Override
+            public void onServicesDiscovered(String address, int status) {
+                discovered.countDown();
+            }
+        });
+        assertTrue(mClient.connect(own));
+        assertTrue("no discovery", discovered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        final Results results = sync(addresses, new FleetTimeSync.Config());
+        assertTrue(results.byAddress.get(own).isSuccess());
+        assertTrue(results.byAddress.get(addresses.get(1)).isSuccess());
+        assertEquals(Collections.singletonList(own), mClient.getConnectedDevices());
+        assertEquals(GattClient.STATE_CONNECTED, mClient.getConnectionState(own));
+    }
+
+    /**
+     * Creates the peripherals and a client that reaches all of them.
+     *
+     * @return the addresses of the peripherals
+     */
+    private List<String> peripherals(int count, long latency, TimeUnit unit) {
+        final List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final String address = "AA:BB:CC:DD:EE:1" + i;
+            mPeripherals.add(new SimulatedPeripheral(address, new SimulatedPeripheral.Config()
+                    .setLatency(latency, unit)
+                    .setJitter(0, TimeUnit.MILLISECONDS)));
+            addresses.add(address);
+        }
+        mClient = new GattClient(GattClock.SYSTEM, SimulatedPeripheral.factory(
+                mPeripherals.toArray(new SimulatedPeripheral[count])));
+        return addresses;
+    }
+
+    private Results sync(List<String> addresses, FleetTimeSync.Config config)
+            throws InterruptedException {
+        final Results results = new Results();
+        mClient.syncFleetTime(addresses, config, results);
+        assertTrue("not finished", results.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return results;
+    }
+
+    /**
+     * Collects the results of a run, written on the scheduler thread.
+     */
+    private static final class Results implements FleetTimeSync.Listener {
+        final Map<String, FleetSyncResult> byAddress =
+                Collections.synchronizedMap(new HashMap<String, FleetSyncResult>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile FleetSyncMetrics metrics;
+
+        @Override
+        public void onDeviceResult(FleetSyncResult result) {
+            assertNull("reported twice", byAddress.put(result.getAddress(), result));
+        }
+
+        @Override
+        public void onFinished(FleetSyncMetrics metrics) {
+            this.metrics = metrics;
+            finished.countDown();
+        }
+    }
+}
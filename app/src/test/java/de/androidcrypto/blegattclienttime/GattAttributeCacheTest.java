@@ -0,0 +1,306 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class GattAttributeCacheTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+    private static final UUID CCCD = GattUuids.fromShortId(0x2902);
+    private static final UUID VENDOR_SERVICE =
+            UUID.fromString("6e3a0001-5c2b-4f8e-9d1a-3b7c2e4f5a60");
+    private static final UUID VENDOR_CHARACTERISTIC =
+            UUID.fromString("6e3a0002-5c2b-4f8e-9d1a-3b7c2e4f5a60");
+
+    private final Tasks mTasks = new Tasks();
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("gatt", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void encode_decode_roundTrip() {
+        final List<GattServiceInfo> services = table();
+        final byte[] snapshot = GattAttributeCache.encode(services);
+        assertEquals(GattAttributeCache.MAGIC, (snapshot[0] & 0xFF) << 24
+                | (snapshot[1] & 0xFF) << 16 | (snapshot[2] & 0xFF) << 8 | snapshot[3] & 0xFF);
+
+        final List<GattServiceInfo> decoded = GattAttributeCache.decode(snapshot);
+        assertNotNull(decoded);
+        assertEquals(services.size(), decoded.size());
+        for (int i = 0; i < services.size(); i++) {
+            final GattServiceInfo expected = services.get(i);
+            final GattServiceInfo actual = decoded.get(i);
+            assertEquals(expected.getUuid(), actual.getUuid());
+            assertEquals(expected.getCharacteristics().size(),
+                    actual.getCharacteristics().size());
+            for (int j = 0; j < expected.getCharacteristics().size(); j++) {
+                final GattCharacteristicInfo characteristic = expected.getCharacteristics().get(j);
+                final GattCharacteristicInfo other = actual.getCharacteristics().get(j);
+                assertEquals(characteristic.getUuid(), other.getUuid());
+                assertEquals(characteristic.getProperties(), other.getProperties());
+                assertEquals(characteristic.getDescriptors(), other.getDescriptors());
+            }
+        }
+        assertArrayEquals(snapshot, GattAttributeCache.encode(decoded));
+    }
+
+    @Test
+    public void encode_shortUuidsTakeThreeBytes() {
+        final List<GattCharacteristicInfo> none = Collections.emptyList();
+        final List<GattServiceInfo> sig = Collections.singletonList(
+                new GattServiceInfo(GattAttributeCache.GENERIC_ATTRIBUTE, none));
+        final List<GattServiceInfo> vendor = Collections.singletonList(
+                new GattServiceInfo(VENDOR_SERVICE, none));
+        final int empty = GattAttributeCache.HEADER_SIZE + 2 + GattAttributeCache.CRC_SIZE;
+        assertEquals(empty + 3 + 2, GattAttributeCache.encode(sig).length);
+        assertEquals(empty + 17 + 2, GattAttributeCache.encode(vendor).length);
+    }
+
+    @Test
+    public void decode_anyFlippedBitFailsTheCrc() {
+        final byte[] snapshot = GattAttributeCache.encode(table());
+        for (int i = 0; i < snapshot.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                final byte[] corrupt = snapshot.clone();
+                corrupt[i] ^= 1 << bit;
+                assertNull("byte " + i + " bit " + bit, GattAttributeCache.decode(corrupt));
+            }
+        }
+    }
+
+    @Test
+    public void decode_truncated() {
+        final byte[] snapshot = GattAttributeCache.encode(table());
+        for (int length = 0; length < snapshot.length; length++) {
+            assertNull("length " + length,
+                    GattAttributeCache.decode(Arrays.copyOf(snapshot, length)));
+        }
+    }
+
+    @Test
+    public void decode_otherMagicOrVersion() {
+        assertNull(GattAttributeCache.decode(withCrc(header(0x12345678,
+                GattAttributeCache.VERSION))));
+        assertNull(GattAttributeCache.decode(withCrc(header(GattAttributeCache.MAGIC,
+                GattAttributeCache.VERSION + 1))));
+        assertNotNull(GattAttributeCache.decode(withCrc(header(GattAttributeCache.MAGIC,
+                GattAttributeCache.VERSION))));
+    }
+
+    @Test
+    public void decode_unknownUuidFormat() {
+        final byte[] body = header(GattAttributeCache.MAGIC, GattAttributeCache.VERSION);
+        final byte[] snapshot = Arrays.copyOf(body, body.length + 3);
+        // one service whose UUID has the format 2
+        snapshot[GattAttributeCache.HEADER_SIZE + 1] = 1;
+        snapshot[GattAttributeCache.HEADER_SIZE + 2] = 2;
+        assertNull(GattAttributeCache.decode(withCrc(snapshot)));
+    }
+
+    @Test
+    public void update_reportsChangesOnly() {
+        final GattAttributeCache cache = new GattAttributeCache(mTasks);
+        assertTrue(cache.update(ADDRESS, table()));
+        assertFalse(cache.update(ADDRESS, table()));
+        assertTrue(cache.update(ADDRESS, table().subList(0, 1)));
+        assertEquals(1, cache.load(ADDRESS).size());
+    }
+
+    @Test
+    public void save_load_throughTheDirectory() {
+        final File directory = new File(mDirectory, "gatt");
+        final GattAttributeCache cache = new GattAttributeCache(mTasks);
+        cache.setDirectory(directory);
+        cache.update(ADDRESS, table());
+        // written on the executor only
+        assertFalse(directory.exists());
+        mTasks.runAll();
+        assertTrue(directory.isDirectory());
+        assertEquals(1, directory.list().length);
+
+        final GattAttributeCache reloaded = new GattAttributeCache(mTasks);
+        reloaded.setDirectory(directory);
+        assertNull(reloaded.load(ADDRESS));
+        mTasks.runAll();
+        final List<GattServiceInfo> services = reloaded.load(ADDRESS);
+        assertNotNull(services);
+        assertArrayEquals(GattAttributeCache.encode(table()),
+                GattAttributeCache.encode(services));
+        assertFalse(reloaded.update(ADDRESS, table()));
+        assertTrue(mTasks.isEmpty());
+    }
+
+    @Test
+    public void preload_keepsANewerDiscovery() {
+        final GattAttributeCache cache = new GattAttributeCache(mTasks);
+        cache.setDirectory(mDirectory);
+        cache.update(ADDRESS, table());
+        mTasks.runAll();
+
+        final GattAttributeCache reloaded = new GattAttributeCache(mTasks);
+        reloaded.setDirectory(mDirectory);
+        // a discovery that completes before the files are read
+        assertTrue(reloaded.update(ADDRESS, table().subList(0, 1)));
+        mTasks.runAll();
+        assertEquals(1, reloaded.load(ADDRESS).size());
+    }
+
+    @Test
+    public void withoutDirectory_keepsMemoryOnly() {
+        final GattAttributeCache cache = new GattAttributeCache(mTasks);
+        cache.update(ADDRESS, table());
+        mTasks.runAll();
+        assertNotNull(cache.load(ADDRESS));
+        assertNull(cache.load("11:22:33:44:55:66"));
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void preload_deletesCorruptFile() throws IOException {
+        final GattAttributeCache cache = new GattAttributeCache(mTasks);
+        cache.setDirectory(mDirectory);
+        cache.update(ADDRESS, table());
+        mTasks.runAll();
+        final File file = mDirectory.listFiles()[0];
+        final byte[] corrupt = GattAttributeCache.encode(table());
+        corrupt[GattAttributeCache.HEADER_SIZE + 4] ^= 0x10;
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(corrupt);
+        } finally {
+            out.close();
+        }
+
+        final GattAttributeCache reloaded = new GattAttributeCache(mTasks);
+        reloaded.setDirectory(mDirectory);
+        mTasks.runAll();
+        assertNull(reloaded.load(ADDRESS));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void invalidate_dropsMemoryAndFile() {
+        final GattAttributeCache cache = new GattAttributeCache(mTasks);
+        cache.setDirectory(mDirectory);
+        cache.update(ADDRESS, table());
+        mTasks.runAll();
+        cache.invalidate(ADDRESS);
+        assertNull(cache.load(ADDRESS));
+        // deleted on the executor only
+        assertEquals(1, mDirectory.list().length);
+        mTasks.runAll();
+        assertEquals(0, mDirectory.list().length);
+        assertTrue(cache.update(ADDRESS, table()));
+    }
+
+    @Test
+    public void invalidate_thenUpdate_keepsTheNewFile() {
+        final GattAttributeCache cache = new GattAttributeCache(mTasks);
+        cache.setDirectory(mDirectory);
+        cache.update(ADDRESS, table());
+        cache.invalidate(ADDRESS);
+        cache.update(ADDRESS, table().subList(0, 1));
+        mTasks.runAll();
+
+        final GattAttributeCache reloaded = new GattAttributeCache(mTasks);
+        reloaded.setDirectory(mDirectory);
+        mTasks.runAll();
+        assertEquals(1, reloaded.load(ADDRESS).size());
+    }
+
+    /**
+     * A time server with a vendor service, SIG and 128 bit UUIDs mixed.
+     */
+    private static List<GattServiceInfo> table() {
+        return Arrays.asList(
+                new GattServiceInfo(GattAttributeCache.GENERIC_ATTRIBUTE, Collections.singletonList(
+                        new GattCharacteristicInfo(GattAttributeCache.SERVICE_CHANGED, 0x20,
+                                Collections.singletonList(CCCD)))),
+                new GattServiceInfo(GattUuids.fromShortId(0x1805), Arrays.asList(
+                        new GattCharacteristicInfo(GattUuids.fromShortId(0x2A2B), 0x1A,
+                                Collections.singletonList(CCCD)),
+                        new GattCharacteristicInfo(GattUuids.fromShortId(0x2A0F), 0x02,
+                                Collections.<UUID>emptyList()))),
+                new GattServiceInfo(VENDOR_SERVICE, Collections.singletonList(
+                        new GattCharacteristicInfo(VENDOR_CHARACTERISTIC, 0x12,
+                                Arrays.asList(CCCD, GattUuids.fromShortId(0x2901))))));
+    }
+
+    /**
+     * @return the magic number, the version and no services
+     */
+    private static byte[] header(int magic, int version) {
+        return new byte[]{
+                (byte) (magic >> 24), (byte) (magic >> 16), (byte) (magic >> 8), (byte) magic,
+                (byte) (version >> 24), (byte) (version >> 16), (byte) (version >> 8),
+                (byte) version, 0, 0};
+    }
+
+    private static byte[] withCrc(byte[] body) {
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        final int value = (int) crc.getValue();
+        final byte[] snapshot = Arrays.copyOf(body, body.length + GattAttributeCache.CRC_SIZE);
+        snapshot[body.length] = (byte) (value >> 24);
+        snapshot[body.length + 1] = (byte) (value >> 16);
+        snapshot[body.length + 2] = (byte) (value >> 8);
+        snapshot[body.length + 3] = (byte) value;
+        return snapshot;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Collects the file operations of the cache until the test runs them.
+     */
+    private static final class Tasks implements Executor {
+        private final ArrayDeque<Runnable> mQueue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mQueue.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mQueue.poll()) != null) {
+                task.run();
+            }
+        }
+
+        boolean isEmpty() {
+            return mQueue.isEmpty();
+        }
+    }
+}
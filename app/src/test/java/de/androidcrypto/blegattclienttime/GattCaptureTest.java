@@ -0,0 +1,140 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattCaptureTest {
+
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+    private static final UUID VENDOR = UUID.fromString("6e3a0002-5c2b-4f8e-9d1a-3b7c2e4f5a60");
+
+    @Test
+    public void encode_decode_shortUuid() {
+        final GattCapture.Record record = new GattCapture.Record(GattCapture.TYPE_NOTIFICATION,
+                123456789012345L, ADDRESS, GattUuids.fromShortId(0x2A37),
+                GattTransport.STATUS_SUCCESS, new byte[]{0x16, 0x48, 0x00, 0x02});
+        final GattCapture.Record decoded = roundTrip(record);
+        assertEquals(GattCapture.RECORD_HEADER_SIZE + 4, record.size());
+        assertRecord(record, decoded);
+    }
+
+    @Test
+    public void encode_decode_fullUuid() {
+        final GattCapture.Record record = new GattCapture.Record(GattCapture.TYPE_READ, 1,
+                ADDRESS, VENDOR, GattTransport.STATUS_SUCCESS, new byte[]{(byte) 0xFF});
+        assertEquals(GattCapture.RECORD_HEADER_SIZE + 16 + 1, record.size());
+        assertRecord(record, roundTrip(record));
+    }
+
+    @Test
+    public void encode_decode_connectionStateHasNoUuid() {
+        final GattCapture.Record record = new GattCapture.Record(
+                GattCapture.TYPE_CONNECTION_STATE, 42, ADDRESS, null,
+                GattTransport.STATE_CONNECTED, GattCapture.NO_VALUE);
+        final GattCapture.Record decoded = roundTrip(record);
+        assertNull(decoded.getUuid());
+        assertRecord(record, decoded);
+    }
+
+    @Test
+    public void encode_decode_negativeStatus() {
+        final GattCapture.Record record = new GattCapture.Record(GattCapture.TYPE_WRITE, 7,
+                ADDRESS, GattUuids.fromShortId(0x2A2B), GattException.STATUS_DISCONNECTED,
+                GattCapture.NO_VALUE);
+        assertEquals(GattException.STATUS_DISCONNECTED, roundTrip(record).getStatus());
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void decode_truncatedRecord_throws() {
+        final GattCapture.Record record = new GattCapture.Record(GattCapture.TYPE_READ, 1,
+                ADDRESS, VENDOR, GattTransport.STATUS_SUCCESS, new byte[8]);
+        final ByteBuffer buffer = ByteBuffer.allocate(record.size());
+        GattCapture.encode(record, buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        GattCapture.decode(buffer);
+    }
+
+    @Test
+    public void address_roundTrip() {
+        assertEquals(0x001122AABBCCL, GattCapture.parseAddress(ADDRESS));
+        assertEquals(ADDRESS, GattCapture.formatAddress(GattCapture.parseAddress(ADDRESS)));
+        assertEquals(ADDRESS, GattCapture.formatAddress(
+                GattCapture.parseAddress("00:11:22:aa:bb:cc")));
+    }
+
+    @Test
+    public void reader_stopsAtIncompleteLastRecord() throws IOException {
+        final GattCapture.Record first = new GattCapture.Record(GattCapture.TYPE_READ, 1,
+                ADDRESS, GattUuids.fromShortId(0x2A19), GattTransport.STATUS_SUCCESS,
+                new byte[]{42});
+        final ByteBuffer buffer = ByteBuffer.allocate(GattCapture.FILE_HEADER_SIZE
+                + 2 * first.size());
+        GattCapture.writeFileHeader(buffer);
+        GattCapture.encode(first, buffer);
+        GattCapture.encode(first, buffer);
+        final File file = File.createTempFile("capture", ".gcpt");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                // the second record was cut off by a crash
+                out.write(buffer.array(), 0, buffer.position() - 3);
+            } finally {
+                out.close();
+            }
+            final GattCapture.Reader reader = new GattCapture.Reader(file);
+            try {
+                assertRecord(first, reader.next());
+                assertNull(reader.next());
+                assertNull(reader.next());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsOtherFiles() throws IOException {
+        final File file = File.createTempFile("capture", ".txt");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write("not a capture".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            new GattCapture.Reader(file).close();
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static GattCapture.Record roundTrip(GattCapture.Record record) {
+        final ByteBuffer buffer = ByteBuffer.allocate(record.size());
+        GattCapture.encode(record, buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        final GattCapture.Record decoded = GattCapture.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    private static void assertRecord(GattCapture.Record expected, GattCapture.Record actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getTimestampNanos(), actual.getTimestampNanos());
+        assertEquals(expected.getAddress(), actual.getAddress());
+        assertEquals(expected.getUuid(), actual.getUuid());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertArrayEquals(expected.getValue(), actual.getValue());
+    }
+}
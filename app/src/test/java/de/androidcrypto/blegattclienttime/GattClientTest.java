@@ -0,0 +1,426 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the client against a {@link SimulatedPeripheral} on the JVM, through the operation
+ * queue, the transport callbacks and the notification dispatcher.
+ */
+public class GattClientTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:01";
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private SimulatedPeripheral mPeripheral;
+    private GattClient mClient;
+
+    @Before
+    public void setUp() {
+        mPeripheral = new SimulatedPeripheral(ADDRESS, new SimulatedPeripheral.Config()
+                .setLatency(1, TimeUnit.MILLISECONDS)
+                .setJitter(0, TimeUnit.MILLISECONDS)
+                .setNotificationInterval(20, TimeUnit.MILLISECONDS));
+        mClient = new GattClient(GattClock.SYSTEM, SimulatedPeripheral.factory(mPeripheral));
+    }
+
+    @After
+    public void tearDown() {
+        mClient.shutdown();
+        mPeripheral.shutdown();
+    }
+
+    @Test
+    public void connect_discoversServices() throws Exception {
+        connectAndDiscover();
+        assertEquals(GattClient.STATE_CONNECTED, mClient.getConnectionState(ADDRESS));
+        final List<UUID> services = new ArrayList<>();
+        for (GattServiceInfo service : mClient.getServices(ADDRESS)) {
+            services.add(service.getUuid());
+        }
+        assertTrue(services.contains(SimulatedPeripheral.CURRENT_TIME_SERVICE));
+        assertTrue(services.contains(SimulatedPeripheral.BATTERY_SERVICE));
+    }
+
+    @Test
+    public void connect_unknownDevice_fails() {
+        assertFalse(mClient.connect("AA:BB:CC:DD:EE:99"));
+        assertNull(mClient.getServices("AA:BB:CC:DD:EE:99"));
+    }
+
+    @Test
+    public void connect_concurrently_createsOneTransport() throws Exception {
+        final AtomicInteger transports = new AtomicInteger();
+        final GattTransport.Factory simulated = SimulatedPeripheral.factory(mPeripheral);
+        final GattClient client = new GattClient(GattClock.SYSTEM, new GattTransport.Factory() {
+            @Override
+            public GattTransport create(String address, GattTransport.Callback callback) {
+                transports.incrementAndGet();
+                try {
+                    // connectGatt is a binder call, the other connects arrive meanwhile
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return simulated.create(address, callback);
+            }
+        });
+        try {
+            final int threads = 8;
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(threads);
+            final AtomicInteger connected = new AtomicInteger();
+            for (int i = 0; i < threads; i++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            if (client.connect(ADDRESS)) {
+                                connected.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            start.countDown();
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(threads, connected.get());
+            assertEquals(1, transports.get());
+            assertEquals(1, client.getConnectedDevices().size());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void readCharacteristic_returnsValue() throws Exception {
+        connectAndDiscover();
+        mPeripheral.setBatteryLevel(42);
+        final byte[] value = mClient.readCharacteristic(ADDRESS, SimulatedPeripheral.BATTERY_SERVICE,
+                SimulatedPeripheral.BATTERY_LEVEL).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertArrayEquals(new byte[]{42}, value);
+    }
+
+    @Test
+    public void readCharacteristic_onConnect_waitsForDiscovery() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger bytes = new AtomicInteger(-1);
+        final AtomicInteger discoveredAtRead = new AtomicInteger(-1);
+        mClient.registerListener(new GattEventListener() {
+            @Override
+            public void onConnectionStateChange(String address, int newState) {
+                if (newState != GattTransport.STATE_CONNECTED) return;
+                mClient.readCharacteristic(ADDRESS, SimulatedPeripheral.BATTERY_SERVICE,
+                        SimulatedPeripheral.BATTERY_LEVEL).addListener(
+                        new GattFuture.Listener<byte[]>() {
+                            @Override
+                            public void onComplete(byte[] value, Throwable error) {
+                                discoveredAtRead.set(mClient.isDiscovered(ADDRESS) ? 1 : 0);
+                                bytes.set(value != null ? value.length : 0);
+                                done.countDown();
+                            }
+                        });
+            }
+        });
+        assertFalse(mClient.isDiscovered(ADDRESS));
+        assertTrue(mClient.connect(ADDRESS));
+        assertTrue("no read", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, bytes.get());
+        assertEquals(1, discoveredAtRead.get());
+    }
+
+    @Test
+    public void readCharacteristic_notConnected_fails() {
+        final GattFuture<byte[]> read = mClient.readCharacteristic(ADDRESS,
+                SimulatedPeripheral.BATTERY_SERVICE, SimulatedPeripheral.BATTERY_LEVEL);
+        assertTrue(read.isCompletedExceptionally());
+    }
+
+    @Test
+    public void readClockOffset_measuresPeripheralClock() throws Exception {
+        connectAndDiscover();
+        mPeripheral.setClockOffsetMillis(5000);
+        final ClockEstimate estimate = mClient.readClockOffset(ADDRESS, 4)
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(estimate);
+        // the Current Time has a resolution of 1/256 s
+        assertEquals(5000, estimate.getOffsetMillis(), 50);
+    }
+
+    @Test
+    public void subscribe_deliversNotifications() throws Exception {
+        connectAndDiscover();
+        final CountDownLatch received = new CountDownLatch(3);
+        mClient.subscribe(ADDRESS, SimulatedPeripheral.HEART_RATE_SERVICE,
+                SimulatedPeripheral.HEART_RATE_MEASUREMENT, new GattSubscription.Listener() {
+                    @Override
+                    public void onValue(String address, UUID characteristic, byte[] value,
+                                        long timestampNanos) {
+                        received.countDown();
+                    }
+                }, null);
+        assertTrue(received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void linkLoss_restoresSubscriptionAfterReconnect() throws Exception {
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final AtomicInteger discoveries = new AtomicInteger();
+        mClient.registerListener(new GattEventListener() {
+            @Override
+            public void onConnectionStateChange(String address, int newState) {
+                if (newState == GattTransport.STATE_DISCONNECTED) {
+                    disconnected.countDown();
+                }
+            }
+
+            @Override
+            public void onServicesDiscovered(String address, int status) {
+                discoveries.incrementAndGet();
+            }
+        });
+        connectAndDiscover();
+        final AtomicInteger values = new AtomicInteger();
+        final GattSubscription subscription = mClient.subscribe(ADDRESS,
+                SimulatedPeripheral.HEART_RATE_SERVICE,
+                SimulatedPeripheral.HEART_RATE_MEASUREMENT, new GattSubscription.Listener() {
+                    @Override
+                    public void onValue(String address, UUID characteristic, byte[] value,
+                                        long timestampNanos) {
+                        values.incrementAndGet();
+                    }
+                }, null);
+        final GattFuture<Void> enabled = subscription.getEnabled();
+        enabled.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        awaitValues(values, 1);
+
+        mPeripheral.simulateLinkLoss();
+        assertTrue(disconnected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(GattClient.STATE_DISCONNECTED, mClient.getConnectionState(ADDRESS));
+        final int before = values.get();
+
+        connectAndDiscover();
+        assertEquals(2, discoveries.get());
+        // the CCCD is written again without a new subscribe
+        awaitValues(values, before + 3);
+        assertNotSame(enabled, subscription.getEnabled());
+        subscription.getEnabled().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void unsubscribe_thenSubscribe_keepsRegistration() throws Exception {
+        connectAndDiscover();
+        final GattSubscription.Listener ignore = new GattSubscription.Listener() {
+            @Override
+            public void onValue(String address, UUID characteristic, byte[] value,
+                                long timestampNanos) {
+            }
+        };
+        final GattSubscription first = mClient.subscribe(ADDRESS,
+                SimulatedPeripheral.HEART_RATE_SERVICE,
+                SimulatedPeripheral.HEART_RATE_MEASUREMENT, ignore, null);
+        first.cancel();
+        final AtomicInteger values = new AtomicInteger();
+        final GattSubscription second = mClient.subscribe(ADDRESS,
+                SimulatedPeripheral.HEART_RATE_SERVICE,
+                SimulatedPeripheral.HEART_RATE_MEASUREMENT, new GattSubscription.Listener() {
+                    @Override
+                    public void onValue(String address, UUID characteristic, byte[] value,
+                                        long timestampNanos) {
+                        values.incrementAndGet();
+                    }
+                }, null);
+        second.getEnabled().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        // the 0x0000 of the cancel was written before the enable of the new subscription
+        awaitValues(values, 3);
+    }
+
+    @Test
+    public void bulkWrite_raisesMtuAfterLowLatencyBurst() throws Exception {
+        tearDown();
+        mPeripheral = new SimulatedPeripheral(ADDRESS, new SimulatedPeripheral.Config()
+                .setLatency(1, TimeUnit.MILLISECONDS)
+                .setJitter(0, TimeUnit.MILLISECONDS)
+                .setMtu(ConnectionProfile.MAX_MTU));
+        mClient = new GattClient(GattClock.SYSTEM, SimulatedPeripheral.factory(mPeripheral));
+        mClient.setDefaultConnectionProfile(ConnectionProfile.BALANCED);
+        mClient.setAutoProfileSwitching(true);
+        connectAndDiscover();
+        // the clock reads run with low-latency, which keeps the default MTU
+        mClient.readClockOffset(ADDRESS, 4).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(GattTransport.DEFAULT_MTU, mClient.getMtu(ADDRESS));
+
+        final byte[] value = CurrentTimeService.getExactTime(System.currentTimeMillis(),
+                (byte) 0x01);
+        mClient.bulkWrite(ADDRESS, SimulatedPeripheral.CURRENT_TIME_SERVICE,
+                SimulatedPeripheral.CURRENT_TIME, GattCharacteristicInfo.PROPERTY_WRITE,
+                ByteBuffer.wrap(value), null).getResult().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(ConnectionProfile.MAX_MTU, mClient.getMtu(ADDRESS));
+    }
+
+    @Test
+    public void replay_reachesOnlyReplayListeners() throws Exception {
+        final File capture = File.createTempFile("replay", ".gcpt");
+        try {
+            assertTrue(capture.delete());
+            mClient.startRecording(capture);
+            connectAndDiscover();
+            final AtomicInteger live = new AtomicInteger();
+            mClient.subscribe(ADDRESS,
+                    SimulatedPeripheral.HEART_RATE_SERVICE,
+                    SimulatedPeripheral.HEART_RATE_MEASUREMENT, new GattSubscription.Listener() {
+                        @Override
+                        public void onValue(String address, UUID characteristic, byte[] value,
+                                            long timestampNanos) {
+                            live.incrementAndGet();
+                        }
+                    }, null);
+            awaitValues(live, 3);
+            mClient.stopRecording();
+            // the subscription stays registered while the device is disconnected
+            mClient.disconnect(ADDRESS);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (mClient.getConnectionState(ADDRESS) != GattClient.STATE_DISCONNECTED) {
+                assertTrue("still connected", System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+
+            final AtomicInteger liveEvents = new AtomicInteger();
+            mClient.registerListener(new GattEventListener() {
+                @Override
+                public void onConnectionStateChange(String address, int newState) {
+                    liveEvents.incrementAndGet();
+                }
+
+                @Override
+                public void onServicesDiscovered(String address, int status) {
+                    liveEvents.incrementAndGet();
+                }
+            });
+            final AtomicInteger replayed = new AtomicInteger();
+            final AtomicInteger replayedStates = new AtomicInteger();
+            mClient.registerReplayListener(new GattEventListener() {
+                @Override
+                public void onConnectionStateChange(String address, int newState) {
+                    replayedStates.incrementAndGet();
+                }
+
+                @Override
+                public void onCharacteristicChanged(String address, UUID characteristic,
+                                                    byte[] value, long timestampNanos) {
+                    replayed.incrementAndGet();
+                }
+            });
+            final int delivered = live.get();
+            final long events = mClient.replay(capture, 0).getDone()
+                    .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertTrue(events > 3);
+            awaitValues(replayed, 3);
+            assertTrue(replayedStates.get() > 0);
+            assertEquals(0, liveEvents.get());
+            assertEquals(delivered, live.get());
+        } finally {
+            capture.delete();
+        }
+    }
+
+    @Test
+    public void serviceChanged_rediscoversWithoutANotification() throws Exception {
+        final GattTransport.Callback[] callback = new GattTransport.Callback[1];
+        final GattTransport.Factory simulated = SimulatedPeripheral.factory(mPeripheral);
+        final GattClient client = new GattClient(GattClock.SYSTEM, new GattTransport.Factory() {
+            @Override
+            public GattTransport create(String address, GattTransport.Callback transport) {
+                callback[0] = transport;
+                return simulated.create(address, transport);
+            }
+        });
+        final AtomicInteger discoveries = new AtomicInteger();
+        final AtomicInteger serviceChanged = new AtomicInteger();
+        client.registerListener(new GattEventListener() {
+            @Override
+            public void onServicesDiscovered(String address, int status) {
+                discoveries.incrementAndGet();
+            }
+
+            @Override
+            public void onCharacteristicChanged(String address, UUID characteristic,
+                                                byte[] value, long timestampNanos) {
+                if (GattAttributeCache.SERVICE_CHANGED.equals(characteristic)) {
+                    serviceChanged.incrementAndGet();
+                }
+            }
+        });
+        try {
+            assertTrue(client.connect(ADDRESS));
+            awaitValues(discoveries, 1);
+            callback[0].onServiceChanged();
+            awaitValues(discoveries, 2);
+            assertTrue(client.isDiscovered(ADDRESS));
+            // the callback of the stack is no indication, listeners and captures do not see it
+            assertEquals(0, serviceChanged.get());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void close_cancelsQueuedOperations() throws Exception {
+        connectAndDiscover();
+        final GattFuture<byte[]> read = mClient.readCharacteristic(ADDRESS,
+                SimulatedPeripheral.BATTERY_SERVICE, SimulatedPeripheral.BATTERY_LEVEL);
+        mClient.close(ADDRESS);
+        try {
+            read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("the read completed after close");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof GattException);
+        }
+        assertTrue(mClient.getConnectedDevices().isEmpty());
+    }
+
+    private void connectAndDiscover() throws InterruptedException {
+        final CountDownLatch discovered = new CountDownLatch(1);
+        final GattEventListener listener = new GattEventListener() {
+            @Override
+            public void onServicesDiscovered(String address, int status) {
+                discovered.countDown();
+            }
+        };
+        mClient.registerListener(listener);
+        try {
+            assertTrue(mClient.connect(ADDRESS));
+            assertTrue("no discovery", discovered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            mClient.unregisterListener(listener);
+        }
+    }
+
+    private static void awaitValues(AtomicInteger values, int expected)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (values.get() < expected) {
+            assertTrue("received " + values.get() + " of " + expected + " values",
+                    System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
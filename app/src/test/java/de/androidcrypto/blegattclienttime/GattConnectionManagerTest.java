@@ -0,0 +1,111 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class GattConnectionManagerTest {
+
+    private static final UUID SERVICE = GattUuids.fromShortId(0x180D);
+    private static final UUID CHARACTERISTIC = GattUuids.fromShortId(0x2A37);
+
+    private ScheduledExecutorService mScheduler;
+    private GattConnectionManager mManager;
+
+    @Before
+    public void setUp() {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mManager = new GattConnectionManager();
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void capacity_followsTheLimit() {
+        mManager.setMaxConnections(2);
+        assertTrue(mManager.hasCapacity());
+        mManager.add(connection("A", GattClient.STATE_CONNECTED, 1));
+        assertTrue(mManager.hasCapacity());
+        mManager.add(connection("B", GattClient.STATE_CONNECTED, 2));
+        assertFalse(mManager.hasCapacity());
+        assertTrue(mManager.remove(mManager.get("A")));
+        assertTrue(mManager.hasCapacity());
+        assertNull(mManager.get(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxConnections_rejectsZero() {
+        mManager.setMaxConnections(0);
+    }
+
+    @Test
+    public void remove_keepsAReplacement() {
+        final GattConnection old = connection("A", GattClient.STATE_DISCONNECTED, 1);
+        mManager.add(old);
+        final GattConnection replacement = connection("A", GattClient.STATE_CONNECTED, 2);
+        mManager.add(replacement);
+        assertFalse(mManager.remove(old));
+        assertSame(replacement, mManager.get("A"));
+    }
+
+    @Test
+    public void eviction_leastRecentlyUsedFirst() {
+        mManager.add(connection("A", GattClient.STATE_CONNECTED, 30));
+        mManager.add(connection("B", GattClient.STATE_CONNECTED, 10));
+        mManager.add(connection("C", GattClient.STATE_CONNECTED, 20));
+        assertEquals("B", mManager.findEvictionCandidate().address);
+    }
+
+    @Test
+    public void eviction_disconnectedBeforeConnected() {
+        mManager.add(connection("A", GattClient.STATE_CONNECTED, 10));
+        mManager.add(connection("B", GattClient.STATE_DISCONNECTED, 30));
+        mManager.add(connection("C", GattClient.STATE_DISCONNECTED, 20));
+        assertEquals("C", mManager.findEvictionCandidate().address);
+    }
+
+    @Test
+    public void eviction_skipsBusyConnections() {
+        final GattConnection connecting = connection("A", GattClient.STATE_CONNECTING, 1);
+        final GattConnection subscribed = connection("B", GattClient.STATE_DISCONNECTED, 2);
+        subscribed.subscriptions.subscribe(SERVICE, CHARACTERISTIC, null, null);
+        final GattConnection audited = connection("C", GattClient.STATE_CONNECTED, 3);
+        audited.clockAudit = new ClockAudit(audited, mScheduler, null, 1, 1000);
+        final GattConnection tracked = connection("D", GattClient.STATE_CONNECTED, 4);
+        tracked.heartRateVariability = new HeartRateVariability("D", 60000);
+        final GattConnection idle = connection("E", GattClient.STATE_CONNECTED, 5);
+        mManager.add(connecting);
+        mManager.add(subscribed);
+        mManager.add(audited);
+        mManager.add(tracked);
+        mManager.add(idle);
+        assertSame(idle, mManager.findEvictionCandidate());
+
+        mManager.remove(idle);
+        assertNull(mManager.findEvictionCandidate());
+
+        tracked.heartRateVariability = null;
+        assertSame(tracked, mManager.findEvictionCandidate());
+        audited.clockAudit = null;
+        assertSame(audited, mManager.findEvictionCandidate());
+        subscribed.subscriptions.clear();
+        assertSame(subscribed, mManager.findEvictionCandidate());
+    }
+
+    private GattConnection connection(String address, int state, long lastActivityMillis) {
+        final GattConnection connection = new GattConnection(address, GattClock.SYSTEM,
+                mScheduler, new GattMetrics.Device(address), null);
+        connection.state = state;
+        connection.lastActivityMillis = lastActivityMillis;
+        return connection;
+    }
+}
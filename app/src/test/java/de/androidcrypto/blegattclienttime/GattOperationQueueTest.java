@@ -0,0 +1,150 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+
+    private static final UUID FIRST = GattUuids.fromShortId(0x2A19);
+    private static final UUID SECOND = GattUuids.fromShortId(0x2A2B);
+
+    private final ScheduledExecutorService mScheduler =
+            Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationQueue mQueue = new GattOperationQueue(mScheduler, null);
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void complete_startsNextOperation() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        final GattFuture<byte[]> first = mQueue.enqueue(read(FIRST, 1000, started));
+        final GattFuture<byte[]> second = mQueue.enqueue(read(SECOND, 1000, started));
+        assertEquals(1, started.get());
+
+        assertTrue(mQueue.complete(GattOperationQueue.TYPE_READ_CHARACTERISTIC, FIRST,
+                new byte[]{1}));
+        assertArrayEquals(new byte[]{1}, first.get());
+        assertEquals(2, started.get());
+        assertFalse(second.isDone());
+    }
+
+    @Test
+    public void complete_handsTimestampToOperation() throws Exception {
+        final GattOperationQueue.Operation<byte[]> read = read(FIRST, 1000, new AtomicInteger());
+        final GattFuture<byte[]> future = mQueue.enqueue(read);
+        assertTrue(mQueue.complete(GattOperationQueue.TYPE_READ_CHARACTERISTIC, FIRST,
+                new byte[]{1}, 123456789L));
+        future.get();
+        assertEquals(123456789L, read.resultNanos);
+    }
+
+    @Test
+    public void complete_otherCharacteristic_isIgnored() {
+        final GattFuture<byte[]> first = mQueue.enqueue(read(FIRST, 1000, new AtomicInteger()));
+        assertFalse(mQueue.complete(GattOperationQueue.TYPE_READ_CHARACTERISTIC, SECOND,
+                new byte[]{1}));
+        assertFalse(mQueue.complete(GattOperationQueue.TYPE_WRITE_CHARACTERISTIC, FIRST, null));
+        assertFalse(first.isDone());
+    }
+
+    @Test
+    public void completeDescriptor_matchesCharacteristic() throws Exception {
+        final UUID cccd = GattSubscriptionManager.CLIENT_CHARACTERISTIC_CONFIGURATION;
+        final GattFuture<Void> write = mQueue.enqueue(new GattOperationQueue.Operation<Void>(
+                GattOperationQueue.TYPE_WRITE_DESCRIPTOR, FIRST, cccd, 1000) {
+            @Override
+            boolean execute() {
+                return true;
+            }
+        });
+        // the CCCD of another characteristic
+        assertFalse(mQueue.completeDescriptor(GattOperationQueue.TYPE_WRITE_DESCRIPTOR, SECOND,
+                cccd, null));
+        assertFalse(mQueue.failDescriptor(GattOperationQueue.TYPE_WRITE_DESCRIPTOR, SECOND,
+                cccd, 133));
+        assertFalse(write.isDone());
+        assertTrue(mQueue.completeDescriptor(GattOperationQueue.TYPE_WRITE_DESCRIPTOR, FIRST,
+                cccd, null));
+        assertNull(write.get());
+        assertTrue(mQueue.isIdle());
+    }
+
+    @Test
+    public void timeout_holdsQueueUntilLateCallback() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        final GattFuture<byte[]> first = mQueue.enqueue(read(FIRST, 20, started));
+        final GattFuture<byte[]> second = mQueue.enqueue(read(FIRST, 1000, started));
+        try {
+            first.get(1, TimeUnit.SECONDS);
+            fail("the first read did not time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Thread.sleep(50);
+        // the stack is still busy with the first read
+        assertEquals(1, started.get());
+        assertFalse(mQueue.isIdle());
+
+        // the late answer releases the queue but does not complete the second read
+        assertFalse(mQueue.complete(GattOperationQueue.TYPE_READ_CHARACTERISTIC, FIRST,
+                new byte[]{1}));
+        assertEquals(2, started.get());
+        assertFalse(second.isDone());
+
+        assertTrue(mQueue.complete(GattOperationQueue.TYPE_READ_CHARACTERISTIC, FIRST,
+                new byte[]{2}));
+        assertArrayEquals(new byte[]{2}, second.get());
+        assertTrue(mQueue.isIdle());
+    }
+
+    @Test
+    public void cancelAll_failsRunningAndPending() throws Exception {
+        final GattFuture<byte[]> first = mQueue.enqueue(read(FIRST, 1000, new AtomicInteger()));
+        final GattFuture<byte[]> second = mQueue.enqueue(read(SECOND, 1000, new AtomicInteger()));
+        mQueue.cancelAll(new GattException(GattException.STATUS_DISCONNECTED, "disconnected"));
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertTrue(mQueue.isIdle());
+    }
+
+    @Test
+    public void notStarted_failsAndStartsNext() {
+        final GattFuture<byte[]> rejected = mQueue.enqueue(
+                new GattOperationQueue.Operation<byte[]>(
+                        GattOperationQueue.TYPE_READ_CHARACTERISTIC, FIRST, 1000) {
+                    @Override
+                    boolean execute() {
+                        return false;
+                    }
+                });
+        assertTrue(rejected.isCompletedExceptionally());
+        final AtomicInteger started = new AtomicInteger();
+        mQueue.enqueue(read(SECOND, 1000, started));
+        assertEquals(1, started.get());
+    }
+
+    private static GattOperationQueue.Operation<byte[]> read(UUID uuid, long timeoutMillis,
+                                                             final AtomicInteger started) {
+        return new GattOperationQueue.Operation<byte[]>(
+                GattOperationQueue.TYPE_READ_CHARACTERISTIC, uuid, timeoutMillis) {
+            @Override
+            boolean execute() {
+                started.incrementAndGet();
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GattSchemaCompilerTest {
+
+    @Test
+    public void tokenize_quotesAndComments() {
+        assertEquals(Arrays.asList("u8", "label=wheel event", "unit=ms"),
+                GattSchemaCompiler.tokenize("  u8 label=\"wheel event\"\tunit=ms # 1/1024 s"));
+        assertEquals(Arrays.asList("text", "a # b"),
+                GattSchemaCompiler.tokenize("text \"a # b\""));
+        assertTrue(GattSchemaCompiler.tokenize("# only a comment").isEmpty());
+    }
+
+    @Test
+    public void compile_severalSchemas() throws IOException {
+        final List<CharacteristicSchema> schemas = compile(
+                "characteristic 0x2A0E Time Zone\n"
+                        + "s8 label=UTC mul=15 unit=min\n"
+                        + "end\n"
+                        + "\n"
+                        + "characteristic 6e3a0002-5c2b-4f8e-9d1a-3b7c2e4f5a60 Vendor value\n"
+                        + "u16 hex\n"
+                        + "end\n");
+        assertEquals(2, schemas.size());
+        assertEquals(GattUuids.fromShortId(0x2A0E), schemas.get(0).getUuid());
+        assertEquals("Time Zone", schemas.get(0).getName());
+        assertEquals(1, schemas.get(0).getInstructionCount());
+        assertEquals("Vendor value", schemas.get(1).getName());
+    }
+
+    @Test
+    public void compile_bundledSchemas() throws IOException {
+        // unit tests run in the module directory
+        final Reader reader = new InputStreamReader(
+                new FileInputStream(new File("src/main/assets/gatt_schemas.txt")), "UTF-8");
+        try {
+            assertFalse(GattSchemaCompiler.compile(reader).isEmpty());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void mul_isBoundedByFieldWidth() throws IOException {
+        // 48 + 15 bits fit in a long, 32 + 16 too
+        compile(schema("u48 mul=32767"));
+        compile(schema("s48 mul=32767"));
+        compile(schema("u32 mul=65535"));
+        assertError(schema("u48 mul=32768"), "line 2: factor too large for a 48 bit field");
+        assertError(schema("u48 mul=65535"), "line 2: factor too large for a 48 bit field");
+        // div only divides
+        compile(schema("u48 div=65535"));
+        assertError(schema("u8 mul=65536"), "line 2: factor too large");
+        assertError(schema("u8 mul=0"), "line 2: not a positive number");
+    }
+
+    @Test
+    public void compile_errorsNameTheLine() {
+        assertError("u8\n", "line 1: characteristic <id> <name> expected");
+        assertError("characteristic 0x10000 Too long\nend\n", "line 1: not a 16 bit id");
+        assertError(schema("u12"), "line 2: unknown type u12");
+        assertError(schema("u8 if=0x01"), "line 2: condition without flags");
+        assertError(schema("flags u8\nu8 if=0x01/0x02"), "line 3: invalid condition");
+        assertError(schema("flags s8"), "line 2: flags are u8, u16, u24 or u32");
+        assertError(schema("flags u8\nflags u8"), "line 3: flags read twice");
+        assertError(schema("repeat\nrepeat"), "line 3: nested repeat");
+        assertError(schema("repeat\nendrepeat"), "line 3: empty repeat");
+        assertError(schema("endrepeat"), "line 2: endrepeat without repeat");
+        assertError(schema("utf8\nu8"), "line 3: u8 after a field");
+        assertError(schema("sfloat mul=2"), "line 2: unexpected mul=2 for sfloat");
+        assertError(schema("u8 label=\"open"), "line 2: unterminated quote");
+        assertError("characteristic 0x2A0E Time Zone\nu8\n", "line 2: end of the schema");
+        assertError("characteristic 0x2A0E A\nend\n", "line 2: empty schema");
+        assertError(schema("u8") + schema("u8"), "line 4: duplicate schema");
+        assertError(schema("repeat\nu8"), "line 4: endrepeat missing");
+    }
+
+    @Test
+    public void openRepeat_needsFieldWithoutCondition() throws IOException {
+        assertError(schema("repeat\ntext a\nendrepeat"),
+                "line 4: repeat without a count needs a field without condition");
+        assertError(schema("flags u8\nrepeat\nu8 if=0x01\nendrepeat"),
+                "line 5: repeat without a count needs a field without condition");
+        compile(schema("flags u8\nrepeat\nu8 if=0x01\nskip 1\nendrepeat"));
+        compile(schema("flags u8\nrepeat if=0x01\ntext a\nu8\nendrepeat"));
+        // a count ends the repeat anyway
+        compile(schema("flags u8\nrepeat 2\nu8 if=0x01\nendrepeat"));
+    }
+
+    static List<CharacteristicSchema> compile(String text) throws IOException {
+        return GattSchemaCompiler.compile(new StringReader(text));
+    }
+
+    static String schema(String fields) {
+        return "characteristic 0x2A0E Test\n" + fields + "\nend\n";
+    }
+
+    private static void assertError(String text, String message) {
+        try {
+            compile(text);
+            fail("compiled: " + text);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattUuidsTest {
+
+    private static final UUID CURRENT_TIME_SERVICE =
+            UUID.fromString("00001805-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void shortId_roundTrip() {
+        assertEquals(CURRENT_TIME_SERVICE, GattUuids.fromShortId(0x1805));
+        assertEquals(0x1805, GattUuids.toShortId(CURRENT_TIME_SERVICE));
+        assertEquals(-1, GattUuids.toShortId(
+                UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e")));
+    }
+
+    @Test
+    public void parse_acceptsShortAndFullForm() {
+        assertEquals(CURRENT_TIME_SERVICE, GattUuids.parse("1805"));
+        assertEquals(CURRENT_TIME_SERVICE, GattUuids.parse(" 0x1805 "));
+        assertEquals(GattUuids.fromShortId(0x180D), GattUuids.parse("180d"));
+        assertEquals(CURRENT_TIME_SERVICE,
+                GattUuids.parse("00001805-0000-1000-8000-00805f9b34fb"));
+    }
+
+    @Test
+    public void parse_rejectsInvalidText() {
+        final String[] invalid = {"", "0x", "-1", "+1", "18055", "xyz", "1805-0000"};
+        for (String text : invalid) {
+            try {
+                GattUuids.parse(text);
+                fail("parsed " + text);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeartRateServiceTest {
+
+    private final HeartRateMeasurement mOut = new HeartRateMeasurement();
+
+    @Test
+    public void decode_uint8WithoutOptionalFields() {
+        assertTrue(HeartRateService.decode(new byte[]{0x00, 72}, mOut));
+        assertTrue(mOut.isValid());
+        assertEquals(72, mOut.getHeartRate());
+        assertEquals(HeartRateMeasurement.SENSOR_CONTACT_NOT_SUPPORTED, mOut.getSensorContact());
+        assertEquals(-1, mOut.getEnergyExpended());
+        assertEquals(0, mOut.getRrIntervalCount());
+    }
+
+    @Test
+    public void decode_allFields() {
+        final byte[] data = {
+                (byte) (HeartRateService.FLAG_UINT16 | HeartRateService.FLAG_CONTACT_SUPPORTED
+                        | HeartRateService.FLAG_CONTACT_DETECTED
+                        | HeartRateService.FLAG_ENERGY_EXPENDED
+                        | HeartRateService.FLAG_RR_INTERVALS),
+                0x2C, 0x01,             // 300 bpm
+                0x10, 0x27,             // 10000 kJ
+                0x00, 0x04,             // 1024/1024 s
+                0x00, 0x02              // 512/1024 s
+        };
+        assertTrue(HeartRateService.decode(data, mOut));
+        assertEquals(300, mOut.getHeartRate());
+        assertEquals(HeartRateMeasurement.SENSOR_CONTACT_DETECTED, mOut.getSensorContact());
+        assertEquals(10000, mOut.getEnergyExpended());
+        assertEquals(2, mOut.getRrIntervalCount());
+        assertEquals(1024, mOut.getRrInterval1024(0));
+        assertEquals(1000.0, mOut.getRrIntervalMillis(0), 1e-9);
+        assertEquals(500.0, mOut.getRrIntervalMillis(1), 1e-9);
+    }
+
+    @Test
+    public void decode_contactSupportedButNotDetected() {
+        assertTrue(HeartRateService.decode(
+                new byte[]{HeartRateService.FLAG_CONTACT_SUPPORTED, 60}, mOut));
+        assertEquals(HeartRateMeasurement.SENSOR_CONTACT_NOT_DETECTED, mOut.getSensorContact());
+    }
+
+    @Test
+    public void decode_oddTrailingRrByte_isIgnored() {
+        assertTrue(HeartRateService.decode(
+                new byte[]{HeartRateService.FLAG_RR_INTERVALS, 60, 0x00, 0x04, 0x7F}, mOut));
+        assertEquals(1, mOut.getRrIntervalCount());
+        assertEquals(1024, mOut.getRrInterval1024(0));
+    }
+
+    @Test
+    public void decode_tooShort_fails() {
+        assertFalse(HeartRateService.decode(null, mOut));
+        assertFalse(HeartRateService.decode(new byte[]{0x00}, mOut));
+        assertFalse(HeartRateService.decode(new byte[]{HeartRateService.FLAG_UINT16, 60}, mOut));
+        assertFalse(mOut.isValid());
+        // the heart rate was decoded before the energy expended went missing
+        assertFalse(HeartRateService.decode(
+                new byte[]{HeartRateService.FLAG_ENERGY_EXPENDED, 60, 0x01}, mOut));
+        assertFalse(mOut.isValid());
+        assertEquals(60, mOut.getHeartRate());
+    }
+
+    @Test
+    public void decode_reusedHolder_isReset() {
+        assertTrue(HeartRateService.decode(new byte[]{
+                (byte) (HeartRateService.FLAG_ENERGY_EXPENDED | HeartRateService.FLAG_RR_INTERVALS),
+                80, 0x01, 0x00, 0x00, 0x04}, mOut));
+        assertTrue(HeartRateService.decode(new byte[]{0x00, 72}, mOut));
+        assertEquals(-1, mOut.getEnergyExpended());
+        assertEquals(0, mOut.getRrIntervalCount());
+    }
+
+    @Test
+    public void decode_manyRrIntervals_areCapped() {
+        final byte[] data = new byte[2 + 2 * (HeartRateMeasurement.MAX_RR_INTERVALS + 5)];
+        data[0] = HeartRateService.FLAG_RR_INTERVALS;
+        data[1] = 60;
+        assertTrue(HeartRateService.decode(data, mOut));
+        assertEquals(HeartRateMeasurement.MAX_RR_INTERVALS, mOut.getRrIntervalCount());
+    }
+}
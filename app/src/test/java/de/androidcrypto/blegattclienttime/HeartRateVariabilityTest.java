@@ -0,0 +1,163 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HeartRateVariabilityTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:01";
+
+    @Test
+    public void snapshot_constantRate() {
+        final HeartRateVariability hrv = new HeartRateVariability(ADDRESS, 60000);
+        for (int i = 0; i < 100; i++) {
+            hrv.addInterval(1024);
+        }
+        final HrvStatistics statistics = hrv.snapshot().get(0);
+        // a minute of one second beats
+        assertEquals(60, statistics.getBeats());
+        assertEquals(1000, statistics.getMeanRrMillis(), 1e-9);
+        assertEquals(60, statistics.getMeanHeartRate(), 1e-9);
+        assertEquals(0, statistics.getSdnnMillis(), 1e-9);
+        assertEquals(0, statistics.getRmssdMillis(), 1e-9);
+    }
+
+    @Test
+    public void snapshot_alternatingIntervals() {
+        final HeartRateVariability hrv = new HeartRateVariability(ADDRESS, 300000);
+        for (int i = 0; i < 10; i++) {
+            hrv.addInterval(i % 2 == 0 ? 768 : 1280);
+        }
+        final HrvStatistics statistics = hrv.snapshot().get(0);
+        assertEquals(10, statistics.getBeats());
+        assertEquals(1000, statistics.getMeanRrMillis(), 1e-9);
+        // every successive difference is 512/1024 s
+        assertEquals(500, statistics.getRmssdMillis(), 1e-9);
+        assertEquals(250 * Math.sqrt(10.0 / 9), statistics.getSdnnMillis(), 1e-9);
+    }
+
+    @Test
+    public void addInterval_artifactIsSkippedAndBreaksSuccession() {
+        final HeartRateVariability hrv = new HeartRateVariability(ADDRESS, 300000);
+        hrv.addInterval(1024);
+        hrv.addInterval(HeartRateVariability.MAX_RR_1024 + 1);
+        hrv.addInterval(512);
+        assertEquals(2, hrv.getBeatCount());
+        assertEquals(1, hrv.getRejectedCount());
+        // no successive pair is left
+        assertEquals(0, hrv.snapshot().get(0).getRmssdMillis(), 1e-9);
+    }
+
+    @Test
+    public void add_withoutContact_breaksSuccession() {
+        final HeartRateVariability hrv = new HeartRateVariability(ADDRESS, 300000);
+        final HeartRateMeasurement measurement = new HeartRateMeasurement();
+        assertTrue(HeartRateService.decode(new byte[]{
+                (byte) (HeartRateService.FLAG_CONTACT_SUPPORTED
+                        | HeartRateService.FLAG_CONTACT_DETECTED
+                        | HeartRateService.FLAG_RR_INTERVALS),
+                60, 0x00, 0x04}, measurement));
+        hrv.add(measurement);
+        assertTrue(HeartRateService.decode(new byte[]{
+                (byte) (HeartRateService.FLAG_CONTACT_SUPPORTED
+                        | HeartRateService.FLAG_RR_INTERVALS),
+                60, 0x00, 0x02}, measurement));
+        hrv.add(measurement);
+        assertEquals(1, hrv.getBeatCount());
+        hrv.addInterval(512);
+        assertEquals(0, hrv.snapshot().get(0).getRmssdMillis(), 1e-9);
+    }
+
+    @Test
+    public void snapshot_matchesDirectComputation() {
+        final long[] windows = {10000, 60000, 300000};
+        final HeartRateVariability hrv = new HeartRateVariability(ADDRESS, windows);
+        final List<Integer> intervals = new ArrayList<>();
+        final List<Boolean> successive = new ArrayList<>();
+        final Random random = new Random(42);
+        boolean previousAccepted = false;
+        for (int i = 0; i < 5000; i++) {
+            final int interval = 200 + random.nextInt(1950);
+            hrv.addInterval(interval);
+            final boolean accepted = interval >= HeartRateVariability.MIN_RR_1024
+                    && interval <= HeartRateVariability.MAX_RR_1024;
+            if (accepted) {
+                intervals.add(interval);
+                successive.add(previousAccepted);
+            }
+            previousAccepted = accepted;
+            if (i % 97 == 0) {
+                final List<HrvStatistics> snapshot = hrv.snapshot();
+                for (int w = 0; w < windows.length; w++) {
+                    assertStatistics(windows[w], intervals, successive, snapshot.get(w));
+                }
+            }
+        }
+        assertEquals(intervals.size(), hrv.getBeatCount());
+        assertEquals(5000 - intervals.size(), hrv.getRejectedCount());
+    }
+
+    @Test
+    public void reset_emptiesWindows() {
+        final HeartRateVariability hrv = new HeartRateVariability(ADDRESS, 60000, 300000);
+        hrv.addInterval(1024);
+        hrv.addInterval(900);
+        hrv.reset();
+        for (HrvStatistics statistics : hrv.snapshot()) {
+            assertEquals(0, statistics.getBeats());
+        }
+        hrv.addInterval(1024);
+        assertEquals(0, hrv.snapshot().get(0).getRmssdMillis(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_needsAWindow() {
+        new HeartRateVariability(ADDRESS);
+    }
+
+    /**
+     * Computes the window directly: the shortest run of the latest intervals that covers its
+     * duration.
+     */
+    private static void assertStatistics(long windowMillis, List<Integer> intervals,
+                                         List<Boolean> successive, HrvStatistics actual) {
+        final long duration1024 = windowMillis * 1024 / 1000;
+        int first = intervals.size();
+        long covered = 0;
+        while (first > 0 && covered < duration1024) {
+            covered += intervals.get(--first);
+        }
+        final int beats = intervals.size() - first;
+        assertEquals(windowMillis + " ms", beats, actual.getBeats());
+        if (beats == 0) {
+            return;
+        }
+        double sum = 0;
+        for (int i = first; i < intervals.size(); i++) {
+            sum += intervals.get(i);
+        }
+        final double mean = sum / beats;
+        double squares = 0;
+        double diffSquares = 0;
+        int diffs = 0;
+        for (int i = first; i < intervals.size(); i++) {
+            squares += (intervals.get(i) - mean) * (intervals.get(i) - mean);
+            if (i > first && successive.get(i)) {
+                final double diff = intervals.get(i) - intervals.get(i - 1);
+                diffSquares += diff * diff;
+                diffs++;
+            }
+        }
+        final double millis = 1000.0 / 1024;
+        assertEquals(mean * millis, actual.getMeanRrMillis(), 1e-9);
+        assertEquals(beats < 2 ? 0 : Math.sqrt(squares / (beats - 1)) * millis,
+                actual.getSdnnMillis(), 1e-6);
+        assertEquals(diffs == 0 ? 0 : Math.sqrt(diffSquares / diffs) * millis,
+                actual.getRmssdMillis(), 1e-6);
+    }
+}
@@ -0,0 +1,109 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class HexFormatterTest {
+
+    @Test
+    public void toHex_matchesStringFormat() {
+        final byte[] data = new byte[256];
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+            expected.append(String.format("%02X ", data[i]));
+        }
+        assertEquals(expected.toString(), HexFormatter.toHex(data));
+    }
+
+    @Test
+    public void toHex_empty() {
+        assertEquals("", HexFormatter.toHex(new byte[0]));
+    }
+
+    @Test
+    public void appendAsciiAndHex_replacesNonPrintable() {
+        final byte[] data = {'A', 'z', ' ', '~', 0x00, 0x1F, 0x7F, (byte) 0x80, (byte) 0xFF};
+        final StringBuilder out = new StringBuilder("value: ");
+        HexFormatter.appendAsciiAndHex(data, out);
+        assertEquals("value: Az ~.....\n41 7A 20 7E 00 1F 7F 80 FF ", out.toString());
+    }
+
+    @Test
+    public void formatHex_honoursOffsetAndLength() {
+        final HexFormatter formatter = new HexFormatter();
+        final byte[] data = {0x01, 0x02, 0x03, 0x04};
+        final int count = formatter.formatHex(data, 1, 2);
+        assertEquals(6, count);
+        assertEquals("02 03 ", new String(formatter.buffer(), 0, count));
+    }
+
+    @Test
+    public void formatHex_growsBuffer() {
+        final HexFormatter formatter = new HexFormatter();
+        final byte[] data = new byte[1000];
+        data[999] = (byte) 0xAB;
+        final int count = formatter.formatHex(data, 0, data.length);
+        assertEquals(3000, count);
+        assertEquals("AB ", new String(formatter.buffer(), count - 3, 3));
+    }
+
+    @Test
+    public void get_returnsOneInstancePerThread() throws Exception {
+        final HexFormatter main = HexFormatter.get();
+        assertSame(main, HexFormatter.get());
+        final AtomicReference<HexFormatter> other = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other.set(HexFormatter.get());
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotNull(other.get());
+        assertNotSame(main, other.get());
+    }
+
+    @Test
+    public void lazyHex_rendersOnRequest() {
+        final byte[] data = {'O', 'K', 0x00, (byte) 0xFF};
+        final CharSequence hex = HexFormatter.lazyHex(data);
+        final CharSequence both = HexFormatter.lazyAsciiAndHex(data);
+        assertEquals("4F 4B 00 FF ", hex.toString());
+        assertEquals(hex.toString().length(), hex.length());
+        assertEquals("OK..\n4F 4B 00 FF ", both.toString());
+        assertEquals(both.toString().length(), both.length());
+        assertEquals('\n', both.charAt(4));
+        assertEquals("4B", hex.subSequence(3, 5).toString());
+        assertSame(hex.toString(), hex.toString());
+    }
+
+    @Test
+    public void lazyText_decodesOnFirstRead() {
+        final AtomicInteger decoded = new AtomicInteger();
+        final CharacteristicDecoder decoder = new CharacteristicDecoder() {
+            @Override
+            public boolean decode(byte[] value, StringBuilder out) {
+                decoded.incrementAndGet();
+                if (value.length < 2) return false;
+                out.append(value[0] + value[1]);
+                return true;
+            }
+        };
+        final CharSequence text = CharacteristicDecoders.lazyText(decoder, new byte[]{2, 3});
+        assertEquals(0, decoded.get());
+        assertEquals("5", text.toString());
+        assertEquals(1, text.length());
+        assertEquals(1, decoded.get());
+        // a rejected value falls back to ASCII and hex
+        assertEquals(".\n07 ",
+                CharacteristicDecoders.lazyText(decoder, new byte[]{7}).toString());
+        assertEquals("OK\n4F 4B ", CharacteristicDecoders.lazyText(CharacteristicDecoders.HEX,
+                new byte[]{'O', 'K'}).toString());
+    }
+}
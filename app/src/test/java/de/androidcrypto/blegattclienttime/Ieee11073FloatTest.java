@@ -0,0 +1,99 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Ieee11073FloatTest {
+
+    @Test
+    public void sfloatToDouble_allValuesMatchBigDecimal() {
+        for (int raw = 0; raw <= 0xFFFF; raw++) {
+            if (Ieee11073Float.isSfloatSpecial(raw)) {
+                continue;
+            }
+            final double expected = exact(Ieee11073Float.sfloatMantissa(raw),
+                    Ieee11073Float.sfloatExponent(raw)).doubleValue();
+            // correctly rounded, not only close
+            assertEquals(Integer.toHexString(raw), Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(Ieee11073Float.sfloatToDouble(raw)));
+        }
+    }
+
+    @Test
+    public void appendSfloat_allValuesMatchBigDecimal() {
+        final StringBuilder text = new StringBuilder();
+        for (int raw = 0; raw <= 0xFFFF; raw++) {
+            if (Ieee11073Float.isSfloatSpecial(raw)) {
+                continue;
+            }
+            text.setLength(0);
+            Ieee11073Float.appendSfloat(text, raw, 0);
+            final BigDecimal expected = exact(Ieee11073Float.sfloatMantissa(raw),
+                    Ieee11073Float.sfloatExponent(raw));
+            assertEquals(Integer.toHexString(raw), 0,
+                    expected.compareTo(new BigDecimal(text.toString())));
+        }
+    }
+
+    @Test
+    public void sfloat_specialValues() {
+        assertTrue(Double.isNaN(Ieee11073Float.sfloatToDouble(Ieee11073Float.SFLOAT_NAN)));
+        assertTrue(Double.isNaN(Ieee11073Float.sfloatToDouble(Ieee11073Float.SFLOAT_NRES)));
+        assertTrue(Double.isNaN(Ieee11073Float.sfloatToDouble(Ieee11073Float.SFLOAT_RESERVED)));
+        assertEquals(Double.POSITIVE_INFINITY,
+                Ieee11073Float.sfloatToDouble(Ieee11073Float.SFLOAT_POSITIVE_INFINITY), 0);
+        assertEquals(Double.NEGATIVE_INFINITY,
+                Ieee11073Float.sfloatToDouble(Ieee11073Float.SFLOAT_NEGATIVE_INFINITY), 0);
+        assertEquals("NRes", Ieee11073Float.appendSfloat(new StringBuilder(),
+                Ieee11073Float.SFLOAT_NRES, 0).toString());
+        assertEquals("-INF", Ieee11073Float.appendSfloat(new StringBuilder(),
+                Ieee11073Float.SFLOAT_NEGATIVE_INFINITY, 0).toString());
+    }
+
+    @Test
+    public void appendSfloat_keepsDecimalDigits() {
+        // 367 * 10^-1
+        assertEquals("36.7", Ieee11073Float.appendSfloat(new StringBuilder(), 0xF16F, 0)
+                .toString());
+        assertEquals("0.0367", Ieee11073Float.appendSfloat(new StringBuilder(), 0xF16F, -3)
+                .toString());
+        assertEquals(36.7, Ieee11073Float.sfloatToDouble(0xF16F), 0);
+    }
+
+    @Test
+    public void floatToDouble_matchesBigDecimal() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final int raw = random.nextInt();
+            final int exponent = Ieee11073Float.floatExponent(raw);
+            if (Ieee11073Float.isFloatSpecial(raw) || Math.abs(exponent) > 22) {
+                continue;
+            }
+            final double expected = exact(Ieee11073Float.floatMantissa(raw), exponent)
+                    .doubleValue();
+            assertEquals(Integer.toHexString(raw), Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(Ieee11073Float.floatToDouble(raw)));
+        }
+    }
+
+    @Test
+    public void readSfloats_readsLittleEndianRecords() {
+        final byte[] data = {0x00, 0x6F, (byte) 0xF1, 0x00, 0x02, 0x00, 0x00};
+        final double[] out = new double[2];
+        Ieee11073Float.readSfloats(data, 1, 3, out, 2);
+        assertEquals(36.7, out[0], 0);
+        assertEquals(2, out[1], 0);
+        Ieee11073Float.readSfloats(ByteBuffer.wrap(data), 1, 3, out, 2);
+        assertEquals(36.7, out[0], 0);
+        assertEquals(2, out[1], 0);
+    }
+
+    private static BigDecimal exact(int mantissa, int exponent) {
+        return new BigDecimal(mantissa).scaleByPowerOfTen(exponent);
+    }
+}
@@ -0,0 +1,86 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketOf_smallValuesAreExact() {
+        for (int micros = 0; micros < 32; micros++) {
+            assertEquals(micros, LatencyHistogram.bucketOf(micros));
+            assertEquals(micros, LatencyHistogram.upperBound(micros));
+        }
+    }
+
+    @Test
+    public void upperBound_isLastValueOfBucket() {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            final long upper = LatencyHistogram.upperBound(bucket);
+            assertEquals("bucket " + bucket, bucket, LatencyHistogram.bucketOf(upper));
+            assertEquals("bucket " + bucket, bucket + 1, LatencyHistogram.bucketOf(upper + 1));
+        }
+        assertEquals((1L << 32) - 1, LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void bucketOf_widthIsAtMostOneThirtySecond() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final long micros = 32 + (random.nextLong() >>> 1) % ((1L << 32) - 32);
+            final long upper = LatencyHistogram.upperBound(LatencyHistogram.bucketOf(micros));
+            assertTrue(micros + " -> " + upper, upper >= micros);
+            assertTrue(micros + " -> " + upper, upper - micros <= micros / 32);
+        }
+    }
+
+    @Test
+    public void bucketOf_largeValuesUseLastBucket() {
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(1L << 32));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void snapshot_percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final long[] micros = new long[1000];
+        for (int i = 0; i < micros.length; i++) {
+            micros[i] = (i + 1) * 100;
+            histogram.record(micros[i] * 1000);
+        }
+        final HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(100, snapshot.getMinMicros());
+        assertEquals(100000, snapshot.getMaxMicros());
+        assertEquals(50050, snapshot.getMeanMicros(), 1e-9);
+        Arrays.sort(micros);
+        for (double percentile : new double[]{1, 50, 90, 99, 100}) {
+            final long exact = micros[(int) Math.ceil(percentile * 10) - 1];
+            final long value = snapshot.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + value, value >= exact);
+            assertTrue(percentile + ": " + value, value <= exact * 1.03);
+        }
+    }
+
+    @Test
+    public void record_negativeCountsAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        final HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getMaxMicros());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void snapshot_empty() {
+        final HistogramSnapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMinMicros());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,183 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NotificationRingTest {
+
+    private static final UUID FIRST = GattUuids.fromShortId(0x2A37);
+    private static final UUID SECOND = GattUuids.fromShortId(0x2A38);
+    private static final UUID THIRD = GattUuids.fromShortId(0x2A39);
+
+    // the rings below are not registered with it, so nothing takes their values
+    private final NotificationDispatcher mDispatcher = new NotificationDispatcher(
+            new NotificationDispatcher.Sink() {
+                @Override
+                public void onNotification(String address, UUID characteristic, byte[] value,
+                                           long timestampNanos) {
+                }
+            });
+
+    @After
+    public void tearDown() {
+        mDispatcher.shutdown();
+    }
+
+    @Test
+    public void poll_keepsOrderAndTimestamps() {
+        final NotificationRing ring = newRing(4, NotificationRing.OVERFLOW_DROP_OLDEST);
+        ring.offer(FIRST, new byte[]{1}, 10);
+        ring.offer(SECOND, new byte[]{2, 3}, 20);
+        assertEquals(2, ring.getSize());
+        final NotificationRing.Notification out = new NotificationRing.Notification();
+        assertTrue(ring.poll(out));
+        assertEquals(FIRST, out.characteristic);
+        assertArrayEquals(new byte[]{1}, out.value);
+        assertEquals(10, out.timestampNanos);
+        assertTrue(ring.poll(out));
+        assertEquals(SECOND, out.characteristic);
+        assertArrayEquals(new byte[]{2, 3}, out.value);
+        assertEquals(20, out.timestampNanos);
+        assertFalse(ring.poll(out));
+        assertTrue(ring.isEmpty());
+        assertEquals(2, ring.getPeakSize());
+    }
+
+    @Test
+    public void offer_longValue_isCopied() {
+        final NotificationRing ring = newRing(2, NotificationRing.OVERFLOW_DROP_OLDEST);
+        final byte[] value = new byte[NotificationRing.SLOT_SIZE + 100];
+        value[value.length - 1] = 42;
+        ring.offer(FIRST, value, 1);
+        final NotificationRing.Notification out = new NotificationRing.Notification();
+        assertTrue(ring.poll(out));
+        assertArrayEquals(value, out.value);
+    }
+
+    @Test
+    public void dropOldest_keepsNewestValues() {
+        final NotificationRing ring = newRing(4, NotificationRing.OVERFLOW_DROP_OLDEST);
+        for (int i = 0; i < 6; i++) {
+            ring.offer(FIRST, new byte[]{(byte) i}, i);
+        }
+        assertEquals(4, ring.getSize());
+        assertEquals(2, ring.getDroppedCount());
+        assertEquals(0, ring.getCoalescedCount());
+        assertValues(ring, FIRST, 2, FIRST, 3, FIRST, 4, FIRST, 5);
+    }
+
+    @Test
+    public void coalesce_replacesNewestValueOfCharacteristic() {
+        final NotificationRing ring = newRing(4, NotificationRing.OVERFLOW_COALESCE);
+        ring.offer(FIRST, new byte[]{0}, 0);
+        ring.offer(SECOND, new byte[]{1}, 1);
+        ring.offer(FIRST, new byte[]{2}, 2);
+        ring.offer(SECOND, new byte[]{3}, 3);
+        ring.offer(FIRST, new byte[]{4}, 4);
+        assertEquals(1, ring.getCoalescedCount());
+        assertEquals(0, ring.getDroppedCount());
+        assertValues(ring, FIRST, 0, SECOND, 1, FIRST, 4, SECOND, 3);
+    }
+
+    @Test
+    public void coalesce_withoutQueuedValue_dropsOldest() {
+        final NotificationRing ring = newRing(4, NotificationRing.OVERFLOW_COALESCE);
+        ring.offer(FIRST, new byte[]{0}, 0);
+        ring.offer(SECOND, new byte[]{1}, 1);
+        ring.offer(FIRST, new byte[]{2}, 2);
+        ring.offer(SECOND, new byte[]{3}, 3);
+        ring.offer(THIRD, new byte[]{4}, 4);
+        assertEquals(0, ring.getCoalescedCount());
+        assertEquals(1, ring.getDroppedCount());
+        assertValues(ring, SECOND, 1, FIRST, 2, SECOND, 3, THIRD, 4);
+    }
+
+    @Test
+    public void block_waitsForConsumer() throws Exception {
+        final NotificationRing ring = newRing(2, NotificationRing.OVERFLOW_BLOCK);
+        ring.offer(FIRST, new byte[]{0}, 0);
+        ring.offer(FIRST, new byte[]{1}, 1);
+        final CountDownLatch offered = offerOnThread(ring, new byte[]{2});
+        assertFalse(offered.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, ring.getBlockedCount());
+        assertEquals(2, ring.getSize());
+
+        final NotificationRing.Notification out = new NotificationRing.Notification();
+        assertTrue(ring.poll(out));
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        assertEquals(0, ring.getDroppedCount());
+        assertValues(ring, FIRST, 1, FIRST, 2);
+    }
+
+    @Test
+    public void block_closeReleasesProducer() throws Exception {
+        final NotificationRing ring = newRing(2, NotificationRing.OVERFLOW_BLOCK);
+        ring.offer(FIRST, new byte[]{0}, 0);
+        ring.offer(FIRST, new byte[]{1}, 1);
+        final CountDownLatch offered = offerOnThread(ring, new byte[]{2});
+        assertFalse(offered.await(100, TimeUnit.MILLISECONDS));
+        ring.close();
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, ring.getDroppedCount());
+        assertValues(ring, FIRST, 0, FIRST, 1);
+    }
+
+    @Test
+    public void setPolicy_appliesToNextOverflow() {
+        final NotificationRing ring = newRing(2, NotificationRing.OVERFLOW_BLOCK);
+        ring.offer(FIRST, new byte[]{0}, 0);
+        ring.offer(FIRST, new byte[]{1}, 1);
+        ring.setPolicy(NotificationRing.OVERFLOW_COALESCE);
+        ring.offer(FIRST, new byte[]{2}, 2);
+        assertEquals(1, ring.getCoalescedCount());
+        assertEquals(0, ring.getBlockedCount());
+        assertValues(ring, FIRST, 0, FIRST, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsCapacityThatIsNoPowerOfTwo() {
+        newRing(3, NotificationRing.OVERFLOW_DROP_OLDEST);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setPolicy_rejectsUnknownPolicy() {
+        newRing(4, NotificationRing.OVERFLOW_DROP_OLDEST).setPolicy(3);
+    }
+
+    private NotificationRing newRing(int capacity, int policy) {
+        return new NotificationRing("AA:BB:CC:DD:EE:01", mDispatcher, capacity, policy);
+    }
+
+    private static CountDownLatch offerOnThread(final NotificationRing ring, final byte[] value) {
+        final CountDownLatch offered = new CountDownLatch(1);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ring.offer(FIRST, value, value[0]);
+                offered.countDown();
+            }
+        });
+        producer.setDaemon(true);
+        producer.start();
+        return offered;
+    }
+
+    /**
+     * @param expected pairs of characteristic and the single byte value
+     */
+    private static void assertValues(NotificationRing ring, Object... expected) {
+        final NotificationRing.Notification out = new NotificationRing.Notification();
+        for (int i = 0; i < expected.length; i += 2) {
+            assertTrue("value " + i / 2 + " missing", ring.poll(out));
+            assertEquals(expected[i], out.characteristic);
+            assertArrayEquals(new byte[]{(byte) (int) (Integer) expected[i + 1]}, out.value);
+        }
+        assertFalse(ring.poll(out));
+    }
+}
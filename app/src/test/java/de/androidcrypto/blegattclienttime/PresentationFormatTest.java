@@ -0,0 +1,178 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class PresentationFormatTest {
+
+    private static final int CELSIUS = 0x272F;
+    private static final int UNITLESS = 0x2700;
+
+    @Test
+    public void parse_readsAllFields() {
+        final PresentationFormat format = PresentationFormat.parse(new byte[]{
+                PresentationFormat.FORMAT_SINT16, (byte) -2, 0x2F, 0x27, 0x01, 0x06, 0x01});
+        assertNotNull(format);
+        assertEquals(PresentationFormat.FORMAT_SINT16, format.getFormat());
+        assertEquals(-2, format.getExponent());
+        assertEquals(CELSIUS, format.getUnit());
+        assertEquals(PresentationFormat.NAMESPACE_BLUETOOTH_SIG, format.getNamespace());
+        assertEquals(0x0106, format.getDescription());
+        assertEquals("\u00B0C", format.getUnitSymbol());
+        assertEquals(new PresentationFormat(PresentationFormat.FORMAT_SINT16, -2, CELSIUS, 1,
+                0x0106), format);
+    }
+
+    @Test
+    public void parse_tooShort() {
+        assertNull(PresentationFormat.parse(null));
+        assertNull(PresentationFormat.parse(new byte[PresentationFormat.LENGTH - 1]));
+        assertNotNull(PresentationFormat.parse(new byte[PresentationFormat.LENGTH]));
+    }
+
+    @Test
+    public void decode_unsignedTakesOnlyTheFieldBits() {
+        assertEquals("4095", decode(PresentationFormat.FORMAT_UINT12, 0, UNITLESS,
+                (byte) 0xFF, (byte) 0xFF));
+        assertEquals("15", decode(PresentationFormat.FORMAT_UINT4, 0, UNITLESS, (byte) 0xFF));
+        assertEquals("16777215", decode(PresentationFormat.FORMAT_UINT24, 0, UNITLESS,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F));
+        assertEquals("4294967295", decode(PresentationFormat.FORMAT_UINT32, 0, UNITLESS,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF));
+        assertEquals("281474976710655", decode(PresentationFormat.FORMAT_UINT48, 0, UNITLESS,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF));
+    }
+
+    @Test
+    public void decode_signExtendsOddWidths() {
+        // 12 bit: 0x800 is the smallest, 0x7FF the largest value, the upper nibble is ignored
+        assertEquals("-2048", decode(PresentationFormat.FORMAT_SINT12, 0, UNITLESS,
+                0x00, 0x08));
+        assertEquals("2047", decode(PresentationFormat.FORMAT_SINT12, 0, UNITLESS,
+                (byte) 0xFF, (byte) 0xF7));
+        assertEquals("-1", decode(PresentationFormat.FORMAT_SINT12, 0, UNITLESS,
+                (byte) 0xFF, 0x0F));
+        assertEquals("-8388608", decode(PresentationFormat.FORMAT_SINT24, 0, UNITLESS,
+                0x00, 0x00, (byte) 0x80));
+        assertEquals("8388607", decode(PresentationFormat.FORMAT_SINT24, 0, UNITLESS,
+                (byte) 0xFF, (byte) 0xFF, 0x7F));
+        assertEquals("-140737488355328", decode(PresentationFormat.FORMAT_SINT48, 0, UNITLESS,
+                0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0x80));
+        assertEquals("-1", decode(PresentationFormat.FORMAT_SINT48, 0, UNITLESS,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF));
+        assertEquals("-128", decode(PresentationFormat.FORMAT_SINT8, 0, UNITLESS,
+                (byte) 0x80));
+    }
+
+    @Test
+    public void decode_appliesTheExponentAndUnit() {
+        // 2153 * 10^-2
+        assertEquals("21.53 \u00B0C", decode(PresentationFormat.FORMAT_SINT16, -2, CELSIUS,
+                0x69, 0x08));
+        assertEquals("-21.53 \u00B0C", decode(PresentationFormat.FORMAT_SINT16, -2, CELSIUS,
+                (byte) 0x97, (byte) 0xF7));
+        assertEquals("1200 s", decode(PresentationFormat.FORMAT_UINT8, 2, 0x2703, 12));
+        assertEquals("0.05 %", decode(PresentationFormat.FORMAT_UINT8, -2, 0x27AD, 5));
+    }
+
+    @Test
+    public void decode_ieeeFloats() {
+        assertEquals("21.53 \u00B0C", decode(PresentationFormat.FORMAT_FLOAT32, 0, CELSIUS,
+                littleEndian(Float.floatToIntBits(21.53f), 4)));
+        assertEquals("-0.5", decode(PresentationFormat.FORMAT_FLOAT64, 0, UNITLESS,
+                littleEndian(Double.doubleToLongBits(-0.5), 8)));
+        assertEquals("1.25", decode(PresentationFormat.FORMAT_FLOAT64, -2, UNITLESS,
+                littleEndian(Double.doubleToLongBits(125.0), 8)));
+    }
+
+    @Test
+    public void decode_ieee11073Floats() {
+        // SFLOAT mantissa 365, exponent -1
+        assertEquals("36.5 \u00B0C", decode(PresentationFormat.FORMAT_SFLOAT, 0, CELSIUS,
+                0x6D, (byte) 0xF1));
+        // the descriptor exponent adds to the one of the value
+        assertEquals("0.365", decode(PresentationFormat.FORMAT_SFLOAT, -2, UNITLESS,
+                0x6D, (byte) 0xF1));
+        // FLOAT mantissa 365, exponent -1
+        assertEquals("36.5 \u00B0C", decode(PresentationFormat.FORMAT_FLOAT, 0, CELSIUS,
+                0x6D, 0x01, 0x00, (byte) 0xFF));
+    }
+
+    @Test
+    public void decode_strings() {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final Charset utf16 = Charset.forName("UTF-16LE");
+        assertEquals("21 \u00B0C \u2713", decode(PresentationFormat.FORMAT_UTF8S, 0, CELSIUS,
+                "21 \u00B0C \u2713".getBytes(utf8)));
+        assertEquals("Sensor \u00C4", decode(PresentationFormat.FORMAT_UTF16S, 0, CELSIUS,
+                "Sensor \u00C4".getBytes(utf16)));
+        assertEquals("", decode(PresentationFormat.FORMAT_UTF8S, 0, UNITLESS));
+    }
+
+    @Test
+    public void decode_boolean() {
+        assertEquals("true", decode(PresentationFormat.FORMAT_BOOLEAN, 0, UNITLESS, 0x03));
+        assertEquals("false", decode(PresentationFormat.FORMAT_BOOLEAN, 0, UNITLESS, 0x02));
+    }
+
+    @Test
+    public void decode_tooShort() {
+        final CharacteristicDecoder decoder = new PresentationFormat(
+                PresentationFormat.FORMAT_SINT24, 0, UNITLESS, 1, 0).createDecoder();
+        assertFalse(decoder.decode(new byte[2], new StringBuilder()));
+        final CharacteristicDecoder float64 = new PresentationFormat(
+                PresentationFormat.FORMAT_FLOAT64, 0, UNITLESS, 1, 0).createDecoder();
+        assertFalse(float64.decode(new byte[7], new StringBuilder()));
+    }
+
+    @Test
+    public void createDecoder_unsupportedFormats() {
+        final int[] formats = {PresentationFormat.FORMAT_UINT64, PresentationFormat.FORMAT_UINT128,
+                PresentationFormat.FORMAT_SINT64, PresentationFormat.FORMAT_SINT128,
+                PresentationFormat.FORMAT_DUINT16, PresentationFormat.FORMAT_STRUCT, 0x00, 0xFF};
+        for (int format : formats) {
+            assertNull(Integer.toHexString(format),
+                    new PresentationFormat(format, 0, UNITLESS, 1, 0).createDecoder());
+        }
+    }
+
+    @Test
+    public void unitSymbol_knownAndUnknownUnits() {
+        assertEquals("\u00B0C", PresentationFormat.unitSymbol(CELSIUS));
+        assertEquals("%", PresentationFormat.unitSymbol(0x27AD));
+        assertEquals("bpm", PresentationFormat.unitSymbol(0x27AF));
+        assertEquals("mmHg", PresentationFormat.unitSymbol(0x2781));
+        assertEquals("\u2126", PresentationFormat.unitSymbol(0x272A));
+        assertEquals("", PresentationFormat.unitSymbol(UNITLESS));
+        assertEquals("", PresentationFormat.unitSymbol(0x27FF));
+    }
+
+    private static String decode(int format, int exponent, int unit, int... value) {
+        final byte[] bytes = new byte[value.length];
+        for (int i = 0; i < value.length; i++) {
+            bytes[i] = (byte) value[i];
+        }
+        return decode(format, exponent, unit, bytes);
+    }
+
+    private static String decode(int format, int exponent, int unit, byte[] value) {
+        final CharacteristicDecoder decoder =
+                new PresentationFormat(format, exponent, unit, 1, 0).createDecoder();
+        final StringBuilder out = new StringBuilder();
+        assertTrue(decoder.decode(value, out));
+        return out.toString();
+    }
+
+    private static byte[] littleEndian(long bits, int length) {
+        final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(bits);
+        final byte[] value = new byte[length];
+        System.arraycopy(buffer.array(), 0, value, 0, length);
+        return value;
+    }
+}
@@ -0,0 +1,51 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The snapshot of a small attribute table written after a discovery and read on a reconnect.
+ */
+@State(Scope.Thread)
+public class AttributeCacheBenchmark {
+
+    private List<GattServiceInfo> mServices;
+    private byte[] mSnapshot;
+
+    @Setup
+    public void setUp() {
+        final List<UUID> cccd = Collections.singletonList(GattUuids.fromShortId(0x2902));
+        final List<UUID> none = Collections.emptyList();
+        mServices = Arrays.asList(
+                new GattServiceInfo(GattUuids.fromShortId(0x1805), Arrays.asList(
+                        new GattCharacteristicInfo(GattUuids.fromShortId(0x2A2B), 0x1A, cccd),
+                        new GattCharacteristicInfo(GattUuids.fromShortId(0x2A0F), 0x02, none))),
+                new GattServiceInfo(GattUuids.fromShortId(0x180D), Arrays.asList(
+                        new GattCharacteristicInfo(GattUuids.fromShortId(0x2A37), 0x10, cccd),
+                        new GattCharacteristicInfo(GattUuids.fromShortId(0x2A38), 0x02, none))),
+                new GattServiceInfo(UUID.fromString("6e3a0001-5c2b-4f8e-9d1a-3b7c2e4f5a60"),
+                        Collections.singletonList(new GattCharacteristicInfo(
+                                UUID.fromString("6e3a0002-5c2b-4f8e-9d1a-3b7c2e4f5a60"), 0x12,
+                                Arrays.asList(GattUuids.fromShortId(0x2902),
+                                        GattUuids.fromShortId(0x2901),
+                                        GattUuids.fromShortId(0x2904))))));
+        mSnapshot = GattAttributeCache.encode(mServices);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return GattAttributeCache.encode(mServices);
+    }
+
+    @Benchmark
+    public List<GattServiceInfo> decode() {
+        return GattAttributeCache.decode(mSnapshot);
+    }
+}
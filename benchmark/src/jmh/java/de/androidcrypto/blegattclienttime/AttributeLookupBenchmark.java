@@ -0,0 +1,70 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Name lookup of services and characteristics as done for every row of the services list.
+ */
+@State(Scope.Thread)
+public class AttributeLookupBenchmark {
+
+    @Param({"00002a2b-0000-1000-8000-00805f9b34fb", "00001805-0000-1000-8000-00805f9b34fb",
+            "19b10001-e8f2-537e-4f6c-d104768a1214"})
+    public String uuid;
+
+    private UUID mUuid;
+    private HashMap<String, String> mLegacyCharacteristics;
+    private HashMap<String, String> mLegacyServices;
+
+    @Setup
+    public void setUp() {
+        mUuid = UUID.fromString(uuid);
+        mLegacyCharacteristics = LegacyCodecs.attributeMap(false);
+        mLegacyServices = LegacyCodecs.attributeMap(true);
+    }
+
+    /**
+     * UUID.toString() and a String hash lookup, as before.
+     */
+    @Benchmark
+    public String characteristicLegacy() {
+        final String name = mLegacyCharacteristics.get(mUuid.toString());
+        return name == null ? "unknown" : name;
+    }
+
+    @Benchmark
+    public String characteristic() {
+        return AllGattCharacteristics.lookup(mUuid, "unknown");
+    }
+
+    /**
+     * The string adapter that parses the UUID.
+     */
+    @Benchmark
+    public String characteristicByString() {
+        return AllGattCharacteristics.lookup(uuid, "unknown");
+    }
+
+    @Benchmark
+    public String serviceLegacy() {
+        final String name = mLegacyServices.get(mUuid.toString());
+        return name == null ? "unknown" : name;
+    }
+
+    @Benchmark
+    public String service() {
+        return AllGattServices.lookup(mUuid, "unknown");
+    }
+
+    @Benchmark
+    public String descriptor() {
+        return AllGattDescriptors.lookup(mUuid, "unknown");
+    }
+}
@@ -0,0 +1,55 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding and encoding of the Current Time characteristic (0x2A2B).
+ */
+@State(Scope.Thread)
+public class CurrentTimeBenchmark {
+
+    // 16.10.2022 13:47:52, Sunday
+    private final byte[] mValue = {(byte) 0xE6, 0x07, 0x0A, 0x10, 0x0D, 0x2F, 0x34, 0x07, 0x03, 0x00};
+    private final CurrentTime mCurrentTime = new CurrentTime();
+    private final StringBuilder mText = new StringBuilder(32);
+    private long mTimestamp;
+
+    @Setup
+    public void setUp() {
+        mTimestamp = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public String getTimestampFromServiceLegacy() {
+        return LegacyCodecs.getTimestampFromService(mValue);
+    }
+
+    @Benchmark
+    public String getTimestampFromService() {
+        return CurrentTimeService.getTimestampFromService(mValue);
+    }
+
+    /**
+     * The path of the decoders: into a reused holder and StringBuilder.
+     */
+    @Benchmark
+    public int decodeAndAppend() {
+        CurrentTimeService.decode(mValue, mCurrentTime);
+        mText.setLength(0);
+        return mCurrentTime.appendTo(mText).length();
+    }
+
+    @Benchmark
+    public long decodeEpochMillis() {
+        CurrentTimeService.decode(mValue, mCurrentTime);
+        return mCurrentTime.getEpochMillis();
+    }
+
+    @Benchmark
+    public byte[] getExactTime() {
+        return CurrentTimeService.getExactTime(mTimestamp, (byte) 1);
+    }
+}
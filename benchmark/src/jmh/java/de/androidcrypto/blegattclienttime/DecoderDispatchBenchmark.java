@@ -0,0 +1,72 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+
+/**
+ * Decoding a notification from UUID and value to text: the heart rate measurement and the
+ * battery level as the most frequent notifications.
+ */
+@State(Scope.Thread)
+public class DecoderDispatchBenchmark {
+
+    @Param({"00002a37-0000-1000-8000-00805f9b34fb", "00002a19-0000-1000-8000-00805f9b34fb"})
+    public String uuid;
+
+    private UUID mUuid;
+    private byte[] mValue;
+    private final StringBuilder mText = new StringBuilder(64);
+    private final GattDecoderRegistry mRegistry = GattDecoderRegistry.getDefault();
+
+    @Setup
+    public void setUp() {
+        mUuid = UUID.fromString(uuid);
+        // heart rate: UINT8 format, sensor contact, one RR interval; battery level: 85 %
+        mValue = LegacyCodecs.UUID_HEART_RATE_MEASUREMENT.equals(mUuid)
+                ? new byte[]{0x16, 72, 0x55, 0x03} : new byte[]{85};
+    }
+
+    @Benchmark
+    public String legacy() {
+        return LegacyCodecs.decode(mUuid, mValue);
+    }
+
+    @Benchmark
+    public String registry() {
+        final StringBuilder text = new StringBuilder(32);
+        mRegistry.resolve(mUuid).decode(mValue, text);
+        return text.toString();
+    }
+
+    /**
+     * The registry with a reused StringBuilder, the text is not turned into a String.
+     */
+    @Benchmark
+    public int registryReusedBuilder() {
+        mText.setLength(0);
+        mRegistry.resolve(mUuid).decode(mValue, mText);
+        return mText.length();
+    }
+
+    @Benchmark
+    public CharacteristicDecoder resolve() {
+        return mRegistry.resolve(mUuid);
+    }
+
+    @Benchmark
+    public String heartRateLegacy() {
+        return LegacyCodecs.heartRate(mValue);
+    }
+
+    @Benchmark
+    public int heartRate() {
+        mText.setLength(0);
+        CharacteristicDecoders.HEART_RATE_MEASUREMENT.decode(mValue, mText);
+        return mText.length();
+    }
+}
@@ -0,0 +1,58 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * The text for characteristics without decoder, 20 bytes is a notification at the default
+ * MTU, 244 bytes at an MTU of 247.
+ */
+@State(Scope.Thread)
+public class HexRenderingBenchmark {
+
+    @Param({"4", "20", "244"})
+    public int size;
+
+    private byte[] mValue;
+    private final StringBuilder mText = new StringBuilder(1024);
+
+    @Setup
+    public void setUp() {
+        mValue = new byte[size];
+        new Random(42).nextBytes(mValue);
+    }
+
+    @Benchmark
+    public String legacy() {
+        return LegacyCodecs.hexText(mValue);
+    }
+
+    /**
+     * What broadcastUpdate does now: decode into a new StringBuilder and create the String.
+     */
+    @Benchmark
+    public String decoder() {
+        final StringBuilder text = new StringBuilder(32);
+        CharacteristicDecoders.HEX.decode(mValue, text);
+        return text.toString();
+    }
+
+    /**
+     * Rendering into a reused StringBuilder without creating a String.
+     */
+    @Benchmark
+    public int reusedBuilder() {
+        mText.setLength(0);
+        return HexFormatter.appendAsciiAndHex(mValue, mText).length();
+    }
+
+    @Benchmark
+    public String toHex() {
+        return HexFormatter.toHex(mValue);
+    }
+}
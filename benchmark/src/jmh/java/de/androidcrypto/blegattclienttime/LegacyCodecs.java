@@ -0,0 +1,113 @@
+package de.androidcrypto.blegattclienttime;
+
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * The implementations the app used before they were optimized, kept as the baseline of the
+ * benchmarks. The code is copied unchanged apart from the Android logging.
+ */
+final class LegacyCodecs {
+
+    static final UUID UUID_HEART_RATE_MEASUREMENT =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    static final UUID UUID_CURRENT_TIME =
+            UUID.fromString("00002a2b-0000-1000-8000-00805f9b34fb");
+
+    // receives the log messages the legacy code formatted, so they are not optimized away
+    static String sLastLogMessage;
+
+    private LegacyCodecs() {
+    }
+
+    /**
+     * CurrentTimeService.getTimestampFromService with SimpleDateFormat and GregorianCalendar.
+     */
+    static String getTimestampFromService(byte[] data) {
+        byte year1 = data[0];
+        byte year2 = data[1];
+        byte month = data[2];
+        byte day = data[3];
+        byte hours = data[4];
+        byte minutes = data[5];
+        byte seconds = data[6];
+        Timestamp timestamp = makeTimestamp((year2 * 256) + (year1 & 0xFF), month, day, hours, minutes, seconds, 0);
+        final SimpleDateFormat sdf1 = new SimpleDateFormat("dd.MM.yyyy HH:mm");
+        return sdf1.format(timestamp);
+    }
+
+    private static Timestamp makeTimestamp(int year, int month, int day, int hour, int minute,
+                                           int second, int millisecond) {
+        Calendar cal = new GregorianCalendar();
+        cal.set(Calendar.YEAR, year);
+        cal.set(Calendar.MONTH, month - 1);
+        cal.set(Calendar.DATE, day);
+        cal.set(Calendar.HOUR_OF_DAY, hour);
+        cal.set(Calendar.MINUTE, minute);
+        cal.set(Calendar.SECOND, second);
+        cal.set(Calendar.MILLISECOND, millisecond);
+        return new Timestamp(cal.getTimeInMillis());
+    }
+
+    /**
+     * The text BluetoothLeService.broadcastUpdate built for characteristics without decoder.
+     */
+    static String hexText(byte[] data) {
+        final StringBuilder stringBuilder = new StringBuilder(data.length);
+        for (byte byteChar : data)
+            stringBuilder.append(String.format("%02X ", byteChar));
+        return new String(data) + "\n" + stringBuilder.toString();
+    }
+
+    /**
+     * The heart rate branch of BluetoothLeService.broadcastUpdate, the log message was
+     * formatted for every notification.
+     */
+    static String heartRate(byte[] data) {
+        final int flag = data[0];
+        final int heartRate;
+        if ((flag & 0x01) != 0) {
+            heartRate = (data[1] & 0xFF) | (data[2] & 0xFF) << 8;
+        } else {
+            heartRate = data[1] & 0xFF;
+        }
+        // Log.d(TAG, String.format("Received heart rate: %d", heartRate));
+        sLastLogMessage = String.format(Locale.ROOT, "Received heart rate: %d", heartRate);
+        return String.valueOf(heartRate);
+    }
+
+    /**
+     * The UUID comparisons BluetoothLeService.broadcastUpdate used to pick the decoding.
+     */
+    static String decode(UUID characteristic, byte[] data) {
+        if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic)) {
+            return heartRate(data);
+        } else if (UUID_CURRENT_TIME.equals(characteristic)) {
+            return getTimestampFromService(data);
+        }
+        return hexText(data);
+    }
+
+    /**
+     * Rebuilds the HashMap with lower case UUID strings that AllGattCharacteristics and
+     * AllGattServices used, from the names of their current tables.
+     */
+    static HashMap<String, String> attributeMap(boolean services) {
+        final HashMap<String, String> attributes = new HashMap<>();
+        for (int shortId = 0; shortId <= 0xFFFF; shortId++) {
+            final UUID uuid = GattUuids.fromShortId(shortId);
+            final String name = services
+                    ? AllGattServices.lookup(uuid, null)
+                    : AllGattCharacteristics.lookup(uuid, null);
+            if (name != null) {
+                attributes.put(uuid.toString(), name);
+            }
+        }
+        return attributes;
+    }
+}
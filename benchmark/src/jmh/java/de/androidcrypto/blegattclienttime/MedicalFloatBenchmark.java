@@ -0,0 +1,75 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Decoding IEEE 11073 SFLOAT values: a batch of 64 blood pressure records (7 bytes each,
+ * three SFLOATs) with the table of powers of ten and with Math.pow(), and the text of one
+ * measurement.
+ */
+@State(Scope.Thread)
+public class MedicalFloatBenchmark {
+
+    private static final int RECORDS = 64;
+    private static final int RECORD_SIZE = 7;
+
+    private final byte[] mBatch = new byte[RECORDS * RECORD_SIZE];
+    private final double[] mValues = new double[RECORDS];
+    // 120/80 mmHg, MAP 93 mmHg
+    private final byte[] mMeasurement = {0x00, 0x78, 0x00, 0x50, 0x00, 0x5D, 0x00};
+    private final StringBuilder mText = new StringBuilder(64);
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < RECORDS; i++) {
+            for (int field = 0; field < 3; field++) {
+                // mantissa 50..249, exponent -1 or 0
+                final int raw = ((random.nextBoolean() ? 0xF : 0) << 12) | (50 + random.nextInt(200));
+                mBatch[i * RECORD_SIZE + 1 + field * 2] = (byte) raw;
+                mBatch[i * RECORD_SIZE + 2 + field * 2] = (byte) (raw >> 8);
+            }
+        }
+    }
+
+    @Benchmark
+    public double[] batchTable() {
+        // all three fields of every record
+        for (int field = 0; field < 3; field++) {
+            Ieee11073Float.readSfloats(mBatch, 1 + field * 2, RECORD_SIZE, mValues, RECORDS);
+        }
+        return mValues;
+    }
+
+    @Benchmark
+    public double[] batchPow() {
+        for (int field = 0; field < 3; field++) {
+            for (int i = 0; i < RECORDS; i++) {
+                final int offset = i * RECORD_SIZE + 1 + field * 2;
+                final int raw = (mBatch[offset] & 0xFF) | ((mBatch[offset + 1] & 0xFF) << 8);
+                int mantissa = raw & 0x0FFF;
+                if (mantissa >= 0x0800) {
+                    mantissa -= 0x1000;
+                }
+                int exponent = raw >> 12;
+                if (exponent >= 0x8) {
+                    exponent -= 0x10;
+                }
+                mValues[i] = mantissa * Math.pow(10, exponent);
+            }
+        }
+        return mValues;
+    }
+
+    @Benchmark
+    public int bloodPressureText() {
+        mText.setLength(0);
+        CharacteristicDecoders.BLOOD_PRESSURE_MEASUREMENT.decode(mMeasurement, mText);
+        return mText.length();
+    }
+}
@@ -0,0 +1,57 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * A Heart Rate Measurement decoded by the hand written decoder and by the same layout
+ * compiled from a schema, and the compilation of the schema.
+ */
+@State(Scope.Thread)
+public class SchemaDecoderBenchmark {
+
+    private static final String HEART_RATE_SCHEMA = "characteristic 0x2A37 Heart Rate Measurement\n"
+            + "flags u8\n"
+            + "u8 if=!0x01 unit=bpm\n"
+            + "u16 if=0x01 unit=bpm\n"
+            + "text contact if=0x06\n"
+            + "text \"no contact\" if=0x06/0x04\n"
+            + "u16 if=0x08 unit=kJ\n"
+            + "u16 if=0x10 label=RR mul=1000 div=1024 unit=ms repeat\n"
+            + "end\n";
+
+    // 80 bpm, contact, two RR intervals
+    private final byte[] mMeasurement = {0x16, 80, 0x00, 0x03, 0x20, 0x03};
+    private final StringBuilder mText = new StringBuilder(64);
+    private CharacteristicSchema mSchema;
+
+    @Setup
+    public void setUp() throws IOException {
+        mSchema = compile().get(0);
+    }
+
+    @Benchmark
+    public int handWritten() {
+        mText.setLength(0);
+        CharacteristicDecoders.HEART_RATE_MEASUREMENT.decode(mMeasurement, mText);
+        return mText.length();
+    }
+
+    @Benchmark
+    public int schema() {
+        mText.setLength(0);
+        mSchema.decode(mMeasurement, mText);
+        return mText.length();
+    }
+
+    @Benchmark
+    public List<CharacteristicSchema> compile() throws IOException {
+        return GattSchemaCompiler.compile(new StringReader(HEART_RATE_SCHEMA));
+    }
+}
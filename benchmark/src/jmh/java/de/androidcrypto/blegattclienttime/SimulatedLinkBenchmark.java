@@ -0,0 +1,67 @@
+package de.androidcrypto.blegattclienttime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes through the whole client, the operation queue, the transport callback and
+ * the event dispatch, against a {@link SimulatedPeripheral} without link latency. The times
+ * are the overhead of the client and the thread hand-overs of one GATT round trip.
+ */
+@State(Scope.Benchmark)
+public class SimulatedLinkBenchmark {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:01";
+
+    private SimulatedPeripheral mPeripheral;
+    private GattClient mClient;
+
+    @Setup
+    public void setUp() throws Exception {
+        mPeripheral = new SimulatedPeripheral(ADDRESS, new SimulatedPeripheral.Config()
+                .setLatency(0, TimeUnit.NANOSECONDS)
+                .setJitter(0, TimeUnit.NANOSECONDS));
+        mClient = new GattClient(GattClock.SYSTEM, SimulatedPeripheral.factory(mPeripheral));
+        final CountDownLatch discovered = new CountDownLatch(1);
+        mClient.registerListener(new GattEventListener() {
+            @Override
+            public void onServicesDiscovered(String address, int status) {
+                discovered.countDown();
+            }
+        });
+        if (!mClient.connect(ADDRESS) || !discovered.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("the simulated peripheral did not connect");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mClient.shutdown();
+        mPeripheral.shutdown();
+    }
+
+    @Benchmark
+    public byte[] readBatteryLevel() throws Exception {
+        return mClient.readCharacteristic(ADDRESS, SimulatedPeripheral.BATTERY_SERVICE,
+                SimulatedPeripheral.BATTERY_LEVEL).get();
+    }
+
+    @Benchmark
+    public ClockEstimate readClockOffset() throws Exception {
+        return mClient.readClockOffset(ADDRESS, FleetTimeSync.OFFSET_READS).get();
+    }
+
+    @Benchmark
+    public Void writeCurrentTime() throws Exception {
+        final byte[] value = CurrentTimeService.getExactTime(System.currentTimeMillis(),
+                (byte) 0x01);
+        return mClient.writeCharacteristic(ADDRESS, SimulatedPeripheral.CURRENT_TIME_SERVICE,
+                SimulatedPeripheral.CURRENT_TIME, value, GattTransport.WRITE_TYPE_DEFAULT).get();
+    }
+}